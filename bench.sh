@@ -0,0 +1,26 @@
+#!/bin/sh
+# Builds the app and the bench module, then runs a benchmark headless.
+#
+#   ./bench.sh paths [--utf8] [--runs n] [sizeInMB ...]   open/save/edit/export timings
+#   ./bench.sh check [--update] [--threshold percent]      fail if a metric regressed
+#   ./bench.sh <BenchmarkClass> [args]                     any other benchmark in bench/src
+#
+# check compares against out/bench/baseline.properties: record it with
+# --update on the build to compare against, then run check on the new one.
+# Large sizes need a larger heap, e.g. JAVA_OPTS=-Xmx4g ./bench.sh paths 1024
+set -e
+cd "$(dirname "$0")"
+OUT=out/bench
+
+case "$1" in
+    paths) MAIN=PathBenchmark ;;
+    check) MAIN=PerfRegression ;;
+    "") echo "usage: $0 paths|check|<BenchmarkClass> [args]" >&2; exit 2 ;;
+    *) MAIN=$1 ;;
+esac
+shift
+
+rm -rf "$OUT/classes"
+mkdir -p "$OUT/classes"
+javac -d "$OUT/classes" src/*.java bench/src/*.java
+exec java $JAVA_OPTS -Djava.awt.headless=true -cp "$OUT/classes" "$MAIN" "$@"
@@ -0,0 +1,122 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the piece-table document against Swing's default gap buffer.
+ *
+ * Usage: java ContentBenchmark [sizeInMB] [edits]
+ *
+ * Generates an ASCII file of the given size (128 MB by default), then for
+ * both content models measures the time and heap needed to open it, the cost
+ * of edits at random offsets and a full sequential read through getText.
+ */
+public class ContentBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        Path file = Files.createTempFile("content-benchmark", ".txt");
+        try {
+            generate(file, sizeMb * 1024L * 1024L);
+            System.out.printf("File: %d MB, %d random edits%n%n", sizeMb, edits);
+            System.out.printf("%-12s %12s %12s %14s %12s%n", "content", "open ms", "heap MB", "edits us/op", "scan ms");
+
+            run("GapContent", file, edits, false);
+            run("PieceTable", file, edits, true);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String name, Path file, int edits, boolean pieceTable) throws Exception {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        Document document = pieceTable ? openPieceTable(file) : openGapContent(file);
+        long openNanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            int offset = random.nextInt(document.getLength());
+            if (i % 2 == 0) {
+                document.insertString(offset, "edit\n", null);
+            } else {
+                document.remove(offset, Math.min(5, document.getLength() - offset));
+            }
+        }
+        long editNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long checksum = scan(document);
+        long scanNanos = System.nanoTime() - start;
+
+        System.out.printf("%-12s %12d %12d %14.1f %12d   (checksum %d)%n", name, openNanos / 1000000,
+                heap / (1024 * 1024), editNanos / 1000.0 / edits, scanNanos / 1000000, checksum);
+    }
+
+    // The path NotesApp used before the piece table: read everything, decode, insert
+    private static Document openGapContent(Path file) throws IOException, BadLocationException {
+        PlainDocument document = new PlainDocument();
+        document.insertString(0, new String(Files.readAllBytes(file), StandardCharsets.US_ASCII), null);
+        return document;
+    }
+
+    private static Document openPieceTable(Path file) throws IOException {
+        return new NotesDocument(ByteCharSequence.map(file.toFile()));
+    }
+
+    private static long scan(Document document) throws BadLocationException {
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        long checksum = 0;
+        int offset = 0;
+        int length = document.getLength();
+        while (offset < length) {
+            document.getText(offset, Math.min(64 * 1024, length - offset), segment);
+            for (int i = segment.offset, end = segment.offset + segment.count; i < end; i++) {
+                checksum += segment.array[i];
+            }
+            offset += segment.count;
+        }
+        return checksum;
+    }
+
+    private static void generate(Path file, long size) throws IOException {
+        Random random = new Random(7);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII), 1 << 16)) {
+            long written = 0;
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                int words = 4 + random.nextInt(12);
+                for (int w = 0; w < words; w++) {
+                    int letters = 2 + random.nextInt(8);
+                    for (int c = 0; c < letters; c++) {
+                        line.append((char) ('a' + random.nextInt(26)));
+                    }
+                    line.append(' ');
+                }
+                line.append('\n');
+                writer.write(line.toString());
+                written += line.length();
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
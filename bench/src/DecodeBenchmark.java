@@ -0,0 +1,98 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares opening a UTF-8 note the old way, reading every byte and decoding
+ * it in one pass with new String, against TextFileLoader's detection and
+ * parallel chunked decoding. Both end with the text in a NotesDocument.
+ *
+ * Usage: java DecodeBenchmark [sizeInMB] [runs]
+ *
+ * Generates a UTF-8 file of the given size (256 MB by default) that is
+ * mostly ASCII with accented and CJK words mixed in, then reports the median
+ * time and throughput of each path over the given number of runs, after one
+ * warm-up run each.
+ */
+public class DecodeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("decode-benchmark", ".txt");
+        try {
+            generate(file, sizeMb * 1024L * 1024L);
+            System.out.printf("File: %d MB of UTF-8, median of %d runs, %d cores%n%n", sizeMb, runs,
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("%-28s %10s %10s %14s%n", "path", "ms", "MB/s", "chars");
+
+            run("new String (single pass)", file, runs, false);
+            run("TextFileLoader.read", file, runs, true);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String name, Path file, int runs, boolean parallel) throws Exception {
+        long[] nanos = new long[runs];
+        long chars = 0;
+        for (int i = -1; i < runs; i++) {
+            long start = System.nanoTime();
+            chars = parallel ? TextFileLoader.read(file.toFile(), null).getLength()
+                    : new NotesDocument(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).getLength();
+            if (i >= 0) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        long median = nanos[runs / 2];
+        System.out.printf("%-28s %10d %10.0f %14d%n", name, median / 1000000,
+                Files.size(file) / (1024.0 * 1024.0) / (median / 1e9), chars);
+    }
+
+    private static void generate(Path file, long size) throws IOException {
+        Random random = new Random(7);
+        String[] words = { "caf\u00e9", "na\u00efve", "\u00fcber", "\u65e5\u672c\u8a9e", "\u0434\u0430",
+                "r\u00e9sum\u00e9", "\ud83d\ude00" };
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+             CountingWriter counted = new CountingWriter(writer)) {
+            StringBuilder line = new StringBuilder();
+            while (counted.bytes < size) {
+                line.setLength(0);
+                int count = 4 + random.nextInt(12);
+                for (int w = 0; w < count; w++) {
+                    if (random.nextInt(10) == 0) {
+                        line.append(words[random.nextInt(words.length)]);
+                    } else {
+                        int letters = 2 + random.nextInt(8);
+                        for (int c = 0; c < letters; c++) {
+                            line.append((char) ('a' + random.nextInt(26)));
+                        }
+                    }
+                    line.append(' ');
+                }
+                line.append('\n');
+                counted.write(line.toString());
+            }
+        }
+    }
+
+    // Keeps a rough count of the UTF-8 bytes written, to stop at the requested size
+    private static final class CountingWriter extends FilterWriter {
+        long bytes;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(String text) throws IOException {
+            out.write(text);
+            bytes += text.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import java.awt.Font;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the paths a user waits on, open, save, editing and PDF export, over
+ * generated notes of each given size.
+ *
+ * Usage: java -Djava.awt.headless=true PathBenchmark [--utf8] [--runs n] [sizeInMB ...]
+ *
+ * Sizes default to 1, 16 and 256 MB; 1024 works too given enough heap for
+ * the paths that hold the whole text as a String. The notes are plain ASCII,
+ * or mostly ASCII with accented and CJK words mixed in with --utf8. Each
+ * number is the median of the given runs (5 by default) after one warm-up
+ * run, the way JMH would report a single-shot benchmark. A path that runs out
+ * of heap is reported as such instead of ending the run.
+ */
+public class PathBenchmark {
+    static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    // One timed run
+    abstract static class Task {
+        // Untimed preparation before each run, like a JMH setup at invocation level
+        void setUp() throws Exception {
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean utf8 = false;
+        int runs = 5;
+        int[] sizes = new int[args.length];
+        int count = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--utf8")) {
+                utf8 = true;
+            } else if (args[i].equals("--runs")) {
+                runs = Integer.parseInt(args[++i]);
+            } else {
+                sizes[count++] = Integer.parseInt(args[i]);
+            }
+        }
+        sizes = count > 0 ? Arrays.copyOf(sizes, count) : new int[] { 1, 16, 256 };
+
+        System.out.printf("%s notes, median of %d runs, %d cores, %d MB max heap%n", utf8 ? "UTF-8" : "ASCII", runs,
+                Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        for (int size : sizes) {
+            Path dir = Files.createTempDirectory("path-benchmark");
+            Path note = dir.resolve("note.txt");
+            try {
+                generate(note, size * 1024L * 1024L, utf8);
+                System.out.printf("%n%d MB%n%-34s %10s %10s%n", size, "path", "ms", "MB/s");
+                runSize(note, runs);
+            } finally {
+                for (File file : dir.toFile().listFiles()) {
+                    Files.delete(file.toPath());
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    private static void runSize(final Path note, int runs) throws Exception {
+        final double mb = Files.size(note) / (1024.0 * 1024.0);
+        report("open: readAllBytes + setText", mb, runs, new Task() {
+            @Override
+            void run() throws Exception {
+                // What NotesApp did before the piece table
+                JTextArea area = new JTextArea();
+                area.setText(new String(Files.readAllBytes(note), StandardCharsets.UTF_8));
+            }
+        });
+        report("open: readAllBytes + NotesDocument", mb, runs, new Task() {
+            @Override
+            void run() throws Exception {
+                new NotesDocument(new String(Files.readAllBytes(note), StandardCharsets.UTF_8));
+            }
+        });
+        report("open: TextFileLoader.read", mb, runs, openTask(note));
+
+        NotesDocument document = TextFileLoader.read(note.toFile(), null);
+        final Path copy = note.resolveSibling("copy.txt");
+        report("save: unchanged, UTF-8", mb, runs, saveTask(document, copy, TextEncoding.DEFAULT));
+        edit(document, 10000);
+        report("save: 10000 edits, UTF-8", mb, runs, saveTask(document, copy, TextEncoding.DEFAULT));
+        report("save: 10000 edits, UTF-16LE", mb, runs,
+                saveTask(document, copy, new TextEncoding(StandardCharsets.UTF_16LE, false)));
+        report("save: 10000 edits, .notez", mb, runs,
+                saveTask(document, note.resolveSibling("copy.notez"), TextEncoding.DEFAULT));
+        report("export: PDF", mb, runs, exportTask(document, note.resolveSibling("copy.pdf")));
+
+        long nanos = median(runs, editTask(note, 10000));
+        System.out.printf("%-34s %10.2f %10s   (us per insert or remove)%n", "edit: random insert/remove",
+                nanos / 1000.0 / 10000, "");
+    }
+
+    static Task openTask(final Path note) {
+        return new Task() {
+            @Override
+            void run() throws Exception {
+                TextFileLoader.read(note.toFile(), null);
+            }
+        };
+    }
+
+    static Task saveTask(NotesDocument document, final Path target, final TextEncoding encoding) {
+        final PieceTableContent.Snapshot snapshot = document.getPieceTable().snapshot();
+        return new Task() {
+            @Override
+            void run() throws Exception {
+                DocumentSaver.write(snapshot, target, encoding, null);
+            }
+        };
+    }
+
+    static Task exportTask(NotesDocument document, final Path target) {
+        final PieceTableContent.Snapshot snapshot = document.getPieceTable().snapshot();
+        return new Task() {
+            @Override
+            void run() throws Exception {
+                PdfExporter.write(snapshot, target, FONT, null);
+            }
+        };
+    }
+
+    // Opens the note untimed, then times the given number of edits at random offsets
+    static Task editTask(final Path note, final int edits) {
+        return new Task() {
+            private NotesDocument document;
+
+            @Override
+            void setUp() throws Exception {
+                document = null;
+                document = TextFileLoader.read(note.toFile(), null);
+            }
+
+            @Override
+            void run() throws Exception {
+                edit(document, edits);
+            }
+        };
+    }
+
+    static void edit(NotesDocument document, int edits) throws BadLocationException {
+        Random random = new Random(42);
+        for (int i = 0; i < edits; i++) {
+            int offset = random.nextInt(document.getLength());
+            if (i % 2 == 0) {
+                document.insertString(offset, "edit\n", null);
+            } else {
+                document.remove(offset, Math.min(5, document.getLength() - offset));
+            }
+        }
+    }
+
+    // Median time of the given runs in nanoseconds, after one warm-up run
+    static long median(int runs, Task task) throws Exception {
+        long[] nanos = new long[runs];
+        for (int i = -1; i < runs; i++) {
+            task.setUp();
+            long start = System.nanoTime();
+            task.run();
+            if (i >= 0) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos[runs / 2];
+    }
+
+    private static void report(String name, double mb, int runs, Task task) throws Exception {
+        try {
+            long nanos = median(runs, task);
+            System.out.printf("%-34s %10d %10.0f%n", name, nanos / 1000000, mb / (nanos / 1e9));
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-34s %10s%n", name, "out of heap");
+        }
+    }
+
+    static void generate(Path file, long size, boolean utf8) throws IOException {
+        Random random = new Random(7);
+        String[] words = { "caf\u00e9", "na\u00efve", "\u00fcber", "\u65e5\u672c\u8a9e", "r\u00e9sum\u00e9" };
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            long written = 0;
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                int count = 4 + random.nextInt(12);
+                for (int w = 0; w < count; w++) {
+                    if (utf8 && random.nextInt(20) == 0) {
+                        line.append(words[random.nextInt(words.length)]);
+                    } else {
+                        int letters = 2 + random.nextInt(8);
+                        for (int c = 0; c < letters; c++) {
+                            line.append((char) ('a' + random.nextInt(26)));
+                        }
+                    }
+                    line.append(' ');
+                }
+                line.append('\n');
+                writer.write(line.toString());
+                written += line.toString().getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+    }
+}
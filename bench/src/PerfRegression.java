@@ -0,0 +1,216 @@
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Headless performance check that fails when a tracked metric got slower
+ * than its baseline by more than the threshold.
+ *
+ * Usage: java -Djava.awt.headless=true PerfRegression [--update] [--threshold percent]
+ *                                                      [--size sizeInMB] [--baseline file]
+ *
+ * Measures opening, saving, editing and exporting a generated note (32 MB by
+ * default) with PathBenchmark's tasks, plus the p99 time from a keystroke to
+ * the editor having painted it and the time to compare two notes of a million
+ * lines drawn from only four distinct ones. --update records the results as the new
+ * baseline (out/bench/baseline.properties by default), so the usual flow is
+ * to record on the old build and check on the new one, on the same machine.
+ * Exits with status 1 if any metric is more than the threshold (25% by
+ * default) above its baseline, and 2 if there is no baseline yet.
+ */
+public class PerfRegression {
+    private static final int RUNS = 5;
+    private static final int EDITS = 10000;
+    private static final int KEYSTROKES = 2000;
+    private static final int DIFF_LINES = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        boolean update = false;
+        double threshold = 25;
+        int sizeMb = 32;
+        Path baseline = Paths.get("out", "bench", "baseline.properties");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--update")) {
+                update = true;
+            } else if (args[i].equals("--threshold")) {
+                threshold = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--size")) {
+                sizeMb = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--baseline")) {
+                baseline = Paths.get(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Map<String, Double> current = measure(sizeMb);
+        if (update) {
+            save(baseline, current, sizeMb);
+            System.out.println("Baseline written to " + baseline);
+            return;
+        }
+        if (!Files.exists(baseline)) {
+            System.err.println("No baseline at " + baseline + "; record one with --update first");
+            System.exit(2);
+        }
+        Properties expected = new Properties();
+        try (InputStream in = Files.newInputStream(baseline)) {
+            expected.load(in);
+        }
+        if (!String.valueOf(sizeMb).equals(expected.getProperty("sizeMB"))) {
+            System.err.println("Baseline was recorded for " + expected.getProperty("sizeMB") + " MB, not " + sizeMb);
+            System.exit(2);
+        }
+
+        int regressions = 0;
+        System.out.printf("%n%-22s %12s %12s %9s%n", "metric", "baseline", "current", "change");
+        for (Map.Entry<String, Double> metric : current.entrySet()) {
+            String recorded = expected.getProperty(metric.getKey());
+            if (recorded == null) {
+                System.out.printf("%-22s %12s %12.2f %9s%n", metric.getKey(), "-", metric.getValue(), "new");
+                continue;
+            }
+            double before = Double.parseDouble(recorded);
+            double change = before > 0 ? (metric.getValue() - before) * 100 / before : 0;
+            boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-22s %12.2f %12.2f %+8.1f%%%s%n", metric.getKey(), before, metric.getValue(), change,
+                    regressed ? "  REGRESSED" : "");
+        }
+        if (regressions > 0) {
+            System.out.printf("%n%d of %d metrics regressed by more than %.0f%%%n", regressions, current.size(),
+                    threshold);
+            System.exit(1);
+        }
+        System.out.printf("%nNo metric regressed by more than %.0f%%%n", threshold);
+    }
+
+    // Every metric is a time in milliseconds, or microseconds where the name says so; lower is better
+    private static Map<String, Double> measure(int sizeMb) throws Exception {
+        Map<String, Double> results = new LinkedHashMap<String, Double>();
+        Path dir = Files.createTempDirectory("perf-regression");
+        Path note = dir.resolve("note.txt");
+        try {
+            PathBenchmark.generate(note, sizeMb * 1024L * 1024L, true);
+            System.out.printf("Measuring a %d MB note, median of %d runs%n", sizeMb, RUNS);
+
+            results.put("open.ms", millis(PathBenchmark.openTask(note)));
+            NotesDocument document = TextFileLoader.read(note.toFile(), null);
+            PathBenchmark.edit(document, EDITS);
+            results.put("save.ms", millis(PathBenchmark.saveTask(document, dir.resolve("copy.txt"),
+                    TextEncoding.DEFAULT)));
+            results.put("save.notez.ms", millis(PathBenchmark.saveTask(document, dir.resolve("copy.notez"),
+                    TextEncoding.DEFAULT)));
+            results.put("export.ms", millis(PathBenchmark.exportTask(document, dir.resolve("copy.pdf"))));
+            results.put("edit.us", PathBenchmark.median(RUNS, PathBenchmark.editTask(note, EDITS)) / 1000.0 / EDITS);
+            final NotesDocument typed = document;
+            final LatencyHistogram keyToPaint = new LatencyHistogram();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    typing(typed, keyToPaint);
+                }
+            });
+            results.put("keyToPaint.p99.us", (double) keyToPaint.getValueAtPercentile(99));
+            results.put("diff.lowEntropy.ms", millis(diffTask(DIFF_LINES)));
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir);
+        }
+        return results;
+    }
+
+    private static double millis(PathBenchmark.Task task) throws Exception {
+        return PathBenchmark.median(RUNS, task) / 1e6;
+    }
+
+    /**
+     * Compares two texts of random lines from a set of four, where every line
+     * has matches all over the other text: the slowest case for the diff's
+     * search.
+     */
+    private static PathBenchmark.Task diffTask(int lines) {
+        final NotesDocument oldDocument = lowEntropy(lines, 1);
+        final NotesDocument newDocument = lowEntropy(lines, 2);
+        return new PathBenchmark.Task() {
+            @Override
+            void run() {
+                LineDiff.compare(oldDocument, newDocument);
+            }
+        };
+    }
+
+    private static NotesDocument lowEntropy(int lines, long seed) {
+        String[] words = { "alpha", "beta", "gamma", "delta" };
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(words[random.nextInt(words.length)]).append('\n');
+        }
+        return new NotesDocument(text);
+    }
+
+    /**
+     * Types characters at random lines of the document and paints the editor
+     * into an image after each, the way the event thread handles a keystroke
+     * followed by its repaint.
+     */
+    private static void typing(NotesDocument document, LatencyHistogram histogram) {
+        NotesTextArea area = new NotesTextArea(document);
+        area.setFont(PathBenchmark.FONT);
+        JScrollPane scroll = new JScrollPane(area);
+        scroll.setSize(1000, 700);
+        scroll.doLayout();
+        scroll.getViewport().doLayout();
+        BufferedImage image = new BufferedImage(1000, 700, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(3);
+        int lines = document.getDefaultRootElement().getElementCount();
+        for (int i = -KEYSTROKES / 10; i < KEYSTROKES; i++) {
+            // Jump somewhere new now and then, otherwise keep typing on the same screen
+            if (i % 50 == 0) {
+                int line = random.nextInt(lines);
+                area.setCaretPosition(document.getDefaultRootElement().getElement(line).getStartOffset());
+                int lineHeight = area.getFontMetrics(area.getFont()).getHeight();
+                scroll.getViewport().setViewPosition(new Point(0, line * lineHeight));
+            }
+            long start = System.nanoTime();
+            area.replaceSelection("x");
+            Graphics2D g = image.createGraphics();
+            scroll.paint(g);
+            g.dispose();
+            // The first tenth warms up the paint path and is not recorded
+            if (i >= 0) {
+                histogram.recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void save(Path baseline, Map<String, Double> results, int sizeMb) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("sizeMB", String.valueOf(sizeMb));
+        for (Map.Entry<String, Double> metric : results.entrySet()) {
+            properties.setProperty(metric.getKey(), String.format(Locale.ROOT, "%.3f", metric.getValue()));
+        }
+        Path parent = baseline.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        try (OutputStream out = Files.newOutputStream(baseline)) {
+            properties.store(out, "PerfRegression baseline, " + System.getProperty("java.version"));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+#!/bin/sh
+# Builds the app into a jar together with an AppCDS archive of the classes it
+# loads while starting up. Launches that use the archive map those classes
+# instead of loading and verifying them again.
+#
+#   ./build-cds.sh              build out/cds/notes.jar and out/cds/notes.jsa
+#   ./build-cds.sh run [file]   start the app with the archive
+#
+# The training run opens the window for a moment, so it needs a display (use
+# xvfb-run on a headless machine). Needs JDK 13 or later.
+set -e
+cd "$(dirname "$0")"
+OUT=out/cds
+
+if [ "$1" = "run" ]; then
+    shift
+    exec java -XX:SharedArchiveFile="$OUT/notes.jsa" -Xshare:auto -jar "$OUT/notes.jar" "$@"
+fi
+
+rm -rf "$OUT"
+mkdir -p "$OUT/classes"
+javac -d "$OUT/classes" src/*.java
+# CDS only archives application classes loaded from jars, not from directories
+jar --create --file "$OUT/notes.jar" --main-class NotesApp -C "$OUT/classes" .
+java -XX:ArchiveClassesAtExit="$OUT/notes.jsa" -Dnotes.cds.training=true -jar "$OUT/notes.jar"
+echo "Created $OUT/notes.jsa; start the app with: $0 run"
@@ -0,0 +1,21 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Location of the files the app keeps for itself (journals, caches and the
+ * like), under .notesapp in the user's home directory.
+ */
+public final class AppData {
+
+    private AppData() {
+    }
+
+    // Returns the named subdirectory, creating it on first use
+    public static Path dir(String name) throws IOException {
+        Path dir = Paths.get(System.getProperty("user.home"), ".notesapp", name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+}
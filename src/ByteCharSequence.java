@@ -0,0 +1,220 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Read-only character view over a byte buffer holding single-byte text.
+ *
+ * Each byte maps to the character with the same value (ISO-8859-1), which is
+ * also correct for pure ASCII files in any ASCII-compatible charset. Used as
+ * the original buffer of a piece table so a memory-mapped file can be edited
+ * without copying it onto the heap.
+ *
+ * A mapping shows the file as it is now, not as it was opened: another
+ * program writing to the file changes the text under the document, and
+ * truncating it makes the pages past the new end fault, which the JVM
+ * reports as an InternalError. So the mapping remembers the file's identity,
+ * size and time, isChanged tells whether it was modified in place since, and
+ * a fault the JVM raises inside an access here is rethrown as an
+ * UncheckedIOException saying the file changed. Saving is safe on its own:
+ * it renames a new file over the path, which leaves the mapped one as it
+ * was. Windows refuses that rename while the file is mapped, so there, or
+ * with -Dnotes.mapFiles=false, the bytes are read onto the heap instead,
+ * still at one byte per character.
+ *
+ * Documents address their text with int offsets, so files of 2 GB or more
+ * cannot be opened at all; MAX_SIZE is the largest that can.
+ */
+public class ByteCharSequence implements CharSequence {
+    private static final boolean MAP_FILES = Boolean.parseBoolean(System.getProperty("notes.mapFiles",
+            String.valueOf(!System.getProperty("os.name", "").startsWith("Windows"))));
+
+    public static final long MAX_SIZE = Integer.MAX_VALUE - 1;
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+    // What the mapped file was when mapped; null for bytes on the heap
+    private final Mapping mapping;
+
+    public ByteCharSequence(ByteBuffer buffer) {
+        this(buffer, 0, buffer.limit(), null);
+    }
+
+    private ByteCharSequence(ByteBuffer buffer, int offset, int length, Mapping mapping) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Maps the whole file read-only, or reads it where mapping is off; the
+     * mapping stays valid after the channel is closed.
+     */
+    public static ByteCharSequence map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException(tooLargeMessage(file, size));
+            }
+            if (!MAP_FILES) {
+                ByteBuffer bytes = ByteBuffer.allocate((int) size);
+                // Until full, or until the end if the file got shorter meanwhile
+                int n = 0;
+                while (bytes.hasRemaining() && n >= 0) {
+                    n = channel.read(bytes);
+                }
+                bytes.flip();
+                return new ByteCharSequence(bytes);
+            }
+            Mapping mapping = new Mapping(file, attributes.fileKey(), size, attributes.lastModifiedTime().toMillis());
+            return new ByteCharSequence(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int) size, mapping);
+        }
+    }
+
+    // Why a file over MAX_SIZE cannot be opened, in words for the user
+    public static String tooLargeMessage(File file, long size) {
+        return String.format("%s is %.1f GB. Files of 2 GB or more are too large to open.", file.getName(),
+                size / (1024.0 * 1024.0 * 1024.0));
+    }
+
+    /**
+     * True if the mapped file was written to or cut short since it was
+     * mapped, so the text may differ from what was opened or fail to read.
+     * A different file now at the same path, as after saving, leaves the
+     * mapped one unchanged.
+     */
+    public boolean isChanged() {
+        if (mapping == null) {
+            return false;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(mapping.file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Deleted or renamed away; the mapped file lives on unchanged
+            return false;
+        }
+        if (mapping.fileKey != null && !Objects.equals(mapping.fileKey, attributes.fileKey())) {
+            return false;
+        }
+        return attributes.size() != mapping.size || attributes.lastModifiedTime().toMillis() != mapping.modified;
+    }
+
+    // A fault on a mapped page means the file was cut short under the mapping
+    private UncheckedIOException changed(InternalError e) {
+        String name = mapping != null ? mapping.file.getName() : "The file";
+        IOException cause = new IOException(name + " was changed by another program while it was open");
+        cause.initCause(e);
+        return new UncheckedIOException(cause.getMessage(), cause);
+    }
+
+    // Pure ASCII bytes decode to the same characters in these charsets, and back
+    public static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    // Returns the index of the first byte in [from, to) outside the ASCII range, or -1 if there is none
+    public int indexOfNonAscii(int from, int to) {
+        try {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(offset + i) < 0) {
+                    return i;
+                }
+            }
+        } catch (InternalError e) {
+            throw changed(e);
+        }
+        return -1;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        try {
+            return (char) (buffer.get(offset + index) & 0xff);
+        } catch (InternalError e) {
+            throw changed(e);
+        }
+    }
+
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("range [" + srcBegin + ", " + srcEnd + "), length " + length);
+        }
+        try {
+            for (int i = srcBegin; i < srcEnd; i++) {
+                dst[dstBegin++] = (char) (buffer.get(offset + i) & 0xff);
+            }
+        } catch (InternalError e) {
+            throw changed(e);
+        }
+    }
+
+    // The raw bytes behind [start, end), for copying unchanged text without decoding it
+    public ByteBuffer getBytes(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+        }
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(offset + end);
+        view.position(offset + start);
+        return view;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+        }
+        return new ByteCharSequence(buffer, offset + start, end - start, mapping);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        try {
+            view.get(bytes);
+        } catch (InternalError e) {
+            throw changed(e);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class Mapping {
+        final File file;
+        final Object fileKey;
+        final long size;
+        final long modified;
+
+        Mapping(File file, Object fileKey, long size, long modified) {
+            this.file = file;
+            this.fileKey = fileKey;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Text of a compressed note, a ".notez" file, read a chunk at a time.
+ *
+ * The file holds the text as chunks of up to 64K characters, each UTF-8
+ * encoded and deflated on its own, followed by a deflated index of the chunk
+ * sizes and the positions of the newlines in each. Opening the file maps it
+ * and reads the index only: the line index comes from the stored newlines,
+ * and a chunk is inflated the first time a character in it is asked for, so
+ * the editor only ever decompresses what is on screen. The last few chunks
+ * read are cached.
+ *
+ * Writing goes piece by piece as DocumentSaver does. Chunks the text still
+ * contains unchanged, because they lie inside an unedited piece of a
+ * container it was opened from, are copied over still compressed; only the
+ * edited stretches are compressed again, in parallel on the common pool.
+ */
+public class ChunkedText implements CharSequence {
+    public static final String EXTENSION = ".notez";
+
+    private static final int CHUNK_CHARS = 64 * 1024;
+    private static final int MAGIC = 0x4e545a31; // "NTZ1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 16;
+    private static final int CACHE_CHUNKS = 32;
+
+    private final ByteBuffer mapped;
+    private final int length;
+    // Per chunk; chunkStart has the text length as a last entry
+    private final int[] chunkStart;
+    private final int[] chunkOffset;
+    private final int[] chunkBytes;
+    private final int[] chunkEncoded;
+    // Start of every line; the newlines of chunk c end lines chunkLines[c] to chunkLines[c + 1] - 1
+    private final int[] lineStarts;
+    private final int[] chunkLines;
+
+    // Guarded by this
+    private final Loaded[] cache = new Loaded[CACHE_CHUNKS];
+    private int nextSlot;
+    // Lets sequential reads skip the lock
+    private volatile Loaded last;
+
+    private ChunkedText(ByteBuffer mapped, int[] chunkStart, int[] chunkOffset, int[] chunkBytes,
+                        int[] chunkEncoded, int[] lineStarts, int[] chunkLines) {
+        this.mapped = mapped;
+        this.chunkStart = chunkStart;
+        this.chunkOffset = chunkOffset;
+        this.chunkBytes = chunkBytes;
+        this.chunkEncoded = chunkEncoded;
+        this.lineStarts = lineStarts;
+        this.chunkLines = chunkLines;
+        this.length = chunkStart[chunkStart.length - 1];
+    }
+
+    public static boolean isContainer(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    // Maps the file and reads its index; the mapping stays valid after the channel is closed
+    public static ChunkedText open(File file) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > ByteCharSequence.MAX_SIZE) {
+                throw new IOException(ByteCharSequence.tooLargeMessage(file, size));
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (mapped.limit() < HEADER_SIZE + TRAILER_SIZE || mapped.getInt(0) != MAGIC
+                || mapped.getInt(mapped.limit() - 4) != MAGIC) {
+            throw new IOException(file.getName() + " is not a compressed note");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException(file.getName() + " was written by a newer version");
+        }
+        long indexOffset = mapped.getLong(mapped.limit() - TRAILER_SIZE);
+        int indexLength = mapped.getInt(mapped.limit() - TRAILER_SIZE + 8);
+        if (indexOffset < HEADER_SIZE || indexOffset + indexLength > mapped.limit() - TRAILER_SIZE) {
+            throw new IOException(file.getName() + " has a damaged index");
+        }
+        ByteBuffer index = ByteBuffer.wrap(inflate(slice(mapped, (int) indexOffset, indexLength), -1));
+
+        int count = readVarint(index);
+        int[] chunkStart = new int[count + 1];
+        int[] chunkOffset = new int[count];
+        int[] chunkBytes = new int[count];
+        int[] chunkEncoded = new int[count];
+        int[] chunkLines = new int[count + 1];
+        int[] lineStarts = new int[64];
+        int lines = 1;
+        int offset = HEADER_SIZE;
+        for (int c = 0; c < count; c++) {
+            int chars = readVarint(index);
+            chunkStart[c + 1] = chunkStart[c] + chars;
+            chunkOffset[c] = offset;
+            chunkBytes[c] = readVarint(index);
+            chunkEncoded[c] = readVarint(index);
+            offset += chunkBytes[c];
+            chunkLines[c] = lines;
+            int newlines = readVarint(index);
+            if (lines + newlines > lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, Math.max(lineStarts.length * 2, lines + newlines));
+            }
+            int pos = chunkStart[c];
+            for (int i = 0; i < newlines; i++) {
+                pos += readVarint(index);
+                lineStarts[lines++] = pos + 1;
+            }
+        }
+        chunkLines[count] = lines;
+        if (offset > indexOffset) {
+            throw new IOException(file.getName() + " has a damaged index");
+        }
+        return new ChunkedText(mapped, chunkStart, chunkOffset, chunkBytes, chunkEncoded,
+                Arrays.copyOf(lineStarts, lines), chunkLines);
+    }
+
+    // A line index from the stored newlines, without reading any text
+    public LineIndex buildLineIndex() {
+        return LineIndex.fromStarts(lineStarts, length);
+    }
+
+    // Rough bytes of heap: the line table and the cached chunks
+    public long getHeapSize() {
+        long size = 4L * lineStarts.length + 20L * chunkOffset.length;
+        synchronized (this) {
+            for (Loaded loaded : cache) {
+                size += loaded != null ? 2L * loaded.chars.length : 0;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        Loaded loaded = last;
+        if (loaded == null || index < loaded.start || index >= loaded.start + loaded.chars.length) {
+            loaded = load(chunkOf(index));
+        }
+        return loaded.chars[index - loaded.start];
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstPos) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+        }
+        int pos = start;
+        while (pos < end) {
+            Loaded loaded = load(chunkOf(pos));
+            int n = Math.min(end, loaded.start + loaded.chars.length) - pos;
+            System.arraycopy(loaded.chars, pos - loaded.start, dst, dstPos, n);
+            dstPos += n;
+            pos += n;
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return CharBuffer.wrap(chars);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        getChars(0, length, chars, 0);
+        return new String(chars);
+    }
+
+    private int chunkOf(int offset) {
+        int low = 0;
+        int high = chunkOffset.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunkStart[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private synchronized Loaded load(int chunk) {
+        for (Loaded loaded : cache) {
+            if (loaded != null && loaded.chunk == chunk) {
+                last = loaded;
+                return loaded;
+            }
+        }
+        char[] chars = new char[chunkStart[chunk + 1] - chunkStart[chunk]];
+        try {
+            byte[] utf8 = inflate(slice(mapped, chunkOffset[chunk], chunkBytes[chunk]), chunkEncoded[chunk]);
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.decode(ByteBuffer.wrap(utf8), out, true);
+            decoder.flush(out);
+            if (out.hasRemaining()) {
+                throw new IOException("Chunk " + chunk + " is shorter than its index says");
+            }
+        } catch (IOException e) {
+            // CharSequence cannot throw; the file was changed or damaged under the open note
+            throw new UncheckedIOException(e);
+        }
+        Loaded loaded = new Loaded(chunk, chunkStart[chunk], chars);
+        cache[nextSlot] = loaded;
+        nextSlot = (nextSlot + 1) % cache.length;
+        last = loaded;
+        return loaded;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    // Inflates a whole stream; expected is its inflated size, or -1 if not known
+    private static byte[] inflate(ByteBuffer compressed, int expected) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[expected >= 0 ? expected : Math.max(64, compressed.remaining() * 4)];
+            int n = 0;
+            while (!inflater.finished()) {
+                if (n == out.length) {
+                    if (expected >= 0) {
+                        throw new IOException("Chunk is longer than its index says");
+                    }
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, n, out.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed data is cut short");
+                }
+                n += inflated;
+            }
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed data is damaged: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Loaded {
+        final int chunk;
+        final int start;
+        final char[] chars;
+
+        Loaded(int chunk, int start, char[] chars) {
+            this.chunk = chunk;
+            this.start = start;
+            this.chars = chars;
+        }
+    }
+
+    // --- writing ------------------------------------------
+
+    /**
+     * Writes the snapshot as a container to the channel, reporting progress
+     * in percent. Interrupting the calling thread abandons the write.
+     */
+    public static void write(final PieceTableContent.Snapshot snapshot, FileChannel out,
+                             IntConsumer progress) throws IOException {
+        ChunkedText source = snapshot.getOriginal() instanceof ChunkedText
+                ? (ChunkedText) snapshot.getOriginal() : null;
+        // Plan the chunks: each is either one of the source's, copied as is, or a range of the snapshot
+        List<int[]> plan = new ArrayList<int[]>();
+        int pos = 0;
+        int pending = 0;
+        for (int piece = 0; piece < snapshot.getPieceCount(); piece++) {
+            int start = snapshot.getPieceStart(piece);
+            int end = start + snapshot.getPieceLength(piece);
+            if (source != null && !snapshot.isAdded(piece) && source.chunkOffset.length > 0) {
+                int c = source.chunkOf(start);
+                if (source.chunkStart[c] < start) {
+                    c++;
+                }
+                for (; c < source.chunkOffset.length && source.chunkStart[c + 1] <= end; c++) {
+                    int at = pos + source.chunkStart[c] - start;
+                    planText(snapshot, pending, at, plan);
+                    plan.add(new int[] {c});
+                    pending = at + source.chunkStart[c + 1] - source.chunkStart[c];
+                }
+            }
+            pos += end - start;
+        }
+        planText(snapshot, pending, pos, plan);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        DocumentSaver.writeFully(out, header);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        writeVarint(index, plan.size());
+        long offset = HEADER_SIZE;
+        long total = Math.max(1, snapshot.length());
+        long done = 0;
+        // Compress ahead on every core, but only so far that memory stays bounded
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+        ArrayDeque<Future<Chunk>> queue = new ArrayDeque<Future<Chunk>>();
+        int next = 0;
+        try {
+            while (next < plan.size() || !queue.isEmpty()) {
+                while (next < plan.size() && queue.size() < window) {
+                    final int[] step = plan.get(next++);
+                    if (step.length == 1) {
+                        queue.add(CompletableFuture.completedFuture(source.copyChunk(step[0])));
+                    } else {
+                        queue.add(ForkJoinPool.commonPool().submit(new Callable<Chunk>() {
+                            @Override
+                            public Chunk call() {
+                                return compress(snapshot, step[0], step[1]);
+                            }
+                        }));
+                    }
+                }
+                Chunk chunk = queue.poll().get();
+                DocumentSaver.writeFully(out, chunk.compressed);
+                offset += chunk.compressedLength;
+                writeVarint(index, chunk.chars);
+                writeVarint(index, chunk.compressedLength);
+                writeVarint(index, chunk.encoded);
+                writeVarint(index, chunk.newlines.length);
+                int previous = 0;
+                for (int newline : chunk.newlines) {
+                    writeVarint(index, newline - previous);
+                    previous = newline;
+                }
+                done += chunk.chars;
+                if (progress != null) {
+                    progress.accept((int) (done * 100 / total));
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Save cancelled");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed: " + e.getCause(), e.getCause());
+        } finally {
+            for (Future<Chunk> future : queue) {
+                future.cancel(true);
+            }
+        }
+
+        byte[] indexBytes = deflate(index.toByteArray(), 0, index.size());
+        DocumentSaver.writeFully(out, ByteBuffer.wrap(indexBytes));
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putLong(offset).putInt(indexBytes.length).putInt(MAGIC).flip();
+        DocumentSaver.writeFully(out, trailer);
+    }
+
+    // Adds [from, to) of the snapshot to the plan as chunks of at most CHUNK_CHARS
+    private static void planText(PieceTableContent.Snapshot snapshot, int from, int to, List<int[]> plan) {
+        while (from < to) {
+            int end = Math.min(to, from + CHUNK_CHARS);
+            if (end < to && Character.isHighSurrogate(snapshot.charAt(end - 1))) {
+                end--; // Keep a surrogate pair in one chunk, or each half would be encoded alone
+            }
+            plan.add(new int[] {from, end});
+            from = end;
+        }
+    }
+
+    // One of this container's chunks, as stored
+    private Chunk copyChunk(int chunk) {
+        int[] newlines = new int[chunkLines[chunk + 1] - chunkLines[chunk]];
+        for (int i = 0; i < newlines.length; i++) {
+            newlines[i] = lineStarts[chunkLines[chunk] + i] - 1 - chunkStart[chunk];
+        }
+        return new Chunk(chunkStart[chunk + 1] - chunkStart[chunk], chunkEncoded[chunk],
+                slice(mapped, chunkOffset[chunk], chunkBytes[chunk]), newlines);
+    }
+
+    private static Chunk compress(PieceTableContent.Snapshot snapshot, int from, int to) {
+        char[] chars = new char[to - from];
+        snapshot.getChars(from, to, chars, 0);
+        int[] newlines = new int[16];
+        int count = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == '\n') {
+                if (count == newlines.length) {
+                    newlines = Arrays.copyOf(newlines, count * 2);
+                }
+                newlines[count++] = i;
+            }
+        }
+        // A lone surrogate becomes one replacement character, so the length in chars stays the same
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer utf8;
+        try {
+            utf8 = encoder.encode(CharBuffer.wrap(chars));
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] compressed = deflate(utf8.array(), 0, utf8.limit());
+        return new Chunk(chars.length, utf8.limit(), ByteBuffer.wrap(compressed), Arrays.copyOf(newlines, count));
+    }
+
+    private static byte[] deflate(byte[] input, int offset, int length) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, length / 2)];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static final class Chunk {
+        final int chars;
+        final int encoded;
+        final ByteBuffer compressed;
+        final int compressedLength;
+        // Positions of the newlines in the chunk
+        final int[] newlines;
+
+        Chunk(int chars, int encoded, ByteBuffer compressed, int[] newlines) {
+            this.chars = chars;
+            this.encoded = encoded;
+            this.compressed = compressed;
+            this.compressedLength = compressed.remaining();
+            this.newlines = newlines;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Index is cut short");
+            }
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed index");
+    }
+}
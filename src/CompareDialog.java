@@ -0,0 +1,173 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Side-by-side view of two texts and the line differences between them.
+ *
+ * Both sides are read-only documents shown in their own text areas, with
+ * removed lines shaded on the left and added ones on the right. Scrolling
+ * either side scrolls the other to the matching line, going through the
+ * diff's line mapping rather than pixel offsets, since the sides differ in
+ * length wherever lines were added or removed.
+ */
+public class CompareDialog extends JDialog {
+    private static final Color REMOVED_COLOR = new Color(255, 210, 210);
+    private static final Color ADDED_COLOR = new Color(200, 240, 200);
+
+    private final LineDiff diff;
+    private final NotesTextArea oldArea;
+    private final NotesTextArea newArea;
+    private final JScrollPane oldScroll;
+    private final JScrollPane newScroll;
+    private final JLabel statusLabel;
+    private boolean syncing;
+    private int currentHunk = -1;
+
+    public CompareDialog(JFrame owner, String oldTitle, NotesDocument oldDocument,
+                         String newTitle, NotesDocument newDocument, LineDiff diff) {
+        super(owner, "Compare " + oldTitle + " with " + newTitle, false);
+        this.diff = diff;
+        setSize(1100, 700);
+        setLocationRelativeTo(owner);
+
+        SearchMatches removed = new SearchMatches();
+        SearchMatches added = new SearchMatches();
+        int removedLines = 0;
+        int addedLines = 0;
+        for (int i = 0; i < diff.getHunkCount(); i++) {
+            removed.add(diff.getOldStart(i), diff.getOldEnd(i));
+            added.add(diff.getNewStart(i), diff.getNewEnd(i));
+            removedLines += diff.getOldEnd(i) - diff.getOldStart(i);
+            addedLines += diff.getNewEnd(i) - diff.getNewStart(i);
+        }
+
+        oldArea = createArea(oldDocument, removed, REMOVED_COLOR);
+        newArea = createArea(newDocument, added, ADDED_COLOR);
+        oldScroll = createScrollPane(oldArea, oldTitle);
+        newScroll = createScrollPane(newArea, newTitle);
+        oldScroll.getViewport().addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                follow(oldScroll, oldArea, newScroll, newArea, true);
+            }
+        });
+        newScroll.getViewport().addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                follow(newScroll, newArea, oldScroll, oldArea, false);
+            }
+        });
+
+        JPanel top = new JPanel(new BorderLayout(8, 8));
+        top.setBorder(new EmptyBorder(8, 10, 8, 10));
+        statusLabel = new JLabel(diff.getHunkCount() == 0 ? "The texts are the same"
+                : diff.getHunkCount() + " changes: " + removedLines + " lines removed, " + addedLines + " added");
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        top.add(statusLabel, BorderLayout.CENTER);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 0));
+        JButton previousButton = new JButton("Previous Change");
+        previousButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHunk(currentHunk - 1);
+            }
+        });
+        JButton nextButton = new JButton("Next Change");
+        nextButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showHunk(currentHunk + 1);
+            }
+        });
+        buttons.add(previousButton);
+        buttons.add(nextButton);
+        top.add(buttons, BorderLayout.EAST);
+
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, oldScroll, newScroll);
+        split.setResizeWeight(0.5);
+        add(top, BorderLayout.NORTH);
+        add(split, BorderLayout.CENTER);
+    }
+
+    private static NotesTextArea createArea(NotesDocument document, SearchMatches lines, Color color) {
+        NotesTextArea area = new NotesTextArea(document);
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        area.setMargin(new Insets(4, 6, 4, 6));
+        area.setLineHighlights(lines, color);
+        return area;
+    }
+
+    private static JScrollPane createScrollPane(NotesTextArea area, String title) {
+        JScrollPane scrollPane = new JScrollPane(area);
+        JLabel header = new JLabel(title);
+        header.setBorder(new EmptyBorder(4, 6, 4, 6));
+        scrollPane.setColumnHeaderView(header);
+        scrollPane.getViewport().setBackground(Color.WHITE);
+        return scrollPane;
+    }
+
+    // Scrolls the other side so the line matching this side's top line is at its top
+    private void follow(JScrollPane from, NotesTextArea fromArea, JScrollPane to, NotesTextArea toArea, boolean old) {
+        if (syncing) {
+            return;
+        }
+        syncing = true;
+        try {
+            Point view = from.getViewport().getViewPosition();
+            int line = fromArea.getDocument().getDefaultRootElement().getElementIndex(fromArea.viewToModel2D(view));
+            Rectangle lineBounds = lineBounds(fromArea, line);
+            int matching = old ? diff.toNewLine(line) : diff.toOldLine(line);
+            Rectangle target = lineBounds(toArea, matching);
+            if (lineBounds != null && target != null) {
+                scrollTo(to, toArea, view.x, target.y + view.y - lineBounds.y);
+            }
+        } finally {
+            syncing = false;
+        }
+    }
+
+    private static Rectangle lineBounds(NotesTextArea area, int line) {
+        try {
+            int offset = area.getDocument().getDefaultRootElement().getElement(line).getStartOffset();
+            Shape shape = area.modelToView2D(offset);
+            return shape != null ? shape.getBounds() : null;
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    // Puts both sides on the given hunk, a few lines below the top
+    private void showHunk(int hunk) {
+        if (diff.getHunkCount() == 0) {
+            return;
+        }
+        currentHunk = Math.max(0, Math.min(diff.getHunkCount() - 1, hunk));
+        statusLabel.setText("Change " + (currentHunk + 1) + " of " + diff.getHunkCount());
+        Rectangle oldLine = lineBounds(oldArea, Math.min(diff.getOldStart(currentHunk), diff.getOldLineCount() - 1));
+        Rectangle newLine = lineBounds(newArea, Math.min(diff.getNewStart(currentHunk), diff.getNewLineCount() - 1));
+        if (oldLine == null || newLine == null) {
+            return;
+        }
+        syncing = true;
+        try {
+            scrollTo(oldScroll, oldArea, 0, oldLine.y - 3 * oldLine.height);
+            scrollTo(newScroll, newArea, 0, newLine.y - 3 * newLine.height);
+        } finally {
+            syncing = false;
+        }
+    }
+
+    private static void scrollTo(JScrollPane scrollPane, NotesTextArea area, int x, int y) {
+        JViewport viewport = scrollPane.getViewport();
+        int maxX = Math.max(0, area.getWidth() - viewport.getExtentSize().width);
+        int maxY = Math.max(0, area.getHeight() - viewport.getExtentSize().height);
+        viewport.setViewPosition(new Point(Math.max(0, Math.min(maxX, x)), Math.max(0, Math.min(maxY, y))));
+    }
+}
@@ -0,0 +1,232 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Saves a document snapshot on a background thread.
+ *
+ * The text is streamed piece by piece into a temporary file next to the
+ * target, forced to disk and then renamed over the target in one step, so a
+ * crash mid-save leaves either the old or the new file, never a truncated one.
+ * Pieces that are still unchanged ranges of a mapped ASCII original are copied
+ * as raw bytes; only the edited pieces go through the charset encoder, so
+ * saving a small change to a huge file does almost no encoding work.
+ * A byte order mark is written first if the note was read with one, and the
+ * note's formatting, if given, is saved to its sidecar file afterwards. A
+ * target named like a compressed note is written as one (see ChunkedText).
+ */
+public class DocumentSaver extends SwingWorker<Void, Void> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int RAW_CHUNK = 16 * 1024 * 1024;
+
+    private final PieceTableContent.Snapshot snapshot;
+    private final File file;
+    private final TextEncoding encoding;
+    private final StyleRuns styles;
+
+    public DocumentSaver(PieceTableContent.Snapshot snapshot, File file, TextEncoding encoding) {
+        this(snapshot, file, encoding, null);
+    }
+
+    // The runs must be a copy taken along with the snapshot; null leaves the sidecar alone
+    public DocumentSaver(PieceTableContent.Snapshot snapshot, File file, TextEncoding encoding, StyleRuns styles) {
+        this.snapshot = snapshot;
+        this.file = file;
+        this.encoding = encoding;
+        this.styles = styles;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        write(snapshot, file.toPath(), encoding, new IntConsumer() {
+            @Override
+            public void accept(int percent) {
+                setProgress(percent);
+            }
+        });
+        if (styles != null) {
+            styles.save(file);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the snapshot to the target atomically, reporting progress in
+     * percent. Interrupting the calling thread abandons the save and leaves
+     * the target untouched.
+     */
+    public static void write(PieceTableContent.Snapshot snapshot, Path target, TextEncoding encoding,
+                             IntConsumer progress) throws IOException {
+        CharSequence original = snapshot.getOriginal();
+        if (original instanceof ByteCharSequence && ((ByteCharSequence) original).isChanged()) {
+            // The mapped text is no longer what was opened; saving it would write the other program's bytes
+            throw new IOException("The file was changed by another program since it was opened; reopen it first");
+        }
+        Path absolute = target.toAbsolutePath();
+        Path dir = absolute.getParent();
+        Path temp = Files.createTempFile(dir, "." + absolute.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            copyPermissions(absolute, temp);
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (ChunkedText.isContainer(absolute.toFile())) {
+                    ChunkedText.write(snapshot, out, progress);
+                } else {
+                    writeFully(out, ByteBuffer.wrap(encoding.getBom()));
+                    writePieces(snapshot, out, encoding.getCharset(), progress);
+                }
+                out.force(true);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            syncDirectory(dir);
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void writePieces(PieceTableContent.Snapshot snapshot, FileChannel out, Charset charset,
+                                    IntConsumer progress) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean rawOriginal = snapshot.getOriginal() instanceof ByteCharSequence
+                && ByteCharSequence.isAsciiCompatible(charset);
+        long total = Math.max(1, snapshot.length());
+        long done = 0;
+        int reported = -1;
+
+        for (int piece = 0; piece < snapshot.getPieceCount(); piece++) {
+            int start = snapshot.getPieceStart(piece);
+            int length = snapshot.getPieceLength(piece);
+            if (!snapshot.isAdded(piece) && rawOriginal) {
+                // Unchanged ASCII text: the mapped bytes are already the encoded form
+                finish(encoder, bytes, out);
+                ByteCharSequence original = (ByteCharSequence) snapshot.getOriginal();
+                for (int from = start, end = start + length; from < end; from += RAW_CHUNK) {
+                    int to = (int) Math.min(end, (long) from + RAW_CHUNK);
+                    writeFully(out, original.getBytes(from, to));
+                    done += to - from;
+                    reported = report(progress, done, total, reported);
+                }
+            } else {
+                CharSequence text = snapshot.getPieceText(piece);
+                for (int from = 0; from < length; ) {
+                    int to = Math.min(length, from + BUFFER_SIZE);
+                    if (to < length && Character.isHighSurrogate(text.charAt(to - 1))) {
+                        to--; // Keep a surrogate pair in one slice, or the encoder sees half of it
+                    }
+                    encode(encoder, slice(text, from, to), bytes, out, false);
+                    done += to - from;
+                    from = to;
+                    reported = report(progress, done, total, reported);
+                }
+            }
+            reported = report(progress, done, total, reported);
+        }
+        finish(encoder, bytes, out);
+    }
+
+    // Typed text comes back as an array-backed buffer, which encodes much faster than a wrapper
+    private static CharBuffer slice(CharSequence text, int from, int to) {
+        if (text instanceof CharBuffer) {
+            CharBuffer chars = ((CharBuffer) text).duplicate();
+            chars.limit(to);
+            chars.position(from);
+            return chars;
+        }
+        return CharBuffer.wrap(text, from, to);
+    }
+
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel out,
+                               boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                drain(bytes, out);
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    // Ends the current run of encoded text and writes out everything buffered
+    private static void finish(CharsetEncoder encoder, ByteBuffer bytes, FileChannel out) throws IOException {
+        encode(encoder, CharBuffer.allocate(0), bytes, out, true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, out);
+        }
+        drain(bytes, out);
+        encoder.reset();
+    }
+
+    private static void drain(ByteBuffer bytes, FileChannel out) throws IOException {
+        bytes.flip();
+        writeFully(out, bytes);
+        bytes.clear();
+    }
+
+    static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Save cancelled");
+            }
+            out.write(bytes);
+        }
+    }
+
+    private static int report(IntConsumer progress, long done, long total, int reported) {
+        int percent = (int) (done * 100 / total);
+        if (percent != reported && progress != null) {
+            progress.accept(percent);
+        }
+        return percent;
+    }
+
+    // The temp file is created owner-only; keep the permissions the user gave the original
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system; the default permissions will do
+        }
+    }
+
+    // Makes the rename itself durable; not every platform can open a directory for this
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort only
+        }
+    }
+}
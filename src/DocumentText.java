@@ -0,0 +1,83 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Read-only CharSequence view of a document that never copies it.
+ *
+ * Characters are read through a Segment with partial return, so each window
+ * is usually a slice of the document's own storage rather than a copy. Only
+ * valid while the caller holds the document's read lock (see
+ * Document.render) or is on the event thread.
+ */
+public class DocumentText implements CharSequence {
+    private static final int WINDOW = 64 * 1024;
+
+    private final Document document;
+    private final int start;
+    private final int end;
+    private final Segment segment = new Segment();
+    private int segmentStart;
+    private int segmentEnd;
+
+    public DocumentText(Document document) {
+        this(document, 0, document.getLength());
+    }
+
+    private DocumentText(Document document, int start, int end) {
+        this.document = document;
+        this.start = start;
+        this.end = end;
+        segment.setPartialReturn(true);
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int pos = start + index;
+        if (pos < segmentStart || pos >= segmentEnd) {
+            if (index < 0 || pos >= end) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+            }
+            if (pos < segmentStart) {
+                // Walking backwards (as Boyer-Moore and lookbehinds do): keep some text before pos too
+                load(Math.max(start, pos - WINDOW / 2));
+            }
+            if (pos < segmentStart || pos >= segmentEnd) {
+                load(pos);
+            }
+        }
+        return segment.array[segment.offset + pos - segmentStart];
+    }
+
+    private void load(int pos) {
+        try {
+            document.getText(pos, Math.min(WINDOW, end - pos), segment);
+        } catch (BadLocationException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+        segmentStart = pos;
+        segmentEnd = pos + segment.count;
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + length());
+        }
+        return new DocumentText(document, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return document.getText(start, end - start);
+        } catch (BadLocationException e) {
+            throw new IndexOutOfBoundsException(e.getMessage());
+        }
+    }
+}
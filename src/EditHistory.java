@@ -0,0 +1,792 @@
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.Segment;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Undo and redo history for a document.
+ *
+ * Edits are caught as a document filter, so the text a remove takes away can
+ * be read before it goes. Each edit is one record of a flag byte and two ints
+ * in a ring of primitive arrays; the text it inserted or removed lives in one
+ * shared ring of chars, in record order, so no object is kept per edit.
+ * Typing and deleting merge into the previous record where they continue it,
+ * and undo works on groups of records that end at word and line boundaries.
+ *
+ * On a NotesDocument the formatting is kept as well. Inserted and removed
+ * text of a single style has that style in its flag byte; removed text of
+ * several styles, and style changes made with applyStyle, get a style record
+ * whose text is the runs the range had before, two chars per run.
+ *
+ * When the history grows past its byte budget, the groups furthest from the
+ * cursor are written to temp files, the oldest ones to one and, after a long
+ * run of undos, the newest ones to another, and read back only if undo or
+ * redo gets that far. An edit too large to copy into a quarter of the budget
+ * clears the history instead. Undo and redo only ever touch the records next
+ * to the cursor, so they cost the same however long the history is.
+ */
+public class EditHistory extends DocumentFilter implements UndoableEditListener {
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte GROUP_START = 4;
+    private static final byte STYLE = 8;
+    private static final int STYLE_SHIFT = 4; // Style of the text of an insert or remove, in the flag's top bits
+    private static final int APPLIED = 1; // First char of a style record: removed runs, or applyStyle's mask and on
+    private static final int RECORD_BYTES = 9;
+    private static final int MIN_RECORDS = 1024;
+    private static final int MIN_TEXT = 64 * 1024;
+    private static final int MAX_EDIT = 1 << 28;
+    private static final long DEFAULT_BUDGET = Long.getLong("notes.undo.budgetMB", 64) * 1024 * 1024;
+
+    private final AbstractDocument document;
+    private final NotesDocument styled; // The document if it has formatting, else null
+    private final long budget;
+    private final int maxEdit; // In chars; larger edits clear the history instead
+
+    // Records [0, size) in memory, oldest first, starting at physical index head
+    private byte[] flags = new byte[MIN_RECORDS];
+    private int[] offsets = new int[MIN_RECORDS];
+    private int[] lengths = new int[MIN_RECORDS];
+    private int head;
+    private int size;
+    private int cursor; // Records below are undone next, records from here on are redone
+
+    // Text of the records in memory, addressed by ever-growing positions
+    private char[] text = new char[MIN_TEXT];
+    private long textStart;
+    private long textCursor; // End of the text of record cursor - 1
+    private long textEnd;
+
+    private boolean applying;
+    private boolean inReplace;
+    private boolean lastWasSingle;
+
+    // A compound edit: where its text starts, its records so far, and whether it grew too large to keep
+    private boolean inCompound;
+    private long compoundMark;
+    private int compoundRecords;
+    private boolean compoundDropped;
+
+    // Groups too far from the cursor to keep in memory, the block nearest the cursor last
+    private final Spill undoSpill = new Spill();
+    private final Spill redoSpill = new Spill();
+
+    private EditHistory(AbstractDocument document, long budget) {
+        this.document = document;
+        styled = document instanceof NotesDocument ? (NotesDocument) document : null;
+        this.budget = budget;
+        // Half the budget in bytes, and at most the whole budget once the text ring rounds up to a power of two
+        maxEdit = (int) Math.min(MAX_EDIT, Math.max(MIN_TEXT, budget / 4));
+    }
+
+    // Starts recording the document's edits; ends when close is called
+    public static EditHistory install(AbstractDocument document) {
+        return install(document, DEFAULT_BUDGET);
+    }
+
+    // With a budget of its own, in bytes
+    static EditHistory install(AbstractDocument document, long budget) {
+        EditHistory history = new EditHistory(document, budget);
+        document.setDocumentFilter(history);
+        document.addUndoableEditListener(history);
+        return history;
+    }
+
+    // The history recording the document's edits, or null
+    public static EditHistory get(AbstractDocument document) {
+        DocumentFilter filter = document.getDocumentFilter();
+        return filter instanceof EditHistory ? (EditHistory) filter : null;
+    }
+
+    public void close() {
+        if (document.getDocumentFilter() == this) {
+            document.setDocumentFilter(null);
+        }
+        document.removeUndoableEditListener(this);
+        forget();
+    }
+
+    /**
+     * Makes the edits until endCompound one undo step, as Replace All does
+     * with its edit per match. A compound edit holding more than the largest
+     * edit kept is forgotten along with the rest of the history, as a
+     * single edit that large would be.
+     */
+    public void beginCompound() {
+        // Its first edit makes the undone edits unreachable anyway; dropping them now keeps the mark right
+        dropRedo();
+        inCompound = true;
+        compoundMark = textEnd;
+        compoundRecords = 0;
+        compoundDropped = false;
+        lastWasSingle = false;
+    }
+
+    public void endCompound() {
+        inCompound = false;
+        compoundDropped = false;
+        lastWasSingle = false;
+    }
+
+    public boolean canUndo() {
+        return cursor > 0 || undoSpill.count > 0;
+    }
+
+    public boolean canRedo() {
+        return cursor < size || redoSpill.count > 0;
+    }
+
+    // Bytes of history held on the heap
+    public long getMemoryUsage() {
+        return (long) size * RECORD_BYTES + (textEnd - textStart) * 2;
+    }
+
+    /**
+     * Undoes the newest group of edits and returns where the caret should
+     * go, or -1 if there was nothing to undo.
+     */
+    public int undo() throws BadLocationException {
+        if (cursor == 0 && undoSpill.count > 0) {
+            loadUndoBlock();
+        }
+        if (cursor == 0) {
+            return -1;
+        }
+        int caret = -1;
+        applying = true;
+        try {
+            int r;
+            do {
+                r = --cursor;
+                int i = index(r);
+                textCursor -= lengths[i];
+                if ((flags[i] & STYLE) != 0) {
+                    StyleRuns runs = readRuns(textCursor, lengths[i]);
+                    styled.setStyles(offsets[i], runs);
+                    caret = offsets[i] + runs.getLength();
+                } else if ((flags[i] & INSERT) != 0) {
+                    document.remove(offsets[i], lengths[i]);
+                    caret = offsets[i];
+                } else {
+                    document.insertString(offsets[i], getText(textCursor, lengths[i]), null);
+                    restyle(flags[i], offsets[i], lengths[i]);
+                    caret = offsets[i] + lengths[i];
+                }
+            } while ((flags[index(r)] & GROUP_START) == 0 && cursor > 0);
+        } finally {
+            applying = false;
+            lastWasSingle = false;
+        }
+        spillIfNeeded();
+        return caret;
+    }
+
+    // Redoes the group undone last; returns the caret position or -1
+    public int redo() throws BadLocationException {
+        if (cursor == size && redoSpill.count > 0) {
+            loadRedoBlock();
+        }
+        if (cursor == size) {
+            return -1;
+        }
+        int caret = -1;
+        applying = true;
+        try {
+            do {
+                int i = index(cursor++);
+                if ((flags[i] & STYLE) != 0) {
+                    // Removed runs come back with the text; only a style change is redone here
+                    if ((charAt(textCursor) & APPLIED) != 0) {
+                        int length = readRuns(textCursor, lengths[i]).getLength();
+                        int mode = charAt(textCursor);
+                        styled.applyStyle(offsets[i], length, mode >> 1 & 7, (mode & 16) != 0);
+                        caret = offsets[i] + length;
+                    }
+                } else if ((flags[i] & INSERT) != 0) {
+                    document.insertString(offsets[i], getText(textCursor, lengths[i]), null);
+                    restyle(flags[i], offsets[i], lengths[i]);
+                    caret = offsets[i] + lengths[i];
+                } else {
+                    document.remove(offsets[i], lengths[i]);
+                    caret = offsets[i];
+                }
+                textCursor += lengths[i];
+            } while (cursor < size && (flags[index(cursor)] & GROUP_START) == 0);
+        } finally {
+            applying = false;
+            lastWasSingle = false;
+        }
+        spillIfNeeded();
+        return caret;
+    }
+
+    @Override
+    public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr)
+            throws BadLocationException {
+        fb.insertString(offset, string, attr);
+        if (applying || compoundDropped) {
+            return;
+        }
+        if (string.length() > maxEdit) {
+            forget();
+        } else if (!string.isEmpty()) {
+            dropRedo();
+            appendText(string);
+            // Inserted text always has a single style
+            record(INSERT, offset, string.length(), styled != null ? styled.getStyleRuns().getStyle(offset) : 0);
+            checkCompound();
+        }
+    }
+
+    @Override
+    public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+        if (applying || compoundDropped || length == 0 || length > maxEdit) {
+            fb.remove(offset, length);
+            if (!applying && !compoundDropped && length > maxEdit) {
+                forget();
+            }
+            return;
+        }
+        dropRedo();
+        long mark = textEnd;
+        int style = 0;
+        int payload = 0;
+        if (styled != null) {
+            StyleRuns styles = styled.getStyleRuns();
+            style = styles.getStyle(offset);
+            if (!styles.isUniform(offset, offset + length, style)) {
+                payload = appendRuns(styles.copy(offset, offset + length), 0);
+                if (payload > maxEdit) {
+                    textEnd = mark;
+                    fb.remove(offset, length);
+                    forget();
+                    return;
+                }
+            }
+        }
+        // Removed text is copied straight from the document's storage before it goes
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int pos = offset;
+        try {
+            while (pos < offset + length) {
+                document.getText(pos, offset + length - pos, segment);
+                appendText(segment.array, segment.offset, segment.count);
+                pos += segment.count;
+            }
+            fb.remove(offset, length);
+        } catch (BadLocationException e) {
+            textEnd = mark;
+            textCursor = mark;
+            throw e;
+        }
+        if (payload > 0) {
+            // The runs are put back after the text on undo, so their record comes first
+            addRecord(continuesGroup() ? STYLE : STYLE | GROUP_START, offset, payload);
+            addRecord(REMOVE, offset, length);
+            lastWasSingle = false;
+            spillIfNeeded();
+        } else {
+            record(REMOVE, offset, length, style);
+        }
+        checkCompound();
+    }
+
+    // Style changes reach the history as undoable edits, since no filter sees them
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        if (applying || !(e.getEdit() instanceof NotesDocument.StyleEdit)) {
+            return;
+        }
+        NotesDocument.StyleEdit edit = (NotesDocument.StyleEdit) e.getEdit();
+        if (edit.getLength() == 0) {
+            return;
+        }
+        dropRedo();
+        long mark = textEnd;
+        int payload = appendRuns(edit.getBefore(), APPLIED | edit.getMask() << 1 | (edit.isOn() ? 16 : 0));
+        if (payload > maxEdit) {
+            textEnd = mark;
+            forget();
+            return;
+        }
+        addRecord((byte) (STYLE | GROUP_START), edit.getOffset(), payload);
+        lastWasSingle = false;
+        spillIfNeeded();
+    }
+
+    @Override
+    public void replace(FilterBypass fb, int offset, int length, String string, AttributeSet attrs)
+            throws BadLocationException {
+        if (applying || length == 0 || string == null || string.isEmpty()) {
+            // Typing arrives here too, with nothing selected
+            if (length > 0) {
+                remove(fb, offset, length);
+            }
+            if (string != null && !string.isEmpty()) {
+                insertString(fb, offset, string, attrs);
+            }
+            return;
+        }
+        // Typing over a selection is undone in one step
+        remove(fb, offset, length);
+        inReplace = true;
+        try {
+            insertString(fb, offset, string, attrs);
+        } finally {
+            inReplace = false;
+        }
+    }
+
+    // Adds a record for an edit whose text was just appended, merging it into the previous one where it continues it
+    private void record(byte kind, int offset, int length, int style) {
+        boolean single = length == 1;
+        byte flag = (byte) (kind | GROUP_START | style << STYLE_SHIFT);
+        if (continuesGroup()) {
+            flag = (byte) (kind | style << STYLE_SHIFT);
+        } else if (single && lastWasSingle && size > 0 && flags[index(size - 1)] >> STYLE_SHIFT == style) {
+            int last = index(size - 1);
+            char c = charAt(textEnd - 1);
+            if (kind == INSERT && (flags[last] & INSERT) != 0) {
+                if (offset == offsets[last] + lengths[last]) {
+                    char previous = charAt(textEnd - 2);
+                    if (previous != '\n' && (!Character.isWhitespace(previous) || Character.isWhitespace(c))) {
+                        lengths[last]++;
+                        textCursor = textEnd;
+                        lastWasSingle = true;
+                        spillIfNeeded();
+                        return;
+                    }
+                }
+            } else if (kind == REMOVE && (flags[last] & REMOVE) != 0 && c != '\n') {
+                if (offset == offsets[last]) {
+                    lengths[last]++; // Delete key: the removed text grows to the right
+                    textCursor = textEnd;
+                    lastWasSingle = true;
+                    spillIfNeeded();
+                    return;
+                }
+                if (offset + 1 == offsets[last]) {
+                    flag = (byte) (kind | style << STYLE_SHIFT); // Backspace: same group, new record
+                }
+            }
+        }
+        addRecord(flag, offset, length);
+        lastWasSingle = single;
+        spillIfNeeded();
+    }
+
+    // The insert of a replace, and every edit of a compound after its first, join the group before them
+    private boolean continuesGroup() {
+        return inReplace || inCompound && compoundRecords > 0;
+    }
+
+    private void checkCompound() {
+        if (inCompound && textEnd - compoundMark + (long) compoundRecords * RECORD_BYTES / 2 > maxEdit) {
+            forget();
+        }
+    }
+
+    private void addRecord(byte flag, int offset, int length) {
+        if (inCompound) {
+            compoundRecords++;
+        }
+        if (size == flags.length) {
+            resizeRecords(flags.length * 2);
+        }
+        int i = index(size++);
+        flags[i] = flag;
+        offsets[i] = offset;
+        lengths[i] = length;
+        cursor = size;
+        textCursor = textEnd;
+    }
+
+    // Gives text just put back the single style it had, where the document gave it another
+    private void restyle(byte flag, int offset, int length) {
+        int style = flag >> STYLE_SHIFT;
+        if (styled != null && !styled.getStyleRuns().isUniform(offset, offset + length, style)) {
+            StyleRuns runs = new StyleRuns(length);
+            runs.apply(0, length, style, true);
+            styled.setStyles(offset, runs);
+        }
+    }
+
+    // Appends a style record's text, the mode char then each run's length and style; returns its length
+    private int appendRuns(StyleRuns runs, int mode) {
+        char[] chars = new char[1 + runs.getRunCount() * 2];
+        chars[0] = (char) mode;
+        for (int run = 0; run < runs.getRunCount(); run++) {
+            int length = runs.getRunEnd(run) - runs.getRunStart(run);
+            chars[1 + run * 2] = (char) (runs.getRunStyle(run) << 12 | length >>> 16);
+            chars[2 + run * 2] = (char) length;
+        }
+        appendText(chars, 0, chars.length);
+        return chars.length;
+    }
+
+    private StyleRuns readRuns(long pos, int length) {
+        int total = 0;
+        for (int k = 1; k < length; k += 2) {
+            total += (charAt(pos + k) & 0xfff) << 16 | charAt(pos + k + 1);
+        }
+        StyleRuns runs = new StyleRuns(total);
+        int start = 0;
+        for (int k = 1; k < length; k += 2) {
+            int runLength = (charAt(pos + k) & 0xfff) << 16 | charAt(pos + k + 1);
+            runs.apply(start, start + runLength, charAt(pos + k) >> 12, true);
+            start += runLength;
+        }
+        return runs;
+    }
+
+    // Edits too large to keep a copy of cannot be undone, and neither can anything before them
+    private void forget() {
+        // The rest of a compound edit would not undo to a state the document was in
+        compoundDropped = inCompound;
+        undoSpill.close();
+        redoSpill.close();
+        size = 0;
+        cursor = 0;
+        head = 0;
+        textStart = textCursor = textEnd = 0;
+        lastWasSingle = false;
+        if (text.length > MIN_TEXT) {
+            text = new char[MIN_TEXT];
+        }
+    }
+
+    // A new edit after undo makes the undone edits unreachable
+    private void dropRedo() {
+        if (cursor < size || redoSpill.count > 0) {
+            size = cursor;
+            textEnd = textCursor;
+            redoSpill.close();
+            lastWasSingle = false;
+        }
+    }
+
+    private int index(int record) {
+        return (head + record) & (flags.length - 1);
+    }
+
+    private void resizeRecords(int capacity) {
+        byte[] newFlags = new byte[capacity];
+        int[] newOffsets = new int[capacity];
+        int[] newLengths = new int[capacity];
+        for (int r = 0; r < size; r++) {
+            int i = index(r);
+            newFlags[r] = flags[i];
+            newOffsets[r] = offsets[i];
+            newLengths[r] = lengths[i];
+        }
+        flags = newFlags;
+        offsets = newOffsets;
+        lengths = newLengths;
+        head = 0;
+    }
+
+    private char charAt(long pos) {
+        return text[(int) (pos & (text.length - 1))];
+    }
+
+    private String getText(long pos, int length) {
+        char[] chars = new char[length];
+        copyText(pos, chars, 0, length);
+        return new String(chars);
+    }
+
+    private void copyText(long pos, char[] dst, int dstPos, int length) {
+        int start = (int) (pos & (text.length - 1));
+        int first = Math.min(length, text.length - start);
+        System.arraycopy(text, start, dst, dstPos, first);
+        System.arraycopy(text, 0, dst, dstPos + first, length - first);
+    }
+
+    private void appendText(String string) {
+        ensureText(textEnd - textStart + string.length());
+        int start = (int) (textEnd & (text.length - 1));
+        int first = Math.min(string.length(), text.length - start);
+        string.getChars(0, first, text, start);
+        string.getChars(first, string.length(), text, 0);
+        textEnd += string.length();
+    }
+
+    private void appendText(char[] chars, int offset, int length) {
+        ensureText(textEnd - textStart + length);
+        int start = (int) (textEnd & (text.length - 1));
+        int first = Math.min(length, text.length - start);
+        System.arraycopy(chars, offset, text, start, first);
+        System.arraycopy(chars, offset + first, text, 0, length - first);
+        textEnd += length;
+    }
+
+    private void ensureText(long needed) {
+        if (needed > text.length) {
+            resizeText((int) (Long.highestOneBit(needed - 1) << 1));
+        }
+    }
+
+    private void resizeText(int capacity) {
+        char[] newText = new char[capacity];
+        int length = (int) (textEnd - textStart);
+        // Same positions, new mask
+        for (long pos = textStart; pos < textEnd; ) {
+            int dst = (int) (pos & (capacity - 1));
+            int run = (int) Math.min(textEnd - pos, capacity - dst);
+            copyText(pos, newText, dst, run);
+            pos += run;
+        }
+        text = newText;
+        if (length == 0) {
+            textStart = textCursor = textEnd = 0;
+        }
+    }
+
+    /**
+     * Keeps the heap share of the history under budget by moving groups to
+     * disk, from whichever side of the cursor holds more: the oldest undo
+     * groups or the newest redo groups. The groups either side of the cursor
+     * always stay.
+     */
+    private void spillIfNeeded() {
+        long usage = getMemoryUsage();
+        if (usage <= budget) {
+            return;
+        }
+        long target = budget * 3 / 4;
+        long undoBytes = bytes(0, cursor);
+        long redoBytes = usage - undoBytes;
+        // Records [0, low) go to the undo spill, [high, size) to the redo spill
+        int low = 0;
+        int high = size;
+        while (usage > target) {
+            int end = low;
+            if (low < cursor) {
+                end = low + 1;
+                while (end < cursor && (flags[index(end)] & GROUP_START) == 0) {
+                    end++;
+                }
+            }
+            boolean canLow = end < cursor;
+            int start = high - 1;
+            while (start > cursor && (flags[index(start)] & GROUP_START) == 0) {
+                start--;
+            }
+            boolean canHigh = start > cursor;
+            long bytes;
+            if (canHigh && (!canLow || redoBytes >= undoBytes)) {
+                bytes = bytes(start, high);
+                redoBytes -= bytes;
+                high = start;
+            } else if (canLow) {
+                bytes = bytes(low, end);
+                undoBytes -= bytes;
+                low = end;
+            } else {
+                break;
+            }
+            usage -= bytes;
+        }
+
+        if (high < size) {
+            long chars = chars(high, size);
+            try {
+                writeBlock(redoSpill, high, size - high, textEnd - chars);
+            } catch (IOException e) {
+                // No room on disk: these and any newer redo groups are forgotten instead
+                redoSpill.close();
+            }
+            size = high;
+            textEnd -= chars;
+        }
+        if (low > 0) {
+            long chars = chars(0, low);
+            try {
+                writeBlock(undoSpill, 0, low, textStart);
+            } catch (IOException e) {
+                // No room on disk: the oldest edits are forgotten instead
+                undoSpill.close();
+            }
+            head = index(low);
+            size -= low;
+            cursor -= low;
+            textStart += chars;
+        }
+        if (flags.length > MIN_RECORDS && size < flags.length / 4) {
+            resizeRecords(Math.max(MIN_RECORDS, Integer.highestOneBit(Math.max(1, size)) << 1));
+        }
+        long used = textEnd - textStart;
+        if (text.length > MIN_TEXT && used < text.length / 4) {
+            resizeText((int) Math.max(MIN_TEXT, Long.highestOneBit(Math.max(1, used)) << 1));
+        }
+    }
+
+    private long chars(int from, int to) {
+        long chars = 0;
+        for (int r = from; r < to; r++) {
+            chars += lengths[index(r)];
+        }
+        return chars;
+    }
+
+    private long bytes(int from, int to) {
+        return (long) (to - from) * RECORD_BYTES + chars(from, to) * 2;
+    }
+
+    private void writeBlock(Spill spill, int from, int records, long textPos) throws IOException {
+        FileChannel channel = spill.open();
+        long start = channel.size();
+        channel.position(start);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+        long pos = textPos;
+        char[] buffer = new char[4096];
+        for (int r = from; r < from + records; r++) {
+            int i = index(r);
+            out.writeByte(flags[i]);
+            out.writeInt(offsets[i]);
+            out.writeInt(lengths[i]);
+            for (int done = 0; done < lengths[i]; ) {
+                int n = Math.min(buffer.length, lengths[i] - done);
+                copyText(pos, buffer, 0, n);
+                for (int k = 0; k < n; k++) {
+                    out.writeChar(buffer[k]);
+                }
+                pos += n;
+                done += n;
+            }
+        }
+        out.flush();
+        spill.push(start);
+    }
+
+    // Brings the newest block of old groups back in front of the records in memory
+    private void loadUndoBlock() throws BadLocationException {
+        Block block = readBlock(undoSpill);
+        int records = block.records;
+        if (size + records > flags.length) {
+            resizeRecords(Integer.highestOneBit(size + records - 1) << 1);
+        }
+        ensureText(textEnd - textStart + block.chars.length());
+        head = (head - records) & (flags.length - 1);
+        size += records;
+        cursor += records;
+        for (int r = 0; r < records; r++) {
+            int i = index(r);
+            flags[i] = block.flags[r];
+            offsets[i] = block.offsets[r];
+            lengths[i] = block.lengths[r];
+        }
+        textStart -= block.chars.length();
+        for (int k = 0; k < block.chars.length(); k++) {
+            text[(int) ((textStart + k) & (text.length - 1))] = block.chars.charAt(k);
+        }
+        spillIfNeeded();
+    }
+
+    // Brings the oldest block of undone groups back after the records in memory
+    private void loadRedoBlock() throws BadLocationException {
+        Block block = readBlock(redoSpill);
+        if (size + block.records > flags.length) {
+            resizeRecords(Integer.highestOneBit(size + block.records - 1) << 1);
+        }
+        for (int r = 0; r < block.records; r++) {
+            int i = index(size++);
+            flags[i] = block.flags[r];
+            offsets[i] = block.offsets[r];
+            lengths[i] = block.lengths[r];
+        }
+        appendText(block.chars.toString());
+        spillIfNeeded();
+    }
+
+    // Reads the block written last and cuts it off the file
+    private Block readBlock(Spill spill) throws BadLocationException {
+        long start = spill.blocks[--spill.count];
+        try {
+            FileChannel channel = spill.channel;
+            channel.position(start);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 65536));
+            long end = channel.size();
+            long read = 0;
+            Block block = new Block();
+            while (start + read < end) {
+                int r = block.records;
+                if (r == block.flags.length) {
+                    block.flags = Arrays.copyOf(block.flags, r * 2);
+                    block.offsets = Arrays.copyOf(block.offsets, r * 2);
+                    block.lengths = Arrays.copyOf(block.lengths, r * 2);
+                }
+                block.flags[r] = in.readByte();
+                block.offsets[r] = in.readInt();
+                block.lengths[r] = in.readInt();
+                for (int k = 0; k < block.lengths[r]; k++) {
+                    block.chars.append(in.readChar());
+                }
+                read += RECORD_BYTES + 2L * block.lengths[r];
+                block.records++;
+            }
+            channel.truncate(start);
+            return block;
+        } catch (IOException e) {
+            spill.close();
+            throw new BadLocationException("Edits could not be read back: " + e.getMessage(), 0);
+        }
+    }
+
+    /** Records read back from a spill file. */
+    private static final class Block {
+        byte[] flags = new byte[MIN_RECORDS];
+        int[] offsets = new int[MIN_RECORDS];
+        int[] lengths = new int[MIN_RECORDS];
+        int records;
+        final StringBuilder chars = new StringBuilder();
+    }
+
+    /** A temp file of blocks of records, used as a stack. */
+    private static final class Spill {
+        private Path path;
+        private FileChannel channel;
+        private long[] blocks = new long[16];
+        private int count;
+
+        FileChannel open() throws IOException {
+            if (channel == null) {
+                path = Files.createTempFile("notes-undo", ".tmp");
+                path.toFile().deleteOnExit();
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        void push(long start) {
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+            blocks[count++] = start;
+        }
+
+        void close() {
+            count = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                    // Temp file; deleted on exit anyway
+                }
+                channel = null;
+            }
+        }
+    }
+}
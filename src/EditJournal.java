@@ -0,0 +1,513 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the edits made to a document since it was last saved.
+ *
+ * The journal listens to the document on the event thread and hands each
+ * insert or remove to a background writer. The writer drains everything that
+ * queued up while it was busy, merges adjacent edits (typing, backspacing),
+ * appends the batch to a small sidecar file and forces it to disk once per
+ * batch. After a crash the file can be replayed on top of the last saved
+ * version of the document.
+ *
+ * Every record carries a CRC, so a record torn by a crash mid-write simply
+ * ends the replay.
+ */
+public class EditJournal implements DocumentListener {
+    private static final int MAGIC = 0x4E4A4E4C; // "NJNL"
+    private static final int VERSION = 1;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final long COMPACT_THRESHOLD = 4 * 1024 * 1024;
+
+    private final Document document;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    private final Thread writer;
+    private long nextCheckpoint;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile Path detachedPath;
+
+    // Owned by the writer thread
+    private Path path;
+    private FileChannel channel;
+    private long compactedSize;
+    private final Map<Long, Long> checkpoints = new HashMap<Long, Long>();
+
+    private EditJournal(Path path, Document document) throws IOException {
+        this.path = path;
+        this.document = document;
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactedSize = channel.size();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "edit-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Starts a fresh journal for a document whose saved state is the given
+     * file (or nothing, for a new note) and begins recording its edits.
+     */
+    public static EditJournal start(File target, Document document) throws IOException {
+        Path path = journalPath(target);
+        writeFresh(path, target, null, 0, 0);
+        EditJournal journal = new EditJournal(path, document);
+        document.addDocumentListener(journal);
+        return journal;
+    }
+
+    // Journals left behind by earlier sessions, newest first
+    public static List<Path> findJournals() throws IOException {
+        List<Path> journals = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(AppData.dir("journal"), "*.journal")) {
+            for (Path journal : stream) {
+                journals.add(journal);
+            }
+        }
+        Collections.sort(journals, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return Long.compare(b.toFile().lastModified(), a.toFile().lastModified());
+            }
+        });
+        return journals;
+    }
+
+    public static Header readHeader(Path journal) throws IOException {
+        try (DataInputStream in = openForReading(journal)) {
+            return readHeader(in);
+        }
+    }
+
+    /**
+     * Applies the recorded edits to a document holding the saved state and
+     * returns how many were applied. Stops at the first damaged record.
+     */
+    public static int replay(Path journal, Document document) throws IOException, BadLocationException {
+        int applied = 0;
+        try (DataInputStream in = openForReading(journal)) {
+            readHeader(in);
+            Op op;
+            while ((op = readRecord(in)) != null) {
+                int length = document.getLength();
+                if (op.insert && op.offset <= length) {
+                    document.insertString(op.offset, op.text.toString(), null);
+                } else if (!op.insert && op.offset + op.length <= length) {
+                    document.remove(op.offset, op.length);
+                } else {
+                    break; // Recorded against a different base; stop rather than garble the text
+                }
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Marks the current end of the journal before a save takes its snapshot.
+     * Pass the returned id to rebase() once the save has succeeded.
+     */
+    public long checkpoint() {
+        long id = ++nextCheckpoint;
+        queue.add(new Checkpoint(id));
+        return id;
+    }
+
+    // Makes the saved file the new base, keeping only the edits made after the checkpoint
+    public void rebase(long checkpoint, File target) {
+        queue.add(new Rebase(checkpoint, target));
+    }
+
+    // Stops recording; a journal that is no longer needed is deleted
+    public void close(boolean delete) {
+        document.removeDocumentListener(this);
+        queue.add(new Close(delete));
+    }
+
+    /**
+     * Stops recording and waits until every edit is on disk. Returns the
+     * journal file, which is kept for replaying later, or null if it could
+     * not be written.
+     */
+    public Path detach() {
+        close(false);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                stopped.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return detachedPath;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        try {
+            queue.add(new Op(true, e.getOffset(), e.getLength(),
+                    e.getDocument().getText(e.getOffset(), e.getLength())));
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        queue.add(new Op(false, e.getOffset(), e.getLength(), null));
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes are not part of a plain text note
+    }
+
+    // --- writer thread ------------------------------------
+
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<Object>();
+        List<Op> pending = new ArrayList<Op>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (Object item : batch) {
+                    if (item instanceof Op) {
+                        add(pending, (Op) item);
+                    } else if (item instanceof Checkpoint) {
+                        write(pending);
+                        checkpoints.put(((Checkpoint) item).id, channel.size());
+                    } else if (item instanceof Rebase) {
+                        write(pending);
+                        rebaseNow((Rebase) item);
+                    } else if (item instanceof Close) {
+                        write(pending);
+                        channel.force(false);
+                        channel.close();
+                        if (((Close) item).delete) {
+                            Files.deleteIfExists(path);
+                        } else {
+                            detachedPath = path;
+                        }
+                        return;
+                    }
+                }
+                batch.clear();
+                write(pending);
+                // Group commit: one fsync for everything that queued up meanwhile
+                channel.force(false);
+                if (checkpoints.isEmpty() && channel.size() > Math.max(COMPACT_THRESHOLD, compactedSize * 2)) {
+                    compact();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Recovery is best effort; losing the journal must never take the editor down
+            e.printStackTrace();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already failing
+            }
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void write(List<Op> ops) throws IOException {
+        if (ops.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Op op : ops) {
+            writeRecord(out, op);
+        }
+        out.flush();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ops.clear();
+    }
+
+    private void rebaseNow(Rebase rebase) throws IOException {
+        Long position = checkpoints.remove(rebase.checkpoint);
+        if (position == null) {
+            return;
+        }
+        Path target = journalPath(rebase.target);
+        channel.close();
+        writeFresh(target, rebase.target, path, position, Files.size(path));
+        if (!target.equals(path)) {
+            Files.deleteIfExists(path);
+        }
+        path = target;
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactedSize = channel.size();
+        checkpoints.clear();
+    }
+
+    // Rewrites the journal with adjacent edits merged across the whole file
+    private void compact() throws IOException {
+        Header header;
+        List<Op> ops = new ArrayList<Op>();
+        try (DataInputStream in = openForReading(path)) {
+            header = readHeader(in);
+            Op op;
+            while ((op = readRecord(in)) != null) {
+                add(ops, op);
+            }
+        }
+        Path temp = Files.createTempFile(path.getParent(), "compact", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            writeHeader(out, header.target, header.baseSize, header.baseModified);
+            for (Op op : ops) {
+                writeRecord(out, op);
+            }
+        }
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channel.force(false);
+        compactedSize = channel.size();
+    }
+
+    // Adds an edit, folding it into the previous one where the two are adjacent
+    private static void add(List<Op> ops, Op op) {
+        if (!ops.isEmpty()) {
+            Op last = ops.get(ops.size() - 1);
+            if (last.merge(op)) {
+                if (last.length == 0) {
+                    ops.remove(ops.size() - 1);
+                }
+                return;
+            }
+        }
+        ops.add(op);
+    }
+
+    // --- file format --------------------------------------
+
+    private static Path journalPath(File target) throws IOException {
+        String name = target == null
+                ? "untitled-" + System.currentTimeMillis()
+                : target.getName() + "-" + Integer.toHexString(target.getAbsolutePath().hashCode());
+        return AppData.dir("journal").resolve(name + ".journal");
+    }
+
+    // Writes a new journal, optionally carrying over [from, to) of an existing one's records
+    private static void writeFresh(Path path, File target, Path copyFrom, long from, long to) throws IOException {
+        Path temp = Files.createTempFile(path.getParent(), "journal", ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            long baseSize = target != null && target.exists() ? target.length() : 0;
+            long baseModified = target != null && target.exists() ? target.lastModified() : 0;
+            writeHeader(new DataOutputStream(header), target == null ? "" : target.getAbsolutePath(),
+                    baseSize, baseModified);
+            out.write(ByteBuffer.wrap(header.toByteArray()));
+            if (copyFrom != null) {
+                try (FileChannel in = FileChannel.open(copyFrom, StandardOpenOption.READ)) {
+                    long position = from;
+                    while (position < to) {
+                        position += in.transferTo(position, to - position, out);
+                    }
+                }
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeHeader(DataOutputStream out, String target, long baseSize, long baseModified)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(target);
+        out.writeLong(baseSize);
+        out.writeLong(baseModified);
+        out.flush();
+    }
+
+    private static Header readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            throw new IOException("Not an edit journal");
+        }
+        String target = in.readUTF();
+        long baseSize = in.readLong();
+        long baseModified = in.readLong();
+        return new Header(target, baseSize, baseModified, in.available() > 0);
+    }
+
+    private static void writeRecord(DataOutputStream out, Op op) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(13 + (op.insert ? 2 * op.length : 0));
+        DataOutputStream data = new DataOutputStream(record);
+        data.writeByte(op.insert ? INSERT : REMOVE);
+        data.writeInt(op.offset);
+        data.writeInt(op.length);
+        if (op.insert) {
+            // Raw UTF-16 so that even unpaired surrogates survive the round trip
+            data.writeChars(op.text.toString());
+        }
+        byte[] bytes = record.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        out.write(bytes);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Returns the next record, or null at the end of the file or at a damaged record
+    private static Op readRecord(DataInputStream in) throws IOException {
+        try {
+            CRC32 crc = new CRC32();
+            byte type = in.readByte();
+            int offset = in.readInt();
+            int length = in.readInt();
+            if ((type != INSERT && type != REMOVE) || offset < 0 || length < 0) {
+                return null;
+            }
+            ByteBuffer fields = ByteBuffer.allocate(9).put(type).putInt(offset).putInt(length);
+            crc.update(fields.array());
+            String text = null;
+            if (type == INSERT) {
+                if (length > in.available() / 2) {
+                    return null; // Torn at the end of the file
+                }
+                byte[] chars = new byte[2 * length];
+                in.readFully(chars);
+                crc.update(chars);
+                text = ByteBuffer.wrap(chars).asCharBuffer().toString();
+            }
+            if (in.readInt() != (int) crc.getValue()) {
+                return null;
+            }
+            return new Op(type == INSERT, offset, length, text);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static DataInputStream openForReading(Path journal) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)));
+    }
+
+    public static final class Header {
+        public final String target;
+        public final long baseSize;
+        public final long baseModified;
+        public final boolean hasEdits;
+
+        Header(String target, long baseSize, long baseModified, boolean hasEdits) {
+            this.target = target;
+            this.baseSize = baseSize;
+            this.baseModified = baseModified;
+            this.hasEdits = hasEdits;
+        }
+
+        // The file the edits belong to, or null for a note that was never saved
+        public File getTargetFile() {
+            return target.isEmpty() ? null : new File(target);
+        }
+
+        // True if the saved file is still the version the edits were recorded against
+        public boolean matchesBase() {
+            File file = getTargetFile();
+            if (file == null) {
+                return true;
+            }
+            return file.exists() && file.length() == baseSize && file.lastModified() == baseModified;
+        }
+    }
+
+    private static final class Op {
+        final boolean insert;
+        int offset;
+        int length;
+        final StringBuilder text;
+
+        Op(boolean insert, int offset, int length, String text) {
+            this.insert = insert;
+            this.offset = offset;
+            this.length = length;
+            this.text = text == null ? null : new StringBuilder(text);
+        }
+
+        // Folds the next edit into this one if the result is a single edit
+        boolean merge(Op next) {
+            if (insert && next.insert && next.offset >= offset && next.offset <= offset + length) {
+                text.insert(next.offset - offset, next.text);
+                length += next.length;
+                return true;
+            }
+            if (insert && !next.insert && next.offset >= offset && next.offset + next.length <= offset + length) {
+                text.delete(next.offset - offset, next.offset - offset + next.length);
+                length -= next.length;
+                return true;
+            }
+            if (!insert && !next.insert && next.offset == offset) {
+                // Delete key
+                length += next.length;
+                return true;
+            }
+            if (!insert && !next.insert && next.offset + next.length == offset) {
+                // Backspace
+                offset = next.offset;
+                length += next.length;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Checkpoint {
+        final long id;
+
+        Checkpoint(long id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Rebase {
+        final long checkpoint;
+        final File target;
+
+        Rebase(long checkpoint, File target) {
+            this.checkpoint = checkpoint;
+            this.target = target;
+        }
+    }
+
+    private static final class Close {
+        final boolean delete;
+
+        Close(boolean delete) {
+            this.delete = delete;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the event dispatch thread. Installed as the system event queue, it
+ * times every event it dispatches, and a watchdog thread takes a stack trace
+ * of the event thread whenever one event has run longer than
+ * -Dnotes.watchdog.ms (200 by default), appending it to
+ * ~/.notesapp/logs/stalls.log. That stack shows what the UI was stuck on.
+ *
+ * It also times keystrokes: from when a character typed into the editor is
+ * dispatched until the editor has next finished painting, which is the delay
+ * a user feels while typing. When the app exits, a summary of each histogram
+ * is appended to ~/.notesapp/logs/metrics.log, one line per session, tagged
+ * with -Dnotes.build so runs of different builds can be told apart.
+ */
+public class EdtMonitor extends EventQueue {
+    private static final long THRESHOLD_NANOS = Long.getLong("notes.watchdog.ms", 200) * 1000000;
+    private static EdtMonitor installed;
+
+    private final LatencyHistogram keyToPaint = new LatencyHistogram();
+    private final LatencyHistogram events = new LatencyHistogram();
+    private final LatencyHistogram paints = new LatencyHistogram();
+    private final AtomicInteger stalls = new AtomicInteger();
+
+    // Written on the event thread, read by the watchdog; zero while no event is running
+    private volatile long dispatchStart;
+    private volatile long dispatchCount;
+    private volatile Thread eventThread;
+    private long dispatches;
+    private long keyStart;
+
+    // Replaces the system event queue; call before the first window is shown
+    public static synchronized EdtMonitor install() {
+        if (installed == null) {
+            installed = new EdtMonitor();
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+            installed.startWatchdog();
+            Runtime.getRuntime().addShutdownHook(new Thread("metrics") {
+                @Override
+                public void run() {
+                    installed.dump();
+                }
+            });
+        }
+        return installed;
+    }
+
+    // The installed monitor, or null when the app runs without one
+    public static synchronized EdtMonitor get() {
+        return installed;
+    }
+
+    public LatencyHistogram getKeyToPaint() {
+        return keyToPaint;
+    }
+
+    public LatencyHistogram getEvents() {
+        return events;
+    }
+
+    public LatencyHistogram getPaints() {
+        return paints;
+    }
+
+    public int getStalls() {
+        return stalls.get();
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        long start = System.nanoTime();
+        // Only typing into the editor is sure to be followed by an editor paint
+        if (keyStart == 0 && event.getID() == KeyEvent.KEY_TYPED && event.getSource() instanceof NotesTextArea) {
+            keyStart = start;
+        }
+        eventThread = Thread.currentThread();
+        long dispatch = ++dispatches;
+        dispatchCount = dispatch;
+        dispatchStart = start;
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            dispatchStart = 0;
+            // A modal dialog dispatches events of its own while this one waits for it to close.
+            // That wait is the user reading the dialog, not the UI hanging, so it is not timed
+            if (dispatches == dispatch) {
+                events.recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    // Called by the editor once it has painted, with the time painting started
+    public void painted(long start) {
+        long now = System.nanoTime();
+        paints.recordNanos(now - start);
+        if (keyStart != 0) {
+            keyToPaint.recordNanos(now - keyStart);
+            keyStart = 0;
+        }
+    }
+
+    private void startWatchdog() {
+        Thread watchdog = new Thread("edt-watchdog") {
+            @Override
+            public void run() {
+                long reported = 0;
+                while (true) {
+                    try {
+                        Thread.sleep(Math.max(10, THRESHOLD_NANOS / 4000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long start = dispatchStart;
+                    long dispatch = dispatchCount;
+                    long elapsed = System.nanoTime() - start;
+                    if (start != 0 && dispatch != reported && elapsed > THRESHOLD_NANOS) {
+                        // One trace per stalled event; its full length shows up in the event histogram
+                        reported = dispatch;
+                        stalls.incrementAndGet();
+                        reportStall(eventThread, elapsed);
+                    }
+                }
+            }
+        };
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private void reportStall(Thread thread, long elapsed) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%s event thread busy for %dms%n", Instant.now(),
+                elapsed / 1000000));
+        for (StackTraceElement frame : thread.getStackTrace()) {
+            report.append("\tat ").append(frame).append(System.lineSeparator());
+        }
+        append("stalls.log", report.append(System.lineSeparator()).toString());
+    }
+
+    // Appends one line summing up this session to metrics.log
+    public void dump() {
+        String line = String.format(Locale.ROOT, "%s build=%s keyToPaint[%s] events[%s] paints[%s] stalls=%d%n",
+                Instant.now(), System.getProperty("notes.build", "dev"), keyToPaint.summary(),
+                events.summary(), paints.summary(), stalls.get());
+        append("metrics.log", line);
+    }
+
+    private static void append(String name, String text) {
+        try {
+            Files.write(AppData.dir("logs").resolve(name), text.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Metrics are diagnostic only
+            e.printStackTrace();
+        }
+    }
+}
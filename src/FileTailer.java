@@ -0,0 +1,280 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a file that is being appended to, such as a log, and appends the
+ * new text to its document.
+ *
+ * Changes are picked up through a WatchService on the file's folder, with a
+ * timed poll as well for file systems that do not report them. Each change
+ * only reads the bytes past the last position with positioned channel reads.
+ * Text is published from a thread of its own and SwingWorker coalesces
+ * whatever arrives within a frame into one edit on the event thread. Once
+ * the document has more than the line cap the oldest lines are removed, so
+ * a log can be followed for as long as it keeps growing; they are dropped
+ * from the piece table without being read. A file that shrinks or is
+ * replaced, as when logs are rotated, is read again from the start into a
+ * new document, since the old one may be mapped over bytes that are gone.
+ */
+public class FileTailer extends SwingWorker<Void, FileTailer.Chunk> {
+    public static final int MAX_LINES = Integer.getInteger("notes.tail.maxLines", 100000);
+
+    private static final int READ_SIZE = 1024 * 1024;
+    private static final long POLL_MILLIS = 1000;
+    // More unread text than this is skipped instead of appended and trimmed again straight away
+    private static final long CATCH_UP = 16L * 1024 * 1024;
+
+    private final Path path;
+    private final TextEncoding encoding;
+    private NotesDocument document; // Event thread only
+    private long position;
+
+    /**
+     * Follows the file from the given byte position, which is where the
+     * document's text currently ends in the file.
+     */
+    public FileTailer(File file, NotesDocument document, TextEncoding encoding, long position) {
+        this.path = file.toPath();
+        this.document = document;
+        this.encoding = encoding;
+        this.position = position;
+    }
+
+    // Starts following on a daemon thread; cancel(true) stops it
+    public void start() {
+        Thread thread = new Thread(this, "tail " + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException, InterruptedException {
+        WatchService watcher = null;
+        try {
+            watcher = path.getFileSystem().newWatchService();
+            path.toAbsolutePath().getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Polling alone still works, only a little later
+            if (watcher != null) {
+                watcher.close();
+            }
+            watcher = null;
+        }
+        try {
+            follow(watcher);
+        } catch (ClosedWatchServiceException e) {
+            // Cancelled
+        } finally {
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+        return null;
+    }
+
+    private void follow(WatchService watcher) throws IOException, InterruptedException {
+        CharsetDecoder decoder = newDecoder();
+        ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+        CharBuffer chars = CharBuffer.allocate(READ_SIZE);
+        Object fileKey = fileKey();
+        boolean restart = false;
+        FileChannel channel = null;
+        try {
+            while (!isCancelled()) {
+                Object key = fileKey();
+                if (channel != null && !Objects.equals(key, fileKey)) {
+                    // Renamed away or deleted, as when logs are rotated
+                    channel.close();
+                    channel = null;
+                }
+                if (channel == null && key != null) {
+                    try {
+                        channel = FileChannel.open(path, StandardOpenOption.READ);
+                        restart |= !Objects.equals(key, fileKey);
+                        fileKey = key;
+                    } catch (NoSuchFileException e) {
+                        // Gone again before it could be opened
+                    }
+                }
+                if (channel != null) {
+                    long size = channel.size();
+                    if (restart || size < position) {
+                        // Truncated or replaced: start over with the new file
+                        restart = false;
+                        position = encoding.getBom().length;
+                        decoder = newDecoder();
+                        bytes.clear();
+                        publish(new Chunk("", true));
+                    }
+                    if (size - position > CATCH_UP) {
+                        // Only the end of it is going to be kept anyway
+                        position = (size - CATCH_UP) & ~1L;
+                        decoder = newDecoder();
+                        bytes.clear();
+                        read(channel, size, decoder, bytes, chars, true);
+                    } else {
+                        read(channel, size, decoder, bytes, chars, false);
+                    }
+                }
+                waitForChange(watcher);
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    // Decodes [position, size) and publishes it; a sequence cut off at the end is kept for the next read
+    private void read(FileChannel channel, long size, CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+                      boolean skipPartialLine) throws IOException {
+        while (position < size && !isCancelled()) {
+            int n = channel.read(bytes, position);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+            bytes.flip();
+            chars.clear();
+            decoder.decode(bytes, chars, false);
+            bytes.compact();
+            chars.flip();
+            if (skipPartialLine) {
+                // Reading started mid-line, maybe mid-character
+                boolean lineEnd = false;
+                while (chars.hasRemaining() && !lineEnd) {
+                    lineEnd = chars.get() == '\n';
+                }
+                skipPartialLine = !lineEnd;
+            }
+            if (chars.hasRemaining()) {
+                publish(new Chunk(chars.toString(), false));
+            }
+        }
+    }
+
+    private void waitForChange(WatchService watcher) throws InterruptedException {
+        if (watcher == null) {
+            Thread.sleep(POLL_MILLIS);
+            return;
+        }
+        WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (key != null) {
+            // Which file changed does not matter; the size check says whether this one grew
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    private CharsetDecoder newDecoder() {
+        return encoding.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // Identifies the file itself, so a new file under the same name is noticed
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void process(List<Chunk> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        boolean reset = false;
+        for (Chunk chunk : chunks) {
+            if (chunk.reset) {
+                text.setLength(0);
+                reset = true;
+            }
+            text.append(chunk.text);
+        }
+        beforeUpdate();
+        int removed;
+        try {
+            if (reset) {
+                // Like the loader, start a document of its own; none of the old text is read again
+                NotesDocument fresh = new NotesDocument(text.toString());
+                fresh.putProperty(TextEncoding.PROPERTY, encoding);
+                document = fresh;
+                documentReplaced(fresh);
+                removed = -1;
+            } else {
+                document.insertString(document.getLength(), text.toString(), null);
+                removed = trim();
+            }
+        } catch (BadLocationException e) {
+            // Appending at the end and trimming from the start cannot be out of range
+            throw new IllegalStateException(e);
+        }
+        afterUpdate(removed);
+    }
+
+    // Removes the oldest lines once there are a sixteenth more than the cap; returns the characters removed
+    private int trim() throws BadLocationException {
+        LineIndex lines = document.getLineIndex();
+        int count = lines.getLineCount();
+        if (count <= MAX_LINES + MAX_LINES / 16) {
+            return 0;
+        }
+        int end = lines.getLineStart(count - MAX_LINES);
+        document.removeLeading(end);
+        document.getPieceTable().compact();
+        return end;
+    }
+
+    // Called on the event thread before new text is appended
+    protected void beforeUpdate() {
+    }
+
+    /**
+     * Called on the event thread when the file was truncated or replaced and
+     * its text now goes to a new document, before afterUpdate(-1).
+     */
+    protected void documentReplaced(NotesDocument document) {
+    }
+
+    /**
+     * Called on the event thread after new text was appended, with the
+     * number of characters trimmed from the start, or -1 if the file was
+     * read again from the start.
+     */
+    protected void afterUpdate(int removed) {
+    }
+
+    static final class Chunk {
+        final String text;
+        final boolean reset;
+
+        Chunk(String text, boolean reset) {
+            this.text = text;
+            this.reset = reset;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Find and replace bar for the editor.
+ *
+ * Searching runs on a background thread over a DocumentText view, a slice
+ * at a time under the document's read lock, so typing is never held up for
+ * long and the text is never copied. Matches are streamed to the text area
+ * as each slice finishes. Changing the query or the document cancels the
+ * running search and starts a new one. Replace All finds the matches and
+ * their replacements in the background, then replaces each match on its
+ * own, last first, as one compound edit that undoes in a single step, so
+ * the text between matches is never copied.
+ */
+public class FindBar extends JPanel {
+    private static final int SLICE = 4 * 1024 * 1024;
+    private static final int LINE_SCAN = 64 * 1024;
+
+    private final NotesTextArea textArea;
+    private final JTextField queryField;
+    private final JTextField replaceField;
+    private final JCheckBox matchCaseBox;
+    private final JCheckBox regexBox;
+    private final JLabel statusLabel;
+    private final Timer typingTimer;
+    private final DocumentListener documentListener;
+    private SearchMatches matches;
+    private SwingWorker<?, ?> activeTask;
+    private long documentVersion;
+
+    public FindBar(NotesTextArea textArea) {
+        this.textArea = textArea;
+        setLayout(new FlowLayout(FlowLayout.LEFT, 8, 6));
+        setBackground(new Color(55, 55, 55));
+        setBorder(BorderFactory.createMatteBorder(0, 0, 1, 0, Color.GRAY));
+
+        queryField = new JTextField(22);
+        replaceField = new JTextField(16);
+        matchCaseBox = createCheckBox("Match case");
+        regexBox = createCheckBox("Regex");
+        statusLabel = new JLabel(" ");
+        statusLabel.setForeground(Color.WHITE);
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 13));
+        statusLabel.setBorder(new EmptyBorder(0, 10, 0, 0));
+
+        add(createLabel("Find:"));
+        add(queryField);
+        add(createButton("Previous", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findNext(false);
+            }
+        }));
+        add(createButton("Next", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findNext(true);
+            }
+        }));
+        add(matchCaseBox);
+        add(regexBox);
+        add(createLabel("Replace:"));
+        add(replaceField);
+        add(createButton("Replace All", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                replaceAll();
+            }
+        }));
+        add(createButton("Close", new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        }));
+        add(statusLabel);
+
+        // Search once typing pauses rather than on every keystroke
+        typingTimer = new Timer(200, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startSearch();
+            }
+        });
+        typingTimer.setRepeats(false);
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+        });
+        queryField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findNext(true);
+            }
+        });
+        queryField.getInputMap().put(KeyStroke.getKeyStroke("shift ENTER"), "findPrevious");
+        queryField.getActionMap().put("findPrevious", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findNext(false);
+            }
+        });
+        getInputMap(WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).put(KeyStroke.getKeyStroke("ESCAPE"), "closeFind");
+        getActionMap().put("closeFind", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        });
+
+        // Matches go stale as soon as the text changes
+        documentListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                documentChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes do not move text
+            }
+        };
+        textArea.getDocument().addDocumentListener(documentListener);
+        textArea.addPropertyChangeListener("document", new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent e) {
+                if (e.getOldValue() != null) {
+                    ((Document) e.getOldValue()).removeDocumentListener(documentListener);
+                }
+                if (e.getNewValue() != null) {
+                    ((Document) e.getNewValue()).addDocumentListener(documentListener);
+                }
+                documentChanged();
+            }
+        });
+        setVisible(false);
+    }
+
+    // Shows the bar with the selected text, if any, as the query
+    public void open() {
+        String selected = textArea.getSelectedText();
+        if (selected != null && !selected.isEmpty() && selected.length() < 200 && selected.indexOf('\n') < 0) {
+            queryField.setText(selected);
+        }
+        setVisible(true);
+        revalidate();
+        queryField.selectAll();
+        queryField.requestFocusInWindow();
+        startSearch();
+    }
+
+    public void close() {
+        cancelTask();
+        typingTimer.stop();
+        matches = null;
+        textArea.setMatches(null);
+        setVisible(false);
+        revalidate();
+        textArea.requestFocusInWindow();
+    }
+
+    private void documentChanged() {
+        documentVersion++;
+        if (isVisible()) {
+            cancelTask();
+            matches = null;
+            textArea.setMatches(null);
+            typingTimer.restart();
+        }
+    }
+
+    private void cancelTask() {
+        if (activeTask != null) {
+            activeTask.cancel(true);
+            activeTask = null;
+        }
+    }
+
+    // Compiles the current query, or returns null and says why
+    private TextSearch compile() {
+        String query = queryField.getText();
+        if (query.isEmpty()) {
+            statusLabel.setText(" ");
+            return null;
+        }
+        try {
+            return new TextSearch(query, regexBox.isSelected(), matchCaseBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid pattern: " + e.getDescription());
+            return null;
+        }
+    }
+
+    private void startSearch() {
+        cancelTask();
+        matches = new SearchMatches();
+        textArea.setMatches(matches);
+        final TextSearch search = compile();
+        if (search == null) {
+            return;
+        }
+        final SearchMatches target = matches;
+        final Document document = textArea.getDocument();
+        statusLabel.setText("Searching...");
+        SwingWorker<Void, SearchMatches> worker = new SwingWorker<Void, SearchMatches>() {
+            @Override
+            protected Void doInBackground() {
+                final int[] next = new int[1];
+                final boolean[] finished = new boolean[1];
+                while (!finished[0] && !isCancelled()) {
+                    final SearchMatches batch = new SearchMatches();
+                    document.render(new Runnable() {
+                        @Override
+                        public void run() {
+                            DocumentText text = new DocumentText(document);
+                            int length = text.length();
+                            int to = sliceEnd(text, next[0], length);
+                            int end = search.find(text, next[0], to, Math.min(length, to + search.getOverlap()),
+                                    new TextSearch.MatchHandler() {
+                                        @Override
+                                        public void match(int start, int end, MatchResult groups) {
+                                            batch.add(start, end);
+                                        }
+                                    });
+                            next[0] = Math.max(to, end);
+                            finished[0] = next[0] >= length;
+                        }
+                    });
+                    publish(batch);
+                }
+                return null;
+            }
+
+            @Override
+            protected void process(List<SearchMatches> batches) {
+                if (isCancelled()) {
+                    return;
+                }
+                for (SearchMatches batch : batches) {
+                    for (int i = 0; i < batch.getCount(); i++) {
+                        target.add(batch.getStart(i), batch.getEnd(i));
+                    }
+                }
+                statusLabel.setText("Searching... " + target.getCount() + " matches");
+                textArea.repaint();
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    statusLabel.setText(target.getCount() == 0 ? "No matches" : target.getCount() + " matches");
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Search failed: " + cause.getMessage());
+                }
+                textArea.repaint();
+            }
+        };
+        activeTask = worker;
+        worker.execute();
+    }
+
+    private void findNext(boolean forward) {
+        if (matches == null || matches.getCount() == 0) {
+            if (activeTask == null) {
+                startSearch();
+            }
+            return;
+        }
+        int i;
+        if (forward) {
+            i = matches.firstStartingAt(textArea.getSelectionEnd());
+            if (i == matches.getCount()) {
+                i = 0; // Wrap around
+            }
+        } else {
+            i = matches.firstStartingAt(textArea.getSelectionStart()) - 1;
+            if (i < 0) {
+                i = matches.getCount() - 1;
+            }
+        }
+        textArea.select(matches.getStart(i), matches.getEnd(i));
+        textArea.getCaret().setSelectionVisible(true);
+        statusLabel.setText((i + 1) + " of " + matches.getCount() + (activeTask != null && !activeTask.isDone()
+                ? "+" : ""));
+    }
+
+    private void replaceAll() {
+        final TextSearch search = compile();
+        if (search == null) {
+            return;
+        }
+        cancelTask();
+        final Document document = textArea.getDocument();
+        final String replacement = replaceField.getText();
+        final long version = documentVersion;
+        statusLabel.setText("Replacing...");
+        SwingWorker<SearchMatches, Void> worker = new SwingWorker<SearchMatches, Void>() {
+            private final SearchMatches found = new SearchMatches();
+            // One per match for regular expressions, whose replacements can differ; null for plain text
+            private final List<String> replacements = search.isRegex() ? new ArrayList<String>() : null;
+
+            @Override
+            protected SearchMatches doInBackground() {
+                final int[] next = new int[1];
+                final boolean[] finished = new boolean[1];
+                while (!finished[0] && !isCancelled()) {
+                    document.render(new Runnable() {
+                        @Override
+                        public void run() {
+                            DocumentText text = new DocumentText(document);
+                            int length = text.length();
+                            int to = sliceEnd(text, next[0], length);
+                            int end = search.find(text, next[0], to, Math.min(length, to + search.getOverlap()),
+                                    new TextSearch.MatchHandler() {
+                                        @Override
+                                        public void match(int start, int end, MatchResult groups) {
+                                            found.add(start, end);
+                                            if (replacements != null) {
+                                                replacements.add(search.expand(replacement, groups));
+                                            }
+                                        }
+                                    });
+                            next[0] = Math.max(to, end);
+                            finished[0] = next[0] >= length;
+                        }
+                    });
+                }
+                return found;
+            }
+
+            @Override
+            protected void done() {
+                activeTask = null;
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    int count = found.getCount();
+                    if (version != documentVersion) {
+                        statusLabel.setText("The text changed while replacing; nothing was replaced");
+                    } else if (count == 0) {
+                        statusLabel.setText("No matches");
+                    } else {
+                        replace((AbstractDocument) document, found, replacements, replacement);
+                        statusLabel.setText("Replaced " + count + " matches");
+                    }
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Replace failed: " + cause.getMessage());
+                }
+            }
+        };
+        activeTask = worker;
+        worker.execute();
+    }
+
+    // Last match first, so the offsets of the ones before it still hold
+    static void replace(AbstractDocument document, SearchMatches found, List<String> replacements,
+                        String replacement) throws BadLocationException {
+        EditHistory history = EditHistory.get(document);
+        if (history != null) {
+            history.beginCompound();
+        }
+        try {
+            for (int i = found.getCount() - 1; i >= 0; i--) {
+                document.replace(found.getStart(i), found.getEnd(i) - found.getStart(i),
+                        replacements != null ? replacements.get(i) : replacement, null);
+            }
+        } finally {
+            if (history != null) {
+                history.endCompound();
+            }
+        }
+    }
+
+    // Ends a slice just after a line break, so regular expressions rarely see a cut line
+    private static int sliceEnd(CharSequence text, int from, int length) {
+        int to = (int) Math.min(length, (long) from + SLICE);
+        int limit = (int) Math.min(length, (long) to + LINE_SCAN);
+        while (to < limit && text.charAt(to - 1) != '\n') {
+            to++;
+        }
+        return to;
+    }
+
+    private JLabel createLabel(String text) {
+        JLabel label = new JLabel(text);
+        label.setForeground(Color.WHITE);
+        label.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        return label;
+    }
+
+    private JCheckBox createCheckBox(String text) {
+        JCheckBox box = new JCheckBox(text);
+        box.setOpaque(false);
+        box.setForeground(Color.WHITE);
+        box.setFont(new Font("SansSerif", Font.PLAIN, 13));
+        box.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startSearch();
+            }
+        });
+        return box;
+    }
+
+    private JButton createButton(String text, ActionListener listener) {
+        JButton button = new JButton(text);
+        button.setBackground(new Color(100, 100, 100));
+        button.setForeground(Color.WHITE);
+        button.setFocusPainted(false);
+        button.setFont(new Font("SansSerif", Font.PLAIN, 13));
+        button.addActionListener(listener);
+        return button;
+    }
+}
@@ -0,0 +1,424 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import java.awt.Color;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Syntax highlighting for a document, kept up to date as it is edited.
+ *
+ * The only thing stored is the lexer state at the start of every line, in
+ * an int array with a gap at the last edit. Painting lexes the visible lines
+ * from their stored states, so tokens are never kept. After an edit, a
+ * background thread lexes a snapshot of the text from the edited line on and
+ * stops as soon as it is past the edit and a line starts in the state it
+ * had before: everything below is unchanged. Typing in a long file therefore
+ * lexes a line or two, not the file. Lines whose start state changed are
+ * reported to the listeners on the event thread so views repaint just those.
+ * An edit made while the thread is still working makes it stop and start
+ * again from whichever is first, the edit or where it had got to.
+ */
+public class Highlighter implements DocumentListener {
+    // Document property holding the document's highlighter
+    public static final String PROPERTY = "highlighter";
+
+    public static final String[] LANGUAGES = {"Plain Text", "Markdown", "JSON", "Java"};
+
+    private static final Color[] COLORS = {
+        null,
+        new Color(0, 0, 160),     // KEYWORD
+        new Color(0, 128, 0),     // STRING
+        new Color(150, 80, 0),    // NUMBER
+        new Color(128, 128, 128), // COMMENT
+        new Color(160, 0, 80),    // HEADING
+        new Color(120, 60, 160),  // MARKUP
+        new Color(0, 110, 120),   // CODE
+        new Color(140, 20, 20),   // KEY
+    };
+
+    // How often the thread reports progress on a long run of changed lines
+    private static final long PUBLISH_NANOS = 50_000_000L;
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "highlighter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Told on the event thread which lines need repainting. */
+    public interface Listener {
+        void linesChanged(int first, int last);
+    }
+
+    private final NotesDocument document;
+    private final Lexer lexer;
+    private final String language;
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    // Guarded by this: the start states and the range still to be lexed
+    private int[] states;
+    private int gapStart;
+    private int gapEnd;
+    private int generation;
+    private int dirtyFrom = -1;
+    private int dirtyOffset;
+    private int dirtyTo;
+    private boolean queued;
+    private boolean closed;
+
+    private Highlighter(NotesDocument document, Lexer lexer, String language) {
+        this.document = document;
+        this.lexer = lexer;
+        this.language = language;
+        int lines = document.getLineIndex().getLineCount();
+        states = new int[lines + 16];
+        gapStart = lines;
+        gapEnd = states.length;
+    }
+
+    /**
+     * Highlights the document in the given language, replacing any
+     * highlighter it had. Plain Text, or an unknown language, removes it.
+     * The whole text is lexed once in the background. Event thread only.
+     */
+    public static void install(NotesDocument document, String language) {
+        uninstall(document);
+        Lexer lexer = createLexer(language);
+        if (lexer == null) {
+            return;
+        }
+        Highlighter highlighter = new Highlighter(document, lexer, language);
+        document.putProperty(PROPERTY, highlighter);
+        document.addDocumentListener(highlighter);
+        synchronized (highlighter) {
+            highlighter.markDirty(0, 0, highlighter.getLineCount());
+        }
+    }
+
+    public static void uninstall(NotesDocument document) {
+        Highlighter highlighter = get(document);
+        if (highlighter != null) {
+            document.removeDocumentListener(highlighter);
+            document.putProperty(PROPERTY, null);
+            synchronized (highlighter) {
+                highlighter.closed = true;
+            }
+        }
+    }
+
+    // The document's highlighter, or null
+    public static Highlighter get(Document document) {
+        Object highlighter = document.getProperty(PROPERTY);
+        return highlighter instanceof Highlighter ? (Highlighter) highlighter : null;
+    }
+
+    // Language to highlight a file in, going by its extension
+    public static String languageOf(File file) {
+        String name = file != null ? file.getName().toLowerCase() : "";
+        if (name.endsWith(".md") || name.endsWith(".markdown")) {
+            return "Markdown";
+        } else if (name.endsWith(".json")) {
+            return "JSON";
+        } else if (name.endsWith(".java")) {
+            return "Java";
+        }
+        return LANGUAGES[0];
+    }
+
+    private static Lexer createLexer(String language) {
+        if ("Markdown".equals(language)) {
+            return new MarkdownLexer();
+        } else if ("JSON".equals(language)) {
+            return new JsonLexer();
+        } else if ("Java".equals(language)) {
+            return new JavaLexer();
+        }
+        return null;
+    }
+
+    public static Color getColor(int kind) {
+        return kind > 0 && kind < COLORS.length ? COLORS[kind] : null;
+    }
+
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    // Event thread only
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // The state the line starts in; lines not lexed yet start in the initial state
+    public synchronized int getLineState(int line) {
+        return line < getLineCount() ? get(line) : Lexer.INITIAL;
+    }
+
+    // --- edits, on the event thread -------------------------
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int line = document.getLineIndex().getLineOfOffset(e.getOffset());
+        int added = document.getLineDelta(e);
+        synchronized (this) {
+            insertLines(line + 1, added);
+            markDirty(line, added, line + added + 1);
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int line = document.getLineIndex().getLineOfOffset(e.getOffset());
+        int removed = -document.getLineDelta(e);
+        synchronized (this) {
+            removeLines(line + 1, removed);
+            markDirty(line, -removed, line + 1);
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Formatting does not change the tokens
+    }
+
+    /**
+     * Queues lexing from the edited line to at least the end line. A range
+     * still pending from earlier edits is moved by the lines the edit added
+     * and merged in. Called holding the lock.
+     */
+    private void markDirty(int line, int delta, int to) {
+        if (closed) {
+            return;
+        }
+        generation++;
+        if (dirtyFrom >= 0) {
+            if (dirtyFrom > line) {
+                dirtyFrom = Math.max(line, dirtyFrom + delta);
+            }
+            if (dirtyTo > line) {
+                dirtyTo = Math.max(line + 1, dirtyTo + delta);
+            }
+            dirtyFrom = Math.min(dirtyFrom, line);
+            dirtyTo = Math.max(dirtyTo, to);
+        } else {
+            dirtyFrom = line;
+            dirtyTo = to;
+        }
+        dirtyOffset = document.getLineIndex().getLineStart(dirtyFrom);
+        if (!queued) {
+            queued = true;
+            WORKER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    relex();
+                }
+            });
+        }
+    }
+
+    // --- background lexing ----------------------------------
+
+    private void relex() {
+        // The snapshot is taken once per run rather than per edit, under the read lock so it matches dirtyOffset
+        final int[] run = new int[4];
+        final LineReader[] started = new LineReader[1];
+        document.render(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Highlighter.this) {
+                    queued = false;
+                    if (closed || dirtyFrom < 0) {
+                        return;
+                    }
+                    run[0] = generation;
+                    run[1] = dirtyFrom;
+                    run[2] = dirtyTo;
+                    run[3] = get(dirtyFrom);
+                    started[0] = new LineReader(document.getPieceTable().snapshot(), dirtyOffset);
+                }
+            }
+        });
+        LineReader reader = started[0];
+        if (reader == null) {
+            return;
+        }
+        int runGeneration = run[0];
+        int line = run[1];
+        int until = run[2];
+        int state = run[3];
+        Lexer.TokenHandler ignore = new Lexer.TokenHandler() {
+            @Override
+            public void token(int start, int end, int kind) {
+            }
+        };
+        int changedFrom = -1;
+        int changedTo = -1;
+        long published = System.nanoTime();
+        while (true) {
+            boolean more = reader.next();
+            state = lexer.lexLine(reader.buffer, reader.lineStart, reader.lineEnd, state, ignore);
+            synchronized (this) {
+                if (closed || runGeneration != generation) {
+                    // A newer edit queued a run of its own, which takes over from dirtyFrom
+                    break;
+                }
+                if (!more) {
+                    dirtyFrom = -1;
+                    break;
+                }
+                line++;
+                int old = get(line);
+                set(line, state);
+                dirtyFrom = line;
+                dirtyOffset = reader.nextLine;
+                if (old != state) {
+                    changedFrom = changedFrom < 0 ? line : changedFrom;
+                    changedTo = line;
+                } else if (line >= until) {
+                    dirtyFrom = -1;
+                    break;
+                }
+            }
+            if (changedFrom >= 0 && System.nanoTime() - published > PUBLISH_NANOS) {
+                publish(changedFrom, changedTo);
+                changedFrom = -1;
+                published = System.nanoTime();
+            }
+        }
+        if (changedFrom >= 0) {
+            publish(changedFrom, changedTo);
+        }
+    }
+
+    private void publish(final int first, final int last) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<Listener>(listeners)) {
+                    listener.linesChanged(first, last);
+                }
+            }
+        });
+    }
+
+    // Reads a snapshot line by line into a reusable buffer
+    private static final class LineReader {
+        private final PieceTableContent.Snapshot text;
+        char[] buffer = new char[64 * 1024];
+        private int bufferStart; // Text offset of buffer[0]
+        private int bufferLength;
+        int lineStart;
+        int lineEnd;
+        int nextLine;
+
+        LineReader(PieceTableContent.Snapshot text, int offset) {
+            this.text = text;
+            bufferStart = offset;
+            nextLine = offset;
+        }
+
+        // Loads the next line into buffer[lineStart, lineEnd); false if it is the last one
+        boolean next() {
+            int start = nextLine - bufferStart;
+            int i = start;
+            while (true) {
+                while (i < bufferLength && buffer[i] != '\n') {
+                    i++;
+                }
+                if (i < bufferLength || bufferStart + bufferLength == text.length()) {
+                    break;
+                }
+                // Keep the line so far at the front of the buffer and read on
+                int kept = bufferLength - start;
+                if (kept > buffer.length / 2) {
+                    char[] grown = new char[buffer.length * 2];
+                    System.arraycopy(buffer, start, grown, 0, kept);
+                    buffer = grown;
+                } else {
+                    System.arraycopy(buffer, start, buffer, 0, kept);
+                }
+                bufferStart += start;
+                i -= start;
+                start = 0;
+                int read = Math.min(buffer.length - kept, text.length() - bufferStart - kept);
+                text.getChars(bufferStart + kept, bufferStart + kept + read, buffer, kept);
+                bufferLength = kept + read;
+            }
+            lineStart = start;
+            lineEnd = i;
+            boolean more = i < bufferLength;
+            nextLine = bufferStart + i + (more ? 1 : 0);
+            return more;
+        }
+    }
+
+    // --- start states, indexed by line ---------------------
+
+    private int getLineCount() {
+        return states.length - (gapEnd - gapStart);
+    }
+
+    private int get(int line) {
+        return states[line < gapStart ? line : line + gapEnd - gapStart];
+    }
+
+    private void set(int line, int state) {
+        states[line < gapStart ? line : line + gapEnd - gapStart] = state;
+    }
+
+    // New lines start in whatever state the line after them had, until they are lexed
+    private void insertLines(int at, int count) {
+        if (count <= 0) {
+            return;
+        }
+        moveGap(at);
+        if (gapEnd - gapStart < count) {
+            int after = states.length - gapEnd;
+            int capacity = Math.max(states.length * 3 / 2, gapStart + after + count + 16);
+            int[] grown = new int[capacity];
+            System.arraycopy(states, 0, grown, 0, gapStart);
+            System.arraycopy(states, gapEnd, grown, capacity - after, after);
+            states = grown;
+            gapEnd = capacity - after;
+        }
+        int fill = gapEnd < states.length ? states[gapEnd] : Lexer.INITIAL;
+        for (int i = 0; i < count; i++) {
+            states[gapStart++] = fill;
+        }
+    }
+
+    private void removeLines(int at, int count) {
+        if (count <= 0) {
+            return;
+        }
+        moveGap(at);
+        gapEnd += count;
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            System.arraycopy(states, index, states, index + gapEnd - gapStart, gapStart - index);
+        } else {
+            System.arraycopy(states, gapEnd, states, gapStart, index - gapStart);
+        }
+        gapEnd += index - gapStart;
+        gapStart = index;
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * One immutable file of the notes search index: a sorted term dictionary
+ * and, for every term, the ids of the notes that contain it.
+ *
+ * Postings are stored as varint gaps between ascending note ids, each
+ * followed by the term's count in that note. The dictionary is memory-mapped
+ * and binary searched in place; a term's postings are mapped only when a
+ * query asks for them, so opening a segment reads almost nothing.
+ */
+public final class IndexSegment implements Closeable {
+    private static final int MAGIC = 0x4E494458; // "NIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer dictionary;
+    private final int termCount;
+
+    private IndexSegment(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // Fill the header
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            channel.close();
+            throw new IOException("Not an index segment: " + file);
+        }
+        termCount = header.getInt();
+        long dictionaryOffset = header.getLong();
+        dictionary = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+                channel.size() - dictionaryOffset);
+    }
+
+    public static IndexSegment open(Path file) throws IOException {
+        return new IndexSegment(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public String getTerm(int index) {
+        int entry = entryOffset(index);
+        int length = dictionary.getShort(entry) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = dictionary.duplicate();
+        view.position(entry + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Postings of the term, or null if no note in this segment contains it
+    public Postings getPostings(String term) throws IOException {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = getTerm(mid).compareTo(term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return getPostings(mid);
+            }
+        }
+        return null;
+    }
+
+    public Postings getPostings(int index) throws IOException {
+        int entry = entryOffset(index);
+        int length = dictionary.getShort(entry) & 0xFFFF;
+        long offset = dictionary.getLong(entry + 2 + length);
+        int bytes = dictionary.getInt(entry + 2 + length + 8);
+        int docCount = dictionary.getInt(entry + 2 + length + 12);
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+        Postings postings = new Postings(docCount);
+        int doc = 0;
+        for (int i = 0; i < docCount; i++) {
+            doc += readVarint(data);
+            postings.add(doc, readVarint(data));
+        }
+        return postings;
+    }
+
+    private int entryOffset(int index) {
+        return (int) dictionary.getLong(index * 8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes a segment holding the given terms. The file appears under its
+     * final name only once it is complete.
+     */
+    public static void write(Path file, Map<String, Postings> terms) throws IOException {
+        String[] sorted = terms.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        try (Writer writer = new Writer(file)) {
+            for (String term : sorted) {
+                writer.add(term, terms.get(term));
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Merges segments with ascending, disjoint note id ranges into one,
+     * dropping the postings of deleted notes.
+     */
+    public static void merge(Path file, List<IndexSegment> segments, BitSet deleted) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>();
+        for (int i = 0; i < segments.size(); i++) {
+            Cursor cursor = new Cursor(segments.get(i), i);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        try (Writer writer = new Writer(file)) {
+            List<Cursor> same = new ArrayList<Cursor>();
+            while (!queue.isEmpty()) {
+                same.add(queue.poll());
+                while (!queue.isEmpty() && queue.peek().term.equals(same.get(0).term)) {
+                    same.add(queue.poll());
+                }
+                // Segment order is note id order, so the lists concatenate
+                Collections.sort(same, new Comparator<Cursor>() {
+                    @Override
+                    public int compare(Cursor a, Cursor b) {
+                        return Integer.compare(a.order, b.order);
+                    }
+                });
+                Postings merged = new Postings(16);
+                for (Cursor cursor : same) {
+                    Postings postings = cursor.segment.getPostings(cursor.index);
+                    for (int i = 0; i < postings.size(); i++) {
+                        if (!deleted.get(postings.getDoc(i))) {
+                            merged.add(postings.getDoc(i), postings.getCount(i));
+                        }
+                    }
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+                if (merged.size() > 0) {
+                    writer.add(same.get(0).term, merged);
+                }
+                same.clear();
+            }
+            writer.finish();
+        }
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Note ids in ascending order, each with how often the term occurs in that note. */
+    public static final class Postings {
+        private int[] docs;
+        private int[] counts;
+        private int size;
+
+        public Postings(int capacity) {
+            docs = new int[Math.max(1, capacity)];
+            counts = new int[docs.length];
+        }
+
+        public void add(int doc, int count) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            docs[size] = doc;
+            counts[size] = count;
+            size++;
+        }
+
+        // Appends postings whose note ids all follow this list's
+        public void addAll(Postings other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.docs[i], other.counts[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getDoc(int i) {
+            return docs[i];
+        }
+
+        public int getCount(int i) {
+            return counts[i];
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        final IndexSegment segment;
+        final int order;
+        int index = -1;
+        String term;
+
+        Cursor(IndexSegment segment, int order) {
+            this.segment = segment;
+            this.order = order;
+        }
+
+        boolean advance() {
+            if (++index >= segment.termCount) {
+                return false;
+            }
+            term = segment.getTerm(index);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return term.compareTo(other.term);
+        }
+    }
+
+    /** Streams postings to disk and appends the dictionary at the end. */
+    private static final class Writer implements Closeable {
+        private final Path file;
+        private final Path temp;
+        private final DataOutputStream out;
+        private long position = HEADER_SIZE;
+        private final List<String> terms = new ArrayList<String>();
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int[] docCounts = new int[1024];
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private boolean finished;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            temp = Files.createTempFile(file.getParent(), "segment", ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024));
+            out.write(new byte[HEADER_SIZE]); // Filled in by finish()
+        }
+
+        void add(String term, Postings postings) throws IOException {
+            buffer.reset();
+            int previous = 0;
+            for (int i = 0; i < postings.size; i++) {
+                writeVarint(buffer, postings.docs[i] - previous);
+                writeVarint(buffer, postings.counts[i]);
+                previous = postings.docs[i];
+            }
+            int n = terms.size();
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+                lengths = Arrays.copyOf(lengths, n * 2);
+                docCounts = Arrays.copyOf(docCounts, n * 2);
+            }
+            terms.add(term);
+            offsets[n] = position;
+            lengths[n] = buffer.size();
+            docCounts[n] = postings.size;
+            buffer.writeTo(out);
+            position += buffer.size();
+        }
+
+        void finish() throws IOException {
+            long dictionaryOffset = position;
+            int n = terms.size();
+            byte[][] encoded = new byte[n][];
+            long entry = 8L * n;
+            for (int i = 0; i < n; i++) {
+                encoded[i] = terms.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeLong(entry);
+                entry += 2 + encoded[i].length + 8 + 4 + 4;
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeShort(encoded[i].length);
+                out.write(encoded[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeInt(docCounts[i]);
+            }
+            out.close();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(n).putLong(dictionaryOffset).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Lexer for Java source. Block comments and text blocks are the only tokens
+ * that run across lines, so they are the only states besides the initial
+ * one.
+ */
+public class JavaLexer implements Lexer {
+    private static final int IN_COMMENT = 1;
+    private static final int IN_TEXT_BLOCK = 2;
+
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "var", "record", "yield", "sealed", "permits", "true", "false", "null"));
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenHandler tokens) {
+        int i = start;
+        if (state == IN_COMMENT) {
+            int close = indexOf(text, i, end, '*', '/');
+            tokens.token(i, close < 0 ? end : close + 2, COMMENT);
+            if (close < 0) {
+                return IN_COMMENT;
+            }
+            i = close + 2;
+        } else if (state == IN_TEXT_BLOCK) {
+            int close = findTextBlockEnd(text, i, end);
+            tokens.token(i, close < 0 ? end : close, STRING);
+            if (close < 0) {
+                return IN_TEXT_BLOCK;
+            }
+            i = close;
+        }
+        while (i < end) {
+            char c = text[i];
+            if (c == '/' && i + 1 < end && text[i + 1] == '/') {
+                tokens.token(i, end, COMMENT);
+                return INITIAL;
+            } else if (c == '/' && i + 1 < end && text[i + 1] == '*') {
+                int close = indexOf(text, i + 2, end, '*', '/');
+                tokens.token(i, close < 0 ? end : close + 2, COMMENT);
+                if (close < 0) {
+                    return IN_COMMENT;
+                }
+                i = close + 2;
+            } else if (c == '"' && i + 2 < end && text[i + 1] == '"' && text[i + 2] == '"') {
+                int close = findTextBlockEnd(text, i + 3, end);
+                tokens.token(i, close < 0 ? end : close, STRING);
+                if (close < 0) {
+                    return IN_TEXT_BLOCK;
+                }
+                i = close;
+            } else if (c == '"' || c == '\'') {
+                int close = i + 1;
+                while (close < end && text[close] != c) {
+                    close += text[close] == '\\' ? 2 : 1;
+                }
+                close = Math.min(end, close + 1);
+                tokens.token(i, close, STRING);
+                i = close;
+            } else if (c >= '0' && c <= '9') {
+                int numberEnd = i + 1;
+                while (numberEnd < end && (Character.isLetterOrDigit(text[numberEnd]) || text[numberEnd] == '.'
+                        || text[numberEnd] == '_')) {
+                    numberEnd++;
+                }
+                tokens.token(i, numberEnd, NUMBER);
+                i = numberEnd;
+            } else if (c == '@' || Character.isJavaIdentifierStart(c)) {
+                int wordEnd = i + 1;
+                while (wordEnd < end && Character.isJavaIdentifierPart(text[wordEnd])) {
+                    wordEnd++;
+                }
+                if (c == '@') {
+                    tokens.token(i, wordEnd, MARKUP);
+                } else if (KEYWORDS.contains(new String(text, i, wordEnd - i))) {
+                    tokens.token(i, wordEnd, KEYWORD);
+                }
+                i = wordEnd;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL;
+    }
+
+    // Index of the first of the two characters in a row, or -1
+    private static int indexOf(char[] text, int from, int end, char first, char second) {
+        for (int i = from; i + 1 < end; i++) {
+            if (text[i] == first && text[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Position just past the closing quotes of a text block, or -1 if it does not close on this line
+    private static int findTextBlockEnd(char[] text, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (text[i] == '\\') {
+                i++;
+            } else if (text[i] == '"' && text[i + 1] == '"' && text[i + 2] == '"') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+}
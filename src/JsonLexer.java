@@ -0,0 +1,56 @@
+/**
+ * Lexer for JSON. Strings cannot span lines in JSON, so every line starts in
+ * the initial state and an edit never needs more than its own lines lexed
+ * again. A string followed by a colon is an object key.
+ */
+public class JsonLexer implements Lexer {
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenHandler tokens) {
+        int i = start;
+        while (i < end) {
+            char c = text[i];
+            if (c == '"') {
+                int close = i + 1;
+                while (close < end && text[close] != '"') {
+                    close += text[close] == '\\' ? 2 : 1;
+                }
+                close = Math.min(end, close + 1);
+                int next = close;
+                while (next < end && (text[next] == ' ' || text[next] == '\t')) {
+                    next++;
+                }
+                tokens.token(i, close, next < end && text[next] == ':' ? KEY : STRING);
+                i = close;
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                int numberEnd = i + 1;
+                while (numberEnd < end && isNumberPart(text[numberEnd])) {
+                    numberEnd++;
+                }
+                tokens.token(i, numberEnd, NUMBER);
+                i = numberEnd;
+            } else if (Character.isLetter(c)) {
+                int wordEnd = i + 1;
+                while (wordEnd < end && Character.isLetter(text[wordEnd])) {
+                    wordEnd++;
+                }
+                // true, false and null; anything else is an error, left plain
+                if (isLiteral(text, i, wordEnd)) {
+                    tokens.token(i, wordEnd, KEYWORD);
+                }
+                i = wordEnd;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL;
+    }
+
+    private static boolean isNumberPart(char c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+    private static boolean isLiteral(char[] text, int start, int end) {
+        String word = new String(text, start, end - start);
+        return word.equals("true") || word.equals("false") || word.equals("null");
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, laid out the way HdrHistogram lays
+ * out its buckets: values below 128 get a bucket each, and every power of two
+ * above that is split into 64 buckets, so any recorded value is off by less
+ * than 1/64th. The counts live in one preallocated array, which makes
+ * recording a couple of shifts and an atomic increment with no allocation,
+ * cheap enough to do for every event the UI dispatches.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << SUB_BITS;
+    private static final int LINEAR = HALF * 2;
+    // Up to 2^40 microseconds, about 12 days; anything longer lands in the last bucket
+    private static final int MAX_SHIFT = 40 - SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + MAX_SHIFT * HALF);
+
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(0, micros)));
+    }
+
+    // Convenience for callers timing with System.nanoTime()
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // Upper end of the bucket holding the given percentile (0 to 100), or 0 if nothing was recorded
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return highestValueAt(counts.length() - 1);
+    }
+
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    // One line such as "n=120 p50=1.2ms p90=3.4ms p99=8.0ms max=15.1ms"
+    public String summary() {
+        return String.format(Locale.ROOT, "n=%d p50=%s p90=%s p99=%s max=%s", getCount(),
+                millis(getValueAtPercentile(50)), millis(getValueAtPercentile(90)),
+                millis(getValueAtPercentile(99)), millis(getMax()));
+    }
+
+    static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // Shift the value down until it has SUB_BITS + 1 significant bits left
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        if (shift > MAX_SHIFT) {
+            return LINEAR + MAX_SHIFT * HALF - 1;
+        }
+        return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / HALF + 1;
+        long sub = (index - LINEAR) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Splits one line of text into highlighted tokens.
+ *
+ * A lexer sees a line at a time, without its newline, together with the
+ * state the previous line ended in, and returns the state the next line
+ * starts in. Everything a lexer needs to carry across lines, such as being
+ * inside a block comment, has to fit in that int; the Highlighter stores
+ * one per line and re-lexes from an edit only until the states match again.
+ * Lexers are called from the highlighter's thread and from painting, so
+ * they must not keep state of their own between calls.
+ */
+public interface Lexer {
+    int INITIAL = 0;
+
+    int KEYWORD = 1;
+    int STRING = 2;
+    int NUMBER = 3;
+    int COMMENT = 4;
+    int HEADING = 5;
+    int MARKUP = 6;
+    int CODE = 7;
+    int KEY = 8;
+
+    /** Receives tokens in order; text between tokens is plain. */
+    interface TokenHandler {
+        void token(int start, int end, int kind);
+    }
+
+    /**
+     * Lexes text[start, end) starting in the given state, reporting tokens
+     * with positions in the array, and returns the state at the end of the
+     * line.
+     */
+    int lexLine(char[] text, int start, int end, int state, TokenHandler tokens);
+}
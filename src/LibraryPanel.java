@@ -0,0 +1,301 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Home screen list of every note in the library, filtered as the user types
+ * and sorted by any of the cached fields. Rows have a fixed size and are
+ * painted straight from the cache, so the list only ever touches the rows on
+ * screen, however many notes there are. Opening a note and choosing another
+ * folder are left to the subclass.
+ */
+public abstract class LibraryPanel extends JPanel implements NoteLibrary.Listener {
+    private static final String[] SORT_NAMES = { "Last modified", "Title", "Size", "Path" };
+
+    private final LibraryModel model = new LibraryModel();
+    private final JList<NoteLibrary.Note> list;
+    private final JTextField filterField;
+    private final JComboBox<String> sortCombo;
+    private final JLabel statusLabel;
+    private NoteLibrary library;
+
+    public LibraryPanel() {
+        super(new BorderLayout(8, 8));
+        setOpaque(false);
+        setBorder(new EmptyBorder(10, 10, 20, 30));
+
+        JPanel top = new JPanel(new BorderLayout(8, 8));
+        top.setOpaque(false);
+        filterField = new JTextField();
+        filterField.setFont(new Font("SansSerif", Font.PLAIN, 18));
+        filterField.setToolTipText("Filter by title, path or first lines");
+        top.add(filterField, BorderLayout.CENTER);
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 0));
+        controls.setOpaque(false);
+        sortCombo = new JComboBox<String>(SORT_NAMES);
+        sortCombo.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        controls.add(sortCombo);
+        JButton folderButton = new JButton("Folder...");
+        folderButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        folderButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                changeFolder();
+            }
+        });
+        controls.add(folderButton);
+        top.add(controls, BorderLayout.EAST);
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 13));
+        statusLabel.setForeground(Color.WHITE);
+        top.add(statusLabel, BorderLayout.SOUTH);
+
+        list = new JList<NoteLibrary.Note>(model);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed sizes mean no row is ever measured; the width just has to be small enough to follow the viewport
+        list.setFixedCellHeight(48);
+        list.setFixedCellWidth(100);
+        list.setCellRenderer(new NoteRenderer());
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    openSelected();
+                }
+            }
+        });
+        list.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    openSelected();
+                }
+            }
+        });
+
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                update();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                update();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                update();
+            }
+        });
+        filterField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                // Down moves into the list, Enter opens the top match
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && model.getSize() > 0) {
+                    list.setSelectedIndex(0);
+                    list.requestFocusInWindow();
+                } else if (e.getKeyCode() == KeyEvent.VK_ENTER && model.getSize() > 0) {
+                    list.setSelectedIndex(0);
+                    openSelected();
+                }
+            }
+        });
+        sortCombo.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+    }
+
+    // Opens the note in the editor
+    protected abstract void openNote(File file);
+
+    // Lets the user pick another notes folder
+    protected abstract void changeFolder();
+
+    public NoteLibrary getLibrary() {
+        return library;
+    }
+
+    public void setLibrary(NoteLibrary library) {
+        if (this.library != null) {
+            this.library.removeListener(this);
+        }
+        this.library = library;
+        if (library != null) {
+            library.addListener(this);
+        }
+        // It may have published before the listener was added
+        libraryChanged();
+    }
+
+    @Override
+    public void libraryChanged() {
+        model.setNotes(library != null ? library.getNotes() : new NoteLibrary.Note[0]);
+        update();
+    }
+
+    private void update() {
+        NoteLibrary.Note selected = list.getSelectedValue();
+        model.show(sortCombo.getSelectedIndex(), filterField.getText());
+        if (selected != null) {
+            int index = model.indexOf(selected.path);
+            if (index >= 0) {
+                list.setSelectedIndex(index);
+            }
+        }
+
+        Path folder = library != null ? library.getFolder() : null;
+        int total = model.getTotal();
+        String status;
+        if (library != null && folder == null && !library.isScanning()) {
+            status = "Choose your notes folder with Folder... to list your notes here";
+        } else if (folder == null) {
+            status = "Loading notes...";
+        } else {
+            status = total + " notes in " + folder;
+            if (model.getSize() != total) {
+                status += ", " + model.getSize() + " shown";
+            }
+            if (library.isScanning()) {
+                status += " - checking for changes (" + library.getScanned() + " so far)";
+            }
+        }
+        statusLabel.setText(status);
+    }
+
+    private void openSelected() {
+        NoteLibrary.Note note = list.getSelectedValue();
+        if (note != null) {
+            openNote(note.getFile());
+        }
+    }
+
+    /** The notes on show: each sort order is worked out once per library update, filtering walks it. */
+    private static final class LibraryModel extends AbstractListModel<NoteLibrary.Note> {
+        private NoteLibrary.Note[] all = new NoteLibrary.Note[0];
+        private final NoteLibrary.Note[][] sorted = new NoteLibrary.Note[SORT_NAMES.length][];
+        private NoteLibrary.Note[] shown = all;
+
+        void setNotes(NoteLibrary.Note[] notes) {
+            if (notes != all) {
+                all = notes;
+                Arrays.fill(sorted, null);
+            }
+        }
+
+        void show(int key, String filter) {
+            if (sorted[key] == null) {
+                sorted[key] = NoteLibrary.sort(all, key);
+            }
+            int old = shown.length;
+            shown = NoteLibrary.filter(sorted[key], filter);
+            if (old > 0) {
+                fireIntervalRemoved(this, 0, old - 1);
+            }
+            if (shown.length > 0) {
+                fireIntervalAdded(this, 0, shown.length - 1);
+            }
+        }
+
+        int getTotal() {
+            return all.length;
+        }
+
+        int indexOf(String path) {
+            for (int i = 0; i < shown.length; i++) {
+                if (shown[i].path.equals(path)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int getSize() {
+            return shown.length;
+        }
+
+        @Override
+        public NoteLibrary.Note getElementAt(int index) {
+            return shown[index];
+        }
+    }
+
+    /** Paints a row directly: title and details on top, the preview below. */
+    private static final class NoteRenderer extends JComponent implements ListCellRenderer<NoteLibrary.Note> {
+        private final Font titleFont = new Font("SansSerif", Font.BOLD, 14);
+        private final Font detailFont = new Font("SansSerif", Font.PLAIN, 12);
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        private NoteLibrary.Note note;
+        private boolean selected;
+        private Color selectionBackground;
+        private Color selectionForeground;
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends NoteLibrary.Note> list, NoteLibrary.Note value,
+                                                      int index, boolean isSelected, boolean focused) {
+            note = value;
+            selected = isSelected;
+            selectionBackground = list.getSelectionBackground();
+            selectionForeground = list.getSelectionForeground();
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2d.setColor(selected ? selectionBackground : Color.WHITE);
+            g2d.fillRect(0, 0, getWidth(), getHeight());
+            Color text = selected ? selectionForeground : Color.BLACK;
+            Color detail = selected ? selectionForeground : Color.GRAY;
+
+            String details = size(note.size) + "   " + dateFormat.format(new Date(note.modified));
+            g2d.setFont(detailFont);
+            FontMetrics detailMetrics = g2d.getFontMetrics();
+            int detailsWidth = detailMetrics.stringWidth(details);
+            g2d.setColor(detail);
+            g2d.drawString(details, getWidth() - detailsWidth - 10, 6 + detailMetrics.getAscent());
+            g2d.drawString(note.preview.isEmpty() ? note.path : note.preview, 10, 26 + detailMetrics.getAscent());
+
+            g2d.setFont(titleFont);
+            g2d.setColor(text);
+            Shape clip = g2d.getClip();
+            g2d.clipRect(0, 0, getWidth() - detailsWidth - 20, getHeight());
+            g2d.drawString(note.title, 10, 4 + g2d.getFontMetrics().getAscent());
+            g2d.setClip(clip);
+            g2d.setColor(new Color(230, 230, 230));
+            g2d.drawLine(0, getHeight() - 1, getWidth(), getHeight() - 1);
+        }
+
+        private static String size(long bytes) {
+            if (bytes < 1024) {
+                return bytes + " B";
+            }
+            if (bytes < 1024 * 1024) {
+                return (bytes / 1024) + " KB";
+            }
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+    }
+}
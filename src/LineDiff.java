@@ -0,0 +1,697 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Line-by-line difference between two documents, as a list of hunks where
+ * a range of old lines was replaced by a range of new ones.
+ *
+ * Lines are hashed in parallel and interned to int ids first, so the diff
+ * itself only ever compares ints. Lines that occur exactly once in both
+ * texts and keep their order (the patience diff anchors) cut the problem
+ * into independent regions, which are compared in parallel with Myers'
+ * linear-space algorithm: it finds the middle of an edit script from both
+ * ends and recurses on the halves, so memory stays linear in the region
+ * size. Lines with no equal line on the other side are left out of the
+ * search, since they are changed whatever the script, and so are lines with
+ * very many equal lines there when they sit among such unmatched lines. A
+ * region whose edit script gets too expensive is split at the furthest point
+ * reached instead, which may give a longer but still correct script; the
+ * larger the region, the sooner that happens, so the time stays about linear
+ * in its size even for texts made of a few distinct lines. Everything is kept
+ * in int and boolean arrays.
+ */
+public final class LineDiff {
+    private static final int HASH_BLOCK = 64 * 1024;
+    private static final int PARALLEL_LINES = 64 * 1024;
+    private static final int MAX_COST = 1024;
+    private static final int MIN_COST = 64;
+    private static final int COST_WORK = 1 << 26; // Region lines times cost limit
+    private static final byte UNMATCHED = 1;
+    private static final byte FREQUENT = 2;
+
+    private final int oldLines;
+    private final int newLines;
+    private int[] oldStarts = new int[16];
+    private int[] oldEnds = new int[16];
+    private int[] newStarts = new int[16];
+    private int[] newEnds = new int[16];
+    private int count;
+
+    private LineDiff(int oldLines, int newLines) {
+        this.oldLines = oldLines;
+        this.newLines = newLines;
+    }
+
+    /**
+     * Compares the lines of two documents, which must not change while this
+     * runs. Meant for a background thread.
+     */
+    public static LineDiff compare(NotesDocument oldDocument, NotesDocument newDocument) {
+        final PieceTableContent.Snapshot oldText = oldDocument.getPieceTable().snapshot();
+        final PieceTableContent.Snapshot newText = newDocument.getPieceTable().snapshot();
+        final LineIndex oldIndex = oldDocument.getLineIndex();
+        final LineIndex newIndex = newDocument.getLineIndex();
+        int n = oldIndex.getLineCount();
+        int m = newIndex.getLineCount();
+
+        final int[] oldHashes = new int[n];
+        final int[] newHashes = new int[m];
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        addHashTasks(tasks, oldText, oldIndex, oldHashes);
+        addHashTasks(tasks, newText, newIndex, newHashes);
+        ForkJoinTask.invokeAll(tasks);
+
+        Interner interner = new Interner(oldText, oldIndex, newText, newIndex, n + m);
+        int[] a = new int[n];
+        int[] b = new int[m];
+        for (int i = 0; i < n; i++) {
+            a[i] = interner.intern(oldHashes[i], 0, i);
+        }
+        for (int j = 0; j < m; j++) {
+            b[j] = interner.intern(newHashes[j], 1, j);
+        }
+
+        boolean[] changedA = new boolean[n];
+        boolean[] changedB = new boolean[m];
+        compareRegions(a, b, interner.size(), changedA, changedB);
+
+        LineDiff diff = new LineDiff(n, m);
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && !changedA[i] && !changedB[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int startA = i;
+            int startB = j;
+            while (i < n && changedA[i]) {
+                i++;
+            }
+            while (j < m && changedB[j]) {
+                j++;
+            }
+            diff.add(startA, i, startB, j);
+        }
+        return diff;
+    }
+
+    public int getHunkCount() {
+        return count;
+    }
+
+    // Old lines [getOldStart, getOldEnd) became new lines [getNewStart, getNewEnd); either may be empty
+    public int getOldStart(int hunk) {
+        return oldStarts[hunk];
+    }
+
+    public int getOldEnd(int hunk) {
+        return oldEnds[hunk];
+    }
+
+    public int getNewStart(int hunk) {
+        return newStarts[hunk];
+    }
+
+    public int getNewEnd(int hunk) {
+        return newEnds[hunk];
+    }
+
+    public int getOldLineCount() {
+        return oldLines;
+    }
+
+    public int getNewLineCount() {
+        return newLines;
+    }
+
+    // The new line shown next to an old one: its match, or the same place in a changed hunk
+    public int toNewLine(int oldLine) {
+        return mapLine(oldLine, oldStarts, oldEnds, newStarts, newEnds, newLines);
+    }
+
+    public int toOldLine(int newLine) {
+        return mapLine(newLine, newStarts, newEnds, oldStarts, oldEnds, oldLines);
+    }
+
+    // Index of the first hunk ending after the given old or new line, or getHunkCount() if none
+    public int hunkAfter(int line, boolean old) {
+        int[] ends = old ? oldEnds : newEnds;
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int mapLine(int line, int[] fromStarts, int[] fromEnds, int[] toStarts, int[] toEnds, int toLines) {
+        // Last hunk starting at or before the line
+        int low = -1;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >> 1;
+            if (fromStarts[mid] <= line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int mapped;
+        if (low < 0) {
+            mapped = line;
+        } else if (line < fromEnds[low]) {
+            mapped = toStarts[low] + Math.min(line - fromStarts[low], Math.max(0, toEnds[low] - toStarts[low] - 1));
+        } else {
+            mapped = toEnds[low] + line - fromEnds[low];
+        }
+        return Math.max(0, Math.min(toLines - 1, mapped));
+    }
+
+    private void add(int oldStart, int oldEnd, int newStart, int newEnd) {
+        if (count == oldStarts.length) {
+            oldStarts = Arrays.copyOf(oldStarts, count * 2);
+            oldEnds = Arrays.copyOf(oldEnds, count * 2);
+            newStarts = Arrays.copyOf(newStarts, count * 2);
+            newEnds = Arrays.copyOf(newEnds, count * 2);
+        }
+        oldStarts[count] = oldStart;
+        oldEnds[count] = oldEnd;
+        newStarts[count] = newStart;
+        newEnds[count] = newEnd;
+        count++;
+    }
+
+    // --- hashing ------------------------------------------
+
+    private static void addHashTasks(List<RecursiveAction> tasks, final PieceTableContent.Snapshot text,
+                                     final LineIndex lines, final int[] hashes) {
+        for (int from = 0; from < hashes.length; from += PARALLEL_LINES) {
+            final int start = from;
+            final int end = Math.min(hashes.length, from + PARALLEL_LINES);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    hashLines(text, lines, start, end, hashes);
+                }
+            });
+        }
+    }
+
+    // Hashes lines [from, to), copying the text out a block at a time
+    private static void hashLines(PieceTableContent.Snapshot text, LineIndex lines, int from, int to, int[] hashes) {
+        char[] block = new char[HASH_BLOCK];
+        int blockStart = 0;
+        int blockEnd = 0;
+        for (int line = from; line < to; line++) {
+            int end = lines.getLineEnd(line) - 1;
+            int hash = 0;
+            for (int pos = lines.getLineStart(line); pos < end; pos++) {
+                if (pos >= blockEnd) {
+                    blockStart = pos;
+                    blockEnd = Math.min(text.length(), pos + HASH_BLOCK);
+                    text.getChars(blockStart, blockEnd, block, 0);
+                }
+                hash = 31 * hash + block[pos - blockStart];
+            }
+            hashes[line] = hash;
+        }
+    }
+
+    /**
+     * Gives equal lines of both texts the same id, numbered from zero.
+     * Open addressing on the line hash; lines with equal hashes are compared.
+     */
+    private static final class Interner {
+        private final PieceTableContent.Snapshot[] texts;
+        private final LineIndex[] indexes;
+        private final int[] slots;
+        private final int[] slotHashes;
+        private int[] firstSide = new int[1024];
+        private int[] firstLine = new int[1024];
+        private int size;
+
+        Interner(PieceTableContent.Snapshot oldText, LineIndex oldIndex, PieceTableContent.Snapshot newText,
+                 LineIndex newIndex, int lines) {
+            texts = new PieceTableContent.Snapshot[] { oldText, newText };
+            indexes = new LineIndex[] { oldIndex, newIndex };
+            int capacity = Integer.highestOneBit(Math.max(16, lines * 2 - 1)) << 1;
+            slots = new int[capacity];
+            slotHashes = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int intern(int hash, int side, int line) {
+            int mask = slots.length - 1;
+            for (int slot = (hash * 0x9E3779B9 >>> 7) & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    if (size == firstSide.length) {
+                        firstSide = Arrays.copyOf(firstSide, size * 2);
+                        firstLine = Arrays.copyOf(firstLine, size * 2);
+                    }
+                    firstSide[size] = side;
+                    firstLine[size] = line;
+                    slots[slot] = size + 1;
+                    slotHashes[slot] = hash;
+                    return size++;
+                }
+                if (slotHashes[slot] == hash && sameLine(firstSide[id], firstLine[id], side, line)) {
+                    return id;
+                }
+            }
+        }
+
+        private boolean sameLine(int side1, int line1, int side2, int line2) {
+            int start1 = indexes[side1].getLineStart(line1);
+            int start2 = indexes[side2].getLineStart(line2);
+            int length = indexes[side1].getLineEnd(line1) - 1 - start1;
+            if (indexes[side2].getLineEnd(line2) - 1 - start2 != length) {
+                return false;
+            }
+            PieceTableContent.Snapshot text1 = texts[side1];
+            PieceTableContent.Snapshot text2 = texts[side2];
+            for (int i = 0; i < length; i++) {
+                if (text1.charAt(start1 + i) != text2.charAt(start2 + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // --- regions ------------------------------------------
+
+    /**
+     * Marks the changed lines of both sides. Unique lines matched in order
+     * split the texts into regions that are compared independently.
+     */
+    private static void compareRegions(final int[] a, final int[] b, int ids, final boolean[] changedA,
+                                       final boolean[] changedB) {
+        int n = a.length;
+        int m = b.length;
+        final int[] countA = new int[ids];
+        final int[] countB = new int[ids];
+        int[] positionB = new int[ids];
+        for (int id : a) {
+            countA[id]++;
+        }
+        for (int j = 0; j < m; j++) {
+            countB[b[j]]++;
+            positionB[b[j]] = j;
+        }
+        // Candidates in old order, then the longest run whose new positions increase too
+        int[] candA = new int[n];
+        int[] candB = new int[n];
+        int candidates = 0;
+        for (int i = 0; i < n; i++) {
+            if (countA[a[i]] == 1 && countB[a[i]] == 1) {
+                candA[candidates] = i;
+                candB[candidates] = positionB[a[i]];
+                candidates++;
+            }
+        }
+        positionB = null;
+        int[] anchors = longestIncreasing(candB, candidates);
+        final int manyA = many(n);
+        final int manyB = many(m);
+
+        // Regions between anchors, as [aStart, aEnd, bStart, bEnd] quadruples
+        final List<int[]> regions = new ArrayList<int[]>();
+        int prevA = 0;
+        int prevB = 0;
+        for (int anchor : anchors) {
+            int i = candA[anchor];
+            int j = candB[anchor];
+            if (i > prevA || j > prevB) {
+                regions.add(new int[] { prevA, i, prevB, j });
+            }
+            prevA = i + 1;
+            prevB = j + 1;
+        }
+        if (prevA < n || prevB < m) {
+            regions.add(new int[] { prevA, n, prevB, m });
+        }
+
+        // Batches of about PARALLEL_LINES lines each
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        int batchStart = 0;
+        int batchLines = 0;
+        for (int r = 0; r < regions.size(); r++) {
+            int[] region = regions.get(r);
+            batchLines += region[1] - region[0] + region[3] - region[2];
+            if (batchLines >= PARALLEL_LINES || r == regions.size() - 1) {
+                final int from = batchStart;
+                final int to = r + 1;
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        for (int k = from; k < to; k++) {
+                            int[] region = regions.get(k);
+                            compareRegion(a, b, region, countA, countB, manyA, manyB, changedA, changedB);
+                        }
+                    }
+                });
+                batchStart = r + 1;
+                batchLines = 0;
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    // Matches on the other side above which a line is frequent: about the square root of the side's lines
+    private static int many(int lines) {
+        int many = 5;
+        for (int rest = lines / 64; (rest >>= 2) > 0; ) {
+            many *= 2;
+        }
+        return many;
+    }
+
+    /**
+     * Diffs one region. Lines with no equal line anywhere on the other side
+     * are changed in any edit script, so they are marked straight away and
+     * left out of the search, as GNU diff does.
+     */
+    private static void compareRegion(int[] a, int[] b, int[] region, int[] countA, int[] countB, int manyA,
+                                      int manyB, boolean[] changedA, boolean[] changedB) {
+        int[] linesA = searchLines(a, region[0], region[1], countB, manyA, changedA);
+        int[] linesB = searchLines(b, region[2], region[3], countA, manyB, changedB);
+        int n = linesA.length;
+        int m = linesB.length;
+        int[] idsA = new int[n];
+        for (int k = 0; k < n; k++) {
+            idsA[k] = a[linesA[k]];
+        }
+        int[] idsB = new int[m];
+        for (int k = 0; k < m; k++) {
+            idsB[k] = b[linesB[k]];
+        }
+        boolean[] localA = new boolean[n];
+        boolean[] localB = new boolean[m];
+        new Myers(idsA, idsB, localA, localB, n + m).compare(0, n, 0, m);
+        for (int k = 0; k < n; k++) {
+            if (localA[k]) {
+                changedA[linesA[k]] = true;
+            }
+        }
+        for (int k = 0; k < m; k++) {
+            if (localB[k]) {
+                changedB[linesB[k]] = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the lines of [from, to) to search, marking the others changed:
+     * those with no equal line on the other side, and those with more than
+     * many there inside a run of lines that starts and ends with an unmatched
+     * one, unless they make up over a quarter of it. Such frequent lines
+     * (blank lines, braces) would only match by chance, while making the
+     * search much longer.
+     */
+    private static int[] searchLines(int[] ids, int from, int to, int[] otherCounts, int many, boolean[] changed) {
+        byte[] kinds = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            int matches = otherCounts[ids[i]];
+            kinds[i - from] = matches == 0 ? UNMATCHED : matches > many ? FREQUENT : 0;
+        }
+        int start = 0;
+        while (start < kinds.length) {
+            if (kinds[start] == 0) {
+                start++;
+                continue;
+            }
+            int end = start;
+            int frequent = 0;
+            while (end < kinds.length && kinds[end] != 0) {
+                if (kinds[end++] == FREQUENT) {
+                    frequent++;
+                }
+            }
+            int first = start;
+            while (first < end && kinds[first] == FREQUENT) {
+                kinds[first++] = 0;
+                frequent--;
+            }
+            int last = end;
+            while (last > first && kinds[last - 1] == FREQUENT) {
+                kinds[--last] = 0;
+                frequent--;
+            }
+            if (frequent * 4 > last - first) {
+                for (int k = first; k < last; k++) {
+                    if (kinds[k] == FREQUENT) {
+                        kinds[k] = 0;
+                    }
+                }
+            }
+            start = end;
+        }
+        int[] lines = new int[kinds.length];
+        int count = 0;
+        for (int k = 0; k < kinds.length; k++) {
+            if (kinds[k] == 0) {
+                lines[count++] = from + k;
+            } else {
+                changed[from + k] = true;
+            }
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    // Indexes into values of a longest strictly increasing subsequence, in order
+    private static int[] longestIncreasing(int[] values, int length) {
+        int[] tails = new int[length];
+        int[] previous = new int[length];
+        int longest = 0;
+        for (int i = 0; i < length; i++) {
+            int low = 0;
+            int high = longest;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == longest) {
+                longest++;
+            }
+        }
+        int[] result = new int[longest];
+        for (int k = longest - 1, i = longest > 0 ? tails[longest - 1] : -1; k >= 0; k--, i = previous[i]) {
+            result[k] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Myers' O(ND) difference algorithm in linear space, as in GNU diff.
+     * Forward and backward searches meet in the middle of an optimal edit
+     * script and both halves are compared in turn.
+     */
+    private static final class Myers {
+        private final int[] a;
+        private final int[] b;
+        private final boolean[] changedA;
+        private final boolean[] changedB;
+        private final int[] forward;
+        private final int[] backward;
+        private final int costLimit;
+        private int midX;
+        private int midY;
+
+        Myers(int[] a, int[] b, boolean[] changedA, boolean[] changedB, int lines) {
+            this.a = a;
+            this.b = b;
+            this.changedA = changedA;
+            this.changedB = changedB;
+            forward = new int[lines + 3];
+            backward = new int[lines + 3];
+            // Splitting early costs some optimality, but each search costs the square of the limit
+            costLimit = Math.max(MIN_COST, Math.min(MAX_COST, COST_WORK / Math.max(1, lines)));
+        }
+
+        void compare(int xoff, int xlim, int yoff, int ylim) {
+            while (true) {
+                while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+                    xoff++;
+                    yoff++;
+                }
+                while (xlim > xoff && ylim > yoff && a[xlim - 1] == b[ylim - 1]) {
+                    xlim--;
+                    ylim--;
+                }
+                if (xoff == xlim) {
+                    Arrays.fill(changedB, yoff, ylim, true);
+                    return;
+                }
+                if (yoff == ylim) {
+                    Arrays.fill(changedA, xoff, xlim, true);
+                    return;
+                }
+                if (!findMiddle(xoff, xlim, yoff, ylim)) {
+                    // No way to split it; call the whole region changed
+                    Arrays.fill(changedA, xoff, xlim, true);
+                    Arrays.fill(changedB, yoff, ylim, true);
+                    return;
+                }
+                int x = midX;
+                int y = midY;
+                // Recurse on the smaller half and loop on the larger, so the stack stays shallow
+                if (x - xoff + y - yoff < xlim - x + ylim - y) {
+                    compare(xoff, x, yoff, y);
+                    xoff = x;
+                    yoff = y;
+                } else {
+                    compare(x, xlim, y, ylim);
+                    xlim = x;
+                    ylim = y;
+                }
+            }
+        }
+
+        /**
+         * Finds a point on an edit script between the corners of the box,
+         * strictly inside it, into midX and midY. Diagonal k is stored at
+         * index k - dmin + 1 of the forward and backward arrays.
+         */
+        private boolean findMiddle(int xoff, int xlim, int yoff, int ylim) {
+            int[] fd = forward;
+            int[] bd = backward;
+            int dmin = xoff - ylim;
+            int dmax = xlim - yoff;
+            int shift = 1 - dmin;
+            int fmid = xoff - yoff;
+            int bmid = xlim - ylim;
+            int fmin = fmid;
+            int fmax = fmid;
+            int bmin = bmid;
+            int bmax = bmid;
+            boolean odd = ((fmid - bmid) & 1) != 0;
+            fd[fmid + shift] = xoff;
+            bd[bmid + shift] = xlim;
+            for (int cost = 1; ; cost++) {
+                if (fmin > dmin) {
+                    fd[--fmin - 1 + shift] = -1;
+                } else {
+                    fmin++;
+                }
+                if (fmax < dmax) {
+                    fd[++fmax + 1 + shift] = -1;
+                } else {
+                    fmax--;
+                }
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int low = fd[d - 1 + shift];
+                    int high = fd[d + 1 + shift];
+                    int x = low >= high ? low + 1 : high;
+                    int y = x - d;
+                    while (x < xlim && y < ylim && a[x] == b[y]) {
+                        x++;
+                        y++;
+                    }
+                    fd[d + shift] = x;
+                    if (odd && bmin <= d && d <= bmax && bd[d + shift] <= x) {
+                        return setMiddle(x, y, xoff, xlim, yoff, ylim);
+                    }
+                }
+
+                if (bmin > dmin) {
+                    bd[--bmin - 1 + shift] = Integer.MAX_VALUE;
+                } else {
+                    bmin++;
+                }
+                if (bmax < dmax) {
+                    bd[++bmax + 1 + shift] = Integer.MAX_VALUE;
+                } else {
+                    bmax--;
+                }
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int low = bd[d - 1 + shift];
+                    int high = bd[d + 1 + shift];
+                    int x = low < high ? low : high - 1;
+                    int y = x - d;
+                    while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                        x--;
+                        y--;
+                    }
+                    bd[d + shift] = x;
+                    if (!odd && fmin <= d && d <= fmax && x <= fd[d + shift]) {
+                        return setMiddle(x, y, xoff, xlim, yoff, ylim);
+                    }
+                }
+
+                if (cost >= costLimit) {
+                    // Too expensive: split where either search got furthest
+                    int bestForward = -1;
+                    int forwardX = 0;
+                    for (int d = fmax; d >= fmin; d -= 2) {
+                        int x = Math.min(fd[d + shift], xlim);
+                        int y = x - d;
+                        if (y > ylim) {
+                            x = ylim + d;
+                            y = ylim;
+                        }
+                        if (x + y > bestForward && (x < xlim || y < ylim)) {
+                            bestForward = x + y;
+                            forwardX = x;
+                            midY = y;
+                        }
+                    }
+                    int forwardY = midY;
+                    int bestBackward = Integer.MAX_VALUE;
+                    int backwardX = 0;
+                    int backwardY = 0;
+                    for (int d = bmax; d >= bmin; d -= 2) {
+                        int x = Math.max(xoff, bd[d + shift]);
+                        int y = x - d;
+                        if (y < yoff) {
+                            x = yoff + d;
+                            y = yoff;
+                        }
+                        if (x + y < bestBackward && (x > xoff || y > yoff)) {
+                            bestBackward = x + y;
+                            backwardX = x;
+                            backwardY = y;
+                        }
+                    }
+                    if (bestForward - (xoff + yoff) >= (xlim + ylim) - bestBackward && bestForward >= 0) {
+                        return setMiddle(forwardX, forwardY, xoff, xlim, yoff, ylim);
+                    }
+                    if (bestBackward != Integer.MAX_VALUE) {
+                        return setMiddle(backwardX, backwardY, xoff, xlim, yoff, ylim);
+                    }
+                    return false;
+                }
+            }
+        }
+
+        // Takes the point if it splits the box into two smaller ones
+        private boolean setMiddle(int x, int y, int xoff, int xlim, int yoff, int ylim) {
+            if (x < xoff || x > xlim || y < yoff || y > ylim
+                    || (x == xoff && y == yoff) || (x == xlim && y == ylim)) {
+                return false;
+            }
+            midX = x;
+            midY = y;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Line start offsets of a document, kept in a gap buffer of ints.
+ *
+ * Entries before the gap hold absolute offsets and entries after it hold
+ * their distance from the end of the text, so an edit only moves the gap to
+ * the edited line and never rewrites the offsets of the lines that follow.
+ * Looking up a line start is O(1) and finding the line of an offset is a
+ * binary search, whatever the size of the file.
+ */
+public class LineIndex {
+    private static final int SCAN_CHUNK = 4 * 1024 * 1024;
+
+    private int[] starts;
+    private int gapStart;
+    private int gapEnd;
+    private int length;
+
+    private LineIndex(int[] starts, int count, int length) {
+        this.starts = starts;
+        this.gapStart = count;
+        this.gapEnd = starts.length;
+        this.length = length;
+    }
+
+    // Scans the text for newlines, splitting large texts into chunks scanned in parallel
+    public static LineIndex build(CharSequence text) {
+        int length = text.length();
+        int chunks = Math.max(1, (int) (((long) length + SCAN_CHUNK - 1) / SCAN_CHUNK));
+        final int[][] breaks = new int[chunks][];
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int chunk = c;
+            final int from = (int) ((long) c * SCAN_CHUNK);
+            final int to = (int) Math.min(length, (long) from + SCAN_CHUNK);
+            final CharSequence source = text;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    breaks[chunk] = scan(source, from, to);
+                }
+            });
+        }
+        if (chunks == 1) {
+            tasks.get(0).invoke();
+        } else {
+            ForkJoinTask.invokeAll(tasks);
+        }
+
+        int count = 1;
+        for (int[] chunk : breaks) {
+            count += chunk.length;
+        }
+        int[] starts = new int[count + 16];
+        int n = 1;
+        for (int[] chunk : breaks) {
+            System.arraycopy(chunk, 0, starts, n, chunk.length);
+            n += chunk.length;
+        }
+        return new LineIndex(starts, count, length);
+    }
+
+    // Takes line starts that are already known, as from a compressed note's index; starts[0] is 0
+    public static LineIndex fromStarts(int[] starts, int length) {
+        return new LineIndex(Arrays.copyOf(starts, starts.length + 16), starts.length, length);
+    }
+
+    // Returns the start offsets of the lines following each newline in [from, to)
+    private static int[] scan(CharSequence text, int from, int to) {
+        int[] found = new int[64];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, n * 2);
+                }
+                found[n++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    // Bytes of heap held by the index
+    public long getHeapSize() {
+        return 4L * starts.length;
+    }
+
+    public int getLineCount() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    public int getLineStart(int line) {
+        return line < gapStart ? starts[line] : length - starts[line + gapEnd - gapStart];
+    }
+
+    // End offset of the line, including its newline (the last line ends after the implied one)
+    public int getLineEnd(int line) {
+        return line + 1 < getLineCount() ? getLineStart(line + 1) : length + 1;
+    }
+
+    public int getLineOfOffset(int offset) {
+        int low = 0;
+        int high = getLineCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getLineStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Records an insert of len characters at offset. The breaks array holds
+     * the positions of the inserted newlines relative to offset.
+     */
+    public void insert(int offset, int len, int[] breaks) {
+        int line = getLineOfOffset(offset);
+        moveGap(line + 1);
+        length += len;
+        if (gapEnd - gapStart < breaks.length) {
+            growGap(breaks.length);
+        }
+        for (int b : breaks) {
+            starts[gapStart++] = offset + b + 1;
+        }
+    }
+
+    /**
+     * Records a removal of len characters at offset and returns the positions
+     * of the removed newlines relative to offset, so the removal can be undone.
+     */
+    public int[] remove(int offset, int len) {
+        int first = getLineOfOffset(offset) + 1;
+        int last = getLineOfOffset(offset + len);
+        int removed = Math.max(0, last - first + 1);
+        int[] breaks = new int[removed];
+        moveGap(first);
+        for (int i = 0; i < removed; i++) {
+            breaks[i] = getLineStart(first + i) - 1 - offset;
+        }
+        gapEnd += removed;
+        length -= len;
+        return breaks;
+    }
+
+    // Records a removal of the first len characters, without keeping their newlines
+    public void removeLeading(int len) {
+        int removed = getLineOfOffset(len);
+        moveGap(1);
+        gapEnd += removed;
+        length -= len;
+    }
+
+    private void moveGap(int index) {
+        int gap = gapEnd - gapStart;
+        if (index < gapStart) {
+            for (int i = gapStart - 1; i >= index; i--) {
+                starts[i + gap] = length - starts[i];
+            }
+        } else {
+            for (int i = gapStart; i < index; i++) {
+                starts[i] = length - starts[i + gap];
+            }
+        }
+        gapStart = index;
+        gapEnd = index + gap;
+    }
+
+    private void growGap(int needed) {
+        int after = starts.length - gapEnd;
+        int capacity = Math.max(starts.length * 3 / 2, gapStart + after + needed + 16);
+        int[] grown = new int[capacity];
+        System.arraycopy(starts, 0, grown, 0, gapStart);
+        System.arraycopy(starts, gapEnd, grown, capacity - after, after);
+        starts = grown;
+        gapEnd = capacity - after;
+    }
+}
@@ -0,0 +1,581 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * View of a plain text document that only lays out the lines it paints.
+ *
+ * The height comes straight from the line count and the width grows to the
+ * widest line measured so far, so neither opening nor scrolling a file with
+ * millions of lines walks the whole document. Painting, hit testing and
+ * caret placement look at the lines inside the clip or the requested
+ * position only. Formatted text is drawn and measured run by run, each
+ * run in the host font with its style's bold and italic applied. If the
+ * document has a Highlighter, each painted line is lexed from its stored
+ * start state and its tokens drawn in their colors.
+ *
+ * Lines longer than LONG_LINE chars keep the x position of every
+ * CHECKPOINT-th char, measured as far as they have been painted and kept
+ * across edits up to the edited offset. Only the columns inside the clip
+ * are drawn, and positions are measured from the nearest checkpoint, so
+ * typing in or scrolling along a line of many megabytes does not measure
+ * the whole line each time. Such lines are drawn without token colors.
+ */
+public class LineView extends View implements TabExpander, Highlighter.Listener {
+    private static final Color MATCH_COLOR = new Color(255, 220, 90);
+    private static final int LONG_LINE = 20000;
+    private static final int CHECKPOINT = 1024;
+    private static final int LONG_LINES_KEPT = 8;
+    private final Segment lineText = new Segment();
+    private Font font;
+    private FontMetrics metrics;
+    // By style & 3: StyleRuns' bold and italic bits are the same as Font's
+    private final Font[] styleFonts = new Font[4];
+    private final FontMetrics[] styleMetrics = new FontMetrics[4];
+    private int lineHeight;
+    private int tabSize;
+    private int tabBase;
+    private int widest;
+    private Highlighter highlighter;
+    private Rectangle lastAlloc;
+    // Tokens of the line being painted, as document offsets
+    private final TokenCollector tokens = new TokenCollector();
+    // By line index, the long lines painted or measured most recently
+    private final Map<Integer, LongLine> longLines = new LinkedHashMap<Integer, LongLine>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, LongLine> eldest) {
+            return size() > LONG_LINES_KEPT;
+        }
+    };
+
+    public LineView(Element root) {
+        super(root);
+    }
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font current = host.getFont();
+        if (font != current) {
+            font = current;
+            metrics = host.getFontMetrics(current);
+            for (int style = 0; style < styleFonts.length; style++) {
+                styleFonts[style] = current.deriveFont(current.getStyle() | style);
+                styleMetrics[style] = host.getFontMetrics(styleFonts[style]);
+            }
+            lineHeight = metrics.getHeight();
+            widest = 0;
+            longLines.clear();
+        }
+        Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        int oldTabSize = tabSize;
+        tabSize = (size instanceof Integer ? (Integer) size : 8) * metrics.charWidth('m');
+        if (tabSize != oldTabSize) {
+            longLines.clear();
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == X_AXIS) {
+            if (widest == 0) {
+                // Start from whatever is on the first screen, later lines widen the view as they are painted
+                int lines = Math.min(getElement().getElementCount(), 200);
+                for (int i = 0; i < lines; i++) {
+                    widest = Math.max(widest, getLineWidth(i));
+                }
+            }
+            return widest;
+        }
+        return (float) getElement().getElementCount() * lineHeight;
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        tabBase = alloc.x;
+        lastAlloc = alloc;
+        JTextComponent host = (JTextComponent) getContainer();
+        Graphics2D g2d = (Graphics2D) g;
+        Highlighter current = Highlighter.get(getDocument());
+        if (current != highlighter) {
+            if (highlighter != null) {
+                highlighter.removeListener(this);
+            }
+            highlighter = current;
+            if (current != null) {
+                current.addListener(this);
+            }
+        }
+        g2d.setFont(font);
+
+        Element root = getElement();
+        int first = Math.max(0, (clip.y - alloc.y) / lineHeight);
+        int last = Math.min(root.getElementCount() - 1, (clip.y + clip.height - alloc.y) / lineHeight);
+        Color foreground = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        int selStart = host.getSelectionStart();
+        int selEnd = host.getSelectionEnd();
+        int oldWidest = widest;
+        SearchMatches matches = host instanceof NotesTextArea ? ((NotesTextArea) host).getMatches() : null;
+        SearchMatches lineHighlights = host instanceof NotesTextArea
+                ? ((NotesTextArea) host).getLineHighlights() : null;
+        for (int line = first; line <= last; line++) {
+            Element element = root.getElement(line);
+            int start = element.getStartOffset();
+            int end = element.getEndOffset() - 1;
+            // The part of the line to draw, and where it starts
+            int from = start;
+            int to = end;
+            float x = alloc.x;
+            if (end - start > LONG_LINE) {
+                LongLine longLine = measured(line, start, end, clip.x + clip.width - alloc.x, start);
+                int k = longLine.before(clip.x - alloc.x);
+                from = start + k * CHECKPOINT;
+                x = alloc.x + longLine.x[k];
+                k = longLine.before(clip.x + clip.width - alloc.x) + 1;
+                to = k < longLine.count ? start + k * CHECKPOINT : end;
+            }
+            if (lineHighlights != null) {
+                g2d.setColor(((NotesTextArea) host).getLineHighlightColor());
+                paintLineHighlight(g2d, lineHighlights, line, alloc, clip);
+            }
+            if (matches != null) {
+                paintMatches(g2d, matches, from, to, x, alloc.y + line * lineHeight, selStart, selEnd);
+            }
+            float y = alloc.y + line * lineHeight + metrics.getAscent();
+            tokens.count = 0;
+            if (highlighter != null && end - start <= LONG_LINE) {
+                loadText(start, end);
+                tokens.base = start - lineText.offset;
+                highlighter.getLexer().lexLine(lineText.array, lineText.offset, lineText.offset + lineText.count,
+                        highlighter.getLineState(line), tokens);
+            }
+            if (selStart == selEnd || selEnd <= from || selStart >= to) {
+                x = drawTokens(g2d, from, to, x, y, foreground);
+            } else {
+                x = drawTokens(g2d, from, Math.max(from, selStart), x, y, foreground);
+                x = drawText(g2d, Math.max(from, selStart), Math.min(to, selEnd), x, y, host.getSelectedTextColor());
+                x = drawTokens(g2d, Math.min(to, selEnd), to, x, y, foreground);
+            }
+            widest = Math.max(widest, to == end ? (int) Math.ceil(x - alloc.x) : getLineWidth(line));
+        }
+        if (widest > oldWidest) {
+            preferenceChanged(null, true, false);
+        }
+    }
+
+    // Shades the line if a range covers it, or draws a rule along its top if an empty range sits there
+    private void paintLineHighlight(Graphics2D g, SearchMatches lines, int line, Rectangle alloc, Rectangle clip) {
+        int y = alloc.y + line * lineHeight;
+        for (int i = lines.firstEndingAfter(line - 1); i < lines.getCount() && lines.getStart(i) <= line; i++) {
+            if (lines.getStart(i) == lines.getEnd(i)) {
+                g.fillRect(clip.x, y, clip.width, 2);
+            } else if (line < lines.getEnd(i)) {
+                g.fillRect(clip.x, y, clip.width, lineHeight);
+            }
+        }
+    }
+
+    // Find results behind the text; the selected one is left to the selection highlight
+    private void paintMatches(Graphics2D g, SearchMatches matches, int start, int end, float x, int y,
+                              int selStart, int selEnd) {
+        g.setColor(MATCH_COLOR);
+        for (int i = matches.firstEndingAfter(start); i < matches.getCount() && matches.getStart(i) < end; i++) {
+            int from = Math.max(start, matches.getStart(i));
+            int to = Math.min(end, matches.getEnd(i));
+            if (to <= from || (selStart != selEnd && from >= selStart && to <= selEnd)) {
+                continue;
+            }
+            int left = (int) (x + measure(start, from, x));
+            int right = (int) (x + measure(start, to, x));
+            g.fillRect(left, y, Math.max(1, right - left), lineHeight);
+        }
+    }
+
+    // Draws [start, end) of the painted line, tokens in their colors and the rest in the given one
+    private float drawTokens(Graphics2D g, int start, int end, float x, float y, Color color) {
+        int pos = start;
+        for (int i = 0; i < tokens.count && pos < end; i++) {
+            int from = Math.max(pos, tokens.starts[i]);
+            int to = Math.min(end, tokens.ends[i]);
+            if (to <= from) {
+                continue;
+            }
+            Color kindColor = Highlighter.getColor(tokens.kinds[i]);
+            x = drawText(g, pos, from, x, y, color);
+            x = drawText(g, from, to, x, y, kindColor != null ? kindColor : color);
+            pos = to;
+        }
+        return drawText(g, pos, end, x, y, color);
+    }
+
+    private float drawText(Graphics2D g, int start, int end, float x, float y, Color color) {
+        if (end <= start) {
+            return x;
+        }
+        g.setColor(color);
+        StyleRuns runs = getStyleRuns();
+        if (runs == null) {
+            loadText(start, end);
+            return Utilities.drawTabbedText(lineText, x, y, g, this, start);
+        }
+        for (int pos = start; pos < end; ) {
+            int run = runs.getRunOf(pos);
+            int to = Math.min(end, runs.getRunEnd(run));
+            int style = runs.getRunStyle(run);
+            loadText(pos, to);
+            g.setFont(styleFonts[style & 3]);
+            float next = Utilities.drawTabbedText(lineText, x, y, g, this, pos);
+            if ((style & StyleRuns.UNDERLINE) != 0) {
+                int underline = (int) y + Math.max(1, metrics.getDescent() / 2);
+                g.drawLine((int) x, underline, (int) next - 1, underline);
+            }
+            x = next;
+            pos = to;
+        }
+        g.setFont(font);
+        return x;
+    }
+
+    // Width of [start, end) drawn from x
+    private float measure(int start, int end, float x) {
+        StyleRuns runs = getStyleRuns();
+        if (runs == null) {
+            loadText(start, end);
+            return Utilities.getTabbedTextWidth(lineText, metrics, x, this, start);
+        }
+        float width = 0;
+        for (int pos = start; pos < end; ) {
+            int run = runs.getRunOf(pos);
+            int to = Math.min(end, runs.getRunEnd(run));
+            loadText(pos, to);
+            width += Utilities.getTabbedTextWidth(lineText, styleMetrics[runs.getRunStyle(run) & 3],
+                    x + width, this, pos);
+            pos = to;
+        }
+        return width;
+    }
+
+    // The document's formatting, or null if it has none and everything is in the host font
+    private StyleRuns getStyleRuns() {
+        Document doc = getDocument();
+        if (!(doc instanceof NotesDocument)) {
+            return null;
+        }
+        StyleRuns runs = ((NotesDocument) doc).getStyleRuns();
+        return runs.isPlain() ? null : runs;
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element root = getElement();
+        int line = root.getElementIndex(pos);
+        Element element = root.getElement(line);
+        int start = element.getStartOffset();
+        int end = element.getEndOffset() - 1;
+        float dx;
+        if (end - start > LONG_LINE) {
+            LongLine longLine = measured(line, start, end, -1, pos);
+            int k = (pos - start) / CHECKPOINT;
+            dx = longLine.x[k] + measure(start + k * CHECKPOINT, pos, alloc.x + longLine.x[k]);
+        } else {
+            dx = measure(start, pos, alloc.x);
+        }
+        int x = alloc.x + (int) dx;
+        return new Rectangle(x, alloc.y + line * lineHeight, 1, lineHeight);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element root = getElement();
+        int line = (int) ((fy - alloc.y) / lineHeight);
+        if (line < 0) {
+            return 0;
+        }
+        if (line >= root.getElementCount()) {
+            return getDocument().getLength();
+        }
+        Element element = root.getElement(line);
+        int start = element.getStartOffset();
+        int end = element.getEndOffset() - 1;
+        if (fx <= alloc.x) {
+            return start;
+        }
+        float x = alloc.x;
+        if (end - start > LONG_LINE) {
+            // Only the stretch between the checkpoints around fx
+            LongLine longLine = measured(line, start, end, fx - alloc.x, start);
+            int k = longLine.before(fx - alloc.x);
+            start = start + k * CHECKPOINT;
+            x = alloc.x + longLine.x[k];
+            if (k + 1 < longLine.count) {
+                end = start + CHECKPOINT;
+            }
+        }
+        StyleRuns runs = getStyleRuns();
+        if (runs == null) {
+            loadText(start, end);
+            int offset = Utilities.getTabbedTextOffset(lineText, metrics, x, fx, this, start, true);
+            return Math.min(start + offset, end);
+        }
+        for (int pos = start; pos < end; ) {
+            int run = runs.getRunOf(pos);
+            int to = Math.min(end, runs.getRunEnd(run));
+            FontMetrics runMetrics = styleMetrics[runs.getRunStyle(run) & 3];
+            loadText(pos, to);
+            float width = Utilities.getTabbedTextWidth(lineText, runMetrics, x, this, pos);
+            if (x + width > fx) {
+                return Math.min(pos + Utilities.getTabbedTextOffset(lineText, runMetrics, x, fx, this, pos, true), end);
+            }
+            x += width;
+            pos = to;
+        }
+        return end;
+    }
+
+    @Override
+    public void linesChanged(int first, int last) {
+        Component host = getContainer();
+        if (host != null && lastAlloc != null) {
+            host.repaint(lastAlloc.x, lastAlloc.y + first * lineHeight, lastAlloc.width,
+                    (last - first + 1) * lineHeight);
+        }
+    }
+
+    @Override
+    public void setParent(View parent) {
+        super.setParent(parent);
+        if (parent == null && highlighter != null) {
+            // Replaced, as when the text area gets another document
+            highlighter.removeListener(this);
+            highlighter = null;
+        }
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) {
+            return x;
+        }
+        int tabs = ((int) x - tabBase) / tabSize;
+        return tabBase + (tabs + 1) * tabSize;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        updateDamage(e, a);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        // Formatting changed: the lines stay put, and any that got wider widen the view as they are painted
+        Element root = getElement();
+        int first = root.getElementIndex(e.getOffset());
+        int last = root.getElementIndex(e.getOffset() + e.getLength());
+        for (int line = first; line <= last; line++) {
+            LongLine longLine = longLines.get(line);
+            if (longLine != null) {
+                longLine.edited(Math.max(0, e.getOffset() - root.getElement(line).getStartOffset()));
+                longLine.width = -1;
+            }
+        }
+        Component host = getContainer();
+        if (host == null || a == null) {
+            return;
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        host.repaint(alloc.x, alloc.y + first * lineHeight, alloc.width, (last - first + 1) * lineHeight);
+    }
+
+    private void updateDamage(DocumentEvent e, Shape a) {
+        Element root = getElement();
+        int line = root.getElementIndex(e.getOffset());
+        int delta;
+        Document doc = getDocument();
+        if (doc instanceof NotesDocument) {
+            // Trimming a followed log would otherwise build an element per removed line
+            delta = ((NotesDocument) doc).getLineDelta(e);
+        } else {
+            DocumentEvent.ElementChange change = e.getChange(root);
+            delta = change != null ? change.getChildrenAdded().length - change.getChildrenRemoved().length : 0;
+        }
+        boolean linesChanged = delta != 0;
+        if (linesChanged) {
+            shiftLongLines(line, delta);
+        } else {
+            LongLine longLine = longLines.get(line);
+            if (longLine != null) {
+                longLine.edited(e.getOffset() - root.getElement(line).getStartOffset());
+                if (e.getType() == DocumentEvent.EventType.INSERT && longLine.width >= 0) {
+                    // Grown by about the inserted text; removals leave it as an upper bound
+                    longLine.width += measure(e.getOffset(), e.getOffset() + e.getLength(), tabBase);
+                }
+            }
+        }
+        Component host = getContainer();
+        if (host == null || a == null) {
+            return;
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+
+        int width = getLineWidth(line);
+        if (width > widest) {
+            widest = width;
+            linesChanged = true;
+        }
+        if (linesChanged) {
+            preferenceChanged(null, true, true);
+            // Everything below the edit moves up or down
+            host.repaint(alloc.x, alloc.y + line * lineHeight, alloc.width, alloc.height - line * lineHeight);
+        } else {
+            host.repaint(alloc.x, alloc.y + line * lineHeight, alloc.width, lineHeight);
+        }
+    }
+
+    private int getLineWidth(int line) {
+        Element element = getElement().getElement(line);
+        if (element == null) {
+            return 0;
+        }
+        int start = element.getStartOffset();
+        int end = element.getEndOffset() - 1;
+        if (end - start <= LONG_LINE) {
+            return (int) Math.ceil(measure(start, end, 0f));
+        }
+        LongLine longLine = longLines.get(line);
+        if (longLine == null || longLine.width < 0) {
+            longLine = measured(line, start, end, Float.MAX_VALUE, start);
+            int k = longLine.count - 1;
+            longLine.width = longLine.x[k] + measure(start + k * CHECKPOINT, end, tabBase + longLine.x[k]);
+        }
+        return (int) Math.ceil(longLine.width);
+    }
+
+    /**
+     * The checkpoints of a long line, measured on from the last one kept
+     * until one lies past dx and the one at or before pos is known.
+     */
+    private LongLine measured(int line, int start, int end, float dx, int pos) {
+        LongLine longLine = longLines.get(line);
+        if (longLine == null) {
+            longLine = new LongLine();
+            longLines.put(line, longLine);
+        }
+        int k = longLine.count - 1;
+        while ((k + 1) * CHECKPOINT <= end - start && (longLine.x[k] <= dx || k < (pos - start) / CHECKPOINT)) {
+            int from = start + k * CHECKPOINT;
+            longLine.add(longLine.x[k] + measure(from, from + CHECKPOINT, tabBase + longLine.x[k]));
+            k++;
+        }
+        return longLine;
+    }
+
+    // Lines below an edit that added or removed lines move with it; the edited ones are measured again
+    private void shiftLongLines(int line, int delta) {
+        if (longLines.isEmpty()) {
+            return;
+        }
+        Map<Integer, LongLine> kept = new LinkedHashMap<Integer, LongLine>();
+        for (Map.Entry<Integer, LongLine> entry : longLines.entrySet()) {
+            int index = entry.getKey();
+            if (index < line) {
+                kept.put(index, entry.getValue());
+            } else if (index > line - Math.min(0, delta)) {
+                kept.put(index + delta, entry.getValue());
+            }
+        }
+        longLines.clear();
+        longLines.putAll(kept);
+    }
+
+    // Where every CHECKPOINT-th char of a line starts, relative to the line's start
+    private static final class LongLine {
+        float[] x = new float[16];
+        int count = 1;
+        // The width of the whole line, or -1 until it is measured
+        float width = -1;
+
+        void add(float next) {
+            if (count == x.length) {
+                x = Arrays.copyOf(x, count * 2);
+            }
+            x[count++] = next;
+        }
+
+        // The last checkpoint at or before dx
+        int before(float dx) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (x[mid] <= dx) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // Text changed at offset into the line: checkpoints past it moved
+        void edited(int offset) {
+            count = Math.min(count, offset / CHECKPOINT + 1);
+        }
+    }
+
+    private static final class TokenCollector implements Lexer.TokenHandler {
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        int[] kinds = new int[64];
+        int count;
+        // Added to the lexer's array positions to make them document offsets
+        int base;
+
+        @Override
+        public void token(int start, int end, int kind) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            starts[count] = start + base;
+            ends[count] = end + base;
+            kinds[count] = kind;
+            count++;
+        }
+    }
+
+    private void loadText(int start, int end) {
+        try {
+            getDocument().getText(start, Math.max(0, end - start), lineText);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
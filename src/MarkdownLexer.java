@@ -0,0 +1,145 @@
+/**
+ * Lexer for Markdown. Headings, block quotes, list markers and rules are
+ * recognised at the start of a line, code spans, emphasis and links inside
+ * it. Fenced code blocks are the only construct that runs across lines; the
+ * state remembers which fence character opened the block, since only the
+ * same one closes it.
+ */
+public class MarkdownLexer implements Lexer {
+    private static final int IN_BACKTICK_FENCE = 1;
+    private static final int IN_TILDE_FENCE = 2;
+
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, TokenHandler tokens) {
+        int i = start;
+        while (i < end && i - start < 3 && text[i] == ' ') {
+            i++;
+        }
+        char fence = fenceAt(text, i, end);
+        if (state != INITIAL) {
+            tokens.token(start, end, CODE);
+            boolean closes = (state == IN_BACKTICK_FENCE && fence == '`') || (state == IN_TILDE_FENCE && fence == '~');
+            return closes ? INITIAL : state;
+        }
+        if (fence != 0) {
+            tokens.token(start, end, CODE);
+            return fence == '`' ? IN_BACKTICK_FENCE : IN_TILDE_FENCE;
+        }
+        if (isHeading(text, i, end) || isRule(text, i, end)) {
+            tokens.token(start, end, isRule(text, i, end) ? MARKUP : HEADING);
+            return INITIAL;
+        }
+        while (i < end && text[i] == '>') {
+            tokens.token(i, i + 1, MARKUP);
+            i++;
+            while (i < end && text[i] == ' ') {
+                i++;
+            }
+        }
+        int marker = listMarkerEnd(text, i, end);
+        if (marker > i) {
+            tokens.token(i, marker, MARKUP);
+            i = marker;
+        }
+        lexInline(text, i, end, tokens);
+        return INITIAL;
+    }
+
+    private static void lexInline(char[] text, int i, int end, TokenHandler tokens) {
+        while (i < end) {
+            char c = text[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '`') {
+                int close = indexOf(text, i + 1, end, '`');
+                if (close < 0) {
+                    i++;
+                } else {
+                    tokens.token(i, close + 1, CODE);
+                    i = close + 1;
+                }
+            } else if (c == '*' || c == '_') {
+                // Emphasis runs to the same delimiter, doubled for strong emphasis
+                int width = i + 1 < end && text[i + 1] == c ? 2 : 1;
+                int close = i + width < end && text[i + width] != ' ' ? indexOf(text, i + width, end, c) : -1;
+                if (close < 0) {
+                    i += width;
+                } else {
+                    int closeEnd = Math.min(end, close + width);
+                    tokens.token(i, closeEnd, MARKUP);
+                    i = closeEnd;
+                }
+            } else if (c == '[') {
+                int close = indexOf(text, i + 1, end, ']');
+                if (close >= 0 && close + 1 < end && text[close + 1] == '(') {
+                    int paren = indexOf(text, close + 2, end, ')');
+                    if (paren >= 0) {
+                        tokens.token(i, close + 1, KEYWORD);
+                        tokens.token(close + 1, paren + 1, STRING);
+                        i = paren + 1;
+                        continue;
+                    }
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    // The fence character if a code fence of three or more starts at i, else 0
+    private static char fenceAt(char[] text, int i, int end) {
+        if (i + 2 < end && (text[i] == '`' || text[i] == '~') && text[i + 1] == text[i] && text[i + 2] == text[i]) {
+            return text[i];
+        }
+        return 0;
+    }
+
+    private static boolean isHeading(char[] text, int i, int end) {
+        int hashes = 0;
+        while (i + hashes < end && text[i + hashes] == '#') {
+            hashes++;
+        }
+        return hashes >= 1 && hashes <= 6 && (i + hashes == end || text[i + hashes] == ' ');
+    }
+
+    // Three or more of the same of -, * or _, with nothing but spaces between
+    private static boolean isRule(char[] text, int i, int end) {
+        if (i >= end || (text[i] != '-' && text[i] != '*' && text[i] != '_')) {
+            return false;
+        }
+        int count = 0;
+        for (int j = i; j < end; j++) {
+            if (text[j] == text[i]) {
+                count++;
+            } else if (text[j] != ' ') {
+                return false;
+            }
+        }
+        return count >= 3;
+    }
+
+    // End of a bullet or numbered list marker and its space at i, or i if there is none
+    private static int listMarkerEnd(char[] text, int i, int end) {
+        if (i + 1 < end && (text[i] == '-' || text[i] == '*' || text[i] == '+') && text[i + 1] == ' ') {
+            return i + 1;
+        }
+        int j = i;
+        while (j < end && j - i < 9 && text[j] >= '0' && text[j] <= '9') {
+            j++;
+        }
+        if (j > i && j + 1 < end && (text[j] == '.' || text[j] == ')') && text[j + 1] == ' ') {
+            return j + 1;
+        }
+        return i;
+    }
+
+    private static int indexOf(char[] text, int from, int end, char c) {
+        for (int i = from; i < end; i++) {
+            if (text[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,753 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-text search over every .txt note under a folder.
+ *
+ * The index lives in ~/.notesapp/index as a manifest (the note table) plus a
+ * few immutable {@link IndexSegment} files. A first build tokenizes the notes
+ * on the fork/join pool in batches of bounded size, writes one segment per
+ * batch and merges them. After that a background thread watches the folder:
+ * a changed note gets a new id in a small in-memory delta and its old id is
+ * marked deleted; the delta becomes a new segment every so often and
+ * segments are merged once there are too many of them. Queries look up each
+ * term in every segment and the delta and intersect the note lists.
+ */
+public class NoteIndex implements Closeable {
+    private static final int MAGIC = 0x4E4D4E46; // "NMNF"
+    private static final int VERSION = 1;
+    private static final int MAX_TERM = 64;
+    private static final long BATCH_BYTES = 256L * 1024 * 1024;
+    private static final int LEAF_FILES = 16;
+    private static final int FLUSH_DOCS = 256;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int SNIPPET_CONTEXT = 60;
+    private static final int SNIPPET_SCAN = 4 * 1024 * 1024;
+
+    private final Path folder;
+    private final Path dir;
+    private final Thread worker;
+    private WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+
+    // Guarded by this; changed only by the worker thread
+    private final List<IndexSegment> segments = new ArrayList<IndexSegment>();
+    private final List<String> paths = new ArrayList<String>();
+    private long[] sizes = new long[1024];
+    private long[] modified = new long[1024];
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Integer> live = new HashMap<String, Integer>();
+    private Map<String, IndexSegment.Postings> delta = new HashMap<String, IndexSegment.Postings>();
+    private int deltaDocs;
+    private int nextSegment;
+    private boolean dirty;
+
+    private volatile boolean ready;
+    private volatile boolean closed;
+    private volatile int indexedFiles;
+    private volatile int totalFiles;
+
+    private NoteIndex(Path folder) throws IOException {
+        this.folder = folder.toAbsolutePath();
+        dir = AppData.dir("index");
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Watched before the first scan, so notes that change during it are caught afterwards
+                    watcher = NoteIndex.this.folder.getFileSystem().newWatchService();
+                    register(NoteIndex.this.folder);
+                    initialize();
+                    watch();
+                } catch (ClosedWatchServiceException | InterruptedException e) {
+                    // Closed
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "note-index");
+        worker.setDaemon(true);
+    }
+
+    /**
+     * Opens the index for the folder and starts bringing it up to date in
+     * the background. Queries are answered once isReady() returns true.
+     */
+    public static NoteIndex open(Path folder) throws IOException {
+        NoteIndex index = new NoteIndex(folder);
+        index.worker.start();
+        return index;
+    }
+
+    // The folder that was indexed last time, if any
+    public static Path lastFolder() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(AppData.dir("index").resolve("manifest"))))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                return Paths.get(in.readUTF());
+            }
+        } catch (IOException e) {
+            // No usable index yet
+        }
+        return null;
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getIndexedFiles() {
+        return indexedFiles;
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * Returns up to limit notes that contain every word of the query, the
+     * ones where the words occur most often first.
+     */
+    public List<Hit> search(String query, int limit) throws IOException {
+        List<String> terms = queryTerms(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        synchronized (this) {
+            int[] docs = null;
+            int[] scores = null;
+            for (String term : terms) {
+                IndexSegment.Postings postings = collect(term);
+                if (docs == null) {
+                    docs = new int[postings.size()];
+                    scores = new int[postings.size()];
+                    for (int i = 0; i < docs.length; i++) {
+                        docs[i] = postings.getDoc(i);
+                        scores[i] = postings.getCount(i);
+                    }
+                } else {
+                    // Both lists are in ascending id order
+                    int n = 0;
+                    int j = 0;
+                    for (int i = 0; i < docs.length; i++) {
+                        while (j < postings.size() && postings.getDoc(j) < docs[i]) {
+                            j++;
+                        }
+                        if (j < postings.size() && postings.getDoc(j) == docs[i]) {
+                            docs[n] = docs[i];
+                            scores[n] = scores[i] + postings.getCount(j);
+                            n++;
+                        }
+                    }
+                    docs = Arrays.copyOf(docs, n);
+                    scores = Arrays.copyOf(scores, n);
+                }
+                if (docs.length == 0) {
+                    break;
+                }
+            }
+            List<Hit> hits = new ArrayList<Hit>(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                hits.add(new Hit(folder.resolve(paths.get(docs[i])).toFile(), scores[i]));
+            }
+            Collections.sort(hits, new Comparator<Hit>() {
+                @Override
+                public int compare(Hit a, Hit b) {
+                    return Integer.compare(b.score, a.score);
+                }
+            });
+            return hits.size() > limit ? new ArrayList<Hit>(hits.subList(0, limit)) : hits;
+        }
+    }
+
+    // Live postings of a term across all segments and the delta
+    private IndexSegment.Postings collect(String term) throws IOException {
+        IndexSegment.Postings all = new IndexSegment.Postings(16);
+        for (IndexSegment segment : segments) {
+            IndexSegment.Postings postings = segment.getPostings(term);
+            if (postings != null) {
+                all.addAll(postings);
+            }
+        }
+        IndexSegment.Postings recent = delta.get(term);
+        if (recent != null) {
+            all.addAll(recent);
+        }
+        IndexSegment.Postings result = new IndexSegment.Postings(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            if (!deleted.get(all.getDoc(i))) {
+                result.add(all.getDoc(i), all.getCount(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A line of context around the first place the query's words occur in
+     * the note, or its first line if they cannot be found.
+     */
+    public static String snippet(File file, String query) {
+        List<String> terms = queryTerms(query);
+        char[] chars = new char[SNIPPET_SCAN];
+        int length = 0;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file),
+                TextEncoding.detect(file.toPath()).getCharset())) {
+            int n;
+            while (length < chars.length && (n = reader.read(chars, length, chars.length - length)) > 0) {
+                length += n;
+            }
+        } catch (IOException e) {
+            return "";
+        }
+        String text = new String(chars, 0, length);
+        String lower = text.toLowerCase(Locale.ROOT);
+        int at = -1;
+        for (String term : terms) {
+            int i = indexOfWord(lower, term);
+            if (i >= 0 && (at < 0 || i < at)) {
+                at = i;
+            }
+        }
+        int start = Math.max(0, at - SNIPPET_CONTEXT);
+        int end = Math.min(length, Math.max(at, 0) + SNIPPET_CONTEXT * 2);
+        return (start > 0 ? "..." : "") + text.substring(start, end).replaceAll("\\s+", " ").trim()
+                + (end < length ? "..." : "");
+    }
+
+    // First occurrence of the term as a whole word, as the tokenizer would have seen it
+    private static int indexOfWord(String text, String term) {
+        for (int i = text.indexOf(term); i >= 0; i = text.indexOf(term, i + 1)) {
+            int end = i + term.length();
+            if ((i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (watcher != null) {
+            watcher.close();
+        }
+        worker.interrupt();
+        try {
+            worker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- worker thread ------------------------------------
+
+    private void initialize() throws IOException, InterruptedException {
+        if (!loadManifest()) {
+            build();
+        } else {
+            catchUp();
+        }
+        flush();
+        ready = true;
+    }
+
+    private void watch() throws IOException, InterruptedException {
+        while (!closed) {
+            WatchKey key = watcher.poll(30, TimeUnit.SECONDS);
+            if (key == null) {
+                flush();
+                continue;
+            }
+            // Editors often write a file in several steps; let them settle and take them all at once
+            Set<Path> changed = new LinkedHashSet<Path>();
+            boolean overflow = false;
+            while (key != null) {
+                overflow |= drain(key, changed);
+                key = watcher.poll(300, TimeUnit.MILLISECONDS);
+            }
+            if (overflow) {
+                catchUp();
+            } else {
+                for (Path path : changed) {
+                    update(path);
+                }
+            }
+            if (deltaDocs >= FLUSH_DOCS) {
+                flush();
+            }
+        }
+    }
+
+    // Collects the notes a watch key reports; returns true if events were lost
+    private boolean drain(WatchKey key, Set<Path> changed) throws IOException {
+        Path parent = watchedDirs.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || parent == null) {
+                overflow = true;
+                continue;
+            }
+            Path child = parent.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                register(child);
+                changed.addAll(notes(child));
+            } else if (isNote(child)) {
+                changed.add(child);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                // A folder went away, along with any notes in it
+                overflow = true;
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+        return overflow;
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                watchedDirs.put(path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Indexes every note from scratch
+    private void build() throws IOException {
+        List<Path> notes = notes(folder);
+        totalFiles = notes.size();
+        List<IndexSegment> old;
+        synchronized (this) {
+            old = new ArrayList<IndexSegment>(segments);
+            segments.clear();
+            paths.clear();
+            deleted.clear();
+            live.clear();
+            delta = new HashMap<String, IndexSegment.Postings>();
+            deltaDocs = 0;
+        }
+        discard(old);
+        int start = 0;
+        while (start < notes.size()) {
+            // Batches keep the in-memory postings of one build step bounded
+            long bytes = 0;
+            int end = start;
+            int firstDoc = paths.size();
+            while (end < notes.size() && (end == start || bytes < BATCH_BYTES)) {
+                Path note = notes.get(end);
+                BasicFileAttributes attrs = attributes(note);
+                bytes += attrs == null ? 0 : attrs.size();
+                synchronized (this) {
+                    addDoc(folder.relativize(note).toString(), attrs);
+                }
+                end++;
+            }
+            Map<String, IndexSegment.Postings> terms = ForkJoinPool.commonPool()
+                    .invoke(new IndexTask(notes, start, end, firstDoc));
+            IndexSegment segment = writeSegment(terms);
+            synchronized (this) {
+                segments.add(segment);
+            }
+            indexedFiles = end;
+            start = end;
+        }
+        dirty = true;
+        if (segments.size() > 1) {
+            merge();
+        }
+    }
+
+    // Re-indexes notes that changed while nothing was watching
+    private void catchUp() throws IOException {
+        List<Path> notes = notes(folder);
+        totalFiles = notes.size();
+        Set<String> seen = new HashSet<String>();
+        int done = 0;
+        for (Path note : notes) {
+            seen.add(folder.relativize(note).toString());
+            update(note);
+            indexedFiles = ++done;
+        }
+        List<String> gone = new ArrayList<String>();
+        for (String path : live.keySet()) {
+            if (!seen.contains(path)) {
+                gone.add(path);
+            }
+        }
+        for (String path : gone) {
+            update(folder.resolve(path));
+        }
+    }
+
+    private void update(Path note) throws IOException {
+        String path = folder.relativize(note).toString();
+        Integer old = live.get(path);
+        BasicFileAttributes attrs = Files.isRegularFile(note) ? attributes(note) : null;
+        if (attrs == null) {
+            if (old != null) {
+                synchronized (this) {
+                    deleted.set(old);
+                    live.remove(path);
+                }
+                dirty = true;
+            }
+            return;
+        }
+        if (old != null && sizes[old] == attrs.size() && modified[old] == attrs.lastModifiedTime().toMillis()) {
+            return;
+        }
+        Map<String, int[]> counts = tokenize(note);
+        synchronized (this) {
+            if (old != null) {
+                deleted.set(old);
+            }
+            int doc = addDoc(path, attrs);
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                IndexSegment.Postings postings = delta.get(entry.getKey());
+                if (postings == null) {
+                    postings = new IndexSegment.Postings(4);
+                    delta.put(entry.getKey(), postings);
+                }
+                postings.add(doc, entry.getValue()[0]);
+            }
+            deltaDocs++;
+        }
+        dirty = true;
+    }
+
+    // Must hold the lock
+    private int addDoc(String path, BasicFileAttributes attrs) {
+        int doc = paths.size();
+        if (doc == sizes.length) {
+            sizes = Arrays.copyOf(sizes, doc * 2);
+            modified = Arrays.copyOf(modified, doc * 2);
+        }
+        paths.add(path);
+        sizes[doc] = attrs == null ? -1 : attrs.size();
+        modified[doc] = attrs == null ? -1 : attrs.lastModifiedTime().toMillis();
+        live.put(path, doc);
+        return doc;
+    }
+
+    // Turns the delta into a segment and saves the note table
+    private void flush() throws IOException {
+        if (deltaDocs > 0) {
+            IndexSegment segment = writeSegment(delta);
+            synchronized (this) {
+                segments.add(segment);
+                delta = new HashMap<String, IndexSegment.Postings>();
+                deltaDocs = 0;
+            }
+            dirty = true;
+        }
+        if (segments.size() > MAX_SEGMENTS) {
+            merge();
+        }
+        if (dirty) {
+            if (deleted.cardinality() > paths.size() / 2 && paths.size() > 1000) {
+                // Mostly dead ids: start over rather than carry them forever
+                build();
+            }
+            writeManifest();
+            dirty = false;
+        }
+    }
+
+    private void merge() throws IOException {
+        List<IndexSegment> merging = new ArrayList<IndexSegment>(segments);
+        BitSet gone;
+        synchronized (this) {
+            gone = (BitSet) deleted.clone();
+        }
+        Path file = dir.resolve("segment-" + nextSegment++ + ".idx");
+        IndexSegment.merge(file, merging, gone);
+        IndexSegment merged = IndexSegment.open(file);
+        synchronized (this) {
+            segments.removeAll(merging);
+            segments.add(0, merged);
+        }
+        writeManifest();
+        discard(merging);
+    }
+
+    private static void discard(List<IndexSegment> unused) throws IOException {
+        for (IndexSegment segment : unused) {
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.getFile());
+            } catch (IOException e) {
+                // Still mapped on some platforms; cleaned up on the next open
+            }
+        }
+    }
+
+    private IndexSegment writeSegment(Map<String, IndexSegment.Postings> terms) throws IOException {
+        Path file = dir.resolve("segment-" + nextSegment++ + ".idx");
+        IndexSegment.write(file, terms);
+        return IndexSegment.open(file);
+    }
+
+    private void writeManifest() throws IOException {
+        Path temp = Files.createTempFile(dir, "manifest", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(folder.toString());
+            synchronized (this) {
+                out.writeInt(nextSegment);
+                out.writeInt(segments.size());
+                for (IndexSegment segment : segments) {
+                    out.writeUTF(segment.getFile().getFileName().toString());
+                }
+                out.writeInt(paths.size());
+                for (int doc = 0; doc < paths.size(); doc++) {
+                    out.writeUTF(paths.get(doc));
+                    out.writeLong(sizes[doc]);
+                    out.writeLong(modified[doc]);
+                    out.writeBoolean(deleted.get(doc));
+                }
+            }
+        }
+        Files.move(temp, dir.resolve("manifest"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns false if there is no index for this folder yet
+    private boolean loadManifest() throws IOException {
+        Path manifest = dir.resolve("manifest");
+        Set<String> used = new HashSet<String>();
+        boolean loaded = false;
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readUTF().equals(folder.toString())) {
+                    nextSegment = in.readInt();
+                    int count = in.readInt();
+                    List<IndexSegment> opened = new ArrayList<IndexSegment>();
+                    for (int i = 0; i < count; i++) {
+                        String name = in.readUTF();
+                        used.add(name);
+                        opened.add(IndexSegment.open(dir.resolve(name)));
+                    }
+                    int docs = in.readInt();
+                    synchronized (this) {
+                        segments.addAll(opened);
+                        for (int doc = 0; doc < docs; doc++) {
+                            String path = in.readUTF();
+                            if (doc == sizes.length) {
+                                sizes = Arrays.copyOf(sizes, doc * 2);
+                                modified = Arrays.copyOf(modified, doc * 2);
+                            }
+                            paths.add(path);
+                            sizes[doc] = in.readLong();
+                            modified[doc] = in.readLong();
+                            if (in.readBoolean()) {
+                                deleted.set(doc);
+                            } else {
+                                live.put(path, doc);
+                            }
+                        }
+                    }
+                    loaded = true;
+                }
+            } catch (IOException e) {
+                // Damaged or from another version: rebuild
+                synchronized (this) {
+                    segments.clear();
+                    paths.clear();
+                    deleted.clear();
+                    live.clear();
+                }
+            }
+        }
+        // Segments left over from an interrupted build or merge
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.{idx,tmp}")) {
+            for (Path file : stream) {
+                if (!used.contains(file.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // Try again next time
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+
+    // --- tokenizing ---------------------------------------
+
+    /** Tokenizes a range of notes, splitting the range across the pool. */
+    private static final class IndexTask extends RecursiveTask<Map<String, IndexSegment.Postings>> {
+        private final List<Path> notes;
+        private final int start;
+        private final int end;
+        private final int firstDoc;
+
+        IndexTask(List<Path> notes, int start, int end, int firstDoc) {
+            this.notes = notes;
+            this.start = start;
+            this.end = end;
+            this.firstDoc = firstDoc;
+        }
+
+        @Override
+        protected Map<String, IndexSegment.Postings> compute() {
+            if (end - start <= LEAF_FILES) {
+                Map<String, IndexSegment.Postings> terms = new HashMap<String, IndexSegment.Postings>();
+                for (int i = start; i < end; i++) {
+                    int doc = firstDoc + i - start;
+                    for (Map.Entry<String, int[]> entry : tokenize(notes.get(i)).entrySet()) {
+                        IndexSegment.Postings postings = terms.get(entry.getKey());
+                        if (postings == null) {
+                            postings = new IndexSegment.Postings(4);
+                            terms.put(entry.getKey(), postings);
+                        }
+                        postings.add(doc, entry.getValue()[0]);
+                    }
+                }
+                return terms;
+            }
+            int mid = (start + end) >>> 1;
+            IndexTask left = new IndexTask(notes, start, mid, firstDoc);
+            IndexTask right = new IndexTask(notes, mid, end, firstDoc + mid - start);
+            left.fork();
+            Map<String, IndexSegment.Postings> after = right.compute();
+            Map<String, IndexSegment.Postings> before = left.join();
+            // Ids on the right all follow those on the left, so lists just append
+            for (Map.Entry<String, IndexSegment.Postings> entry : after.entrySet()) {
+                IndexSegment.Postings postings = before.get(entry.getKey());
+                if (postings == null) {
+                    before.put(entry.getKey(), entry.getValue());
+                } else {
+                    postings.addAll(entry.getValue());
+                }
+            }
+            return before;
+        }
+    }
+
+    // Word counts of a note; unreadable notes simply have no words
+    static Map<String, int[]> tokenize(Path note) {
+        Map<String, int[]> counts = new HashMap<String, int[]>();
+        char[] buffer = new char[64 * 1024];
+        char[] term = new char[MAX_TERM];
+        int length = 0;
+        boolean tooLong = false;
+        try (Reader reader = new InputStreamReader(Files.newInputStream(note),
+                TextEncoding.detect(note).getCharset())) {
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (Character.isLetterOrDigit(c)) {
+                        if (length < MAX_TERM) {
+                            term[length++] = Character.toLowerCase(c);
+                        } else {
+                            tooLong = true;
+                        }
+                    } else if (length > 0) {
+                        count(counts, term, length, tooLong);
+                        length = 0;
+                        tooLong = false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            return counts;
+        }
+        if (length > 0) {
+            count(counts, term, length, tooLong);
+        }
+        return counts;
+    }
+
+    private static void count(Map<String, int[]> counts, char[] term, int length, boolean tooLong) {
+        if (tooLong) {
+            return; // Hashes, base64 and the like are not worth indexing
+        }
+        String word = new String(term, 0, length);
+        int[] count = counts.get(word);
+        if (count == null) {
+            counts.put(word, new int[] {1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    private static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<String>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                if (term.length() <= MAX_TERM) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+        }
+        return new ArrayList<String>(terms);
+    }
+
+    private static boolean isNote(Path path) {
+        return path.getFileName().toString().endsWith(".txt");
+    }
+
+    private static List<Path> notes(Path start) throws IOException {
+        final List<Path> notes = new ArrayList<Path>();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isNote(path)) {
+                    notes.add(path);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return notes;
+    }
+
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** A note matching a query. */
+    public static final class Hit {
+        public final File file;
+        public final int score;
+
+        Hit(File file, int score) {
+            this.file = file;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import javax.swing.SwingUtilities;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * The notes under a folder with what the home screen shows about each one:
+ * size, modification time, a title and a preview of the first lines.
+ *
+ * All of it is cached in ~/.notesapp/library/notes.cache, which a background
+ * thread reads when the library is first opened, so the list comes up
+ * without touching the notes themselves. The same thread then walks the
+ * folder and only reads the start of notes whose size or time changed since
+ * they were cached. Listeners hear about new entries on the event thread.
+ */
+public class NoteLibrary implements Closeable {
+    private static final int MAGIC = 0x4E4C4942; // "NLIB"
+    private static final int VERSION = 1;
+    private static final int HEAD_BYTES = 4096;
+    private static final int MAX_TITLE = 100;
+    private static final int MAX_PREVIEW = 160;
+    private static final int PUBLISH_EVERY = 2000;
+
+    public static final int BY_MODIFIED = 0;
+    public static final int BY_TITLE = 1;
+    public static final int BY_SIZE = 2;
+    public static final int BY_PATH = 3;
+
+    /** Told on the event thread whenever the entries or the scan progress change. */
+    public interface Listener {
+        void libraryChanged();
+    }
+
+    private final Path cache;
+    private final Thread worker;
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    // Written by the worker only
+    private volatile Path folder;
+    private volatile Note[] notes = new Note[0];
+    private volatile boolean scanning = true;
+    private volatile int scanned;
+    private volatile boolean closed;
+    private boolean refreshRequested;
+
+    private NoteLibrary(Path folder) throws IOException {
+        this.folder = folder != null ? folder.toAbsolutePath() : null;
+        cache = AppData.dir("library").resolve("notes.cache");
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                    while (!closed) {
+                        if (NoteLibrary.this.folder != null) {
+                            scan();
+                        }
+                        awaitRefresh();
+                    }
+                } catch (InterruptedException e) {
+                    // Closed
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "note-library");
+        worker.setDaemon(true);
+    }
+
+    /**
+     * Opens the library for the folder, or for the folder it was last open
+     * on (falling back to the search index's) if that is null, and starts
+     * loading it in the background.
+     */
+    public static NoteLibrary open(Path folder) throws IOException {
+        NoteLibrary library = new NoteLibrary(folder);
+        library.worker.start();
+        return library;
+    }
+
+    // Null until the cache has been read, or if no notes folder was ever chosen
+    public Path getFolder() {
+        return folder;
+    }
+
+    public Note[] getNotes() {
+        return notes;
+    }
+
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    public int getScanned() {
+        return scanned;
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    // Asks for another pass over the folder; cheap when nothing changed, since only sizes and times are compared
+    public synchronized void refresh() {
+        refreshRequested = true;
+        notifyAll();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    /** Returns the notes ordered by one of the BY_ keys, newest or largest first where that is the natural order. */
+    public static Note[] sort(Note[] notes, int key) {
+        Note[] sorted = notes.clone();
+        Comparator<Note> order;
+        switch (key) {
+            case BY_TITLE:
+                order = new Comparator<Note>() {
+                    @Override
+                    public int compare(Note a, Note b) {
+                        return String.CASE_INSENSITIVE_ORDER.compare(a.title, b.title);
+                    }
+                };
+                break;
+            case BY_SIZE:
+                order = new Comparator<Note>() {
+                    @Override
+                    public int compare(Note a, Note b) {
+                        return Long.compare(b.size, a.size);
+                    }
+                };
+                break;
+            case BY_PATH:
+                order = new Comparator<Note>() {
+                    @Override
+                    public int compare(Note a, Note b) {
+                        return a.path.compareTo(b.path);
+                    }
+                };
+                break;
+            default:
+                order = new Comparator<Note>() {
+                    @Override
+                    public int compare(Note a, Note b) {
+                        return Long.compare(b.modified, a.modified);
+                    }
+                };
+                break;
+        }
+        Arrays.sort(sorted, order);
+        return sorted;
+    }
+
+    /** Notes whose title, path or preview contains the text, ignoring case, in the order given. */
+    public static Note[] filter(Note[] notes, String text) {
+        String query = text.trim().toLowerCase(Locale.ROOT);
+        if (query.isEmpty()) {
+            return notes;
+        }
+        Note[] found = new Note[notes.length];
+        int count = 0;
+        for (Note note : notes) {
+            if (note.matchText.contains(query)) {
+                found[count++] = note;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    // --- worker thread ------------------------------------
+
+    private synchronized void awaitRefresh() throws InterruptedException {
+        while (!refreshRequested && !closed) {
+            wait();
+        }
+        refreshRequested = false;
+    }
+
+    // Reads the cache if it belongs to the folder (or names it, when none was given) and publishes it
+    private void load() {
+        if (Files.exists(cache)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    Path cached = Paths.get(in.readUTF());
+                    if (folder == null) {
+                        folder = cached;
+                    }
+                    if (cached.equals(folder)) {
+                        int count = in.readInt();
+                        Note[] loaded = new Note[count];
+                        for (int i = 0; i < count; i++) {
+                            loaded[i] = new Note(folder, in.readUTF(), in.readLong(), in.readLong(),
+                                    in.readUTF(), in.readUTF());
+                        }
+                        notes = loaded;
+                    }
+                }
+            } catch (IOException e) {
+                // Damaged or from another version; the scan rebuilds it
+                notes = new Note[0];
+            }
+        }
+        if (folder == null) {
+            folder = NoteIndex.lastFolder();
+        }
+        scanning = folder != null;
+        publish();
+    }
+
+    private void scan() throws IOException {
+        scanning = true;
+        scanned = 0;
+        publish();
+        final Path root = folder;
+        final Map<String, Note> known = new HashMap<String, Note>();
+        for (Note note : notes) {
+            known.put(note.path, note);
+        }
+        final Map<String, Note> current = new LinkedHashMap<String, Note>(known);
+        final Set<String> seen = new HashSet<String>();
+        final boolean[] changed = new boolean[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                if (closed) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!attrs.isRegularFile() || !isNote(path)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String relative = root.relativize(path).toString();
+                seen.add(relative);
+                Note old = known.get(relative);
+                long modified = attrs.lastModifiedTime().toMillis();
+                if (old == null || old.size != attrs.size() || old.modified != modified) {
+                    current.put(relative, read(root, relative, attrs.size(), modified));
+                    changed[0] = true;
+                }
+                // The walk itself is fast; what shows progress is new and changed notes arriving
+                if (++scanned % PUBLISH_EVERY == 0 && changed[0]) {
+                    notes = current.values().toArray(new Note[0]);
+                    publish();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (closed) {
+            return;
+        }
+        if (current.keySet().retainAll(seen)) {
+            changed[0] = true;
+        }
+        notes = current.values().toArray(new Note[0]);
+        if (changed[0]) {
+            save();
+        }
+        scanning = false;
+        publish();
+    }
+
+    // Title and preview from the first few kilobytes; an unreadable note keeps its file name as title
+    private static Note read(Path root, String relative, long size, long modified) {
+        Path path = root.resolve(relative);
+        String head = "";
+        try {
+            if (ChunkedText.isContainer(path.toFile())) {
+                ChunkedText text = ChunkedText.open(path.toFile());
+                head = text.subSequence(0, Math.min(text.length(), HEAD_BYTES)).toString();
+            } else {
+                head = readHead(path);
+            }
+        } catch (IOException e) {
+            // Listed all the same
+        }
+        String title = null;
+        StringBuilder preview = new StringBuilder();
+        for (String line : head.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (title == null) {
+                // A Markdown heading reads better without its hashes
+                title = trimmed.replaceFirst("^#+\\s*", "");
+            } else if (preview.length() < MAX_PREVIEW) {
+                preview.append(preview.length() > 0 ? " " : "").append(trimmed.replaceAll("\\s+", " "));
+            }
+        }
+        if (title == null || title.isEmpty()) {
+            title = path.getFileName().toString();
+        }
+        return new Note(root, relative, size, modified, clip(title, MAX_TITLE), clip(preview.toString(), MAX_PREVIEW));
+    }
+
+    private static String readHead(Path path) throws IOException {
+        byte[] bytes = new byte[HEAD_BYTES];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while (length < bytes.length && (n = in.read(bytes, length, bytes.length - length)) > 0) {
+                length += n;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        if (length == bytes.length) {
+            // Do not let a character cut off at the end make valid UTF-8 look invalid
+            buffer.limit(TextEncoding.boundary(buffer, length - 1, StandardCharsets.UTF_8));
+        }
+        TextEncoding encoding = TextEncoding.detect(buffer);
+        buffer.position(encoding.getBom().length);
+        return encoding.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(buffer).toString();
+    }
+
+    private static String clip(String text, int max) {
+        return text.length() <= max ? text : text.substring(0, max - 3) + "...";
+    }
+
+    private void save() throws IOException {
+        Note[] saving = notes;
+        Path temp = Files.createTempFile(cache.getParent(), "notes", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(folder.toString());
+            out.writeInt(saving.length);
+            for (Note note : saving) {
+                out.writeUTF(note.path);
+                out.writeLong(note.size);
+                out.writeLong(note.modified);
+                out.writeUTF(note.title);
+                out.writeUTF(note.preview);
+            }
+        }
+        Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void publish() {
+        final List<Listener> current;
+        synchronized (listeners) {
+            current = new ArrayList<Listener>(listeners);
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : current) {
+                    listener.libraryChanged();
+                }
+            }
+        });
+    }
+
+    private static boolean isNote(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".txt") || ChunkedText.isContainer(path.toFile());
+    }
+
+    /** What the library knows about one note. */
+    public static final class Note {
+        public final String path;
+        public final long size;
+        public final long modified;
+        public final String title;
+        public final String preview;
+        private final Path folder;
+        // Lower-cased title, path and preview, so filtering never allocates
+        private final String matchText;
+
+        Note(Path folder, String path, long size, long modified, String title, String preview) {
+            this.folder = folder;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.title = title;
+            this.preview = preview;
+            matchText = (title + "\n" + path + "\n" + preview).toLowerCase(Locale.ROOT);
+        }
+
+        public File getFile() {
+            return folder.resolve(path).toFile();
+        }
+    }
+}
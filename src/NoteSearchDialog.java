@@ -0,0 +1,231 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * "Search all notes" window. Searches the note index as the user types and
+ * lists the matching notes with a line of context each; opening one is left
+ * to the subclass.
+ */
+public abstract class NoteSearchDialog extends JDialog {
+    private static final int MAX_RESULTS = 100;
+
+    private final NoteIndex index;
+    private final JTextField queryField;
+    private final JLabel statusLabel;
+    private final DefaultListModel<Result> results = new DefaultListModel<Result>();
+    private final JList<Result> resultList;
+    private final Timer typingTimer;
+    private final Timer indexingTimer;
+    private SwingWorker<List<Result>, Void> activeSearch;
+
+    public NoteSearchDialog(JFrame owner, NoteIndex index) {
+        super(owner, "Search All Notes", false);
+        this.index = index;
+        setSize(800, 600);
+        setLocationRelativeTo(owner);
+
+        JPanel top = new JPanel(new BorderLayout(8, 8));
+        top.setBorder(new EmptyBorder(10, 10, 10, 10));
+        queryField = new JTextField();
+        queryField.setFont(new Font("SansSerif", Font.PLAIN, 18));
+        top.add(queryField, BorderLayout.CENTER);
+        JButton folderButton = new JButton("Folder...");
+        folderButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        folderButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                changeFolder();
+            }
+        });
+        top.add(folderButton, BorderLayout.EAST);
+        statusLabel = new JLabel(" ");
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 13));
+        top.add(statusLabel, BorderLayout.SOUTH);
+
+        resultList = new JList<Result>(results);
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultList.setFixedCellHeight(52); // No per-row measuring, however many results there are
+        resultList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int i,
+                                                          boolean selected, boolean focused) {
+                Result result = (Result) value;
+                String text = "<html><b>" + escape(result.hit.file.getName()) + "</b>&nbsp;&nbsp;<font color=gray>"
+                        + escape(result.hit.file.getParent()) + "</font><br>" + escape(result.snippet) + "</html>";
+                return super.getListCellRendererComponent(list, text, i, selected, focused);
+            }
+        });
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    openSelected();
+                }
+            }
+        });
+        resultList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    openSelected();
+                }
+            }
+        });
+        queryField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!results.isEmpty()) {
+                    resultList.setSelectedIndex(0);
+                    openSelected();
+                }
+            }
+        });
+
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+
+        // Search once typing pauses rather than on every keystroke
+        typingTimer = new Timer(150, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        });
+        typingTimer.setRepeats(false);
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                typingTimer.restart();
+            }
+        });
+
+        indexingTimer = new Timer(500, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (NoteSearchDialog.this.index.isReady()) {
+                    indexingTimer.stop();
+                    search();
+                } else {
+                    statusLabel.setText("Indexing " + NoteSearchDialog.this.index.getFolder() + ": "
+                            + NoteSearchDialog.this.index.getIndexedFiles() + " of "
+                            + NoteSearchDialog.this.index.getTotalFiles() + " notes...");
+                }
+            }
+        });
+        indexingTimer.setInitialDelay(0);
+        indexingTimer.start();
+    }
+
+    // Opens the note in the editor
+    protected abstract void openNote(File file);
+
+    // Lets the user pick another notes folder
+    protected abstract void changeFolder();
+
+    @Override
+    public void dispose() {
+        typingTimer.stop();
+        indexingTimer.stop();
+        if (activeSearch != null) {
+            activeSearch.cancel(true);
+        }
+        super.dispose();
+    }
+
+    private void search() {
+        if (!index.isReady()) {
+            return;
+        }
+        if (activeSearch != null) {
+            activeSearch.cancel(true);
+        }
+        final String query = queryField.getText();
+        final long start = System.nanoTime();
+        activeSearch = new SwingWorker<List<Result>, Void>() {
+            private int total;
+            private long searchNanos;
+
+            @Override
+            protected List<Result> doInBackground() throws Exception {
+                List<NoteIndex.Hit> hits = index.search(query, Integer.MAX_VALUE);
+                searchNanos = System.nanoTime() - start;
+                total = hits.size();
+                List<Result> found = new ArrayList<Result>();
+                for (NoteIndex.Hit hit : hits.subList(0, Math.min(MAX_RESULTS, hits.size()))) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    found.add(new Result(hit, NoteIndex.snippet(hit.file, query)));
+                }
+                return found;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                results.clear();
+                try {
+                    for (Result result : get()) {
+                        results.addElement(result);
+                    }
+                    statusLabel.setText(query.trim().isEmpty() ? " " : total + " notes found in "
+                            + Math.max(1, searchNanos / 1000000) + " ms"
+                            + (total > MAX_RESULTS ? ", showing the first " + MAX_RESULTS : ""));
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Search failed: " + cause.getMessage());
+                }
+            }
+        };
+        activeSearch.execute();
+    }
+
+    private void openSelected() {
+        Result result = resultList.getSelectedValue();
+        if (result != null) {
+            dispose();
+            openNote(result.hit.file);
+        }
+    }
+
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static final class Result {
+        final NoteIndex.Hit hit;
+        final String snippet;
+
+        Result(NoteIndex.Hit hit, String snippet) {
+            this.hit = hit;
+            this.snippet = snippet;
+        }
+    }
+}
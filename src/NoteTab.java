@@ -0,0 +1,362 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One open note in the editor: its file, its document while it is in memory
+ * and its journal and undo history.
+ *
+ * A tab that has not been used for a while can be evicted to free the heap.
+ * Its document is dropped and the note is then only the file on disk plus,
+ * if it had unsaved edits, the journal of those edits; reloading the tab
+ * reads the file again and replays the journal over it. Undo history does
+ * not survive eviction. Formatting is not journaled, so a formatted note
+ * with unsaved edits stays in memory. Syntax highlighting is set up whenever
+ * the document is attached and dropped with it.
+ */
+public class NoteTab implements DocumentListener {
+    private File file;
+    private NotesDocument document;
+    private EditJournal journal;
+    private EditHistory history;
+    private Path pendingJournal;
+    private boolean loading;
+    private boolean saving;
+    private boolean tailing;
+    private boolean endOnly;
+    private long lastUsed;
+    private long edits;
+    private long savedEdits;
+    private long lastRestyle;
+    private int caret;
+    private Point viewPosition = new Point();
+    private String language;
+
+    public NoteTab(File file) {
+        this.file = file;
+        language = Highlighter.languageOf(file);
+        touch();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    // One of Highlighter.LANGUAGES
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+        if (document != null && !loading) {
+            Highlighter.install(document, language);
+        }
+    }
+
+    public String getTitle() {
+        return (isModified() ? "*" : "") + (file != null ? file.getName() : "Untitled");
+    }
+
+    // Null while the tab is evicted
+    public NotesDocument getDocument() {
+        return document;
+    }
+
+    public boolean isLoaded() {
+        return document != null;
+    }
+
+    // Shows a document that is still being loaded; nothing is recorded until attach
+    public void setLoadingDocument(NotesDocument document) {
+        this.document = document;
+        loading = true;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public boolean isSaving() {
+        return saving;
+    }
+
+    public void setSaving(boolean saving) {
+        this.saving = saving;
+    }
+
+    /**
+     * Takes the loaded document and starts recording its edits for undo and
+     * for crash recovery.
+     */
+    public void attach(NotesDocument document) {
+        this.document = document;
+        loading = false;
+        edits = 0;
+        savedEdits = 0;
+        lastRestyle = 0;
+        startRecording();
+        document.addDocumentListener(this);
+        Highlighter.install(document, language);
+    }
+
+    private void startRecording() {
+        history = EditHistory.install(document);
+        try {
+            journal = EditJournal.start(file, document);
+        } catch (IOException e) {
+            // Recovery is a safety net only; editing works without it
+            journal = null;
+        }
+    }
+
+    private void stopRecording() {
+        if (history != null) {
+            history.close();
+            history = null;
+        }
+        if (journal != null) {
+            journal.close(true);
+            journal = null;
+        }
+    }
+
+    /**
+     * Text appended while following a growing file is not an edit, so
+     * nothing is recorded until stopTailing; the tab is read-only meanwhile.
+     */
+    public void startTailing() {
+        tailing = true;
+        stopRecording();
+    }
+
+    /**
+     * Takes the document a followed file was read into again after it was
+     * truncated or replaced. Nothing is recorded while tailing, so only the
+     * listeners move over.
+     */
+    public void replaceTailed(NotesDocument document) {
+        this.document.removeDocumentListener(this);
+        Highlighter.uninstall(this.document);
+        this.document = document;
+        document.addDocumentListener(this);
+        Highlighter.install(document, language);
+    }
+
+    /**
+     * Takes an empty document for following the end of a file too large to
+     * open. Only the end is ever in memory, so the tab can be followed but
+     * never edited or saved, and it closes when following stops.
+     */
+    public void attachEnd(NotesDocument document) {
+        this.document = document;
+        endOnly = true;
+        document.addDocumentListener(this);
+        Highlighter.install(document, language);
+    }
+
+    public boolean isEndOnly() {
+        return endOnly;
+    }
+
+    public void stopTailing() {
+        tailing = false;
+        startRecording();
+    }
+
+    public boolean isTailing() {
+        return tailing;
+    }
+
+    public EditJournal getJournal() {
+        return journal;
+    }
+
+    public EditHistory getHistory() {
+        return history;
+    }
+
+    // Edits made so far; pass the count taken with a save's snapshot to markSaved
+    public long getEditCount() {
+        return edits;
+    }
+
+    public void markSaved(long editCount) {
+        savedEdits = editCount;
+    }
+
+    public boolean isModified() {
+        return edits != savedEdits || pendingJournal != null;
+    }
+
+    public void touch() {
+        lastUsed = System.nanoTime();
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void saveView(int caret, Point viewPosition) {
+        this.caret = caret;
+        this.viewPosition = viewPosition;
+    }
+
+    public int getCaret() {
+        return caret;
+    }
+
+    public Point getViewPosition() {
+        return viewPosition;
+    }
+
+    // Rough bytes of heap the tab holds
+    public long getMemoryUsage() {
+        if (document == null) {
+            return 0;
+        }
+        return document.getHeapSize() + (history != null ? history.getMemoryUsage() : 0);
+    }
+
+    /**
+     * Drops the document, keeping unsaved edits in the journal on disk.
+     * Returns false, changing nothing, if the edits could not be kept.
+     */
+    public boolean evict() {
+        if (document == null || loading || saving || tailing) {
+            return false;
+        }
+        if (edits != savedEdits) {
+            if (journal == null || lastRestyle > savedEdits || !document.getStyleRuns().isPlain()) {
+                return false;
+            }
+            Path path = journal.detach();
+            if (path == null) {
+                // The journal broke; keep the text and start over with a new one
+                journal = null;
+                try {
+                    journal = EditJournal.start(file, document);
+                } catch (IOException e) {
+                    journal = null;
+                }
+                return false;
+            }
+            pendingJournal = path;
+        } else if (journal != null) {
+            journal.close(true);
+        }
+        journal = null;
+        stopRecording();
+        document.removeDocumentListener(this);
+        Highlighter.uninstall(document);
+        document = null;
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used of the tabs, other than the one kept,
+     * until the loaded documents fit in the budget. Tabs that cannot be
+     * evicted just now are passed over.
+     */
+    static void evictToBudget(List<NoteTab> tabs, NoteTab keep, long budget) {
+        long total = 0;
+        for (NoteTab tab : tabs) {
+            total += tab.getMemoryUsage();
+        }
+        if (total <= budget) {
+            return;
+        }
+        List<NoteTab> byAge = new ArrayList<NoteTab>(tabs);
+        Collections.sort(byAge, new Comparator<NoteTab>() {
+            @Override
+            public int compare(NoteTab a, NoteTab b) {
+                return Long.compare(a.getLastUsed(), b.getLastUsed());
+            }
+        });
+        for (NoteTab tab : byAge) {
+            if (total <= budget) {
+                break;
+            }
+            if (tab == keep) {
+                continue;
+            }
+            long usage = tab.getMemoryUsage();
+            if (tab.evict()) {
+                total -= usage;
+            }
+        }
+    }
+
+    /**
+     * True if the text was opened from a mapped file that another program
+     * has since written to or cut short, so it can no longer be trusted.
+     */
+    public boolean isFileChanged() {
+        if (document == null || loading) {
+            return false;
+        }
+        CharSequence original = document.getPieceTable().getOriginal();
+        return original instanceof ByteCharSequence && ((ByteCharSequence) original).isChanged();
+    }
+
+    // Drops the document and any unsaved edits, as when its file can no longer be read
+    public void discard() {
+        close();
+        document = null;
+        edits = 0;
+        savedEdits = 0;
+    }
+
+    // Edits to replay over the file once the tab is loaded: an evicted tab's, or ones being recovered
+    public void setPendingJournal(Path journal) {
+        pendingJournal = journal;
+    }
+
+    // Returns the journal to replay, or null; the caller takes ownership of the file
+    public Path takePendingJournal() {
+        Path path = pendingJournal;
+        pendingJournal = null;
+        return path;
+    }
+
+    // Stops recording and discards the journal; the tab is being closed or reopened
+    public void close() {
+        stopRecording();
+        if (document != null) {
+            document.removeDocumentListener(this);
+            Highlighter.uninstall(document);
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (!tailing) {
+            edits++;
+        }
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (!tailing) {
+            edits++;
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Formatting changed; saved with the note, though not journaled
+        edits++;
+        lastRestyle = edits;
+    }
+}
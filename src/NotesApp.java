@@ -1,13 +1,30 @@
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.CaretEvent;
+import javax.swing.event.CaretListener;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class NotesApp extends JFrame {
     private CardLayout cardLayout;
@@ -15,18 +32,41 @@ public class NotesApp extends JFrame {
     private JPanel startupPanel;
     private JPanel homePanel;
     private JPanel editorPanel;
-    private JTextArea textArea;
-    private File currentFile;
+    private NotesTextArea textArea;
+    private FindBar findBar;
+    private JScrollPane scrollPane;
+    private JTabbedPane tabPane;
+    private final List<NoteTab> tabs = new ArrayList<NoteTab>();
+    private final Map<NoteTab, TextFileLoader> loaders = new HashMap<NoteTab, TextFileLoader>();
+    private final Map<NoteTab, FileTailer> tailers = new HashMap<NoteTab, FileTailer>();
+    // Journals the user chose to recover knowing whether their file had changed
+    private final Set<Path> confirmedJournals = new HashSet<Path>();
+    private NoteTab activeTab;
     private JComboBox<String> fontSizeCombo;
     private JComboBox<String> fontFamilyCombo;
+    private JComboBox<String> languageCombo;
+    private boolean showingLanguage;
     private JButton boldButton;
     private JButton italicButton;
     private JButton underlineButton;
+    private JButton followButton;
     private JFileChooser fileChooser;
+    private JPanel statusBar;
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private SwingWorker<?, ?> activeTask;
+    private NoteIndex noteIndex;
+    private NoteLibrary noteLibrary;
+    private LibraryPanel libraryPanel;
     private boolean isBold = false;
     private boolean isItalic = false;
     private boolean isUnderline = false;
 
+    // Heap the open documents may use before the least recently used ones are evicted
+    private static final long MB = 1024 * 1024;
+    private static final long TAB_BUDGET =
+            Long.getLong("notes.tabs.budgetMB", Runtime.getRuntime().maxMemory() / 4 / MB) * MB;
+
     public NotesApp() {
         setTitle("Java Notes App");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -37,33 +77,88 @@ public class NotesApp extends JFrame {
         // Initialize components
         cardLayout = new CardLayout();
         mainPanel = new JPanel(cardLayout);
-        fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter("Text Files", "txt"));
 
-        // Create panels
+        // Only the splash is built up front; finishStartup() does the rest once it is on screen
         createStartupPanel();
-        createHomePanel();
-        createEditorPanel();
-
-        // Add panels to main panel
         mainPanel.add(startupPanel, "startup");
-        mainPanel.add(homePanel, "home");
-        mainPanel.add(editorPanel, "editor");
 
         add(mainPanel);
 
+        // Coming back from another program is when an open file may have been changed under its mapping
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowActivated(WindowEvent e) {
+                checkChangedFiles();
+            }
+        });
+
+        // Latency numbers, shown and hidden with Ctrl+Shift+M wherever the focus is
+        EdtMonitor monitor = EdtMonitor.get();
+        if (monitor != null) {
+            final PerfOverlay overlay = new PerfOverlay(monitor);
+            getLayeredPane().add(overlay, JLayeredPane.POPUP_LAYER);
+            getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                    .put(KeyStroke.getKeyStroke("control shift M"), "perfOverlay");
+            getRootPane().getActionMap().put("perfOverlay", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    overlay.toggle();
+                }
+            });
+        }
+
         // Show startup screen
         cardLayout.show(mainPanel, "startup");
+    }
 
-        // Schedule transition to home screen after 3 seconds
-        Timer timer = new Timer(3000, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                cardLayout.show(mainPanel, "home");
+    // Builds the home screen and replaces the splash with it, or with the given file
+    private void finishStartup(File file) {
+        createHomePanel();
+        mainPanel.add(homePanel, "home");
+        StartupLog.mark("home");
+
+        if (file != null) {
+            openFile(file);
+            StartupLog.mark("editor");
+        } else {
+            cardLayout.show(mainPanel, "home");
+        }
+        StartupLog.finish();
+
+        if (Boolean.getBoolean("notes.cds.training")) {
+            // Class-list training run for the AppCDS archive: touch the editor too, then quit
+            ensureEditorPanel();
+            Timer timer = new Timer(1000, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    System.exit(0);
+                }
+            });
+            timer.setRepeats(false);
+            timer.start();
+        } else {
+            // Started only now so reading the cache never competes with the first screen
+            openLibrary(null);
+            if (file == null) {
+                offerRecovery();
             }
-        });
-        timer.setRepeats(false);
-        timer.start();
+        }
+    }
+
+    // The editor is the heaviest panel, so it is only built the first time it is shown
+    private void ensureEditorPanel() {
+        if (editorPanel == null) {
+            createEditorPanel();
+            mainPanel.add(editorPanel, "editor");
+        }
+    }
+
+    private JFileChooser getFileChooser() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser();
+            fileChooser.setFileFilter(new FileNameExtensionFilter("Notes (.txt, compressed .notez)", "txt", "notez"));
+        }
+        return fileChooser;
     }
 
     private void createStartupPanel() {
@@ -164,7 +259,7 @@ public class NotesApp extends JFrame {
         createButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                showEditorPanel();
+                newNote();
             }
         });
         gbc.gridx = 0;
@@ -192,15 +287,68 @@ public class NotesApp extends JFrame {
         editButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                openFileForEditing();
+                openFile();
             }
         });
         gbc.gridx = 0;
         gbc.gridy = 2;
         contentPanel.add(editButton, gbc);
 
+        // Search all notes button
+        JButton searchButton = new JButton("Search All Notes");
+        styleHomeButton(searchButton, new Color(147, 112, 219), Color.WHITE);
+        searchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showSearch();
+            }
+        });
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        contentPanel.add(searchButton, gbc);
+
+        // Every note in the notes folder, listed from the library cache
+        libraryPanel = new LibraryPanel() {
+            @Override
+            protected void openNote(File file) {
+                openFile(file);
+            }
+
+            @Override
+            protected void changeFolder() {
+                Path folder = chooseNotesFolder();
+                if (folder != null) {
+                    openLibrary(folder);
+                }
+            }
+        };
+
         homePanel.add(headerPanel, BorderLayout.NORTH);
-        homePanel.add(contentPanel, BorderLayout.CENTER);
+        homePanel.add(contentPanel, BorderLayout.WEST);
+        homePanel.add(libraryPanel, BorderLayout.CENTER);
+    }
+
+    // Shows the home screen, checking the library for notes changed since it was last shown
+    private void showHome() {
+        cardLayout.show(mainPanel, "home");
+        if (noteLibrary != null) {
+            noteLibrary.refresh();
+        }
+    }
+
+    // Null opens the folder the library was last open on
+    private void openLibrary(Path folder) {
+        if (noteLibrary != null) {
+            noteLibrary.close();
+            noteLibrary = null;
+        }
+        try {
+            noteLibrary = NoteLibrary.open(folder);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error opening the notes library: " + e.getMessage(),
+                                        "Library Error", JOptionPane.ERROR_MESSAGE);
+        }
+        libraryPanel.setLibrary(noteLibrary);
     }
 
     private void styleHomeButton(JButton button, Color bgColor, Color textColor) {
@@ -286,6 +434,27 @@ public class NotesApp extends JFrame {
             }
         });
         toolBar.add(fontSizeCombo);
+        toolBar.addSeparator(new Dimension(10, 0));
+
+        // Syntax highlighting
+        JLabel syntaxLabel = new JLabel("Syntax:");
+        syntaxLabel.setForeground(Color.WHITE);
+        syntaxLabel.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        toolBar.add(syntaxLabel);
+
+        languageCombo = new JComboBox<>(Highlighter.LANGUAGES);
+        languageCombo.setPreferredSize(new Dimension(100, 28));
+        languageCombo.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        languageCombo.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!showingLanguage && activeTab != null) {
+                    activeTab.setLanguage((String) languageCombo.getSelectedItem());
+                    textArea.repaint();
+                }
+            }
+        });
+        toolBar.add(languageCombo);
         toolBar.addSeparator(new Dimension(15, 0));
 
         // Formatting buttons
@@ -299,9 +468,7 @@ public class NotesApp extends JFrame {
         boldButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                isBold = !isBold;
-                updateButtonStyle(boldButton, isBold);
-                applyFont();
+                toggleStyle(StyleRuns.BOLD);
             }
         });
 
@@ -315,9 +482,7 @@ public class NotesApp extends JFrame {
         italicButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                isItalic = !isItalic;
-                updateButtonStyle(italicButton, isItalic);
-                applyFont();
+                toggleStyle(StyleRuns.ITALIC);
             }
         });
 
@@ -331,9 +496,7 @@ public class NotesApp extends JFrame {
         underlineButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                isUnderline = !isUnderline;
-                updateButtonStyle(underlineButton, isUnderline);
-                // Underline is visual only in this simple implementation
+                toggleStyle(StyleRuns.UNDERLINE);
             }
         });
 
@@ -372,6 +535,71 @@ public class NotesApp extends JFrame {
             }
         });
         toolBar.add(pdfButton);
+        toolBar.addSeparator(new Dimension(10, 0));
+
+        // Find button
+        JButton findButton = new JButton("Find");
+        findButton.setBackground(new Color(100, 100, 100));
+        findButton.setForeground(Color.WHITE);
+        findButton.setFocusPainted(false);
+        findButton.setPreferredSize(new Dimension(70, 32));
+        findButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        findButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findBar.open();
+            }
+        });
+        toolBar.add(findButton);
+        toolBar.addSeparator(new Dimension(10, 0));
+
+        // Go to line button
+        JButton goToLineButton = new JButton("Go to Line");
+        goToLineButton.setBackground(new Color(100, 100, 100));
+        goToLineButton.setForeground(Color.WHITE);
+        goToLineButton.setFocusPainted(false);
+        goToLineButton.setPreferredSize(new Dimension(100, 32));
+        goToLineButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        goToLineButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                goToLine();
+            }
+        });
+        toolBar.add(goToLineButton);
+        toolBar.addSeparator(new Dimension(10, 0));
+
+        // Follow button, for logs that are still being written
+        followButton = new JButton("Follow");
+        followButton.setBackground(new Color(60, 60, 60));
+        followButton.setForeground(Color.WHITE);
+        followButton.setFocusPainted(false);
+        followButton.setBorder(BorderFactory.createLineBorder(Color.GRAY));
+        followButton.setPreferredSize(new Dimension(80, 32));
+        followButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        followButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                toggleFollow();
+            }
+        });
+        toolBar.add(followButton);
+        toolBar.addSeparator(new Dimension(10, 0));
+
+        // Compare button
+        JButton compareButton = new JButton("Compare...");
+        compareButton.setBackground(new Color(100, 100, 100));
+        compareButton.setForeground(Color.WHITE);
+        compareButton.setFocusPainted(false);
+        compareButton.setPreferredSize(new Dimension(100, 32));
+        compareButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        compareButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                compareWith();
+            }
+        });
+        toolBar.add(compareButton);
 
         // Spacer
         toolBar.add(Box.createHorizontalGlue());
@@ -386,25 +614,187 @@ public class NotesApp extends JFrame {
         backButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                cardLayout.show(mainPanel, "home");
+                showHome();
             }
         });
         toolBar.add(backButton);
 
         // Text area
-        textArea = new JTextArea();
+        textArea = new NotesTextArea(new NotesDocument());
         textArea.setFont(new Font("Calibri", Font.PLAIN, 16)); // Larger default font
         textArea.setBorder(new EmptyBorder(15, 15, 15, 15));
         textArea.setMargin(new Insets(10, 10, 10, 10));
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control G"), "goToLine");
+        textArea.getActionMap().put("goToLine", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                goToLine();
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control F"), "find");
+        textArea.getActionMap().put("find", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                findBar.open();
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control Z"), "undo");
+        textArea.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo(false);
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control N"), "newNote");
+        textArea.getActionMap().put("newNote", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                newNote();
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control O"), "open");
+        textArea.getActionMap().put("open", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openFile();
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control W"), "closeTab");
+        textArea.getActionMap().put("closeTab", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (activeTab != null) {
+                    closeTab(activeTab);
+                }
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control Y"), "redo");
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control shift Z"), "redo");
+        textArea.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo(true);
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control B"), "bold");
+        textArea.getActionMap().put("bold", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                toggleStyle(StyleRuns.BOLD);
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control I"), "italic");
+        textArea.getActionMap().put("italic", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                toggleStyle(StyleRuns.ITALIC);
+            }
+        });
+        textArea.getInputMap().put(KeyStroke.getKeyStroke("control U"), "underline");
+        textArea.getActionMap().put("underline", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                toggleStyle(StyleRuns.UNDERLINE);
+            }
+        });
+        textArea.addCaretListener(new CaretListener() {
+            @Override
+            public void caretUpdate(CaretEvent e) {
+                // A style picked with nothing selected only lasts until the caret moves
+                ((NotesDocument) textArea.getDocument()).setTypingStyle(-1);
+                updateStyleButtons();
+            }
+        });
+        findBar = new FindBar(textArea);
 
-        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane = new JScrollPane(textArea);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setBorder(BorderFactory.createEmptyBorder());
         scrollPane.getViewport().setBackground(Color.WHITE);
 
         editorPanel.add(toolBar, BorderLayout.NORTH);
-        editorPanel.add(scrollPane, BorderLayout.CENTER);
+        // One text area shows every tab's document, so the tabs themselves are only headers
+        tabPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+        tabPane.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                int index = tabPane.getSelectedIndex();
+                switchTo(index >= 0 ? tabs.get(index) : null);
+            }
+        });
+        // Also keeps the titles and memory figures current
+        Timer budgetTimer = new Timer(2000, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                enforceTabBudget();
+            }
+        });
+        budgetTimer.start();
+
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.add(tabPane, BorderLayout.NORTH);
+        headerPanel.add(findBar, BorderLayout.SOUTH);
+        JPanel textPanel = new JPanel(new BorderLayout());
+        textPanel.add(headerPanel, BorderLayout.NORTH);
+        textPanel.add(scrollPane, BorderLayout.CENTER);
+        editorPanel.add(textPanel, BorderLayout.CENTER);
+        editorPanel.add(createStatusBar(), BorderLayout.SOUTH);
+    }
+
+    private JPanel createStatusBar() {
+        statusBar = new JPanel(new BorderLayout(10, 0));
+        statusBar.setBackground(new Color(40, 40, 40));
+        statusBar.setBorder(new EmptyBorder(6, 15, 6, 15));
+
+        statusLabel = new JLabel();
+        statusLabel.setForeground(Color.WHITE);
+        statusLabel.setFont(new Font("SansSerif", Font.PLAIN, 14));
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.setBackground(new Color(100, 100, 100));
+        cancelButton.setForeground(Color.WHITE);
+        cancelButton.setFocusPainted(false);
+        cancelButton.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (activeTask != null) {
+                    activeTask.cancel(true);
+                }
+            }
+        });
+
+        statusBar.add(statusLabel, BorderLayout.WEST);
+        statusBar.add(progressBar, BorderLayout.CENTER);
+        statusBar.add(cancelButton, BorderLayout.EAST);
+        statusBar.setVisible(false);
+        return statusBar;
+    }
+
+    // Shows the status bar for a background task and hides it again once the task is done
+    // Tasks may overlap, such as tabs loading side by side; the bar follows the latest one
+    private void startTask(String label, final SwingWorker<?, ?> task) {
+        activeTask = task;
+        statusLabel.setText(label);
+        progressBar.setValue(0);
+        statusBar.setVisible(true);
+        task.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName())) {
+                    progressBar.setValue((Integer) evt.getNewValue());
+                } else if ("state".equals(evt.getPropertyName())
+                        && evt.getNewValue() == SwingWorker.StateValue.DONE && activeTask == task) {
+                    activeTask = null;
+                    statusBar.setVisible(false);
+                }
+            }
+        });
+        task.execute();
     }
 
     private void updateButtonStyle(JButton button, boolean isActive) {
@@ -421,100 +811,842 @@ public class NotesApp extends JFrame {
         String fontFamily = (String) fontFamilyCombo.getSelectedItem();
         int fontSize = Integer.parseInt((String) fontSizeCombo.getSelectedItem());
 
-        int style = Font.PLAIN;
-        if (isBold) style |= Font.BOLD;
-        if (isItalic) style |= Font.ITALIC;
-
-        Font font = new Font(fontFamily, style, fontSize);
+        // Bold, italic and underline belong to the text, not the font
+        Font font = new Font(fontFamily, Font.PLAIN, fontSize);
         textArea.setFont(font);
     }
 
-    private void showEditorPanel() {
-        currentFile = null;
-        textArea.setText("");
-        cardLayout.show(mainPanel, "editor");
+    // Formats the selection or, without one, the text typed next at the caret
+    private void toggleStyle(int mask) {
+        if (activeTab == null || !textArea.isEditable()) {
+            return;
+        }
+        NotesDocument document = activeTab.getDocument();
+        int start = textArea.getSelectionStart();
+        int end = textArea.getSelectionEnd();
+        boolean on = (currentStyle() & mask) == 0;
+        if (start < end) {
+            document.applyStyle(start, end - start, mask, on);
+        } else {
+            int style = document.getInputStyle(start);
+            document.setTypingStyle(on ? style | mask : style & ~mask);
+        }
+        updateStyleButtons();
+        textArea.requestFocusInWindow();
+    }
+
+    // The style of the selection's first character, or the one typing at the caret would get
+    private int currentStyle() {
+        NotesDocument document = (NotesDocument) textArea.getDocument();
+        int start = textArea.getSelectionStart();
+        if (start < textArea.getSelectionEnd()) {
+            return document.getStyleRuns().getStyle(start);
+        }
+        return document.getInputStyle(start);
+    }
+
+    private void updateStyleButtons() {
+        int style = currentStyle();
+        isBold = (style & StyleRuns.BOLD) != 0;
+        isItalic = (style & StyleRuns.ITALIC) != 0;
+        isUnderline = (style & StyleRuns.UNDERLINE) != 0;
+        updateButtonStyle(boldButton, isBold);
+        updateButtonStyle(italicButton, isItalic);
+        updateButtonStyle(underlineButton, isUnderline);
+    }
+
+    private void goToLine() {
+        int lineCount = textArea.getLineCount();
+        String input = JOptionPane.showInputDialog(this, "Line number (1 - " + lineCount + "):",
+                                                 "Go to Line", JOptionPane.PLAIN_MESSAGE);
+        if (input == null) {
+            return;
+        }
+        try {
+            int line = Math.max(1, Math.min(lineCount, Integer.parseInt(input.trim())));
+            // Line starts come straight from the line index, so this is cheap on any file size
+            textArea.setCaretPosition(textArea.getLineStartOffset(line - 1));
+            textArea.requestFocusInWindow();
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Please enter a line number.",
+                                        "Go to Line", JOptionPane.WARNING_MESSAGE);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void showSearch() {
+        if (noteIndex == null) {
+            Path folder = NoteIndex.lastFolder();
+            if (folder == null || !Files.isDirectory(folder)) {
+                folder = chooseNotesFolder();
+            }
+            if (folder == null || !openIndex(folder)) {
+                return;
+            }
+        }
+        new NoteSearchDialog(this, noteIndex) {
+            @Override
+            protected void openNote(File file) {
+                openFile(file);
+            }
+
+            @Override
+            protected void changeFolder() {
+                Path folder = chooseNotesFolder();
+                if (folder != null) {
+                    dispose();
+                    try {
+                        noteIndex.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    noteIndex = null;
+                    if (openIndex(folder)) {
+                        showSearch();
+                    }
+                }
+            }
+        }.setVisible(true);
+    }
+
+    private Path chooseNotesFolder() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Choose Your Notes Folder");
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            return chooser.getSelectedFile().toPath();
+        }
+        return null;
+    }
+
+    // The index is built and kept up to date in the background from here on
+    private boolean openIndex(Path folder) {
+        try {
+            noteIndex = NoteIndex.open(folder);
+            return true;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error opening the search index: " + e.getMessage(),
+                                        "Search Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+    }
+
+    private void newNote() {
+        addTab(new NoteTab(null));
     }
 
     private void openFile() {
-        int result = fileChooser.showOpenDialog(this);
+        int result = getFileChooser().showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            currentFile = fileChooser.getSelectedFile();
+            openFile(getFileChooser().getSelectedFile());
+        }
+    }
+
+    private void openFile(File file) {
+        openFile(file, null);
+    }
+
+    // Opens the file in a tab and, once it is loaded, replays the given recovery journal on top of it
+    private void openFile(File file, Path recovery) {
+        if (recovery == null) {
+            for (NoteTab tab : tabs) {
+                if (file.equals(tab.getFile())) {
+                    ensureEditorPanel();
+                    tabPane.setSelectedIndex(tabs.indexOf(tab));
+                    cardLayout.show(mainPanel, "editor");
+                    return;
+                }
+            }
+        }
+        if (file.length() > ByteCharSequence.MAX_SIZE) {
+            if (recovery == null) {
+                followEnd(file);
+            } else {
+                JOptionPane.showMessageDialog(this, ByteCharSequence.tooLargeMessage(file, file.length()),
+                                            "File Too Large", JOptionPane.ERROR_MESSAGE);
+            }
+            return;
+        }
+        NoteTab tab = new NoteTab(file);
+        tab.setPendingJournal(recovery);
+        addTab(tab);
+    }
+
+    // A file too large to open can still have its end followed, as is usual for a log
+    private void followEnd(File file) {
+        String[] options = { "Follow End", "Cancel" };
+        int choice = JOptionPane.showOptionDialog(this, ByteCharSequence.tooLargeMessage(file, file.length())
+                + "\n\nFollow the end of it instead? Its last lines are shown, and new lines as they are written.",
+                "File Too Large", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        if (choice != 0) {
+            return;
+        }
+        TextEncoding encoding;
+        try {
+            encoding = TextEncoding.detectHead(file.toPath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error opening file: " + e.getMessage(),
+                                        "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        NotesDocument document = new NotesDocument();
+        document.putProperty(TextEncoding.PROPERTY, encoding);
+        NoteTab tab = new NoteTab(file);
+        tab.attachEnd(document);
+        addTab(tab);
+        // From the start: there is more to read than the tailer catches up on, so it skips to the last lines
+        startFollowing(tab, encoding.getBom().length);
+    }
+
+    private void addTab(final NoteTab tab) {
+        ensureEditorPanel();
+        tabs.add(tab);
+        tabPane.addTab(null, Box.createGlue());
+        tabPane.setTabComponentAt(tabs.size() - 1, new TabHeader(tab));
+        refreshTabs();
+        cardLayout.show(mainPanel, "editor");
+        // Selecting the tab loads it
+        tabPane.setSelectedIndex(tabs.size() - 1);
+    }
+
+    private void switchTo(NoteTab tab) {
+        if (tab == activeTab) {
+            return;
+        }
+        if (activeTab != null && activeTab.isLoaded()) {
+            activeTab.saveView(textArea.getCaretPosition(), scrollPane.getViewport().getViewPosition());
+        }
+        activeTab = tab;
+        updateButtonStyle(followButton, tab != null && tab.isTailing());
+        if (tab == null) {
+            textArea.setDocument(new NotesDocument());
+            return;
+        }
+        tab.touch();
+        if (tab.isLoaded()) {
+            showTabDocument(tab);
+        } else {
+            reloadTab(tab);
+        }
+    }
+
+    // Puts the tab's document in the text area where the tab was last left
+    private void showTabDocument(NoteTab tab) {
+        textArea.setDocument(tab.getDocument());
+        showingLanguage = true;
+        languageCombo.setSelectedItem(tab.getLanguage());
+        showingLanguage = false;
+        // Appending chunks and typing must not interleave, and a followed file is only read
+        textArea.setEditable(!tab.isLoading() && !tab.isTailing());
+        // Keep the view on the first page while chunks arrive; a followed file scrolls itself
+        setCaretFollowsInserts(!tab.isLoading() && !tab.isTailing());
+        textArea.setCaretPosition(Math.min(tab.getCaret(), tab.getDocument().getLength()));
+        final Point view = tab.getViewPosition();
+        // The view only has its new size after the next layout
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                scrollPane.getViewport().setViewPosition(view);
+            }
+        });
+    }
+
+    /**
+     * Reads again any tab whose mapped file another program wrote to or cut
+     * short, before its text is read from pages that may be gone. Unsaved
+     * edits are kept in the journal where possible, and offered again with
+     * a warning that the file changed.
+     */
+    private void checkChangedFiles() {
+        for (NoteTab tab : new ArrayList<NoteTab>(tabs)) {
+            if (tab.isSaving() || tab.isTailing() || !tab.isFileChanged()) {
+                continue;
+            }
+            String message = tab.getFile().getName() + " was changed by another program while it was open,"
+                    + " so it is read again.";
+            boolean modified = tab.isModified();
+            if (!tab.evict()) {
+                tab.discard();
+                if (modified) {
+                    message += "\nIts unsaved changes could not be kept.";
+                }
+            }
+            refreshTabs();
+            JOptionPane.showMessageDialog(this, message, "File Changed", JOptionPane.WARNING_MESSAGE);
+            if (tab == activeTab) {
+                reloadTab(tab);
+            }
+        }
+    }
+
+    // Reads a new or evicted tab's file and replays its pending edits
+    private void reloadTab(NoteTab tab) {
+        Path journal = tab.takePendingJournal();
+        if (journal != null) {
             try {
-                String content = new String(Files.readAllBytes(currentFile.toPath()));
-                textArea.setText(content);
-                cardLayout.show(mainPanel, "editor");
+                // The file may have been changed by another program while an evicted tab's edits waited
+                if (!confirmedJournals.remove(journal)) {
+                    EditJournal.Header header = EditJournal.readHeader(journal);
+                    if (!header.matchesBase()
+                            && !confirmJournal(journal, header, " were kept while the note was unloaded.")) {
+                        journal = null;
+                    }
+                }
+                if (journal != null) {
+                    journal = setAside(journal);
+                }
             } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Error opening file: " + e.getMessage(),
-                                            "File Error", JOptionPane.ERROR_MESSAGE);
+                JOptionPane.showMessageDialog(this, "Error recovering changes: " + e.getMessage(),
+                                            "Recovery Error", JOptionPane.ERROR_MESSAGE);
+                journal = null;
             }
         }
+        if (tab.getFile() != null) {
+            loadTab(tab, journal);
+            return;
+        }
+        tab.attach(new NotesDocument());
+        showTabDocument(tab);
+        if (journal != null) {
+            replayJournal(journal, tab.getDocument());
+        }
     }
 
-    private void openFileForEditing() {
-        int result = fileChooser.showOpenDialog(this);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            currentFile = fileChooser.getSelectedFile();
+    private void loadTab(final NoteTab tab, final Path journal) {
+        NotesDocument document = new NotesDocument();
+        tab.setLoadingDocument(document);
+        if (tab == activeTab) {
+            showTabDocument(tab);
+        }
+        final PerfEvents.Open event = new PerfEvents.Open();
+        event.file = tab.getFile().getPath();
+        event.bytes = tab.getFile().length();
+        event.begin();
+        TextFileLoader loader = new TextFileLoader(tab.getFile(), document) {
+            @Override
+            protected void done() {
+                event.commit();
+                loaders.remove(tab);
+                if (isCancelled()) {
+                    removeTab(tab);
+                    return;
+                }
+                try {
+                    // Mapped files arrive as a complete document instead of streamed chunks.
+                    // Chunks appended while loading are not edits, so recording only starts now
+                    NotesDocument loaded = get();
+                    StyleRuns runs = getStyleRuns();
+                    if (runs != null && runs.getLength() == loaded.getLength()) {
+                        loaded.setStyleRuns(runs);
+                    }
+                    tab.attach(loaded);
+                    if (tab == activeTab) {
+                        showTabDocument(tab);
+                    }
+                    if (journal != null) {
+                        replayJournal(journal, tab.getDocument());
+                    }
+                    enforceTabBudget();
+                } catch (Exception e) {
+                    // A partially loaded file must never be saved back over the original
+                    removeTab(tab);
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(NotesApp.this, "Error opening file: " + cause.getMessage(),
+                                                "File Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        loaders.put(tab, loader);
+        startTask("Opening " + tab.getFile().getName(), loader);
+    }
+
+    private void closeTab(NoteTab tab) {
+        if (tab.isModified()) {
+            int choice = JOptionPane.showConfirmDialog(this, tab.getFile() == null
+                    ? "Discard the new note?" : "Discard unsaved changes to " + tab.getFile().getName() + "?",
+                    "Close", JOptionPane.YES_NO_OPTION);
+            if (choice != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+        removeTab(tab);
+    }
+
+    // The tab is closed on purpose, so its unsaved edits are not kept for recovery
+    private void removeTab(NoteTab tab) {
+        int index = tabs.indexOf(tab);
+        if (index < 0) {
+            return;
+        }
+        TextFileLoader loader = loaders.remove(tab);
+        if (loader != null) {
+            loader.cancel(true);
+        }
+        FileTailer tailer = tailers.remove(tab);
+        if (tailer != null) {
+            tailer.cancel(true);
+        }
+        tab.close();
+        Path journal = tab.takePendingJournal();
+        if (journal != null) {
+            confirmedJournals.remove(journal);
             try {
-                String content = new String(Files.readAllBytes(currentFile.toPath()));
-                textArea.setText(content);
-                cardLayout.show(mainPanel, "editor");
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Error opening file: " + e.getMessage(),
-                                            "File Error", JOptionPane.ERROR_MESSAGE);
+                Files.deleteIfExists(journal);
+            } catch (IOException ignored) {
+                // Offered for recovery next time instead
             }
         }
+        if (tab == activeTab) {
+            activeTab = null; // Its view is not worth saving
+        }
+        tabs.remove(index);
+        tabPane.removeTabAt(index);
+        if (tabs.isEmpty()) {
+            showHome();
+        }
     }
 
-    private void saveFile() {
-        if (currentFile == null) {
-            int result = fileChooser.showSaveDialog(this);
-            if (result == JFileChooser.APPROVE_OPTION) {
-                currentFile = fileChooser.getSelectedFile();
-                // Ensure .txt extension
-                if (!currentFile.getName().endsWith(".txt")) {
-                    currentFile = new File(currentFile.getAbsolutePath() + ".txt");
+    /**
+     * Evicts the least recently used tabs until the open documents fit in
+     * the budget. The tab in view and tabs that are loading or saving stay.
+     */
+    private void enforceTabBudget() {
+        NoteTab.evictToBudget(tabs, activeTab, TAB_BUDGET);
+        refreshTabs();
+    }
+
+    private void refreshTabs() {
+        for (int i = 0; i < tabs.size(); i++) {
+            Component header = tabPane.getTabComponentAt(i);
+            if (header instanceof TabHeader) {
+                ((TabHeader) header).update();
+            }
+            File file = tabs.get(i).getFile();
+            tabPane.setToolTipTextAt(i, file != null ? file.getAbsolutePath() : null);
+        }
+    }
+
+    // Tab title with the heap the note takes up and a close button
+    private class TabHeader extends JPanel {
+        private final NoteTab tab;
+        private final JLabel titleLabel = new JLabel();
+        private final JLabel memoryLabel = new JLabel();
+
+        TabHeader(final NoteTab tab) {
+            super(new FlowLayout(FlowLayout.LEFT, 6, 0));
+            this.tab = tab;
+            setOpaque(false);
+            memoryLabel.setForeground(Color.GRAY);
+            memoryLabel.setFont(memoryLabel.getFont().deriveFont(11f));
+            JButton closeButton = new JButton("x");
+            closeButton.setFocusPainted(false);
+            closeButton.setBorderPainted(false);
+            closeButton.setContentAreaFilled(false);
+            closeButton.setMargin(new Insets(0, 2, 0, 2));
+            closeButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    closeTab(tab);
                 }
+            });
+            add(titleLabel);
+            add(memoryLabel);
+            add(closeButton);
+            update();
+        }
+
+        void update() {
+            titleLabel.setText(tab.getTitle());
+            if (tab.isLoading()) {
+                memoryLabel.setText("loading");
+            } else if (!tab.isLoaded()) {
+                memoryLabel.setText("on disk");
             } else {
-                return;
+                memoryLabel.setText(String.format("%.1f MB", tab.getMemoryUsage() / (double) MB));
             }
         }
+    }
 
+    private void offerRecovery() {
+        List<Path> journals;
         try {
-            String content = textArea.getText();
-            Files.write(currentFile.toPath(), content.getBytes());
-            JOptionPane.showMessageDialog(this, "File saved successfully!",
-                                        "Save Success", JOptionPane.INFORMATION_MESSAGE);
+            journals = EditJournal.findJournals();
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage(),
-                                        "Save Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        for (Path path : journals) {
+            try {
+                EditJournal.Header header = EditJournal.readHeader(path);
+                if (!header.hasEdits) {
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                if (!confirmJournal(path, header, " were found from a previous session.")) {
+                    continue;
+                }
+                confirmedJournals.add(path);
+                // Each note gets its own tab, which replays the edits once it is loaded
+                File target = header.getTargetFile();
+                if (target != null && target.exists()) {
+                    openFile(target, path);
+                } else {
+                    NoteTab tab = new NoteTab(null);
+                    tab.setPendingJournal(path);
+                    addTab(tab);
+                }
+            } catch (IOException e) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                    // Left for the next start
+                }
+            }
         }
     }
 
-    private void convertToPDF() {
-        if (currentFile == null) {
+    /**
+     * Asks whether to recover a journal's edits, warning if the file changed
+     * since they were recorded. The journal is deleted if not.
+     */
+    private boolean confirmJournal(Path journal, EditJournal.Header header, String found) throws IOException {
+        File target = header.getTargetFile();
+        String message = "Unsaved changes to " + (target == null ? "a new note" : target.getName()) + found;
+        if (!header.matchesBase()) {
+            message += "\nThe file has changed since, so some of the changes may not apply.";
+        }
+        int choice = JOptionPane.showConfirmDialog(this, message + "\nRecover them?",
+                                                 "Recover Changes", JOptionPane.YES_NO_OPTION);
+        if (choice != JOptionPane.YES_OPTION) {
+            Files.deleteIfExists(journal);
+            return false;
+        }
+        return true;
+    }
+
+    // Moved aside so the new journal for the same file does not overwrite it mid-replay
+    private Path setAside(Path journal) throws IOException {
+        String name = journal.getFileName().toString();
+        if (name.endsWith(".recovering.journal")) {
+            return journal;
+        }
+        Path recovery = journal.resolveSibling(name.replace(".journal", ".recovering.journal"));
+        Files.move(journal, recovery, StandardCopyOption.REPLACE_EXISTING);
+        return recovery;
+    }
+
+    private void replayJournal(Path recovery, Document document) {
+        try {
+            EditJournal.replay(recovery, document);
+            Files.deleteIfExists(recovery);
+        } catch (IOException | BadLocationException e) {
+            JOptionPane.showMessageDialog(this, "Error recovering changes: " + e.getMessage(),
+                                        "Recovery Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void undo(boolean redo) {
+        EditHistory history = activeTab != null ? activeTab.getHistory() : null;
+        if (history == null || !textArea.isEditable()) {
+            return;
+        }
+        try {
+            int caret = redo ? history.redo() : history.undo();
+            if (caret >= 0) {
+                textArea.setCaretPosition(Math.min(caret, textArea.getDocument().getLength()));
+            } else {
+                Toolkit.getDefaultToolkit().beep();
+            }
+        } catch (BadLocationException e) {
+            JOptionPane.showMessageDialog(this, "Error undoing the edit: " + e.getMessage(),
+                                        "Undo Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void toggleFollow() {
+        NoteTab tab = activeTab;
+        if (tab == null || tab.getFile() == null) {
             JOptionPane.showMessageDialog(this, "Please open a file first.",
                                         "No File", JOptionPane.WARNING_MESSAGE);
             return;
         }
+        if (tab.isTailing()) {
+            stopFollowing(tab);
+            return;
+        }
+        if (ChunkedText.isContainer(tab.getFile())) {
+            JOptionPane.showMessageDialog(this, "Compressed notes cannot be followed.",
+                                        "Follow", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (tab.isLoading()) {
+            JOptionPane.showMessageDialog(this, "Please wait until the file has finished loading.",
+                                        "Follow", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        Long loaded = (Long) tab.getDocument().getProperty(TextFileLoader.LOADED_BYTES);
+        if (tab.isModified() || loaded == null) {
+            JOptionPane.showMessageDialog(this, "Please save your changes before following the file.",
+                                        "Follow", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        startFollowing(tab, loaded);
+    }
 
-        try {
-            String content = textArea.getText();
-            String pdfPath = currentFile.getAbsolutePath().replace(".txt", ".pdf");
+    /**
+     * Appends whatever is written to the tab's file from now on. The view
+     * stays at the bottom unless it has been scrolled up, in which case it
+     * stays on the same text while old lines are trimmed above it.
+     */
+    private void startFollowing(final NoteTab tab, long position) {
+        TextEncoding encoding = (TextEncoding) tab.getDocument().getProperty(TextEncoding.PROPERTY);
+        tab.startTailing();
+        FileTailer tailer = new FileTailer(tab.getFile(), tab.getDocument(),
+                                           encoding != null ? encoding : TextEncoding.DEFAULT, position) {
+            private boolean pinned;
+            private int top;
 
-            // Simple PDF creation (in a real app, you'd use a library like iText)
-            // For this demo, we'll just create a text file with PDF extension
-            Path path = Paths.get(pdfPath);
-            Files.write(path, content.getBytes());
+            @Override
+            protected void beforeUpdate() {
+                if (tab != activeTab) {
+                    return;
+                }
+                JScrollBar bar = scrollPane.getVerticalScrollBar();
+                pinned = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - bar.getUnitIncrement(1);
+                top = textArea.viewToModel2D(scrollPane.getViewport().getViewPosition());
+            }
 
-            JOptionPane.showMessageDialog(this, "File converted to PDF successfully!\nSaved as: " + pdfPath,
-                                        "Conversion Success", JOptionPane.INFORMATION_MESSAGE);
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error converting to PDF: " + e.getMessage(),
-                                        "Conversion Error", JOptionPane.ERROR_MESSAGE);
+            @Override
+            protected void documentReplaced(NotesDocument document) {
+                tab.replaceTailed(document);
+                if (tab == activeTab) {
+                    showTabDocument(tab);
+                }
+            }
+
+            @Override
+            protected void afterUpdate(int removed) {
+                if (tab != activeTab) {
+                    return;
+                }
+                if (pinned || removed < 0) {
+                    textArea.setCaretPosition(textArea.getDocument().getLength());
+                } else if (removed > 0) {
+                    final int offset = Math.max(0, top - removed);
+                    // Positions are only known again after the next layout
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Rectangle r = textArea.modelToView2D(offset).getBounds();
+                                JViewport viewport = scrollPane.getViewport();
+                                viewport.setViewPosition(new Point(viewport.getViewPosition().x, r.y));
+                            } catch (BadLocationException e) {
+                                // Trimmed again in the meantime; the next update puts it right
+                            }
+                        }
+                    });
+                }
+            }
+        };
+        tailers.put(tab, tailer);
+        tailer.start();
+        showTabDocument(tab);
+        textArea.setCaretPosition(tab.getDocument().getLength());
+        updateButtonStyle(followButton, true);
+    }
+
+    // What was appended need not match the file any more, so it is read again before any editing
+    private void stopFollowing(NoteTab tab) {
+        if (tab.isEndOnly()) {
+            // Only the end of the file was ever read, so there is nothing to go back to
+            removeTab(tab);
+            return;
         }
+        tailers.remove(tab).cancel(true);
+        tab.stopTailing();
+        updateButtonStyle(followButton, false);
+        tab.evict();
+        reloadTab(tab);
     }
 
-    public static void main(String[] args) {
+    // Compares the note as it is now with a file picked by the user
+    private void compareWith() {
+        final NoteTab tab = activeTab;
+        if (tab == null || tab.isLoading()) {
+            JOptionPane.showMessageDialog(this, "Please wait until the file has finished loading.",
+                                        "Compare", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (getFileChooser().showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File other = getFileChooser().getSelectedFile();
+        final String title = tab.getFile() != null ? tab.getFile().getName() : "Untitled";
+        // Later edits do not reach the snapshot, so the comparison sees the note as it was here
+        final PieceTableContent.Snapshot text = tab.getDocument().getPieceTable().snapshot();
+        SwingWorker<LineDiff, Void> worker = new SwingWorker<LineDiff, Void>() {
+            private NotesDocument oldDocument;
+            private NotesDocument newDocument;
+
+            @Override
+            protected LineDiff doInBackground() throws IOException {
+                oldDocument = new NotesDocument(text);
+                newDocument = TextFileLoader.read(other, null);
+                return LineDiff.compare(oldDocument, newDocument);
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    new CompareDialog(NotesApp.this, title, oldDocument, other.getName(), newDocument, get())
+                            .setVisible(true);
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(NotesApp.this, "Error comparing files: " + cause.getMessage(),
+                                                "Compare Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        startTask("Comparing with " + other.getName(), worker);
+    }
+
+    private void setCaretFollowsInserts(boolean follow) {
+        if (textArea.getCaret() instanceof DefaultCaret) {
+            ((DefaultCaret) textArea.getCaret()).setUpdatePolicy(
+                    follow ? DefaultCaret.UPDATE_WHEN_ON_EDT : DefaultCaret.NEVER_UPDATE);
+        }
+    }
+
+    private void saveFile() {
+        final NoteTab tab = activeTab;
+        if (tab == null) {
+            return;
+        }
+        if (tab.isLoading()) {
+            JOptionPane.showMessageDialog(this, "Please wait until the file has finished loading.",
+                                        "Save", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (tab.isTailing()) {
+            // The oldest lines may have been trimmed, so saving could cut the file short
+            JOptionPane.showMessageDialog(this, "Please stop following the file before saving it.",
+                                        "Save", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (tab.getFile() == null) {
+            int result = getFileChooser().showSaveDialog(this);
+            if (result == JFileChooser.APPROVE_OPTION) {
+                File file = getFileChooser().getSelectedFile();
+                // Ensure .txt extension, unless it is to be a compressed note
+                if (!file.getName().endsWith(".txt") && !ChunkedText.isContainer(file)) {
+                    file = new File(file.getAbsolutePath() + ".txt");
+                }
+                tab.setFile(file);
+            } else {
+                return;
+            }
+        }
+
+        // The snapshot only copies the piece list, so typing can go on while the save runs
+        NotesDocument document = tab.getDocument();
+        final EditJournal savedJournal = tab.getJournal();
+        final long checkpoint = savedJournal != null ? savedJournal.checkpoint() : 0;
+        final long editCount = tab.getEditCount();
+        StyleRuns styles = document.getStyleRuns().copy();
+        // Saved in the encoding the note was read in; new notes are UTF-8
+        TextEncoding encoding = (TextEncoding) document.getProperty(TextEncoding.PROPERTY);
+        tab.setSaving(true);
+        final PerfEvents.Save event = new PerfEvents.Save();
+        event.file = tab.getFile().getPath();
+        event.chars = document.getLength();
+        event.begin();
+        DocumentSaver saver = new DocumentSaver(document.getPieceTable().snapshot(), tab.getFile(),
+                                                encoding != null ? encoding : TextEncoding.DEFAULT, styles) {
+            @Override
+            protected void done() {
+                event.commit();
+                tab.setSaving(false);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    if (savedJournal != null && savedJournal == tab.getJournal()) {
+                        // Edits up to the snapshot are on disk now; keep only the ones made since
+                        savedJournal.rebase(checkpoint, getFile());
+                    }
+                    tab.markSaved(editCount);
+                    refreshTabs();
+                    JOptionPane.showMessageDialog(NotesApp.this, "File saved successfully!",
+                                                "Save Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(NotesApp.this, "Error saving file: " + cause.getMessage(),
+                                                "Save Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        startTask("Saving " + tab.getFile().getName(), saver);
+    }
+
+    private void convertToPDF() {
+        if (activeTab == null || activeTab.getFile() == null) {
+            JOptionPane.showMessageDialog(this, "Please open a file first.",
+                                        "No File", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (activeTab.isLoading()) {
+            JOptionPane.showMessageDialog(this, "Please wait until the file has finished loading.",
+                                        "Convert to PDF", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String path = activeTab.getFile().getAbsolutePath();
+        final File pdfFile = new File((path.endsWith(".txt") ? path.substring(0, path.length() - 4) : path) + ".pdf");
+        NotesDocument document = activeTab.getDocument();
+        final PerfEvents.Export event = new PerfEvents.Export();
+        event.file = pdfFile.getPath();
+        event.chars = document.getLength();
+        event.begin();
+        // Formatting is copied with the snapshot, so the export sees both as they are now
+        PdfExporter exporter = new PdfExporter(document.getPieceTable().snapshot(), document.getStyleRuns().copy(),
+                                               pdfFile, textArea.getFont()) {
+            @Override
+            protected void done() {
+                event.commit();
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(NotesApp.this,
+                                                "File converted to PDF successfully!\nSaved as: " + pdfFile,
+                                                "Conversion Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(NotesApp.this, "Error converting to PDF: " + cause.getMessage(),
+                                                "Conversion Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        startTask("Exporting " + pdfFile.getName(), exporter);
+    }
+
+    public static void main(final String[] args) {
+        if (NotesCli.isBatch(args)) {
+            // Batch conversion never touches Swing, so it also runs on headless machines
+            NotesCli.main(args);
+            return;
+        }
+        StartupLog.mark("jvm");
+        // A training run is not a real session, so it should not leave metrics behind
+        if (!Boolean.getBoolean("notes.cds.training")) {
+            EdtMonitor.install();
+        }
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -523,8 +1655,19 @@ public class NotesApp extends JFrame {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
+                StartupLog.mark("lookAndFeel");
+
+                final NotesApp app = new NotesApp();
+                app.setVisible(true);
+                StartupLog.mark("splash");
 
-                new NotesApp().setVisible(true);
+                // Queued behind the splash's first paint
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        app.finishStartup(args.length > 0 ? new File(args[0]) : null);
+                    }
+                });
             }
         });
     }
@@ -0,0 +1,263 @@
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Command-line front end for converting notes in bulk without a display.
+ *
+ * Runs the same load, save and PDF export code as the editor over every
+ * .txt file under the given paths. Each file gets its own task; a semaphore
+ * caps how many files are being read or written at once, and PDF page
+ * layout shares one pool sized to the machine. Compressing a note
+ * compresses its chunks on the common pool, so every core is busy even
+ * with few files.
+ */
+public class NotesCli {
+    private static final String USAGE =
+            "Usage: NotesApp --pdf|--save|--compress <file-or-directory>... [options]\n"
+            + "  --pdf              convert each note to PDF\n"
+            + "  --save             rewrite each note through the editor's atomic save\n"
+            + "  --compress         write each note as a compressed .notez next to it\n"
+            + "  --out <dir>        write results under this directory instead of next to the notes\n"
+            + "  --charset <name>   charset to read the notes in (default: detected per note)\n"
+            + "  --save-charset <name>  charset to save in (default: the one each note was read in)\n"
+            + "  --font <name>      PDF font family (default: Calibri)\n"
+            + "  --size <points>    PDF font size (default: 16)\n"
+            + "  --bold, --italic   PDF font style\n"
+            + "  --jobs <n>         files processed at once (default: 16)";
+
+    private String command;
+    private final List<Path> inputs = new ArrayList<Path>();
+    private Path outDir;
+    private Charset charset;
+    private Charset saveCharset;
+    private String fontName = "Calibri";
+    private int fontSize = 16;
+    private int fontStyle = Font.PLAIN;
+    private int jobs = 16;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // True if the arguments ask for batch mode rather than the editor
+    public static boolean isBatch(String[] args) {
+        return args.length > 0 && (args[0].equals("--pdf") || args[0].equals("--save")
+                || args[0].equals("--compress") || args[0].equals("--help"));
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        NotesCli cli = new NotesCli();
+        try {
+            cli.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (cli.command == null) {
+            System.out.println(USAGE);
+            return;
+        }
+        try {
+            System.exit(cli.run() ? 0 : 1);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help")) {
+                return;
+            } else if (arg.equals("--pdf") || arg.equals("--save") || arg.equals("--compress")) {
+                command = arg;
+            } else if (arg.equals("--out")) {
+                outDir = Paths.get(value(args, ++i, arg));
+            } else if (arg.equals("--charset")) {
+                charset = charset(value(args, ++i, arg));
+            } else if (arg.equals("--save-charset")) {
+                saveCharset = charset(value(args, ++i, arg));
+            } else if (arg.equals("--font")) {
+                fontName = value(args, ++i, arg);
+            } else if (arg.equals("--size")) {
+                fontSize = number(value(args, ++i, arg), arg);
+            } else if (arg.equals("--bold")) {
+                fontStyle |= Font.BOLD;
+            } else if (arg.equals("--italic")) {
+                fontStyle |= Font.ITALIC;
+            } else if (arg.equals("--jobs")) {
+                jobs = number(value(args, ++i, arg), arg);
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                inputs.add(Paths.get(arg));
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No files or directories given");
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int number(String value, String option) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " needs a positive number");
+    }
+
+    private static Charset charset(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown charset: " + name);
+        }
+    }
+
+    boolean run() throws IOException, InterruptedException {
+        final ExecutorService layoutPool = Executors.newWorkStealingPool();
+        final Semaphore io = new Semaphore(jobs);
+        final Font font = new Font(fontName, fontStyle, fontSize);
+        long start = System.nanoTime();
+        ExecutorService files = newPerFileExecutor(jobs);
+        try {
+            for (final Path input : inputs) {
+                final Path base = Files.isDirectory(input) ? input : input.toAbsolutePath().getParent();
+                for (final Path note : notes(input)) {
+                    files.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                io.acquire();
+                                try {
+                                    process(note, base, font, layoutPool);
+                                } finally {
+                                    io.release();
+                                }
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+                }
+            }
+        } finally {
+            files.shutdown();
+            files.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            layoutPool.shutdownNow();
+        }
+        report(System.out, System.nanoTime() - start);
+        return failed.get() == 0;
+    }
+
+    private void process(Path note, Path base, Font font, ExecutorService layoutPool) {
+        try {
+            File file = note.toFile();
+            NotesDocument document = TextFileLoader.read(file, charset);
+            PieceTableContent.Snapshot snapshot = document.getPieceTable().snapshot();
+            if (command.equals("--pdf")) {
+                String name = note.getFileName().toString();
+                name = (name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name) + ".pdf";
+                StyleRuns styles;
+                try {
+                    styles = StyleRuns.load(file);
+                } catch (IOException e) {
+                    // The text converts fine without its formatting
+                    styles = null;
+                }
+                PdfExporter.write(snapshot, styles, target(note, base).resolveSibling(name), font, layoutPool, null);
+            } else if (command.equals("--compress")) {
+                String name = note.getFileName().toString();
+                name = (name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name) + ChunkedText.EXTENSION;
+                DocumentSaver.write(snapshot, target(note, base).resolveSibling(name), null, null);
+            } else {
+                TextEncoding encoding = saveCharset != null ? new TextEncoding(saveCharset, false)
+                        : (TextEncoding) document.getProperty(TextEncoding.PROPERTY);
+                DocumentSaver.write(snapshot, target(note, base), encoding, null);
+            }
+            bytes.addAndGet(file.length());
+            done.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println(note + ": " + e.getMessage());
+        }
+    }
+
+    // Where the result for a note goes: next to it, or at the same relative path under --out
+    private Path target(Path note, Path base) throws IOException {
+        if (outDir == null) {
+            return note;
+        }
+        Path target = outDir.resolve(base.toAbsolutePath().relativize(note.toAbsolutePath()));
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        return target;
+    }
+
+    private static List<Path> notes(Path input) throws IOException {
+        List<Path> notes = new ArrayList<Path>();
+        if (!Files.isDirectory(input)) {
+            notes.add(input);
+            return notes;
+        }
+        try (Stream<Path> walk = Files.walk(input)) {
+            walk.forEach(new Consumer<Path>() {
+                @Override
+                public void accept(Path path) {
+                    if (path.getFileName().toString().endsWith(".txt") && Files.isRegularFile(path)) {
+                        notes.add(path);
+                    }
+                }
+            });
+        }
+        return notes;
+    }
+
+    /**
+     * One virtual thread per file where the runtime has them (Java 21 and
+     * later), looked up reflectively so the app still builds and runs on
+     * older JDKs, where a fixed pool of the same size as the I/O limit is
+     * used instead.
+     */
+    private static ExecutorService newPerFileExecutor(int jobs) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(jobs);
+        }
+    }
+
+    private void report(PrintStream out, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        out.println(String.format(Locale.ROOT, "%d files (%d failed) in %.2f s: %.1f files/s, %.1f MB/s",
+                done.get() + failed.get(), failed.get(), seconds, done.get() / seconds,
+                bytes.get() / seconds / (1024 * 1024)));
+    }
+}
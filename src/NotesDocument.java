@@ -0,0 +1,536 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.util.Arrays;
+
+/**
+ * Plain text document backed by a piece table.
+ *
+ * A document opened over a memory-mapped file keeps the file as its original
+ * buffer; only text typed afterwards lives on the heap. Lines are not stored
+ * as element objects: the root element answers from a LineIndex and creates
+ * line elements on demand, so a file with millions of lines costs one int per
+ * line. Bold, italic and underline are kept the same way, as StyleRuns
+ * instead of attribute sets.
+ */
+public class NotesDocument extends AbstractDocument {
+    private final LineIndex lines;
+    private final Element root = new LineRootElement();
+    private StyleRuns styles;
+    private int typingStyle = -1;
+
+    public NotesDocument() {
+        this("");
+    }
+
+    // The line index is scanned here, so build documents over large files off the event thread
+    public NotesDocument(CharSequence original) {
+        super(new PieceTableContent(original));
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+        lines = original instanceof ChunkedText ? ((ChunkedText) original).buildLineIndex()
+                : LineIndex.build(original);
+        styles = new StyleRuns(original.length());
+    }
+
+    public PieceTableContent getPieceTable() {
+        return (PieceTableContent) getContent();
+    }
+
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    public StyleRuns getStyleRuns() {
+        return styles;
+    }
+
+    // Replaces the formatting, as with runs loaded for this text; the lengths must match
+    public void setStyleRuns(StyleRuns runs) {
+        writeLock();
+        try {
+            if (runs.getLength() != getLength()) {
+                throw new IllegalArgumentException("Runs for " + runs.getLength() + " characters, text has "
+                        + getLength());
+            }
+            styles = runs;
+            fireStyleChange(0, getLength());
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Turns the style bits in mask on or off for the given range. Views hear
+     * of it as a change event, undoable edit listeners as a StyleEdit.
+     */
+    public void applyStyle(int offset, int length, int mask, boolean on) {
+        StyleEdit edit;
+        writeLock();
+        try {
+            edit = new StyleEdit(offset, styles.copy(offset, offset + length), mask, on);
+            styles.apply(offset, offset + length, mask, on);
+            fireStyleChange(offset, length);
+        } finally {
+            writeUnlock();
+        }
+        fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+    }
+
+    // Gives the range starting at offset the formatting of the runs, as undoing an edit does
+    public void setStyles(int offset, StyleRuns runs) {
+        writeLock();
+        try {
+            styles.set(offset, runs);
+            fireStyleChange(offset, runs.getLength());
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    private void fireStyleChange(int offset, int length) {
+        DefaultDocumentEvent event = new DefaultDocumentEvent(offset, length, DocumentEvent.EventType.CHANGE);
+        event.end();
+        fireChangedUpdate(event);
+    }
+
+    /**
+     * Removes the first length characters without keeping them for undo, as
+     * when the start of a followed log is trimmed. The text is never read,
+     * so dropping most of a large mapped file costs no heap. Listeners hear
+     * of it as a remove whose line change has only a count; getLineDelta
+     * reads it without building the removed lines.
+     */
+    public void removeLeading(int length) throws BadLocationException {
+        if (length == 0) {
+            return;
+        }
+        writeLock();
+        try {
+            DefaultDocumentEvent event = new DefaultDocumentEvent(0, length, DocumentEvent.EventType.REMOVE);
+            int removedLines = lines.getLineOfOffset(length);
+            getPieceTable().removeLeading(length);
+            lines.removeLeading(length);
+            styles.remove(0, length);
+            event.addEdit(new TrimChange(removedLines));
+            event.end();
+            fireRemoveUpdate(event);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    // Lines an event added less those it removed
+    public int getLineDelta(DocumentEvent e) {
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change instanceof TrimChange) {
+            return -((TrimChange) change).lines;
+        }
+        return change == null ? 0 : change.getChildrenAdded().length - change.getChildrenRemoved().length;
+    }
+
+    // Style that text typed at offset gets: the typing style if one is set, else that of the text before it
+    public int getInputStyle(int offset) {
+        return typingStyle >= 0 ? typingStyle : styles.getStyle(Math.max(0, offset - 1));
+    }
+
+    // Style for the next text inserted, or -1 to continue the style of the text before it
+    public void setTypingStyle(int style) {
+        typingStyle = style;
+    }
+
+    // Rough bytes of heap held by the text, its line index and its formatting
+    public long getHeapSize() {
+        return getPieceTable().getHeapSize() + lines.getHeapSize() + styles.getHeapSize();
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int[] breaks = findBreaks(offset, length);
+        int line = lines.getLineOfOffset(offset);
+        Element[] removed = { root.getElement(line) };
+        lines.insert(offset, length, breaks);
+        styles.insert(offset, length, getInputStyle(offset));
+        chng.addEdit(new LineEdit(true, offset, length, breaks, line, removed, getLines(line, breaks.length + 1),
+                null));
+        super.insertUpdate(chng, attr);
+    }
+
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int line = lines.getLineOfOffset(offset);
+        int lastLine = lines.getLineOfOffset(offset + length);
+        Element[] removed = getLines(line, lastLine - line + 1);
+        StyleRuns runs = styles.isPlain() ? null : styles.copy(offset, offset + length);
+        int[] breaks = lines.remove(offset, length);
+        styles.remove(offset, length);
+        Element[] added = { root.getElement(line) };
+        chng.addEdit(new LineEdit(false, offset, length, breaks, line, removed, added, runs));
+        super.removeUpdate(chng);
+    }
+
+    // Positions of the newlines in the given range, relative to its start
+    private int[] findBreaks(int offset, int length) {
+        int[] breaks = new int[0];
+        int count = 0;
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int pos = offset;
+        try {
+            while (pos < offset + length) {
+                getContent().getChars(pos, offset + length - pos, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (count == breaks.length) {
+                            breaks = Arrays.copyOf(breaks, Math.max(8, count * 2));
+                        }
+                        breaks[count++] = pos + i - offset;
+                    }
+                }
+                pos += segment.count;
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return Arrays.copyOf(breaks, count);
+    }
+
+    private Element[] getLines(int first, int count) {
+        Element[] elements = new Element[count];
+        for (int i = 0; i < count; i++) {
+            elements[i] = root.getElement(first + i);
+        }
+        return elements;
+    }
+
+    // Root element answering from the line index; lines are created on request
+    private class LineRootElement implements Element {
+        @Override
+        public Document getDocument() {
+            return NotesDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return lines.getLineOfOffset(Math.max(0, offset));
+        }
+
+        @Override
+        public int getElementCount() {
+            return lines.getLineCount();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            if (index < 0 || index >= lines.getLineCount()) {
+                return null;
+            }
+            return new LineElement(lines.getLineStart(index), lines.getLineEnd(index));
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    // Snapshot of one line; offsets are not updated by later edits
+    private class LineElement implements Element {
+        private final int start;
+        private final int end;
+
+        LineElement(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Document getDocument() {
+            return NotesDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return start;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return end;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LineElement && ((LineElement) o).start == start && ((LineElement) o).end == end;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * start + end;
+        }
+    }
+
+    /**
+     * Line change of removeLeading: the first lines went and what was left of
+     * the last of them became line 0. The removed lines are only built if a
+     * listener asks for them, and then as empty lines, since their text is
+     * gone.
+     */
+    private class TrimChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final int lines;
+
+        TrimChange(int lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return 0;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            Element[] removed = new Element[lines + 1];
+            Arrays.fill(removed, new LineElement(0, 0));
+            return removed;
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return new Element[] { root.getElement(0) };
+        }
+
+        @Override
+        public boolean canUndo() {
+            return false;
+        }
+
+        @Override
+        public boolean canRedo() {
+            return false;
+        }
+    }
+
+    /**
+     * Style change made by applyStyle, holding the formatting the range had
+     * before so it can be undone.
+     */
+    public class StyleEdit extends AbstractUndoableEdit {
+        private final int offset;
+        private final StyleRuns before;
+        private final int mask;
+        private final boolean on;
+
+        StyleEdit(int offset, StyleRuns before, int mask, boolean on) {
+            this.offset = offset;
+            this.before = before;
+            this.mask = mask;
+            this.on = on;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return before.getLength();
+        }
+
+        // The formatting of the range before the change
+        public StyleRuns getBefore() {
+            return before;
+        }
+
+        public int getMask() {
+            return mask;
+        }
+
+        public boolean isOn() {
+            return on;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            setStyles(offset, before);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            writeLock();
+            try {
+                styles.apply(offset, offset + before.getLength(), mask, on);
+                fireStyleChange(offset, before.getLength());
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
+
+    /**
+     * Line change recorded in a document event. Undoing the event replays the
+     * content edit without calling insertUpdate or removeUpdate, so this edit
+     * keeps the line index and the style runs in step. Text put back this way
+     * gets back the formatting it had, kept when it was taken out.
+     */
+    private class LineEdit extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+        private final boolean insert;
+        private final int offset;
+        private final int length;
+        private final int[] breaks;
+        private final int index;
+        private Element[] removed;
+        private Element[] added;
+        private StyleRuns runs; // Formatting of the text while it is out of the document; null if plain
+
+        LineEdit(boolean insert, int offset, int length, int[] breaks, int index,
+                 Element[] removed, Element[] added, StyleRuns runs) {
+            this.insert = insert;
+            this.offset = offset;
+            this.length = length;
+            this.breaks = breaks;
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+            this.runs = runs;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return removed;
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return added;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            apply(!insert);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            apply(insert);
+        }
+
+        private void apply(boolean asInsert) {
+            if (asInsert) {
+                lines.insert(offset, length, breaks);
+                styles.insert(offset, length, styles.getStyle(Math.max(0, offset - 1)));
+                if (runs != null) {
+                    styles.set(offset, runs);
+                }
+            } else {
+                runs = styles.isPlain() ? null : styles.copy(offset, offset + length);
+                lines.remove(offset, length);
+                styles.remove(offset, length);
+            }
+            Element[] tmp = removed;
+            removed = added;
+            added = tmp;
+        }
+    }
+}
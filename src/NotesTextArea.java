@@ -0,0 +1,74 @@
+import javax.swing.*;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.Element;
+import javax.swing.text.View;
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * Text area that renders its document with a LineView, so only the lines
+ * inside the viewport are ever laid out or painted. Line wrapping is not
+ * supported by this view.
+ */
+public class NotesTextArea extends JTextArea {
+    private SearchMatches matches;
+    private SearchMatches lineHighlights;
+    private Color lineHighlightColor;
+
+    public NotesTextArea(NotesDocument document) {
+        super(document);
+    }
+
+    public SearchMatches getMatches() {
+        return matches;
+    }
+
+    // Find results to highlight, or null for none
+    public void setMatches(SearchMatches matches) {
+        this.matches = matches;
+        repaint();
+    }
+
+    public SearchMatches getLineHighlights() {
+        return lineHighlights;
+    }
+
+    public Color getLineHighlightColor() {
+        return lineHighlightColor;
+    }
+
+    // Whole lines to shade, as ranges of line numbers; an empty range marks a gap between lines
+    public void setLineHighlights(SearchMatches lines, Color color) {
+        this.lineHighlights = lines;
+        this.lineHighlightColor = color;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        PerfEvents.Repaint event = new PerfEvents.Repaint();
+        event.begin();
+        long start = System.nanoTime();
+        super.paintComponent(g);
+        EdtMonitor monitor = EdtMonitor.get();
+        if (monitor != null) {
+            monitor.painted(start);
+        }
+        if (event.shouldCommit()) {
+            event.width = getVisibleRect().width;
+            event.height = getVisibleRect().height;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void updateUI() {
+        setUI(new BasicTextAreaUI() {
+            @Override
+            public View create(Element elem) {
+                return new LineView(elem);
+            }
+        });
+        invalidate();
+    }
+}
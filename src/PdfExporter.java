@@ -0,0 +1,601 @@
+import javax.swing.*;
+import java.awt.Font;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+
+/**
+ * Exports a document snapshot to PDF on a background thread.
+ *
+ * The text is set in the standard PDF font closest to the editor font, so
+ * nothing has to be embedded, switching to its bold and italic faces where
+ * the text is formatted and ruling a line under underlined text. Chunks of lines are wrapped on all cores and
+ * each page's content stream is built and deflated on the pool as well; the
+ * exporting thread only cuts the wrapped lines into pages and appends the
+ * finished objects to the file in order. Only a few chunks and pages are in
+ * flight at any time, so memory stays flat however long the document is.
+ */
+public class PdfExporter extends SwingWorker<Void, Void> {
+    private static final float PAGE_WIDTH = 595; // A4, in points
+    private static final float PAGE_HEIGHT = 842;
+    private static final float MARGIN = 72;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_LINE_SCAN = 64 * 1024;
+    private static final int TAB_SIZE = 8;
+
+    // Advance widths of ASCII 32-126 in 1/1000 em, from the standard font metrics
+    private static final short[] HELVETICA = {
+        278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278,
+        556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556,
+        1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778,
+        667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469, 556,
+        333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556,
+        556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584
+    };
+    private static final short[] HELVETICA_BOLD = {
+        278, 333, 474, 556, 556, 889, 722, 238, 333, 333, 389, 584, 278, 333, 278, 278,
+        556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 333, 333, 584, 584, 584, 611,
+        975, 722, 722, 722, 722, 667, 611, 778, 722, 278, 556, 722, 611, 833, 722, 778,
+        667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 333, 278, 333, 584, 556,
+        333, 556, 611, 556, 611, 556, 333, 611, 611, 278, 278, 556, 278, 889, 611, 611,
+        611, 611, 389, 556, 333, 611, 556, 778, 556, 556, 500, 389, 280, 389, 584
+    };
+    private static final short[] TIMES = {
+        250, 333, 408, 500, 500, 833, 778, 180, 333, 333, 500, 564, 250, 333, 250, 278,
+        500, 500, 500, 500, 500, 500, 500, 500, 500, 500, 278, 278, 564, 564, 564, 444,
+        921, 722, 667, 667, 722, 611, 556, 722, 722, 333, 389, 722, 611, 889, 722, 722,
+        556, 722, 667, 556, 611, 722, 722, 944, 722, 722, 611, 333, 278, 333, 469, 500,
+        333, 444, 500, 444, 500, 444, 333, 500, 500, 278, 278, 500, 278, 778, 500, 500,
+        500, 500, 333, 389, 278, 500, 500, 722, 500, 500, 444, 480, 200, 480, 541
+    };
+    private static final short[] TIMES_BOLD = {
+        250, 333, 555, 500, 500, 1000, 833, 278, 333, 333, 500, 570, 250, 333, 250, 278,
+        500, 500, 500, 500, 500, 500, 500, 500, 500, 500, 333, 333, 570, 570, 570, 500,
+        930, 722, 667, 722, 722, 667, 611, 778, 778, 389, 500, 778, 667, 944, 722, 778,
+        611, 778, 722, 556, 667, 722, 722, 1000, 722, 722, 667, 333, 278, 333, 581, 500,
+        333, 500, 556, 444, 556, 444, 333, 500, 556, 278, 333, 556, 278, 833, 556, 500,
+        556, 556, 444, 389, 333, 556, 500, 722, 500, 500, 444, 394, 220, 394, 520
+    };
+
+    private final PieceTableContent.Snapshot snapshot;
+    private final StyleRuns styles;
+    private final File file;
+    private final Font font;
+
+    public PdfExporter(PieceTableContent.Snapshot snapshot, File file, Font font) {
+        this(snapshot, null, file, font);
+    }
+
+    // The styles are a copy of the snapshot's formatting, or null for plain text
+    public PdfExporter(PieceTableContent.Snapshot snapshot, StyleRuns styles, File file, Font font) {
+        this.snapshot = snapshot;
+        this.styles = styles;
+        this.file = file;
+        this.font = font;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        write(snapshot, styles, file.toPath(), font, new IntConsumer() {
+            @Override
+            public void accept(int percent) {
+                setProgress(percent);
+            }
+        });
+        return null;
+    }
+
+    public static void write(PieceTableContent.Snapshot snapshot, Path target, Font font,
+                             IntConsumer progress) throws IOException {
+        write(snapshot, null, target, font, progress);
+    }
+
+    /**
+     * Writes the snapshot to the target as a PDF set in the given font and
+     * formatted by the styles, if any, reporting progress in percent.
+     * Interrupting the calling thread abandons the export and leaves the
+     * target untouched.
+     */
+    public static void write(PieceTableContent.Snapshot snapshot, StyleRuns styles, Path target, Font font,
+                             IntConsumer progress) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "pdf-layout");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            write(snapshot, styles, target, font, pool, progress);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Same, laying out pages on a pool shared with other exports
+    public static void write(PieceTableContent.Snapshot snapshot, StyleRuns styles, Path target, Font font,
+                             ExecutorService pool, IntConsumer progress) throws IOException {
+        // Runs of some other text would format the wrong characters
+        if (styles != null && (styles.getLength() != snapshot.length() || styles.isPlain())) {
+            styles = null;
+        }
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), "." + absolute.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            try (PdfOutput out = new PdfOutput(Files.newOutputStream(temp))) {
+                new Layout(snapshot, styles, font, pool, out, progress).run();
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // Standard font names for the editor font in a StyleRuns style; anything unknown is set in Helvetica
+    static String baseFont(Font font, int style) {
+        // The requested name, not the family: fonts that are not installed report a fallback family
+        String family = font.getName().toLowerCase();
+        boolean bold = font.isBold() || (style & StyleRuns.BOLD) != 0;
+        boolean italic = font.isItalic() || (style & StyleRuns.ITALIC) != 0;
+        if (family.contains("courier") || family.contains("mono")) {
+            return bold ? (italic ? "Courier-BoldOblique" : "Courier-Bold") : (italic ? "Courier-Oblique" : "Courier");
+        }
+        if (family.contains("times") || family.contains("georgia") || family.contains("cambria")
+                || family.contains("serif") && !family.contains("sans")) {
+            return bold ? (italic ? "Times-BoldItalic" : "Times-Bold") : (italic ? "Times-Italic" : "Times-Roman");
+        }
+        return bold ? (italic ? "Helvetica-BoldOblique" : "Helvetica-Bold")
+                : (italic ? "Helvetica-Oblique" : "Helvetica");
+    }
+
+    // Italic faces are no wider than the upright ones, so wrapping with those is safe
+    private static short[] widths(String baseFont) {
+        boolean bold = baseFont.contains("Bold");
+        if (baseFont.startsWith("Courier")) {
+            return null;
+        }
+        if (baseFont.startsWith("Times")) {
+            return bold ? TIMES_BOLD : TIMES;
+        }
+        return bold ? HELVETICA_BOLD : HELVETICA;
+    }
+
+    /** Cuts the document into pages and writes them out in order. */
+    private static final class Layout {
+        // Plain, bold, italic and bold italic, indexed by the bold and italic bits of a style
+        private static final int FACES = 4;
+
+        private final PieceTableContent.Snapshot text;
+        private final StyleRuns styles;
+        private final ExecutorService pool;
+        private final PdfOutput out;
+        private final IntConsumer progress;
+        private final String[] faces = new String[FACES];
+        private final short[][] faceWidths = new short[FACES][];
+        private String fontResources;
+        private final float fontSize;
+        private final float leading;
+        private final int linesPerPage;
+        private final int maxWidth;
+        private final int window;
+        private final List<Integer> pageObjects = new ArrayList<Integer>();
+
+        Layout(PieceTableContent.Snapshot text, StyleRuns styles, Font font, ExecutorService pool, PdfOutput out,
+               IntConsumer progress) {
+            this.text = text;
+            this.styles = styles;
+            this.pool = pool;
+            this.out = out;
+            this.progress = progress;
+            for (int face = 0; face < FACES; face++) {
+                faces[face] = baseFont(font, face);
+                faceWidths[face] = widths(faces[face]);
+            }
+            fontSize = Math.max(1, font.getSize2D());
+            leading = fontSize * 1.2f;
+            linesPerPage = Math.max(1, (int) ((PAGE_HEIGHT - 2 * MARGIN) / leading));
+            maxWidth = (int) ((PAGE_WIDTH - 2 * MARGIN) * 1000 / fontSize);
+            window = 2 * Runtime.getRuntime().availableProcessors();
+        }
+
+        void run() throws IOException {
+            out.writeHeader();
+            int catalog = out.beginObject();
+            out.print("<< /Type /Catalog /Pages 2 0 R >>");
+            out.endObject();
+            out.reserve(); // 2: the page tree, written once the page count is known
+            // Only the faces the text uses; /F1, the plain face, is where every page starts
+            int used = 1;
+            if (styles != null) {
+                for (int run = 0; run < styles.getRunCount(); run++) {
+                    used |= 1 << (styles.getRunStyle(run) & (FACES - 1));
+                }
+            }
+            StringBuilder resources = new StringBuilder();
+            for (int face = 0; face < FACES; face++) {
+                if ((used & 1 << face) != 0) {
+                    int fontObject = out.beginObject();
+                    out.print("<< /Type /Font /Subtype /Type1 /BaseFont /" + faces[face]
+                            + " /Encoding /WinAnsiEncoding >>");
+                    out.endObject();
+                    resources.append(resources.length() > 0 ? " " : "").append("/F").append(face + 1).append(' ')
+                            .append(fontObject).append(" 0 R");
+                }
+            }
+            fontResources = resources.toString();
+
+            ArrayDeque<Future<List<Line>>> chunks = new ArrayDeque<Future<List<Line>>>();
+            ArrayDeque<Integer> chunkEnds = new ArrayDeque<Integer>();
+            ArrayDeque<Future<byte[]>> pages = new ArrayDeque<Future<byte[]>>();
+            List<Line> page = new ArrayList<Line>(linesPerPage);
+            int length = text.length();
+            int next = 0;
+            int reported = -1;
+            while (next < length || !chunks.isEmpty()) {
+                while (next < length && chunks.size() < window) {
+                    final int start = next;
+                    final int end = chunkEnd(start, length);
+                    chunks.add(pool.submit(new Callable<List<Line>>() {
+                        @Override
+                        public List<Line> call() {
+                            return wrap(start, end);
+                        }
+                    }));
+                    chunkEnds.add(end);
+                    next = end;
+                }
+                for (Line line : await(chunks.poll())) {
+                    page.add(line);
+                    if (page.size() == linesPerPage) {
+                        submitPage(pages, page);
+                        page = new ArrayList<Line>(linesPerPage);
+                    }
+                }
+                int percent = (int) ((long) chunkEnds.poll() * 100 / Math.max(1, length));
+                if (percent != reported && progress != null) {
+                    progress.accept(percent);
+                    reported = percent;
+                }
+            }
+            if (!page.isEmpty() || pageObjects.size() + pages.size() == 0) {
+                submitPage(pages, page);
+            }
+            while (!pages.isEmpty()) {
+                writePage(await(pages.poll()));
+            }
+
+            out.beginObject(2);
+            out.print("<< /Type /Pages /Count " + pageObjects.size() + " /Kids [");
+            for (int i = 0; i < pageObjects.size(); i++) {
+                out.print((i % 16 == 0 ? "\n" : " ") + pageObjects.get(i) + " 0 R");
+            }
+            out.print("\n] >>");
+            out.endObject();
+            out.writeTrailer(catalog);
+        }
+
+        // Ends a chunk at a line break so chunks can be wrapped independently
+        private int chunkEnd(int start, int length) {
+            int end = (int) Math.min(length, (long) start + CHUNK_SIZE);
+            int limit = (int) Math.min(length, (long) end + MAX_LINE_SCAN);
+            while (end < limit && text.charAt(end - 1) != '\n') {
+                end++;
+            }
+            return end;
+        }
+
+        private void submitPage(ArrayDeque<Future<byte[]>> pages, final List<Line> lines) throws IOException {
+            pages.add(pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return compress(contentStream(lines));
+                }
+            }));
+            if (pages.size() >= window) {
+                writePage(await(pages.poll()));
+            }
+        }
+
+        private void writePage(byte[] content) throws IOException {
+            int pageObject = out.beginObject();
+            out.print("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + fmt(PAGE_WIDTH) + " " + fmt(PAGE_HEIGHT)
+                    + "] /Resources << /Font << " + fontResources + " >> >> /Contents "
+                    + (pageObject + 1) + " 0 R >>");
+            out.endObject();
+            out.beginObject();
+            out.print("<< /Length " + content.length + " /Filter /FlateDecode >>\nstream\n");
+            out.write(content);
+            out.print("\nendstream");
+            out.endObject();
+            pageObjects.add(pageObject);
+        }
+
+        // Wraps the lines in [start, end) to the page width, as WinAnsi bytes with their styles
+        private List<Line> wrap(int start, int end) {
+            char[] chars = new char[end - start];
+            text.getChars(start, end, chars, 0);
+            List<Line> lines = new ArrayList<Line>();
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            ByteArrayOutputStream lineStyles = styles != null ? new ByteArrayOutputStream(128) : null;
+            int run = styles != null ? styles.getRunOf(start) : 0;
+            int runEnd = styles != null ? styles.getRunEnd(run) : end;
+            int style = styles != null ? styles.getRunStyle(run) : StyleRuns.PLAIN;
+            int width = 0;
+            int column = 0;
+            int breakAt = -1; // Length of the line up to and including its last space
+            int widthAtBreak = 0;
+            for (int i = 0; i < chars.length; i++) {
+                while (start + i >= runEnd) {
+                    run++;
+                    runEnd = styles.getRunEnd(run);
+                    style = styles.getRunStyle(run);
+                }
+                char c = chars[i];
+                if (c == '\n') {
+                    lines.add(new Line(line.toByteArray(), lineStyles != null ? lineStyles.toByteArray() : null));
+                    line.reset();
+                    if (lineStyles != null) {
+                        lineStyles.reset();
+                    }
+                    width = column = 0;
+                    breakAt = -1;
+                    continue;
+                }
+                if (c == '\r') {
+                    continue;
+                }
+                int repeat = 1;
+                if (c == '\t') {
+                    c = ' ';
+                    repeat = TAB_SIZE - column % TAB_SIZE;
+                }
+                int b = c < 256 && (c >= 32 && c < 127 || c >= 160) ? c : '?';
+                int w = charWidth(b, style);
+                for (int r = 0; r < repeat; r++) {
+                    if (width + w > maxWidth && line.size() > 0) {
+                        // Carry the partial word over to the next line if there is a space to break at
+                        byte[] all = line.toByteArray();
+                        byte[] allStyles = lineStyles != null ? lineStyles.toByteArray() : null;
+                        int cut = breakAt > 0 ? breakAt : all.length;
+                        lines.add(new Line(Arrays.copyOf(all, cut), allStyles != null ? Arrays.copyOf(allStyles, cut)
+                                : null));
+                        line.reset();
+                        line.write(all, cut, all.length - cut);
+                        if (lineStyles != null) {
+                            lineStyles.reset();
+                            lineStyles.write(allStyles, cut, allStyles.length - cut);
+                        }
+                        width = breakAt > 0 ? width - widthAtBreak : 0;
+                        column = 0;
+                        breakAt = -1;
+                    }
+                    line.write(b);
+                    if (lineStyles != null) {
+                        lineStyles.write(style);
+                    }
+                    width += w;
+                    column++;
+                    if (b == ' ') {
+                        breakAt = line.size();
+                        widthAtBreak = width;
+                    }
+                }
+            }
+            if (line.size() > 0) {
+                lines.add(new Line(line.toByteArray(), lineStyles != null ? lineStyles.toByteArray() : null));
+            }
+            return lines;
+        }
+
+        private int charWidth(int b, int style) {
+            short[] widths = faceWidths[style & (FACES - 1)];
+            if (widths == null) {
+                return 600; // Courier is monospaced
+            }
+            if (b >= 32 && b < 127) {
+                return widths[b - 32];
+            }
+            return widths['W' - 32]; // Accented letters and symbols: assume a wide glyph
+        }
+
+        /**
+         * Sets each line as one string per run of equal style, switching
+         * faces between runs. Underlines are filled rectangles drawn after the
+         * text, at the position and thickness Helvetica's metrics give.
+         */
+        private byte[] contentStream(List<Line> lines) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(lines.size() * 64 + 64);
+            PrintStream ps = new PrintStream(stream, false);
+            ps.print("BT\n/F1 " + fmt(fontSize) + " Tf\n" + fmt(leading) + " TL\n" + fmt(MARGIN) + " "
+                    + fmt(PAGE_HEIGHT - MARGIN - fontSize) + " Td\n");
+            StringBuilder underlines = new StringBuilder();
+            int face = 0;
+            for (int l = 0; l < lines.size(); l++) {
+                Line line = lines.get(l);
+                if (line.text.length == 0) {
+                    ps.print("() Tj T*\n");
+                    continue;
+                }
+                int x = 0; // In 1/1000 em
+                for (int from = 0; from < line.text.length; ) {
+                    int style = line.styles != null ? line.styles[from] : StyleRuns.PLAIN;
+                    int to = from + 1;
+                    while (to < line.text.length && (line.styles == null || line.styles[to] == style)) {
+                        to++;
+                    }
+                    if ((style & (FACES - 1)) != face) {
+                        face = style & (FACES - 1);
+                        ps.print("/F" + (face + 1) + " " + fmt(fontSize) + " Tf\n");
+                    }
+                    ps.write('(');
+                    int width = 0;
+                    for (int i = from; i < to; i++) {
+                        int b = line.text[i] & 0xff;
+                        if (b == '(' || b == ')' || b == '\\') {
+                            ps.write('\\');
+                        }
+                        ps.write(b);
+                        width += charWidth(b, style);
+                    }
+                    ps.print(to < line.text.length ? ") Tj\n" : ") Tj T*\n");
+                    if ((style & StyleRuns.UNDERLINE) != 0) {
+                        float baseline = PAGE_HEIGHT - MARGIN - fontSize - l * leading;
+                        underlines.append(fmt(MARGIN + x * fontSize / 1000)).append(' ')
+                                .append(fmt(baseline - fontSize * 0.1f)).append(' ')
+                                .append(fmt(width * fontSize / 1000)).append(' ')
+                                .append(fmt(fontSize * 0.05f)).append(" re\n");
+                    }
+                    x += width;
+                    from = to;
+                }
+            }
+            ps.print("ET");
+            if (underlines.length() > 0) {
+                ps.print("\n" + underlines + "f");
+            }
+            ps.flush();
+            return stream.toByteArray();
+        }
+
+        private <T> T await(Future<T> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export cancelled");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    // A wrapped line: its WinAnsi bytes and, for formatted text, the style of each
+    private static final class Line {
+        final byte[] text;
+        final byte[] styles;
+
+        Line(byte[] text, byte[] styles) {
+            this.text = text;
+            this.styles = styles;
+        }
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String fmt(float value) {
+        if (value == (int) value) {
+            return Integer.toString((int) value);
+        }
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /**
+     * Output file that tracks object offsets for the cross-reference table.
+     * Only the offsets are kept; every object goes to disk as it is written.
+     */
+    private static final class PdfOutput implements Closeable {
+        private final OutputStream out;
+        private long position;
+        private long[] offsets = new long[1024];
+        private int objects;
+
+        PdfOutput(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+        }
+
+        void writeHeader() throws IOException {
+            print("%PDF-1.4\n");
+            // Binary comment so transfer tools treat the file as binary
+            write(new byte[] {'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+        }
+
+        int reserve() {
+            return ++objects;
+        }
+
+        int beginObject() throws IOException {
+            return beginObject(reserve());
+        }
+
+        int beginObject(int number) throws IOException {
+            if (number >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(number + 1, offsets.length * 2));
+            }
+            offsets[number] = position;
+            print(number + " 0 obj\n");
+            return number;
+        }
+
+        void endObject() throws IOException {
+            print("\nendobj\n");
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Export cancelled");
+            }
+        }
+
+        void writeTrailer(int root) throws IOException {
+            long xref = position;
+            print("xref\n0 " + (objects + 1) + "\n0000000000 65535 f \n");
+            for (int i = 1; i <= objects; i++) {
+                String offset = Long.toString(offsets[i]);
+                print("0000000000".substring(offset.length()) + offset + " 00000 n \n");
+            }
+            print("trailer\n<< /Size " + (objects + 1) + " /Root " + root + " 0 R >>\nstartxref\n" + xref
+                    + "\n%%EOF\n");
+        }
+
+        void print(String s) throws IOException {
+            write(s.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
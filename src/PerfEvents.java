@@ -0,0 +1,65 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for the operations users wait on. They cost next to
+ * nothing unless a recording is running, for example one started with
+ * -XX:StartFlightRecording or from JDK Mission Control, where they show up
+ * under "Notes" next to the JVM's own GC and I/O events.
+ */
+public final class PerfEvents {
+
+    private PerfEvents() {
+    }
+
+    @Name("notes.Open")
+    @Label("Open Note")
+    @Category("Notes")
+    public static class Open extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("notes.Save")
+    @Label("Save Note")
+    @Category("Notes")
+    public static class Save extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Characters")
+        public long chars;
+    }
+
+    @Name("notes.Export")
+    @Label("Export PDF")
+    @Category("Notes")
+    public static class Export extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Characters")
+        public long chars;
+    }
+
+    // Committed for every paint, so no stack trace; a slow one is easy to find by its duration
+    @Name("notes.Repaint")
+    @Label("Repaint Editor")
+    @Category("Notes")
+    @StackTrace(false)
+    public static class Repaint extends Event {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+    }
+}
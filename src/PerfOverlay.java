@@ -0,0 +1,91 @@
+import javax.swing.*;
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Small panel in the corner of the window with the latest p50 and p99
+ * latencies from the EdtMonitor. It sits in the frame's layered pane above
+ * everything else and is refreshed twice a second while it is shown.
+ */
+public class PerfOverlay extends JComponent {
+    private static final int PAD = 8;
+
+    private final EdtMonitor monitor;
+    private final Timer refresh;
+    private String[] lines = new String[0];
+
+    public PerfOverlay(EdtMonitor monitor) {
+        this.monitor = monitor;
+        setOpaque(false);
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        setVisible(false);
+        refresh = new Timer(500, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+    }
+
+    public void toggle() {
+        setVisible(!isVisible());
+        if (isVisible()) {
+            update();
+            refresh.start();
+        } else {
+            refresh.stop();
+        }
+    }
+
+    private void update() {
+        lines = new String[] {
+            row("key->paint", monitor.getKeyToPaint()),
+            row("event", monitor.getEvents()),
+            row("paint", monitor.getPaints()),
+            "stalls      " + monitor.getStalls()
+        };
+        FontMetrics fm = getFontMetrics(getFont());
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        width += PAD * 2;
+        int height = lines.length * fm.getHeight() + PAD * 2;
+        // Bottom right of the window, above the status bar
+        Container parent = getParent();
+        if (parent != null) {
+            setBounds(parent.getWidth() - width - PAD, parent.getHeight() - height - PAD * 6, width, height);
+        }
+        repaint();
+    }
+
+    private static String row(String name, LatencyHistogram histogram) {
+        return String.format("%-11s p50 %7s  p99 %7s", name,
+                LatencyHistogram.millis(histogram.getValueAtPercentile(50)),
+                LatencyHistogram.millis(histogram.getValueAtPercentile(99)));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(new Color(0, 0, 0, 180));
+        g2d.fillRoundRect(0, 0, getWidth(), getHeight(), 10, 10);
+        g2d.setColor(new Color(120, 255, 120));
+        g2d.setFont(getFont());
+        FontMetrics fm = g2d.getFontMetrics();
+        int y = PAD + fm.getAscent();
+        for (String line : lines) {
+            g2d.drawString(line, PAD, y);
+            y += fm.getHeight();
+        }
+        g2d.dispose();
+    }
+}
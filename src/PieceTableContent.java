@@ -0,0 +1,791 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Document content stored as a piece table.
+ *
+ * The text is described by a list of pieces, each referring to a range of
+ * either the read-only original buffer (typically a memory-mapped file) or an
+ * append-only buffer holding everything typed since. Opening a file therefore
+ * costs no heap for its text, and an edit anywhere in the document only
+ * touches the piece list instead of moving characters around.
+ *
+ * Like GapContent, the content always ends with an implied newline, and
+ * positions are kept relative to a virtual gap so that an edit only updates
+ * the marks between the previous and the current edit location.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+    private static final long VIRTUAL_GAP = 1L << 40;
+    private static final char[] EMPTY = new char[0];
+
+    private final CharSequence original;
+    private char[] added = new char[4096];
+    private int addedLength;
+
+    // Pieces as parallel arrays; offsets are document offsets, valid for [0, validOffsets)
+    private int pieceCount;
+    private boolean[] pieceAdded = new boolean[16];
+    private int[] pieceStart = new int[16];
+    private int[] pieceLength = new int[16];
+    private int[] pieceOffset = new int[16];
+    private int validOffsets;
+    private int length;
+
+    // Marks sorted by index; offsets at or after gapStart are stored shifted by the gap size
+    private final ArrayList<MarkData> marks = new ArrayList<MarkData>();
+    private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<StickyPosition>();
+    private long gapStart;
+    private long gapEnd;
+
+    public PieceTableContent() {
+        this("");
+    }
+
+    public PieceTableContent(CharSequence original) {
+        this.original = original;
+        length = original.length();
+        if (length > 0) {
+            pieceCount = 1;
+            pieceStart[0] = 0;
+            pieceLength[0] = length;
+        }
+        gapStart = length + 1;
+        gapEnd = gapStart + VIRTUAL_GAP;
+    }
+
+    // The text the document was opened with, such as a mapped file
+    public CharSequence getOriginal() {
+        return original;
+    }
+
+    // Number of characters held on the heap by the append buffer
+    public int getAddedLength() {
+        return addedLength;
+    }
+
+    public int getPieceCount() {
+        return pieceCount;
+    }
+
+    /**
+     * Rough bytes of heap held by this content: the append buffer, the piece
+     * arrays and the original unless it is a mapped file.
+     */
+    public long getHeapSize() {
+        long size = 2L * added.length + 13L * pieceStart.length + 32L * marks.size();
+        if (original instanceof ChunkedText) {
+            size += ((ChunkedText) original).getHeapSize();
+        } else if (!(original instanceof ByteCharSequence)) {
+            size += 2L * original.length();
+        }
+        return size;
+    }
+
+    /**
+     * Drops text from the append buffer that no piece refers to any more, if
+     * that is at least half of it, as after the start of a followed log has
+     * been trimmed. The live text moves to a new array, so snapshots holding
+     * the old one stay valid. Returns true if the buffer was compacted.
+     */
+    public boolean compact() {
+        int live = 0;
+        for (int i = 0; i < pieceCount; i++) {
+            if (pieceAdded[i]) {
+                live += pieceLength[i];
+            }
+        }
+        if (live > addedLength / 2 || added.length <= 4096) {
+            return false;
+        }
+        char[] compacted = new char[Math.max(4096, live + live / 2)];
+        int pos = 0;
+        for (int i = 0; i < pieceCount; i++) {
+            if (pieceAdded[i]) {
+                System.arraycopy(added, pieceStart[i], compacted, pos, pieceLength[i]);
+                pieceStart[i] = pos;
+                pos += pieceLength[i];
+            }
+        }
+        added = compacted;
+        addedLength = pos;
+        return true;
+    }
+
+    /**
+     * Returns an immutable view of the current text. The original buffer
+     * never changes and the append buffer is only ever appended to, so this
+     * only copies the piece list and the snapshot can be read from any thread
+     * while editing continues.
+     */
+    public Snapshot snapshot() {
+        findPiece(0);
+        return new Snapshot(original, added, length, Arrays.copyOf(pieceAdded, pieceCount),
+                Arrays.copyOf(pieceStart, pieceCount), Arrays.copyOf(pieceLength, pieceCount),
+                Arrays.copyOf(pieceOffset, pieceCount));
+    }
+
+    @Override
+    public int length() {
+        return length + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", length());
+        }
+        int len = str.length();
+        if (len == 0) {
+            return null;
+        }
+        int addStart = append(str);
+        insertPiece(where, addStart, len);
+        length += len;
+        updateMarksForInsert(where, len);
+        return new InsertUndo(where, len);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems > length) {
+            throw new BadLocationException("Invalid remove", length());
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        String removed = getString(where, nitems);
+        List<UndoPosition> positions = getPositionsInRange(where, nitems);
+        removePieces(where, nitems);
+        length -= nitems;
+        updateMarksForRemove(where, nitems);
+        return new RemoveUndo(where, removed, positions);
+    }
+
+    /**
+     * Removes the first nitems characters by dropping the pieces that held
+     * them. Unlike remove, the text is not read, so it costs the same
+     * however much goes, and it cannot be undone.
+     */
+    public void removeLeading(int nitems) throws BadLocationException {
+        if (nitems < 0 || nitems > length) {
+            throw new BadLocationException("Invalid remove", length());
+        }
+        if (nitems == 0) {
+            return;
+        }
+        removePieces(0, nitems);
+        length -= nitems;
+        updateMarksForRemove(0, nitems);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid range", length());
+        }
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        int end = where + len;
+        if (end <= length) {
+            int i = findPiece(where);
+            int inPiece = where - pieceOffset[i];
+            int available = pieceLength[i] - inPiece;
+            if (pieceAdded[i] && (available >= len || txt.isPartialReturn())) {
+                // Zero copy straight out of the append buffer
+                txt.array = added;
+                txt.offset = pieceStart[i] + inPiece;
+                txt.count = Math.min(len, available);
+                return;
+            }
+            if (!pieceAdded[i] && original instanceof CharBuffer && ((CharBuffer) original).hasArray()
+                    && (available >= len || txt.isPartialReturn())) {
+                CharBuffer buffer = (CharBuffer) original;
+                txt.array = buffer.array();
+                txt.offset = buffer.arrayOffset() + buffer.position() + pieceStart[i] + inPiece;
+                txt.count = Math.min(len, available);
+                return;
+            }
+            if (txt.isPartialReturn() && available < len) {
+                len = available;
+            }
+        }
+        char[] chars = new char[len];
+        copyChars(where, len, chars, 0);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    // Copies text, including the implied trailing newline, into the destination array
+    public void copyChars(int where, int len, char[] dst, int dstPos) {
+        int end = where + len;
+        int textEnd = Math.min(end, length);
+        int pos = where;
+        if (pos < textEnd) {
+            int i = findPiece(pos);
+            while (pos < textEnd) {
+                int inPiece = pos - pieceOffset[i];
+                int n = Math.min(pieceLength[i] - inPiece, textEnd - pos);
+                int from = pieceStart[i] + inPiece;
+                if (pieceAdded[i]) {
+                    System.arraycopy(added, from, dst, dstPos, n);
+                } else {
+                    copyOriginal(original, from, from + n, dst, dstPos);
+                }
+                dstPos += n;
+                pos += n;
+                i++;
+            }
+        }
+        if (end > length) {
+            dst[dstPos] = '\n';
+        }
+    }
+
+    private static void copyOriginal(CharSequence original, int from, int to, char[] dst, int dstPos) {
+        if (original instanceof String) {
+            ((String) original).getChars(from, to, dst, dstPos);
+        } else if (original instanceof ByteCharSequence) {
+            ((ByteCharSequence) original).getChars(from, to, dst, dstPos);
+        } else if (original instanceof Snapshot) {
+            ((Snapshot) original).getChars(from, to, dst, dstPos);
+        } else if (original instanceof ChunkedText) {
+            ((ChunkedText) original).getChars(from, to, dst, dstPos);
+        } else if (original instanceof CharBuffer) {
+            CharBuffer view = ((CharBuffer) original).duplicate();
+            view.position(view.position() + from);
+            view.get(dst, dstPos, to - from);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[dstPos++] = original.charAt(i);
+            }
+        }
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        purgeMarks();
+        long index = offset < gapStart ? offset : offset + (gapEnd - gapStart);
+        int sortIndex = findMarkIndex(index);
+        if (sortIndex < marks.size()) {
+            MarkData existing = marks.get(sortIndex);
+            StickyPosition position = existing.index == index ? existing.get() : null;
+            if (position != null) {
+                return position;
+            }
+        }
+        StickyPosition position = new StickyPosition();
+        position.mark = new MarkData(index, position);
+        marks.add(sortIndex, position.mark);
+        return position;
+    }
+
+    public static final class Snapshot implements CharSequence {
+        private final CharSequence original;
+        private final char[] added;
+        private final int length;
+        private final boolean[] pieceAdded;
+        private final int[] pieceStart;
+        private final int[] pieceLength;
+        private final int[] pieceOffset;
+
+        Snapshot(CharSequence original, char[] added, int length, boolean[] pieceAdded,
+                 int[] pieceStart, int[] pieceLength, int[] pieceOffset) {
+            this.original = original;
+            this.added = added;
+            this.length = length;
+            this.pieceAdded = pieceAdded;
+            this.pieceStart = pieceStart;
+            this.pieceLength = pieceLength;
+            this.pieceOffset = pieceOffset;
+        }
+
+        public CharSequence getOriginal() {
+            return original;
+        }
+
+        public int getPieceCount() {
+            return pieceStart.length;
+        }
+
+        // True if the piece holds typed text, false if it is a range of the original buffer
+        public boolean isAdded(int piece) {
+            return pieceAdded[piece];
+        }
+
+        public int getPieceStart(int piece) {
+            return pieceStart[piece];
+        }
+
+        public int getPieceLength(int piece) {
+            return pieceLength[piece];
+        }
+
+        // Characters of a piece, without copying text typed into the append buffer
+        public CharSequence getPieceText(int piece) {
+            int start = pieceStart[piece];
+            if (pieceAdded[piece]) {
+                return CharBuffer.wrap(added, start, pieceLength[piece]).slice();
+            }
+            return original.subSequence(start, start + pieceLength[piece]);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            int piece = findPiece(index);
+            int pos = pieceStart[piece] + index - pieceOffset[piece];
+            return pieceAdded[piece] ? added[pos] : original.charAt(pos);
+        }
+
+        public void getChars(int start, int end, char[] dst, int dstPos) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+            }
+            int pos = start;
+            int piece = pos < end ? findPiece(pos) : 0;
+            while (pos < end) {
+                int inPiece = pos - pieceOffset[piece];
+                int n = Math.min(pieceLength[piece] - inPiece, end - pos);
+                int from = pieceStart[piece] + inPiece;
+                if (pieceAdded[piece]) {
+                    System.arraycopy(added, from, dst, dstPos, n);
+                } else {
+                    copyOriginal(original, from, from + n, dst, dstPos);
+                }
+                dstPos += n;
+                pos += n;
+                piece++;
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return CharBuffer.wrap(chars);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            getChars(0, length, chars, 0);
+            return new String(chars);
+        }
+
+        private int findPiece(int offset) {
+            int low = 0;
+            int high = pieceOffset.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (pieceOffset[mid] <= offset) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    // --- piece list ---------------------------------------
+
+    private int append(String str) {
+        int len = str.length();
+        if (addedLength + len > added.length) {
+            // Grow into a new array so readers holding the old one keep seeing valid text
+            char[] grown = new char[Math.max(added.length * 2, addedLength + len)];
+            System.arraycopy(added, 0, grown, 0, addedLength);
+            added = grown;
+        }
+        str.getChars(0, len, added, addedLength);
+        int start = addedLength;
+        addedLength += len;
+        return start;
+    }
+
+    private void insertPiece(int where, int addStart, int len) {
+        if (where > 0) {
+            // Typing usually continues the piece written by the previous keystroke
+            int before = findPiece(where - 1);
+            if (pieceAdded[before] && pieceOffset[before] + pieceLength[before] == where
+                    && pieceStart[before] + pieceLength[before] == addStart) {
+                pieceLength[before] += len;
+                invalidateOffsets(before + 1);
+                return;
+            }
+        }
+        if (where == length) {
+            insertPieceAt(pieceCount, true, addStart, len);
+            return;
+        }
+        int i = findPiece(where);
+        int inPiece = where - pieceOffset[i];
+        if (inPiece == 0) {
+            insertPieceAt(i, true, addStart, len);
+        } else {
+            splitPiece(i, inPiece);
+            insertPieceAt(i + 1, true, addStart, len);
+        }
+    }
+
+    private void removePieces(int where, int nitems) {
+        int end = where + nitems;
+        int first = findPiece(where);
+        if (where > pieceOffset[first]) {
+            splitPiece(first, where - pieceOffset[first]);
+            first++;
+        }
+        int last = findPiece(end - 1);
+        if (end < pieceOffset[last] + pieceLength[last]) {
+            splitPiece(last, end - pieceOffset[last]);
+        }
+        int removed = last - first + 1;
+        System.arraycopy(pieceAdded, last + 1, pieceAdded, first, pieceCount - last - 1);
+        System.arraycopy(pieceStart, last + 1, pieceStart, first, pieceCount - last - 1);
+        System.arraycopy(pieceLength, last + 1, pieceLength, first, pieceCount - last - 1);
+        pieceCount -= removed;
+        invalidateOffsets(first);
+    }
+
+    // Splits piece i so that its first part is inPiece characters long
+    private void splitPiece(int i, int inPiece) {
+        insertPieceAt(i + 1, pieceAdded[i], pieceStart[i] + inPiece, pieceLength[i] - inPiece);
+        pieceLength[i] = inPiece;
+        pieceOffset[i + 1] = pieceOffset[i] + inPiece;
+    }
+
+    private void insertPieceAt(int i, boolean fromAdded, int start, int len) {
+        if (pieceCount == pieceStart.length) {
+            int capacity = pieceCount * 2;
+            pieceAdded = Arrays.copyOf(pieceAdded, capacity);
+            pieceStart = Arrays.copyOf(pieceStart, capacity);
+            pieceLength = Arrays.copyOf(pieceLength, capacity);
+            pieceOffset = Arrays.copyOf(pieceOffset, capacity);
+        }
+        System.arraycopy(pieceAdded, i, pieceAdded, i + 1, pieceCount - i);
+        System.arraycopy(pieceStart, i, pieceStart, i + 1, pieceCount - i);
+        System.arraycopy(pieceLength, i, pieceLength, i + 1, pieceCount - i);
+        System.arraycopy(pieceOffset, i, pieceOffset, i + 1, pieceCount - i);
+        pieceAdded[i] = fromAdded;
+        pieceStart[i] = start;
+        pieceLength[i] = len;
+        pieceCount++;
+        invalidateOffsets(i + 1);
+    }
+
+    private void invalidateOffsets(int from) {
+        validOffsets = Math.min(validOffsets, from);
+    }
+
+    // Returns the piece containing the given offset, which must be inside the text
+    private int findPiece(int offset) {
+        if (validOffsets < pieceCount) {
+            int i = validOffsets;
+            int pos = i == 0 ? 0 : pieceOffset[i - 1] + pieceLength[i - 1];
+            for (; i < pieceCount; i++) {
+                pieceOffset[i] = pos;
+                pos += pieceLength[i];
+            }
+            validOffsets = pieceCount;
+        }
+        int low = 0;
+        int high = pieceCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pieceOffset[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // --- marks --------------------------------------------
+
+    private void updateMarksForInsert(int where, int len) {
+        if (gapEnd - gapStart <= len) {
+            growGap();
+        }
+        shiftGap(where);
+        gapStart += len;
+    }
+
+    private void updateMarksForRemove(int where, int nitems) {
+        shiftGap(where + nitems);
+        // Marks inside the removed range collapse onto its start
+        int i = findMarkIndex(where);
+        for (int n = marks.size(); i < n; i++) {
+            MarkData mark = marks.get(i);
+            if (mark.index >= gapStart) {
+                break;
+            }
+            mark.index = gapEnd;
+        }
+        gapStart = where;
+        resetMarksAtZero();
+    }
+
+    private void shiftGap(long newGapStart) {
+        long gapSize = gapEnd - gapStart;
+        if (newGapStart < gapStart) {
+            for (int i = findMarkIndex(newGapStart), n = marks.size(); i < n; i++) {
+                MarkData mark = marks.get(i);
+                if (mark.index >= gapStart) {
+                    break;
+                }
+                mark.index += gapSize;
+            }
+        } else if (newGapStart > gapStart) {
+            long limit = newGapStart + gapSize;
+            for (int i = findMarkIndex(gapEnd), n = marks.size(); i < n; i++) {
+                MarkData mark = marks.get(i);
+                if (mark.index >= limit) {
+                    break;
+                }
+                mark.index -= gapSize;
+            }
+        }
+        gapStart = newGapStart;
+        gapEnd = newGapStart + gapSize;
+        resetMarksAtZero();
+    }
+
+    // Marks at offset zero stay at zero, an insert there goes after them
+    private void resetMarksAtZero() {
+        if (gapStart == 0) {
+            for (int i = 0, n = marks.size(); i < n; i++) {
+                MarkData mark = marks.get(i);
+                if (mark.index > gapEnd) {
+                    break;
+                }
+                mark.index = 0;
+            }
+        }
+    }
+
+    private void growGap() {
+        for (int i = findMarkIndex(gapEnd), n = marks.size(); i < n; i++) {
+            marks.get(i).index += VIRTUAL_GAP;
+        }
+        gapEnd += VIRTUAL_GAP;
+    }
+
+    // Returns the first mark whose index is not below the given one
+    private int findMarkIndex(long index) {
+        int low = 0;
+        int high = marks.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (marks.get(mid).index < index) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void purgeMarks() {
+        boolean stale = false;
+        while (queue.poll() != null) {
+            stale = true;
+        }
+        if (stale) {
+            ArrayList<MarkData> live = new ArrayList<MarkData>(marks.size());
+            for (MarkData mark : marks) {
+                if (mark.get() != null) {
+                    live.add(mark);
+                }
+            }
+            marks.clear();
+            marks.addAll(live);
+        }
+    }
+
+    private final class MarkData extends WeakReference<StickyPosition> {
+        long index;
+
+        MarkData(long index, StickyPosition position) {
+            super(position, queue);
+            this.index = index;
+        }
+
+        int getOffset() {
+            // Marks reset to zero sit before an empty leading gap
+            return (int) Math.max(0, index < gapStart ? index : index - (gapEnd - gapStart));
+        }
+    }
+
+    private final class StickyPosition implements Position {
+        MarkData mark;
+
+        @Override
+        public int getOffset() {
+            return mark.getOffset();
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    // --- undo ---------------------------------------------
+
+    // Remembers the marks in [where, where + len] so undoing a removal can put them back
+    private List<UndoPosition> getPositionsInRange(int where, int len) {
+        List<UndoPosition> positions = new ArrayList<UndoPosition>();
+        long from = where < gapStart ? where : where + (gapEnd - gapStart);
+        for (int i = findMarkIndex(from), n = marks.size(); i < n; i++) {
+            MarkData mark = marks.get(i);
+            int offset = mark.getOffset();
+            if (offset > where + len) {
+                break;
+            }
+            if (mark.get() != null) {
+                positions.add(new UndoPosition(mark, offset));
+            }
+        }
+        return positions;
+    }
+
+    // Called right after the text has been inserted again, so the gap starts at where + len
+    private void updateUndoPositions(List<UndoPosition> positions, int where, int len) {
+        if (positions.isEmpty()) {
+            return;
+        }
+        int endOffset = where + len;
+        for (UndoPosition position : positions) {
+            position.mark.index = position.offset != endOffset ? position.offset : gapEnd;
+        }
+        Collections.sort(marks, new Comparator<MarkData>() {
+            @Override
+            public int compare(MarkData a, MarkData b) {
+                return Long.compare(a.index, b.index);
+            }
+        });
+    }
+
+    private static final class UndoPosition {
+        final MarkData mark;
+        final int offset;
+
+        UndoPosition(MarkData mark, int offset) {
+            this.mark = mark;
+            this.offset = offset;
+        }
+    }
+
+    private class InsertUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int len;
+        private String string;
+        private List<UndoPosition> positions;
+
+        InsertUndo(int offset, int len) {
+            this.offset = offset;
+            this.len = len;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                positions = getPositionsInRange(offset, len);
+                string = getString(offset, len);
+                remove(offset, len);
+            } catch (BadLocationException e) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                insertString(offset, string);
+                updateUndoPositions(positions, offset, len);
+                string = null;
+                positions = null;
+            } catch (BadLocationException e) {
+                throw new CannotRedoException();
+            }
+        }
+    }
+
+    private class RemoveUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int len;
+        private String string;
+        private List<UndoPosition> positions;
+
+        RemoveUndo(int offset, String string, List<UndoPosition> positions) {
+            this.offset = offset;
+            this.len = string.length();
+            this.string = string;
+            this.positions = positions;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                insertString(offset, string);
+                updateUndoPositions(positions, offset, len);
+                string = null;
+                positions = null;
+            } catch (BadLocationException e) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                positions = getPositionsInRange(offset, len);
+                string = getString(offset, len);
+                remove(offset, len);
+            } catch (BadLocationException e) {
+                throw new CannotRedoException();
+            }
+        }
+    }
+}
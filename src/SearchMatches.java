@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Sorted, non-overlapping match ranges of a find, kept in two int arrays so
+ * that a million matches cost a few megabytes and no objects. Only touched
+ * on the event thread.
+ */
+public final class SearchMatches {
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int count;
+
+    // Matches arrive in document order
+    public void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    // Index of the first match starting at or after offset, or getCount() if none
+    public int firstStartingAt(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first match ending after offset, or getCount() if none
+    public int firstEndingAfter(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * Records how long each startup phase takes.
+ *
+ * Phases are timed from process launch where the platform reports it, so
+ * JVM and class loading time is included. One line per launch is appended to
+ * ~/.notesapp/logs/startup.log, which makes regressions easy to spot over
+ * time; -Dnotes.startup.verbose=true also prints it to the console.
+ */
+public final class StartupLog {
+    private static final long LAUNCH_NANOS = System.nanoTime() - sinceLaunch();
+    private static final StringBuilder phases = new StringBuilder();
+    private static long last = LAUNCH_NANOS;
+    private static boolean finished;
+
+    private StartupLog() {
+    }
+
+    // Called on the event thread once each phase is done
+    public static synchronized void mark(String phase) {
+        if (finished) {
+            return;
+        }
+        long now = System.nanoTime();
+        phases.append(String.format(Locale.ROOT, " %s=%dms", phase, (now - last) / 1000000));
+        last = now;
+    }
+
+    // Ends the log for this launch and writes it out
+    public static synchronized void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        String line = String.format(Locale.ROOT, "%s total=%dms%s", Instant.now(),
+                (System.nanoTime() - LAUNCH_NANOS) / 1000000, phases);
+        if (Boolean.getBoolean("notes.startup.verbose")) {
+            System.err.println("startup:" + line.substring(line.indexOf(' ')));
+        }
+        try {
+            Files.write(AppData.dir("logs").resolve("startup.log"),
+                    (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Timing is diagnostic only
+            e.printStackTrace();
+        }
+    }
+
+    // Time from process launch until this class was loaded, or zero if unknown
+    private static long sinceLaunch() {
+        Instant launched = ProcessHandle.current().info().startInstant().orElse(null);
+        if (launched == null) {
+            return 0;
+        }
+        long nanos = (System.currentTimeMillis() - launched.toEpochMilli()) * 1000000;
+        return Math.max(0, nanos);
+    }
+}
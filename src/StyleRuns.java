@@ -0,0 +1,409 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Bold, italic and underline formatting of a document as runs of equally
+ * styled characters.
+ *
+ * A run is its start offset and one style byte; it lasts until the next run
+ * starts. The starts are kept the way LineIndex keeps line starts, in an int
+ * array with a gap at the last edit: starts before the gap are offsets from
+ * the start of the text and starts after it are distances from the end, so
+ * an edit only touches the runs around it and the runs past it move along
+ * for free. Finding a run is a binary search. Neighbouring runs never have
+ * the same style and the text always has at least one run, starting at 0.
+ *
+ * Formatting is saved next to the note in a sidecar file, the note's name
+ * plus ".runs": a header, the size and modification time of the text file it
+ * belongs to, then each run's length as a varint followed by its style byte.
+ * A note whose text was changed by another program since then loses its
+ * formatting instead of getting it at the wrong offsets.
+ */
+public class StyleRuns {
+    public static final int PLAIN = 0;
+    public static final int BOLD = 1;
+    public static final int ITALIC = 2;
+    public static final int UNDERLINE = 4;
+
+    private static final int MAGIC = 0x4e52554e; // "NRUN"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".runs";
+
+    private int[] starts;
+    private byte[] styles;
+    private int gapStart;
+    private int gapEnd;
+    private int length;
+
+    // One plain run over text of the given length
+    public StyleRuns(int length) {
+        starts = new int[16];
+        styles = new byte[16];
+        gapStart = 1;
+        gapEnd = starts.length;
+        this.length = length;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getRunCount() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    public int getRunStart(int run) {
+        return run < gapStart ? starts[run] : length - starts[run + gapEnd - gapStart];
+    }
+
+    public int getRunEnd(int run) {
+        return run + 1 < getRunCount() ? getRunStart(run + 1) : length;
+    }
+
+    public int getRunStyle(int run) {
+        return styles[run < gapStart ? run : run + gapEnd - gapStart];
+    }
+
+    // True if nothing in the text is formatted
+    public boolean isPlain() {
+        return getRunCount() == 1 && getRunStyle(0) == PLAIN;
+    }
+
+    public int getRunOf(int offset) {
+        int low = 0;
+        int high = getRunCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getRunStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Style of the character at offset; past the end, that of the last character
+    public int getStyle(int offset) {
+        return getRunStyle(getRunOf(Math.min(offset, length - 1)));
+    }
+
+    // Rough bytes of heap the runs take up
+    public long getHeapSize() {
+        return 16L + starts.length * 5L;
+    }
+
+    /**
+     * Records an insertion of len characters at offset, all in the given
+     * style.
+     */
+    public void insert(int offset, int len, int style) {
+        // The run before the insertion grows over it, the runs after it move along
+        int run = offset > 0 ? getRunOf(offset - 1) : -1;
+        int runEnd = run >= 0 ? getRunEnd(run) : 0;
+        moveGap(run + 1);
+        length += len;
+        if (run >= 0 && getRunStyle(run) == style) {
+            return;
+        }
+        addRun(run + 1, offset, style);
+        if (runEnd > offset) {
+            // Inserted into the middle of a run, which now continues after it
+            addRun(run + 2, offset + len, getRunStyle(run));
+        }
+        normalize(run, run + 2);
+    }
+
+    // Records a removal of len characters at offset
+    public void remove(int offset, int len) {
+        if (len == 0) {
+            return;
+        }
+        int first = getRunOf(offset);
+        int last = getRunOf(offset + len - 1);
+        if (last > first) {
+            // The runs starting inside the removed text are gone, except the rest of the last one
+            moveGap(first + 1);
+            gapEnd += last - first - 1;
+            starts[gapEnd] = length - (offset + len);
+        }
+        moveGap(first + 1);
+        length -= len;
+        normalize(first - 1, first + 1);
+    }
+
+    /**
+     * Turns the style bits in mask on or off for [from, to).
+     */
+    public void apply(int from, int to, int mask, boolean on) {
+        if (from >= to) {
+            return;
+        }
+        int first = split(from);
+        int end = split(to);
+        for (int run = first; run < end; run++) {
+            int index = run < gapStart ? run : run + gapEnd - gapStart;
+            styles[index] = (byte) (on ? styles[index] | mask : styles[index] & ~mask);
+        }
+        normalize(first - 1, end);
+    }
+
+    // Makes a run start at offset and returns its index, or the run count at the end of the text
+    private int split(int offset) {
+        if (offset >= length) {
+            return getRunCount();
+        }
+        int run = getRunOf(offset);
+        if (getRunStart(run) == offset) {
+            return run;
+        }
+        addRun(run + 1, offset, getRunStyle(run));
+        return run + 1;
+    }
+
+    // True if every character in [from, to) has the given style
+    public boolean isUniform(int from, int to, int style) {
+        if (from >= to) {
+            return true;
+        }
+        int run = getRunOf(from);
+        return getRunStyle(run) == style && getRunEnd(run) >= to;
+    }
+
+    // The formatting of [from, to) as runs of their own, starting at 0
+    public StyleRuns copy(int from, int to) {
+        StyleRuns copy = new StyleRuns(to - from);
+        if (from >= to) {
+            return copy;
+        }
+        int first = getRunOf(from);
+        int last = getRunOf(to - 1);
+        copy.styles[0] = (byte) getRunStyle(first);
+        for (int run = first + 1; run <= last; run++) {
+            copy.addRun(copy.getRunCount(), getRunStart(run) - from, getRunStyle(run));
+        }
+        return copy;
+    }
+
+    // Gives [offset, offset + runs.getLength()) the formatting of the runs, as when it is put back on undo
+    public void set(int offset, StyleRuns runs) {
+        int len = runs.getLength();
+        if (len == 0) {
+            return;
+        }
+        remove(offset, len);
+        for (int run = 0; run < runs.getRunCount(); run++) {
+            int start = runs.getRunStart(run);
+            insert(offset + start, runs.getRunEnd(run) - start, runs.getRunStyle(run));
+        }
+    }
+
+    public StyleRuns copy() {
+        StyleRuns copy = new StyleRuns(length);
+        copy.starts = starts.clone();
+        copy.styles = styles.clone();
+        copy.gapStart = gapStart;
+        copy.gapEnd = gapEnd;
+        return copy;
+    }
+
+    // Drops empty runs and merges equally styled neighbours among runs from..to
+    private void normalize(int from, int to) {
+        for (int run = Math.min(to, getRunCount() - 1); run >= Math.max(0, from); run--) {
+            if (getRunCount() == 1) {
+                return;
+            }
+            if (getRunStart(run) == getRunEnd(run)) {
+                if (run == 0) {
+                    // The next run becomes the first and has to start at 0
+                    removeRun(0);
+                    setRunStart(0, 0);
+                } else {
+                    removeRun(run);
+                    if (run < getRunCount() && getRunStyle(run) == getRunStyle(run - 1)) {
+                        removeRun(run);
+                    }
+                }
+            } else if (run > 0 && getRunStyle(run) == getRunStyle(run - 1)) {
+                removeRun(run);
+            }
+        }
+    }
+
+    private void addRun(int run, int start, int style) {
+        moveGap(run);
+        if (gapStart == gapEnd) {
+            growGap();
+        }
+        starts[gapStart] = start;
+        styles[gapStart] = (byte) style;
+        gapStart++;
+    }
+
+    private void removeRun(int run) {
+        moveGap(run + 1);
+        gapStart--;
+    }
+
+    private void setRunStart(int run, int start) {
+        if (run < gapStart) {
+            starts[run] = start;
+        } else {
+            starts[run + gapEnd - gapStart] = length - start;
+        }
+    }
+
+    private void moveGap(int index) {
+        int gap = gapEnd - gapStart;
+        if (index < gapStart) {
+            for (int i = gapStart - 1; i >= index; i--) {
+                starts[i + gap] = length - starts[i];
+            }
+            System.arraycopy(styles, index, styles, index + gap, gapStart - index);
+        } else {
+            for (int i = gapStart; i < index; i++) {
+                starts[i] = length - starts[i + gap];
+            }
+            System.arraycopy(styles, gapStart + gap, styles, gapStart, index - gapStart);
+        }
+        gapStart = index;
+        gapEnd = index + gap;
+    }
+
+    private void growGap() {
+        int after = starts.length - gapEnd;
+        int capacity = starts.length * 3 / 2 + 16;
+        int[] grownStarts = new int[capacity];
+        byte[] grownStyles = new byte[capacity];
+        System.arraycopy(starts, 0, grownStarts, 0, gapStart);
+        System.arraycopy(styles, 0, grownStyles, 0, gapStart);
+        System.arraycopy(starts, gapEnd, grownStarts, capacity - after, after);
+        System.arraycopy(styles, gapEnd, grownStyles, capacity - after, after);
+        starts = grownStarts;
+        styles = grownStyles;
+        gapEnd = capacity - after;
+    }
+
+    // --- sidecar file -------------------------------------
+
+    public static Path sidecar(File note) {
+        return new File(note.getPath() + SUFFIX).toPath();
+    }
+
+    /**
+     * Saves the runs next to the note, which must already have been written.
+     * Plain text needs no sidecar, so an existing one is deleted instead.
+     */
+    public void save(File note) throws IOException {
+        Path target = sidecar(note).toAbsolutePath();
+        if (isPlain()) {
+            Files.deleteIfExists(target);
+            return;
+        }
+        BasicFileAttributes text = Files.readAttributes(note.toPath(), BasicFileAttributes.class);
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(text.size());
+                out.writeLong(text.lastModifiedTime().toMillis());
+                out.writeInt(length);
+                out.writeInt(getRunCount());
+                for (int run = 0; run < getRunCount(); run++) {
+                    writeVarint(out, getRunEnd(run) - getRunStart(run));
+                    out.writeByte(getRunStyle(run));
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Reads the note's formatting, or returns null if it has none or the
+     * text file changed since the formatting was saved.
+     */
+    public static StyleRuns load(File note) throws IOException {
+        Path path = sidecar(note);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        BasicFileAttributes text = Files.readAttributes(note.toPath(), BasicFileAttributes.class);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (in.readLong() != text.size() || in.readLong() != text.lastModifiedTime().toMillis()) {
+                return null;
+            }
+            int length = in.readInt();
+            int count = in.readInt();
+            if (length < 0 || count < 1) {
+                return null;
+            }
+            StyleRuns runs = new StyleRuns(length);
+            runs.starts = new int[count + 16];
+            runs.styles = new byte[count + 16];
+            int start = 0;
+            for (int run = 0; run < count; run++) {
+                runs.starts[run] = start;
+                start += readVarint(in);
+                runs.styles[run] = in.readByte();
+            }
+            if (start != length) {
+                return null;
+            }
+            runs.gapStart = count;
+            runs.gapEnd = runs.starts.length;
+            return runs;
+        } catch (EOFException e) {
+            // Cut short, as by a crash while it was written
+            return null;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed run length");
+    }
+}
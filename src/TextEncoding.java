@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The charset a note is stored in and whether it starts with a byte order
+ * mark. Detected when a file is opened and kept as a property of its
+ * document, so saving writes the note back the way it was read.
+ *
+ * Detection trusts a byte order mark first, then looks for the zero bytes
+ * of UTF-16 text without one, and otherwise checks whether the whole file is
+ * valid UTF-8; files that are not fall back to a single-byte charset. The
+ * UTF-8 check runs on slices of the file in parallel.
+ */
+public final class TextEncoding {
+    public static final String PROPERTY = "textEncoding";
+    public static final TextEncoding DEFAULT = new TextEncoding(StandardCharsets.UTF_8, false);
+
+    // What a scan found in a range of bytes
+    public static final int ASCII = 0;
+    public static final int UTF8 = 1;
+    public static final int INVALID = 2;
+
+    private static final int SAMPLE = 4096;
+    private static final int HEAD = 1024 * 1024;
+    private static final int SCAN_SLICE = 16 * 1024 * 1024;
+    private static final int SCAN_BLOCK = 64 * 1024;
+
+    private final Charset charset;
+    private final boolean bom;
+
+    public TextEncoding(Charset charset, boolean bom) {
+        this.charset = charset;
+        this.bom = bom;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasBom() {
+        return bom;
+    }
+
+    // The encoded byte order mark, or nothing
+    public byte[] getBom() {
+        return bom ? "\uFEFF".getBytes(charset) : new byte[0];
+    }
+
+    // Whether text in this charset can be split at any byte and decoded in parallel
+    public boolean isSplittable() {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.UTF_16LE)
+                || charset.equals(StandardCharsets.UTF_16BE) || charset.newEncoder().maxBytesPerChar() == 1.0f;
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom ? " with BOM" : "");
+    }
+
+    /**
+     * Looks at the start of the file only: returns the encoding given by a
+     * byte order mark or by the zero bytes of UTF-16 text, or null if the
+     * rest of the file has to be scanned to tell.
+     */
+    public static TextEncoding sniff(ByteBuffer bytes) {
+        int length = bytes.limit();
+        int b0 = length > 0 ? bytes.get(0) & 0xff : -1;
+        int b1 = length > 1 ? bytes.get(1) & 0xff : -1;
+        int b2 = length > 2 ? bytes.get(2) & 0xff : -1;
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            return new TextEncoding(StandardCharsets.UTF_8, true);
+        }
+        if (b0 == 0xFE && b1 == 0xFF) {
+            return new TextEncoding(StandardCharsets.UTF_16BE, true);
+        }
+        if (b0 == 0xFF && b1 == 0xFE) {
+            return new TextEncoding(StandardCharsets.UTF_16LE, true);
+        }
+        // Mostly-Latin UTF-16 has a zero in every other byte, which other text never has
+        int sample = Math.min(length, SAMPLE) & ~1;
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < sample; i += 2) {
+            if (bytes.get(i) == 0) {
+                evenZeros++;
+            }
+            if (bytes.get(i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+        int pairs = sample / 2;
+        if (pairs >= 8 && oddZeros > pairs * 2 / 5 && evenZeros < pairs / 20) {
+            return new TextEncoding(StandardCharsets.UTF_16LE, false);
+        }
+        if (pairs >= 8 && evenZeros > pairs * 2 / 5 && oddZeros < pairs / 20) {
+            return new TextEncoding(StandardCharsets.UTF_16BE, false);
+        }
+        return null;
+    }
+
+    /**
+     * Detects the encoding of the bytes, scanning all of them if there is no
+     * byte order mark to go by.
+     */
+    public static TextEncoding detect(ByteBuffer bytes) {
+        TextEncoding sniffed = sniff(bytes);
+        if (sniffed != null) {
+            return sniffed;
+        }
+        return forScan(scan(bytes, 0, bytes.limit()));
+    }
+
+    // Detects the encoding of a file on disk
+    public static TextEncoding detect(Path file) throws IOException {
+        ByteCharSequence mapped = ByteCharSequence.map(file.toFile());
+        return detect(mapped.getBytes(0, mapped.length()));
+    }
+
+    /**
+     * Detects the encoding from the first megabyte of a file too large to
+     * scan whole, as when only its end is followed.
+     */
+    public static TextEncoding detectHead(Path file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEAD + 4);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (head.hasRemaining() && channel.read(head) > 0) {
+                // Fill the buffer
+            }
+        }
+        head.flip();
+        TextEncoding sniffed = sniff(head);
+        if (sniffed != null) {
+            return sniffed;
+        }
+        int end = head.limit() > HEAD ? boundary(head, HEAD, StandardCharsets.UTF_8) : head.limit();
+        return forScan(scan(head, 0, end));
+    }
+
+    // The encoding for a file without a byte order mark, given what scanning it found
+    public static TextEncoding forScan(int found) {
+        if (found != INVALID) {
+            return DEFAULT; // Plain ASCII is stored as UTF-8 as soon as anything else is typed
+        }
+        return new TextEncoding(legacyCharset(), false);
+    }
+
+    // Single-byte charset for files that are not UTF-8: the platform's if it is one, else Windows-1252
+    private static Charset legacyCharset() {
+        Charset platform = Charset.defaultCharset();
+        if (platform.newEncoder().maxBytesPerChar() == 1.0f && !platform.equals(StandardCharsets.US_ASCII)) {
+            return platform;
+        }
+        return Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+    }
+
+    /**
+     * Classifies [from, to) as ASCII, valid UTF-8 or INVALID, scanning
+     * slices on the common fork/join pool.
+     */
+    public static int scan(ByteBuffer bytes, int from, int to) {
+        if (to - from <= SCAN_SLICE) {
+            return scanSlice(bytes, from, to);
+        }
+        List<ForkJoinTask<Integer>> slices = new ArrayList<ForkJoinTask<Integer>>();
+        for (int start = from; start < to; ) {
+            int end = to - start <= SCAN_SLICE ? to : boundary(bytes, start + SCAN_SLICE, StandardCharsets.UTF_8);
+            slices.add(ForkJoinPool.commonPool().submit(scanTask(bytes, start, end)));
+            start = end;
+        }
+        int found = ASCII;
+        for (ForkJoinTask<Integer> slice : slices) {
+            found = Math.max(found, slice.join());
+        }
+        return found;
+    }
+
+    private static Callable<Integer> scanTask(final ByteBuffer bytes, final int from, final int to) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return scanSlice(bytes, from, to);
+            }
+        };
+    }
+
+    // Checks one slice, copied to the heap a block at a time; it must start and end on code point boundaries
+    private static int scanSlice(ByteBuffer bytes, int from, int to) {
+        byte[] block = new byte[SCAN_BLOCK + 3];
+        int found = ASCII;
+        int carry = 0; // Bytes of the last sequence that ran into this block
+        for (int base = from; base < to; base += SCAN_BLOCK) {
+            int n = Math.min(SCAN_BLOCK, to - base);
+            int available = Math.min(n + 3, to - base);
+            bytes.get(base, block, 0, available);
+            int i = carry;
+            while (i < n) {
+                int b = block[i];
+                if (b >= 0) {
+                    i++;
+                    continue;
+                }
+                b &= 0xff;
+                int extra;
+                int min;
+                if (b >= 0xC2 && b <= 0xDF) {
+                    extra = 1;
+                    min = 0x80;
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    extra = 2;
+                    min = 0x800;
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    extra = 3;
+                    min = 0x10000;
+                } else {
+                    return INVALID;
+                }
+                if (i + extra >= available) {
+                    return INVALID; // Slices end on boundaries, so only a truncated file gets here
+                }
+                int code = b & (0x3F >> extra);
+                for (int k = 1; k <= extra; k++) {
+                    int c = block[i + k] & 0xff;
+                    if ((c & 0xC0) != 0x80) {
+                        return INVALID;
+                    }
+                    code = code << 6 | c & 0x3F;
+                }
+                if (code < min || code > 0x10FFFF || code >= 0xD800 && code <= 0xDFFF) {
+                    return INVALID; // Overlong, out of range or a surrogate
+                }
+                found = UTF8;
+                i += extra + 1;
+            }
+            carry = i - n;
+        }
+        return found;
+    }
+
+    /**
+     * Moves pos back to the nearest place where the text can be split
+     * without cutting a character in two.
+     */
+    public static int boundary(ByteBuffer bytes, int pos, Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            // Back over continuation bytes, at most three of them
+            int start = pos;
+            while (pos > 0 && start - pos < 3 && (bytes.get(pos) & 0xC0) == 0x80) {
+                pos--;
+            }
+            return (bytes.get(pos) & 0xC0) == 0x80 ? start : pos;
+        }
+        if (charset.equals(StandardCharsets.UTF_16LE) || charset.equals(StandardCharsets.UTF_16BE)) {
+            pos &= ~1;
+            int high = charset.equals(StandardCharsets.UTF_16LE) ? pos - 1 : pos - 2;
+            if (pos >= 2 && (bytes.get(high) & 0xFC) == 0xD8) {
+                pos -= 2; // Keep a surrogate pair together
+            }
+            return pos;
+        }
+        return pos;
+    }
+}
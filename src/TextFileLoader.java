@@ -0,0 +1,356 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads a text file into a document on a background thread.
+ *
+ * Unless a charset is given, the encoding is detected from the file (see
+ * TextEncoding) and stored as a property of the document. Files that are
+ * pure ASCII in an ASCII-compatible charset are memory-mapped and become the
+ * original buffer of a new piece-table document, so opening them costs
+ * almost no heap. Anything else is decoded in chunks which are appended to
+ * the target document as they become available, so the first pages can be
+ * read while the rest of the file is still loading. In UTF-8, UTF-16 and
+ * single-byte charsets the chunks are cut on character boundaries and
+ * decoded in parallel on the fork/join pool. Progress is reported in bytes
+ * read. Compressed notes are opened as a ChunkedText original, which reads
+ * only the index up front.
+ */
+public class TextFileLoader extends SwingWorker<NotesDocument, String> {
+    // Document property: how many bytes of the file the text was read from, as a Long
+    public static final String LOADED_BYTES = "loadedBytes";
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int DECODE_CHUNK = 4 * 1024 * 1024;
+    // Bytes scanned between progress reports and checks for cancel while probing
+    private static final int SCAN_WINDOW = 64 * 1024 * 1024;
+
+    private final File file;
+    private final NotesDocument document;
+    private final Charset charset;
+    private volatile StyleRuns styleRuns;
+
+    public TextFileLoader(File file, NotesDocument document) {
+        this(file, document, null);
+    }
+
+    // A null charset means detect it
+    public TextFileLoader(File file, NotesDocument document, Charset charset) {
+        this.file = file;
+        this.document = document;
+        this.charset = charset;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // The formatting saved with the file, or null; it belongs to the text only if the lengths match
+    public StyleRuns getStyleRuns() {
+        return styleRuns;
+    }
+
+    @Override
+    protected NotesDocument doInBackground() throws IOException {
+        try {
+            styleRuns = StyleRuns.load(file);
+        } catch (IOException e) {
+            // The text opens fine without its formatting
+            styleRuns = null;
+        }
+        if (ChunkedText.isContainer(file)) {
+            return openContainer(file);
+        }
+        ByteCharSequence mapped = ByteCharSequence.map(file);
+        final long total = Math.max(1, mapped.length());
+        Probe probe = probe(mapped, charset, new ScanHandler() {
+            @Override
+            public boolean scanned(int bytesDone) {
+                setProgress((int) Math.min(100, bytesDone * 100L / total));
+                return !isCancelled();
+            }
+        });
+        if (probe == null || isCancelled()) {
+            return document;
+        }
+        if (probe.ascii) {
+            return probe.mappedDocument(mapped);
+        }
+        document.putProperty(TextEncoding.PROPERTY, probe.encoding);
+        document.putProperty(LOADED_BYTES, (long) mapped.length());
+        if (probe.encoding.isSplittable()) {
+            final long size = Math.max(1, mapped.length() - probe.start);
+            decode(mapped.getBytes(0, mapped.length()), probe.start, probe.encoding.getCharset(), new ChunkHandler() {
+                @Override
+                public boolean chunk(String text, int bytesDone) {
+                    publish(text);
+                    setProgress((int) Math.min(100, bytesDone * 100L / size));
+                    return !isCancelled();
+                }
+            });
+        } else {
+            stream(probe);
+        }
+        return document;
+    }
+
+    /**
+     * Reads a whole file on the calling thread, without progress or chunked
+     * publishing. Used where there is no event thread, as in batch mode. A
+     * null charset means detect it.
+     */
+    public static NotesDocument read(File file, Charset charset) throws IOException {
+        if (ChunkedText.isContainer(file)) {
+            return openContainer(file);
+        }
+        ByteCharSequence mapped = ByteCharSequence.map(file);
+        Probe probe = probe(mapped, charset, null);
+        if (probe.ascii) {
+            return probe.mappedDocument(mapped);
+        }
+        NotesDocument document;
+        if (probe.encoding.isSplittable()) {
+            final List<String> chunks = new ArrayList<String>();
+            final int[] length = new int[1];
+            decode(mapped.getBytes(0, mapped.length()), probe.start, probe.encoding.getCharset(), new ChunkHandler() {
+                @Override
+                public boolean chunk(String text, int bytesDone) {
+                    chunks.add(text);
+                    length[0] += text.length();
+                    return true;
+                }
+            });
+            // One array as the original buffer beats appending chunk by chunk
+            char[] chars = new char[length[0]];
+            int pos = 0;
+            for (String chunk : chunks) {
+                chunk.getChars(0, chunk.length(), chars, pos);
+                pos += chunk.length();
+            }
+            chunks.clear();
+            document = new NotesDocument(CharBuffer.wrap(chars));
+        } else {
+            document = new NotesDocument();
+            try (Reader reader = openReader(file, probe)) {
+                char[] buffer = new char[CHUNK_SIZE];
+                int read;
+                while ((read = fill(reader, buffer)) > 0) {
+                    document.insertString(document.getLength(), new String(buffer, 0, read), null);
+                }
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        document.putProperty(TextEncoding.PROPERTY, probe.encoding);
+        document.putProperty(LOADED_BYTES, (long) mapped.length());
+        return document;
+    }
+
+    // Compressed notes are always UTF-8 inside
+    private static NotesDocument openContainer(File file) throws IOException {
+        NotesDocument document = new NotesDocument(ChunkedText.open(file));
+        document.putProperty(TextEncoding.PROPERTY, new TextEncoding(StandardCharsets.UTF_8, false));
+        document.putProperty(LOADED_BYTES, file.length());
+        return document;
+    }
+
+    /**
+     * Works out the encoding, where the text starts after any byte order
+     * mark and whether it is plain ASCII. A whole file may have to be
+     * scanned for that, so it is scanned a window at a time, telling the
+     * handler, if any, how far it got. Returns null if the handler stopped it.
+     */
+    static Probe probe(ByteCharSequence mapped, Charset charset, ScanHandler handler) {
+        ByteBuffer bytes = mapped.getBytes(0, mapped.length());
+        Probe probe = new Probe();
+        probe.encoding = charset != null ? new TextEncoding(charset, false) : TextEncoding.sniff(bytes);
+        probe.start = probe.encoding != null ? probe.encoding.getBom().length : 0;
+        if (probe.encoding == null || ByteCharSequence.isAsciiCompatible(probe.encoding.getCharset())) {
+            int found = TextEncoding.ASCII;
+            int length = mapped.length();
+            // Once a byte is invalid the rest cannot change the answer
+            for (int pos = probe.start; pos < length && found != TextEncoding.INVALID; ) {
+                int end = length - pos <= SCAN_WINDOW ? length
+                        : TextEncoding.boundary(bytes, pos + SCAN_WINDOW, StandardCharsets.UTF_8);
+                found = Math.max(found, TextEncoding.scan(bytes, pos, end));
+                pos = end;
+                if (handler != null && !handler.scanned(pos)) {
+                    return null;
+                }
+            }
+            if (probe.encoding == null) {
+                probe.encoding = TextEncoding.forScan(found);
+            }
+            probe.ascii = found == TextEncoding.ASCII;
+        }
+        return probe;
+    }
+
+    /**
+     * Decodes bytes from the given offset in chunks cut on character
+     * boundaries. Chunks are decoded in parallel, a bounded number at a
+     * time, and handed over in order until the handler returns false.
+     */
+    private static void decode(ByteBuffer bytes, int from, Charset charset, ChunkHandler handler) {
+        int window = 2 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        ArrayDeque<ForkJoinTask<String>> pending = new ArrayDeque<ForkJoinTask<String>>();
+        ArrayDeque<Integer> ends = new ArrayDeque<Integer>();
+        int length = bytes.limit();
+        int pos = from;
+        try {
+            while (pos < length || !pending.isEmpty()) {
+                while (pos < length && pending.size() < window) {
+                    int end = length - pos <= DECODE_CHUNK ? length
+                            : TextEncoding.boundary(bytes, pos + DECODE_CHUNK, charset);
+                    pending.add(ForkJoinPool.commonPool().submit(decodeTask(bytes, pos, end, charset)));
+                    ends.add(end);
+                    pos = end;
+                }
+                String text = pending.poll().join();
+                if (!handler.chunk(text, ends.poll() - from)) {
+                    return;
+                }
+            }
+        } finally {
+            for (ForkJoinTask<String> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static Callable<String> decodeTask(final ByteBuffer bytes, final int from, final int to,
+                                               final Charset charset) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                byte[] chunk = new byte[to - from];
+                bytes.get(from, chunk);
+                // The String constructor has fast paths the general-purpose decoders lack
+                return new String(chunk, charset);
+            }
+        };
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        try {
+            for (String chunk : chunks) {
+                document.insertString(document.getLength(), chunk, null);
+            }
+        } catch (BadLocationException e) {
+            // Appending at the end of the document cannot be out of range
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void stream(Probe probe) throws IOException {
+        long size = Math.max(1, file.length());
+        try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file.toPath()));
+             Reader reader = new InputStreamReader(in, probe.encoding.getCharset())) {
+            in.skipFully(probe.start);
+            char[] buffer = new char[CHUNK_SIZE];
+            int read;
+            while (!isCancelled() && (read = fill(reader, buffer)) > 0) {
+                publish(new String(buffer, 0, read));
+                setProgress((int) Math.min(100, in.getCount() * 100 / size));
+            }
+            document.putProperty(LOADED_BYTES, in.getCount());
+        }
+    }
+
+    private static Reader openReader(File file, Probe probe) throws IOException {
+        CountingInputStream in = new CountingInputStream(Files.newInputStream(file.toPath()));
+        in.skipFully(probe.start);
+        return new InputStreamReader(in, probe.encoding.getCharset());
+    }
+
+    // Reads until the buffer is full or the stream ends, so chunks stay large
+    private static int fill(Reader reader, char[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = reader.read(buffer, total, buffer.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    // Receives decoded chunks in file order; returns false to stop
+    private interface ChunkHandler {
+        boolean chunk(String text, int bytesDone);
+    }
+
+    // Told how many bytes the probe has scanned so far; returns false to stop
+    interface ScanHandler {
+        boolean scanned(int bytesDone);
+    }
+
+    static final class Probe {
+        TextEncoding encoding;
+        int start;
+        boolean ascii;
+
+        NotesDocument mappedDocument(ByteCharSequence mapped) {
+            CharSequence text = start == 0 ? mapped : mapped.subSequence(start, mapped.length());
+            NotesDocument document = new NotesDocument(text);
+            document.putProperty(TextEncoding.PROPERTY, encoding);
+            document.putProperty(LOADED_BYTES, (long) mapped.length());
+            return document;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(new BufferedInputStream(in, CHUNK_SIZE));
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        void skipFully(int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                if (read() < 0) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.Arrays;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled find query. Plain text is matched with Boyer-Moore-Horspool,
+ * which skips ahead by up to the query length on a mismatch; regular
+ * expressions go through java.util.regex. Either works on any CharSequence,
+ * so the document never has to be copied into a String.
+ */
+public final class TextSearch {
+    // How far past its range a regular expression is searched for matches starting in the range
+    private static final int REGEX_LOOKAHEAD = 256 * 1024;
+
+    private final Pattern pattern;
+    private final char[] needle;
+    private final int[] shift;
+    private final boolean matchCase;
+
+    /** Receives matches in document order. */
+    public interface MatchHandler {
+        // groups is null for plain text queries
+        void match(int start, int end, MatchResult groups);
+    }
+
+    public TextSearch(String query, boolean regex, boolean matchCase) throws PatternSyntaxException {
+        this.matchCase = matchCase;
+        if (regex) {
+            pattern = Pattern.compile(query, matchCase ? Pattern.MULTILINE
+                    : Pattern.MULTILINE | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            needle = null;
+            shift = null;
+        } else {
+            pattern = null;
+            needle = new char[query.length()];
+            for (int i = 0; i < needle.length; i++) {
+                needle[i] = fold(query.charAt(i));
+            }
+            // Bad-character shifts, bucketed by the low byte; colliding characters keep the smaller shift
+            shift = new int[256];
+            Arrays.fill(shift, Math.max(1, needle.length));
+            for (int i = 0; i < needle.length - 1; i++) {
+                shift[needle[i] & 0xFF] = needle.length - 1 - i;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return needle != null && needle.length == 0;
+    }
+
+    public boolean isRegex() {
+        return pattern != null;
+    }
+
+    // How far past the end of a range find should be allowed to read, for the limit
+    public int getOverlap() {
+        return pattern != null ? REGEX_LOOKAHEAD : Math.max(0, needle.length - 1);
+    }
+
+    /**
+     * Reports the matches that start in [from, to), reading up to limit to
+     * find them. A regular expression reads on past limit when a match
+     * could need more text, so matches are neither missed nor cut short
+     * where one range ends and the next begins. Returns where searching can
+     * go on: where the last match ended, from if there was none, or for a
+     * regular expression the start of the first match past the range.
+     */
+    public int find(CharSequence text, int from, int to, int limit, MatchHandler handler) {
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(text);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            int end = Math.max(to, limit);
+            int resume = from;
+            int lastEnd = from;
+            matcher.region(from, end);
+            while (true) {
+                boolean found = matcher.find();
+                int start = found ? matcher.start() : end;
+                // An empty match at the boundary belongs to the next range
+                boolean inRange = found && (start < to || start == to && to == text.length());
+                if (matcher.hitEnd() && end < text.length()) {
+                    if (!inRange) {
+                        // A match starting in the range may need more text: search again, reading twice as far
+                        end = (int) Math.min(text.length(), end + (long) Math.max(end - from, 1));
+                        matcher.region(resume, end);
+                        continue;
+                    }
+                    // The match read up to the end, so more text could make it longer
+                    matcher.region(start, text.length());
+                    if (!matcher.lookingAt()) {
+                        // Only atomic groups can fail on more text: keep the match as found
+                        matcher.region(start, end);
+                        matcher.lookingAt();
+                    }
+                } else if (!inRange) {
+                    // Nothing starts before this match, so the next range can begin at it, unless
+                    // it is an empty match at the end that the last range has to report
+                    return start < text.length() ? start : lastEnd;
+                }
+                handler.match(start, matcher.end(), matcher);
+                lastEnd = matcher.end();
+                if (lastEnd >= to) {
+                    if (lastEnd < text.length() || lastEnd == start) {
+                        return lastEnd;
+                    }
+                    // The match ran to the end of the text, where an empty match can still follow
+                    to = lastEnd;
+                    end = lastEnd;
+                }
+                // Go on as find would, past an empty match
+                resume = lastEnd > start ? lastEnd : lastEnd + 1;
+                matcher.region(resume, end);
+            }
+        }
+        int m = needle.length;
+        if (m == 0) {
+            return from;
+        }
+        int last = m - 1;
+        int lastEnd = from;
+        int i = from;
+        while (i < to && i + m <= limit) {
+            int j = last;
+            while (j >= 0 && fold(text.charAt(i + j)) == needle[j]) {
+                j--;
+            }
+            if (j < 0) {
+                handler.match(i, i + m, null);
+                lastEnd = i + m;
+                i += m;
+            } else {
+                i += shift[fold(text.charAt(i + last)) & 0xFF];
+            }
+        }
+        return lastEnd;
+    }
+
+    /**
+     * The text a match is replaced with. For regular expressions $n, ${name}
+     * and backslash escapes work as in Matcher.replaceAll.
+     */
+    public String expand(String replacement, MatchResult groups) {
+        if (groups == null) {
+            return replacement;
+        }
+        StringBuilder out = new StringBuilder(replacement.length() + 16);
+        for (int i = 0; i < replacement.length(); i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\' && i + 1 < replacement.length()) {
+                out.append(replacement.charAt(++i));
+            } else if (c == '$' && i + 1 < replacement.length() && replacement.charAt(i + 1) == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Missing } in replacement");
+                }
+                String name = replacement.substring(i + 2, close);
+                String group = ((Matcher) groups).group(name);
+                out.append(group == null ? "" : group);
+                i = close;
+            } else if (c == '$' && i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))) {
+                int group = replacement.charAt(++i) - '0';
+                // Take more digits while they still name an existing group, as Matcher does
+                while (i + 1 < replacement.length() && Character.isDigit(replacement.charAt(i + 1))
+                        && group * 10 + replacement.charAt(i + 1) - '0' <= groups.groupCount()) {
+                    group = group * 10 + replacement.charAt(++i) - '0';
+                }
+                if (group > groups.groupCount()) {
+                    throw new IllegalArgumentException("No group " + group + " in " + pattern);
+                }
+                String text = groups.group(group);
+                out.append(text == null ? "" : text);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
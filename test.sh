@@ -0,0 +1,24 @@
+#!/bin/sh
+# Builds the app and the test module, then runs the tests headless.
+#
+#   ./test.sh                  every *Test class in test/src
+#   ./test.sh <TestClass> ...  just those
+#
+# Each test is a class with a main method that throws on the first failed
+# check; the script stops at the first test that fails.
+set -e
+cd "$(dirname "$0")"
+OUT=out/test
+
+rm -rf "$OUT/classes"
+mkdir -p "$OUT/classes"
+javac -d "$OUT/classes" src/*.java test/src/*.java
+
+if [ $# -eq 0 ]; then
+    set -- $(cd test/src && ls *Test.java | sed 's/\.java$//')
+fi
+for TEST in "$@"; do
+    echo "$TEST"
+    java $JAVA_OPTS -Djava.awt.headless=true -Duser.home="$OUT/home" -cp "$OUT/classes" "$TEST"
+done
+echo "All tests passed"
@@ -0,0 +1,33 @@
+/**
+ * The few assertions the tests need. A failed check throws, which ends the
+ * test's main method with a stack trace and a non-zero exit status.
+ */
+final class Check {
+    private Check() {
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void equal(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(message + ": expected <" + shorten(expected) + "> but was <" + shorten(actual)
+                    + ">");
+        }
+    }
+
+    static void equal(long expected, long actual, String message) {
+        if (expected != actual) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    // Long texts are cut so a failure still fits on a screen
+    private static String shorten(Object value) {
+        String text = String.valueOf(value);
+        return text.length() <= 200 ? text : text.substring(0, 200) + "... (" + text.length() + " chars)";
+    }
+}
@@ -0,0 +1,154 @@
+import javax.swing.text.BadLocationException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Writing a .notez container and opening it again gives back the text and
+ * its lines, and saving an edited container copies the chunks the edit did
+ * not touch as they were stored.
+ */
+public class ChunkedTextTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("chunked-text");
+        try {
+            Random random = new Random(5);
+            roundTrip(dir, "");
+            roundTrip(dir, "one line, no newline");
+            for (int i = 0; i < 3; i++) {
+                roundTrip(dir, text(random, 300000));
+            }
+            chunkReuse(dir, random);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void roundTrip(Path dir, String text) throws IOException {
+        Path file = dir.resolve("round.notez");
+        write(new NotesDocument(text), file);
+        ChunkedText opened = ChunkedText.open(file.toFile());
+        String where = text.length() + " chars";
+        Check.equal(text, opened.toString(), where + ": text");
+        Check.equal(text.length(), opened.length(), where + ": length");
+        if (text.length() > 0) {
+            Random random = new Random(text.length());
+            for (int k = 0; k < 1000; k++) {
+                int at = random.nextInt(text.length());
+                Check.equal(text.charAt(at), opened.charAt(at), where + ": char at " + at);
+            }
+            int start = random.nextInt(text.length());
+            int end = Math.min(text.length(), start + 200000);
+            Check.equal(text.substring(start, end), opened.subSequence(start, end).toString(), where + ": range");
+        }
+        LineIndex expected = LineIndex.build(text);
+        LineIndex lines = opened.buildLineIndex();
+        Check.equal(expected.getLineCount(), lines.getLineCount(), where + ": line count");
+        for (int line = 0; line < expected.getLineCount(); line++) {
+            Check.equal(expected.getLineStart(line), lines.getLineStart(line), where + ": start of line " + line);
+        }
+    }
+
+    /**
+     * A container opened and edited near its start: saving it again must
+     * only compress the edited chunk again and keep every later one byte for
+     * byte, at the same chunk boundaries.
+     */
+    private static void chunkReuse(Path dir, Random random) throws IOException, BadLocationException {
+        Path first = dir.resolve("first.notez");
+        Path second = dir.resolve("second.notez");
+        write(new NotesDocument(text(random, 400000)), first);
+        NotesDocument document = new NotesDocument(ChunkedText.open(first.toFile()));
+        document.insertString(100, "an edit in the first chunk\n", null);
+        write(document, second);
+        Check.equal(document.getText(0, document.getLength()), ChunkedText.open(second.toFile()).toString(),
+                "edited text");
+
+        // The edited chunk grew past the chunk size, so it is written again as two
+        byte[][] before = chunks(first);
+        byte[][] after = chunks(second);
+        Check.equal(before.length + 1, after.length, "chunk count");
+        for (int c = 1; c < before.length; c++) {
+            Check.check(Arrays.equals(before[c], after[c + 1]), "chunk " + c + " copied as stored");
+        }
+    }
+
+    private static void write(NotesDocument document, Path file) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkedText.write(document.getPieceTable().snapshot(), out, null);
+        }
+    }
+
+    // The compressed bytes of each chunk, read by following the container's index
+    private static byte[][] chunks(Path file) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        long indexOffset = bytes.getLong(bytes.limit() - 16);
+        int indexLength = bytes.getInt(bytes.limit() - 8);
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes.array(), (int) indexOffset, indexLength);
+        byte[] inflated = new byte[1 << 20];
+        int n;
+        try {
+            n = inflater.inflate(inflated);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer index = ByteBuffer.wrap(inflated, 0, n);
+        byte[][] chunks = new byte[varint(index)][];
+        int offset = 8;
+        for (int c = 0; c < chunks.length; c++) {
+            varint(index); // Chars
+            int length = varint(index);
+            varint(index); // UTF-8 bytes
+            int newlines = varint(index);
+            for (int i = 0; i < newlines; i++) {
+                varint(index);
+            }
+            chunks[c] = Arrays.copyOfRange(bytes.array(), offset, offset + length);
+            offset += length;
+        }
+        return chunks;
+    }
+
+    private static int varint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    // Lines of words with accented letters, CJK and surrogate pairs mixed in
+    private static String text(Random random, int length) {
+        String[] extras = { "caf\u00e9", "\u65e5\u672c\u8a9e", "\ud83d\ude00", "na\u00efve" };
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                text.append('\n');
+            } else if (kind == 1) {
+                text.append(extras[random.nextInt(extras.length)]);
+            } else {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+}
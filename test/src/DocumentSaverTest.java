@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Saving replaces the file in one step: an edited mapped file saved over
+ * itself reads back as the document while the old text stays readable, the
+ * encoding and permissions are kept, and a save that fails or finds the
+ * file changed by another program leaves the file as it was.
+ */
+public class DocumentSaverTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("document-saver");
+        try {
+            overMapped(dir);
+            encoding(dir);
+            interrupted(dir);
+            changedOnDisk(dir);
+            for (Path temp : Files.newDirectoryStream(dir, "*.tmp")) {
+                Check.check(false, "temporary file left behind: " + temp);
+            }
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void overMapped(Path dir) throws Exception {
+        Path path = dir.resolve("mapped.txt");
+        String original = text(new Random(1), 3 * 1024 * 1024);
+        Files.write(path, original.getBytes(StandardCharsets.US_ASCII));
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+        } catch (UnsupportedOperationException e) {
+            // Permissions are only kept where there are any
+        }
+        NotesDocument document = TextFileLoader.read(path.toFile(), null);
+        PieceTableContent.Snapshot before = document.getPieceTable().snapshot();
+        document.insertString(1000, "inserted \u00e9\n", null);
+        document.remove(2 * 1024 * 1024, 5000);
+        String edited = document.getText(0, document.getLength());
+        String permissions = permissions(path);
+
+        DocumentSaver.write(document.getPieceTable().snapshot(), path, TextEncoding.DEFAULT, null);
+        Check.equal(edited, new String(Files.readAllBytes(path), StandardCharsets.UTF_8), "saved text");
+        Check.equal(permissions, permissions(path), "permissions");
+        // The document is still backed by the file it mapped, which the save renamed away
+        Check.equal(edited, document.getText(0, document.getLength()), "document after the save");
+        Check.equal(original, before.toString(), "snapshot taken before the save");
+
+        // Saving again, now that the path holds a different file
+        document.insertString(0, "again\n", null);
+        DocumentSaver.write(document.getPieceTable().snapshot(), path, TextEncoding.DEFAULT, null);
+        Check.equal("again\n" + edited, new String(Files.readAllBytes(path), StandardCharsets.UTF_8), "saved twice");
+    }
+
+    private static void encoding(Path dir) throws Exception {
+        Path path = dir.resolve("utf16.txt");
+        String text = "na\u00efve \u65e5\u672c\n";
+        TextEncoding encoding = new TextEncoding(StandardCharsets.UTF_16LE, true);
+        DocumentSaver.write(new NotesDocument(text).getPieceTable().snapshot(), path, encoding, null);
+        byte[] expected = ("\uFEFF" + text).getBytes(StandardCharsets.UTF_16LE);
+        Check.check(Arrays.equals(expected, Files.readAllBytes(path)), "UTF-16LE with a byte order mark");
+    }
+
+    // An interrupted save abandons the temporary file and leaves the target alone
+    private static void interrupted(Path dir) throws Exception {
+        Path path = dir.resolve("interrupted.txt");
+        Files.write(path, "kept\n".getBytes(StandardCharsets.US_ASCII));
+        NotesDocument document = new NotesDocument(text(new Random(2), 1024 * 1024));
+        Thread.currentThread().interrupt();
+        try {
+            DocumentSaver.write(document.getPieceTable().snapshot(), path, TextEncoding.DEFAULT, null);
+            Check.check(false, "an interrupted save fails");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            Thread.interrupted();
+        }
+        Check.equal("kept\n", new String(Files.readAllBytes(path), StandardCharsets.US_ASCII), "target untouched");
+    }
+
+    private static void changedOnDisk(Path dir) throws Exception {
+        File file = dir.resolve("changed.txt").toFile();
+        Files.write(file.toPath(), "opened\n".getBytes(StandardCharsets.US_ASCII));
+        NotesDocument document = TextFileLoader.read(file, null);
+        document.insertString(0, "edit ", null);
+        Files.write(file.toPath(), "appended\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        try {
+            DocumentSaver.write(document.getPieceTable().snapshot(), file.toPath(), TextEncoding.DEFAULT, null);
+            Check.check(false, "saving over a file another program changed fails");
+        } catch (IOException e) {
+            // Expected
+        }
+        Check.equal("opened\nappended\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII),
+                "the other program's text is kept");
+    }
+
+    private static String permissions(Path path) throws IOException {
+        try {
+            return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+        } catch (UnsupportedOperationException e) {
+            return "";
+        }
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(random.nextInt(8) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
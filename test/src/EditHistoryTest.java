@@ -0,0 +1,261 @@
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Undo and redo through EditHistory: merged typing and deleting, and random
+ * edits checked against every state the document went through, formatting
+ * included.
+ */
+public class EditHistoryTest {
+    public static void main(String[] args) throws Exception {
+        typing();
+        deleteKey();
+        backspaceKey();
+        for (int seed = 0; seed < 50; seed++) {
+            fuzz(seed, 2000, 64L * 1024 * 1024, false);
+            fuzz(seed, 2000, 64L * 1024 * 1024, true);
+        }
+        // A budget this small spills to disk on both sides of the cursor all the time
+        for (int seed = 0; seed < 50; seed++) {
+            fuzz(seed, 2000, 2048, false);
+            fuzz(seed, 2000, 2048, true);
+        }
+        largeEdits();
+        styledRemove();
+        System.out.println("  ok");
+    }
+
+    private static void typing() throws BadLocationException {
+        PlainDocument document = new PlainDocument();
+        EditHistory history = EditHistory.install(document);
+        for (char c : "hello".toCharArray()) {
+            document.insertString(document.getLength(), String.valueOf(c), null);
+        }
+        history.undo();
+        Check.equal("", text(document), "undo of typing");
+        history.redo();
+        Check.equal("hello", text(document), "redo of typing");
+        history.close();
+    }
+
+    private static void deleteKey() throws BadLocationException {
+        PlainDocument document = new PlainDocument();
+        document.insertString(0, "abcdef", null);
+        EditHistory history = EditHistory.install(document);
+        for (int i = 0; i < 3; i++) {
+            document.remove(1, 1);
+        }
+        Check.equal("aef", text(document), "after Delete");
+        history.undo();
+        Check.equal("abcdef", text(document), "undo of Delete");
+        history.redo();
+        Check.equal("aef", text(document), "redo of Delete");
+        history.close();
+    }
+
+    private static void backspaceKey() throws BadLocationException {
+        PlainDocument document = new PlainDocument();
+        document.insertString(0, "abcdef", null);
+        EditHistory history = EditHistory.install(document);
+        for (int i = 5; i > 2; i--) {
+            document.remove(i, 1);
+        }
+        Check.equal("abc", text(document), "after Backspace");
+        history.undo();
+        Check.equal("abcdef", text(document), "undo of Backspace");
+        history.redo();
+        Check.equal("abc", text(document), "redo of Backspace");
+        history.close();
+    }
+
+    /**
+     * Mostly single characters typed, deleted and backspaced at a moving
+     * caret, so records merge, with some larger edits, replaces, undos and
+     * redos mixed in. Undo must only ever go back to a state the document
+     * was in, in order, and redo must come forward the same way, all without
+     * the history going over its budget by more than the groups it has to
+     * keep. With styled set the document is a NotesDocument whose formatting
+     * is changed too, and is part of each state.
+     */
+    static void fuzz(long seed, int steps, long budget, boolean styled) throws BadLocationException {
+        Random random = new Random(seed);
+        AbstractDocument document = styled ? new NotesDocument() : new PlainDocument();
+        EditHistory history = EditHistory.install(document, budget);
+        long slack = 1024;
+        // The states since the last edit that was not an undo or redo; position is where the document is now
+        List<String> states = new ArrayList<String>();
+        states.add(state(document));
+        int position = 0;
+        int caret = 0;
+        for (int step = 0; step < steps; step++) {
+            int length = document.getLength();
+            caret = Math.min(caret, length);
+            int action = random.nextInt(100);
+            if (action < 8) {
+                int before = position;
+                if (history.undo() >= 0) {
+                    position = find(states, state(document), before - 1, -1, seed, step);
+                }
+                continue;
+            }
+            if (action < 12) {
+                int before = position;
+                if (history.redo() >= 0) {
+                    position = find(states, state(document), before + 1, 1, seed, step);
+                }
+                continue;
+            }
+            if (action < 50) {
+                String c = random.nextInt(6) == 0 ? (random.nextBoolean() ? " " : "\n")
+                        : String.valueOf((char) ('a' + random.nextInt(26)));
+                document.insertString(caret, c, null);
+                caret++;
+            } else if (action < 65 && caret < length) {
+                document.remove(caret, 1);
+            } else if (action < 80 && caret > 0) {
+                document.remove(--caret, 1);
+            } else if (action < 85) {
+                String s = word(random);
+                document.insertString(caret, s, null);
+                caret += s.length();
+            } else if (action < 90 && length > 0) {
+                int start = random.nextInt(length);
+                document.remove(start, Math.min(length - start, 1 + random.nextInt(20)));
+                caret = start;
+            } else if (action < 95 && length > 0) {
+                int start = random.nextInt(length);
+                String s = word(random);
+                document.replace(start, Math.min(length - start, 1 + random.nextInt(5)), s, null);
+                caret = start + s.length();
+            } else if (styled && action < 97 && length > 0) {
+                int start = random.nextInt(length);
+                ((NotesDocument) document).applyStyle(start, Math.min(length - start, 1 + random.nextInt(30)),
+                        1 << random.nextInt(3), random.nextBoolean());
+            } else if (styled && action < 99) {
+                // Typed text takes this style, text put back by undo must not
+                ((NotesDocument) document).setTypingStyle(random.nextInt(9) - 1);
+                continue;
+            } else {
+                caret = random.nextInt(length + 1);
+                continue;
+            }
+            // A new edit drops whatever had been undone
+            states.subList(position + 1, states.size()).clear();
+            states.add(state(document));
+            position++;
+            Check.check(history.getMemoryUsage() <= budget + slack, "seed " + seed + ", step " + step
+                    + ": history holds " + history.getMemoryUsage() + " bytes");
+        }
+        while (history.undo() >= 0) {
+            position = find(states, state(document), position - 1, -1, seed, steps);
+            Check.check(history.getMemoryUsage() <= budget + slack, "seed " + seed + " undoing: history holds "
+                    + history.getMemoryUsage() + " bytes");
+        }
+        Check.equal(states.get(0), state(document), "seed " + seed + ": undo all the way");
+        String last = states.get(states.size() - 1);
+        while (history.redo() >= 0) {
+            position = find(states, state(document), position + 1, 1, seed, steps);
+            Check.check(history.getMemoryUsage() <= budget + slack, "seed " + seed + " redoing: history holds "
+                    + history.getMemoryUsage() + " bytes");
+        }
+        Check.equal(last, state(document), "seed " + seed + ": redo all the way");
+        history.close();
+    }
+
+    /**
+     * Removals of large ranges: those that fit in the budget can be undone
+     * and redone without the history outgrowing it, and one that does not
+     * fit clears the history rather than being copied.
+     */
+    private static void largeEdits() throws BadLocationException {
+        long budget = 1024 * 1024;
+        PlainDocument document = new PlainDocument();
+        StringBuilder original = new StringBuilder();
+        for (int i = 0; original.length() < 4 * 1024 * 1024; i++) {
+            original.append("line ").append(i).append('\n');
+        }
+        document.insertString(0, original.toString(), null);
+        EditHistory history = EditHistory.install(document, budget);
+        for (int i = 0; i < 20; i++) {
+            document.remove(i * 1000, 100 * 1024);
+            Check.check(history.getMemoryUsage() <= budget, "after removal " + i + ": " + history.getMemoryUsage());
+        }
+        String edited = text(document);
+        while (history.undo() >= 0) {
+            Check.check(history.getMemoryUsage() <= budget, "undoing: " + history.getMemoryUsage());
+        }
+        Check.equal(original.toString(), text(document), "undo of large removals");
+        while (history.redo() >= 0) {
+            Check.check(history.getMemoryUsage() <= budget, "redoing: " + history.getMemoryUsage());
+        }
+        Check.equal(edited, text(document), "redo of large removals");
+
+        document.remove(0, document.getLength());
+        Check.check(!history.canUndo() && history.getMemoryUsage() == 0, "a removal over the budget is not kept");
+        history.close();
+    }
+
+    /**
+     * Removing text of mixed formatting, in a document whose typing style
+     * differs from all of it, then undoing the removal.
+     */
+    private static void styledRemove() throws BadLocationException {
+        NotesDocument document = new NotesDocument("plain bold italic plain");
+        document.applyStyle(6, 4, StyleRuns.BOLD, true);
+        document.applyStyle(11, 6, StyleRuns.ITALIC, true);
+        EditHistory history = EditHistory.install(document);
+        String before = state(document);
+        document.setTypingStyle(StyleRuns.UNDERLINE);
+        document.remove(3, 16);
+        history.undo();
+        Check.equal(before, state(document), "undo of a styled removal");
+        history.redo();
+        history.undo();
+        Check.equal(before, state(document), "undo after redo of a styled removal");
+        document.applyStyle(0, 10, StyleRuns.UNDERLINE, true);
+        history.undo();
+        Check.equal(before, state(document), "undo of applyStyle");
+        history.close();
+    }
+
+    // Index of the text in states searching from the given index in the given direction
+    private static int find(List<String> states, String text, int from, int direction, long seed, int step) {
+        for (int i = from; i >= 0 && i < states.size(); i += direction) {
+            if (states.get(i).equals(text)) {
+                return i;
+            }
+        }
+        throw new AssertionError("seed " + seed + ", step " + step
+                + ": undo or redo reached a state the document was never in: <" + text + ">");
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int letters = 2 + random.nextInt(8);
+        for (int i = 0; i < letters; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return random.nextInt(4) == 0 ? word.append('\n').toString() : word.toString();
+    }
+
+    static String text(AbstractDocument document) throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+
+    // The text, followed by its formatting as run starts and styles if it has any; an empty text has none
+    static String state(AbstractDocument document) throws BadLocationException {
+        StringBuilder state = new StringBuilder(text(document));
+        if (document instanceof NotesDocument && document.getLength() > 0) {
+            StyleRuns runs = ((NotesDocument) document).getStyleRuns();
+            for (int run = 0; run < runs.getRunCount(); run++) {
+                state.append(run == 0 ? " |" : " ").append(runs.getRunStart(run)).append(':')
+                        .append(runs.getRunStyle(run));
+            }
+        }
+        return state.toString();
+    }
+}
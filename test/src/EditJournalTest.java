@@ -0,0 +1,120 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Replaying a journal over the saved file gives back the edited text. A
+ * journal cut off anywhere, as by a crash mid-write, or damaged in the
+ * middle replays to a state the document was really in, never a garbled
+ * one. After a save only the edits made since are replayed.
+ */
+public class EditJournalTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("edit-journal");
+        try {
+            torn(dir);
+            rebase(dir);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void torn(Path dir) throws Exception {
+        File target = dir.resolve("torn.txt").toFile();
+        String saved = "the saved text\nof the note\n";
+        Files.write(target.toPath(), saved.getBytes(StandardCharsets.UTF_8));
+        NotesDocument document = new NotesDocument(saved);
+        EditJournal journal = EditJournal.start(target, document);
+        // Every state the document passes through; merged records skip some, but never invent one
+        Set<String> states = new HashSet<String>();
+        states.add(saved);
+        Random random = new Random(4);
+        for (int i = 0; i < 300; i++) {
+            int length = document.getLength();
+            if (random.nextInt(3) > 0 || length == 0) {
+                // Typing at one place for a while, so the writer has runs to merge
+                int at = i % 20 == 0 || length == 0 ? random.nextInt(length + 1) : Math.min(length, 1 + i % length);
+                String text = random.nextInt(30) == 0 ? "\ud83d" : String.valueOf((char) ('a' + random.nextInt(26)));
+                document.insertString(at, text, null);
+            } else {
+                int at = random.nextInt(length);
+                document.remove(at, Math.min(length - at, 1 + random.nextInt(3)));
+            }
+            states.add(document.getText(0, document.getLength()));
+        }
+        String edited = document.getText(0, document.getLength());
+        Path path = journal.detach();
+        Check.check(path != null, "journal kept");
+        EditJournal.Header header = EditJournal.readHeader(path);
+        Check.check(header.hasEdits, "edits recorded");
+        Check.check(header.matchesBase(), "the saved file is the journal's base");
+        Check.equal(edited, replay(path, saved), "whole journal");
+
+        byte[] bytes = Files.readAllBytes(path);
+        Path damaged = dir.resolve("damaged.journal");
+        // Magic, version, the target as modified UTF-8, base size and time
+        int headerLength = 8 + header.target.getBytes(StandardCharsets.UTF_8).length + 16;
+        write(damaged, bytes, headerLength - 1);
+        try {
+            replay(damaged, saved);
+            Check.check(false, "a torn header is not replayed");
+        } catch (IOException e) {
+            // Expected
+        }
+        for (int cut = bytes.length - 1; cut >= headerLength; cut -= 1 + cut / 200) {
+            write(damaged, bytes, cut);
+            String replayed = replay(damaged, saved);
+            Check.check(states.contains(replayed), "journal cut at " + cut + " replays to a state never seen");
+        }
+        bytes[bytes.length / 2] ^= 0x40;
+        write(damaged, bytes, bytes.length);
+        Check.check(states.contains(replay(damaged, saved)), "a damaged record ends the replay");
+        Files.delete(path);
+    }
+
+    private static void rebase(Path dir) throws Exception {
+        File target = dir.resolve("rebase.txt").toFile();
+        Files.write(target.toPath(), "one\n".getBytes(StandardCharsets.UTF_8));
+        NotesDocument document = new NotesDocument("one\n");
+        EditJournal journal = EditJournal.start(target, document);
+        document.insertString(4, "two\n", null);
+
+        // Saved with the edit made so far, then edited again
+        long checkpoint = journal.checkpoint();
+        String saved = document.getText(0, document.getLength());
+        Files.write(target.toPath(), saved.getBytes(StandardCharsets.UTF_8));
+        journal.rebase(checkpoint, target);
+        document.insertString(0, "zero\n", null);
+        document.remove(5, 4);
+
+        Path path = journal.detach();
+        Check.check(EditJournal.readHeader(path).matchesBase(), "the new save is the journal's base");
+        Check.equal("zero\ntwo\n", replay(path, saved), "only the edits after the save");
+        Files.delete(path);
+    }
+
+    private static String replay(Path journal, String saved) throws Exception {
+        NotesDocument document = new NotesDocument(saved);
+        EditJournal.replay(journal, document);
+        return document.getText(0, document.getLength());
+    }
+
+    private static void write(Path path, byte[] bytes, int length) throws Exception {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(bytes, 0, length));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * Following a growing file: appended lines reach the document, the oldest
+ * are trimmed past the line cap, a truncated or rotated file is read again
+ * into a new document, and following a file from its start when there is
+ * more than the catch-up size to read keeps only whole lines at its end.
+ */
+public class FileTailerTest {
+    public static void main(String[] args) throws Exception {
+        // Read when FileTailer is loaded, so before anything touches it
+        System.setProperty("notes.tail.maxLines", "100");
+        Path dir = Files.createTempDirectory("file-tailer");
+        try {
+            follow(dir);
+            followEnd(dir);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void follow(Path dir) throws Exception {
+        final Path path = dir.resolve("follow.log");
+        write(path, "first\n");
+        final Tailer tailer = new Tailer(path.toFile(), new NotesDocument("first\n"), 6);
+        tailer.start();
+        try {
+            append(path, "second\nthird\n");
+            tailer.await("first\nsecond\nthird\n", "appended lines");
+
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                lines.append("line ").append(i).append('\n');
+            }
+            append(path, lines.toString());
+            final String last = "line 199\n";
+            await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return tailer.text().endsWith(last);
+                }
+            }, "the last appended line");
+            String text = tailer.text();
+            int count = lines(text);
+            Check.check(count <= FileTailer.MAX_LINES + FileTailer.MAX_LINES / 16, count + " lines after trimming");
+            Check.check(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).endsWith(text),
+                    "the trimmed text is the end of the file");
+            Check.check(text.startsWith("line "), "trimmed at a line start: " + text.substring(0, 20));
+
+            // Cut short, then replaced by a new file under the same name, as logs are rotated
+            write(path, "truncated\n");
+            tailer.await("truncated\n", "after truncation");
+            Check.equal(1, tailer.replaced, "a truncated file goes to a new document");
+            Files.move(path, dir.resolve("follow.log.1"));
+            write(path, "rotated\n");
+            tailer.await("rotated\n", "after rotation");
+            Check.equal(2, tailer.replaced, "a rotated file goes to a new document");
+            append(path, "more\n");
+            tailer.await("rotated\nmore\n", "appended after rotation");
+        } finally {
+            tailer.cancel(true);
+        }
+    }
+
+    // As for a file too large to open: an empty document, followed from the start
+    private static void followEnd(Path dir) throws Exception {
+        Path path = dir.resolve("large.log");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 20 * 1024 * 1024; i++) {
+            text.append("entry ").append(i).append(" caf\u00e9\n");
+        }
+        write(path, text.toString());
+        TextEncoding encoding = TextEncoding.detectHead(path);
+        Check.equal(StandardCharsets.UTF_8, encoding.getCharset(), "encoding from the head of the file");
+
+        final String whole = text.toString();
+        final Tailer tailer = new Tailer(path.toFile(), new NotesDocument(), 0);
+        tailer.start();
+        try {
+            await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return tailer.text().length() > 0 && whole.endsWith(tailer.text());
+                }
+            }, "the end of the file");
+            String end = tailer.text();
+            Check.check(whole.charAt(whole.length() - end.length() - 1) == '\n', "starts on a whole line");
+            Check.check(lines(end) <= FileTailer.MAX_LINES + FileTailer.MAX_LINES / 16, "only the last lines are kept");
+        } finally {
+            tailer.cancel(true);
+        }
+    }
+
+    private static final class Tailer extends FileTailer {
+        NotesDocument document; // Event thread only
+        int replaced;
+
+        Tailer(File file, NotesDocument document, long position) {
+            super(file, document, TextEncoding.DEFAULT, position);
+            this.document = document;
+        }
+
+        @Override
+        protected void documentReplaced(NotesDocument document) {
+            this.document = document;
+            replaced++;
+        }
+
+        String text() throws Exception {
+            final String[] text = new String[1];
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        text[0] = document.getText(0, document.getLength());
+                    } catch (BadLocationException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            return text[0];
+        }
+
+        void await(final String expected, String where) throws Exception {
+            FileTailerTest.await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return text().equals(expected);
+                }
+            }, where);
+            Check.equal(expected, text(), where);
+        }
+    }
+
+    private static void await(Callable<Boolean> condition, String where) throws Exception {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.call()) {
+            Check.check(System.nanoTime() < deadline, "timed out waiting for " + where);
+            Thread.sleep(20);
+        }
+    }
+
+    private static int lines(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void write(Path path, String text) throws Exception {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void append(Path path, String text) throws Exception {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+}
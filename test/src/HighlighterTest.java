@@ -0,0 +1,89 @@
+import java.util.Random;
+
+/**
+ * After any run of edits, including edits that land while the background
+ * thread is still lexing, the Highlighter's line states must settle on the
+ * states a lexer gives lexing the whole text from the top.
+ */
+public class HighlighterTest {
+    // Fragments that open and close comments and strings across lines
+    private static final String[] PIECES = {
+        "/*", "*/", "\"", "//", "\n", "\n", "class ", "int x = 1;", " ", "{", "}"
+    };
+
+    public static void main(String[] args) throws Exception {
+        for (int seed = 0; seed < 20; seed++) {
+            fuzz(seed);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void fuzz(long seed) throws Exception {
+        Random random = new Random(seed);
+        StringBuilder initial = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            initial.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        NotesDocument document = new NotesDocument(initial.toString());
+        Highlighter.install(document, "Java");
+        Highlighter highlighter = Highlighter.get(document);
+        Check.check(highlighter != null, "installed");
+        settle(document, highlighter, "seed " + seed + ": initial lex");
+        for (int round = 0; round < 10; round++) {
+            // Several edits in a row, so later ones arrive while a run is going
+            int edits = 1 + random.nextInt(20);
+            for (int e = 0; e < edits; e++) {
+                int length = document.getLength();
+                if (random.nextInt(3) > 0 || length == 0) {
+                    document.insertString(random.nextInt(length + 1), PIECES[random.nextInt(PIECES.length)], null);
+                } else {
+                    int offset = random.nextInt(length);
+                    document.remove(offset, Math.min(length - offset, 1 + random.nextInt(40)));
+                }
+            }
+            settle(document, highlighter, "seed " + seed + ", round " + round);
+        }
+        Highlighter.uninstall(document);
+    }
+
+    // Waits for the stored states to match a lex of the whole text
+    private static void settle(NotesDocument document, Highlighter highlighter, String where) throws Exception {
+        int[] expected = lexAll(document, highlighter.getLexer());
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        int wrong;
+        while ((wrong = firstWrong(highlighter, expected)) >= 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        if (wrong >= 0) {
+            Check.equal(expected[wrong], highlighter.getLineState(wrong), where + ": state of line " + wrong);
+        }
+    }
+
+    private static int firstWrong(Highlighter highlighter, int[] expected) {
+        for (int line = 0; line < expected.length; line++) {
+            if (highlighter.getLineState(line) != expected[line]) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] lexAll(NotesDocument document, Lexer lexer) throws Exception {
+        char[] text = document.getText(0, document.getLength()).toCharArray();
+        LineIndex lines = document.getLineIndex();
+        int[] states = new int[lines.getLineCount()];
+        Lexer.TokenHandler ignore = new Lexer.TokenHandler() {
+            @Override
+            public void token(int start, int end, int kind) {
+            }
+        };
+        int state = Lexer.INITIAL;
+        for (int line = 0; line < states.length; line++) {
+            states[line] = state;
+            int start = lines.getLineStart(line);
+            int end = line + 1 < states.length ? lines.getLineStart(line + 1) - 1 : text.length;
+            state = lexer.lexLine(text, start, end, state, ignore);
+        }
+        return states;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Latency percentiles: small values are exact, larger ones land in a bucket
+ * whose upper end is less than 1/64th above them, percentiles of many
+ * values match sorting them to that precision, values out of range are
+ * clamped, and recording from several threads loses no counts.
+ */
+public class LatencyHistogramTest {
+    public static void main(String[] args) throws Exception {
+        exact();
+        precision();
+        percentiles();
+        limits();
+        threads();
+        System.out.println("  ok");
+    }
+
+    private static void exact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 0; v < 128; v++) {
+            histogram.record(v);
+        }
+        Check.equal(63, histogram.getValueAtPercentile(50), "median of 0 to 127");
+        Check.equal(126, histogram.getValueAtPercentile(99), "p99 of 0 to 127");
+        Check.equal(127, histogram.getMax(), "max");
+        Check.equal("n=128 p50=0.1ms p90=0.1ms p99=0.1ms max=0.1ms", histogram.summary(), "summary");
+    }
+
+    private static void precision() {
+        Random random = new Random(19);
+        for (int k = 0; k < 100000; k++) {
+            long v = random.nextLong() >>> (24 + random.nextInt(40));
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(v);
+            long max = histogram.getMax();
+            Check.check(max >= v && max - v <= v / 64, v + " recorded as up to " + max);
+        }
+    }
+
+    private static void percentiles() {
+        Random random = new Random(20);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Mostly quick, with a long tail, as event dispatch times are
+            values[i] = (long) Math.exp(random.nextGaussian() * 2 + 6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        Check.equal(values.length, histogram.getCount(), "count");
+        for (double p : new double[] { 0, 1, 50, 90, 99, 99.9, 100 }) {
+            long exact = values[Math.max(0, (int) Math.ceil(values.length * p / 100) - 1)];
+            long value = histogram.getValueAtPercentile(p);
+            Check.check(value >= exact && value - exact <= exact / 64, "p" + p + ": " + value + " for " + exact);
+        }
+    }
+
+    private static void limits() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Check.equal(0, histogram.getValueAtPercentile(99), "nothing recorded");
+        Check.equal("n=0 p50=0.0ms p90=0.0ms p99=0.0ms max=0.0ms", histogram.summary(), "empty summary");
+        histogram.record(-5);
+        Check.equal(0, histogram.getMax(), "a negative time counts as zero");
+        histogram.recordNanos(1999);
+        Check.equal(1, histogram.getValueAtPercentile(100), "nanoseconds to microseconds");
+        histogram.record(Long.MAX_VALUE);
+        long max = histogram.getMax();
+        Check.check(max > 1L << 40, "the longest times go in the last bucket: " + max);
+        Check.equal(max, histogram.getValueAtPercentile(150), "percentiles above 100");
+    }
+
+    private static void threads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(random.nextInt(5000));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Check.equal(400000, histogram.getCount(), "counts from every thread");
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * LineDiff hunks must describe a valid edit script: in order, and with the
+ * lines between hunks equal on both sides. A revision of mostly unique
+ * lines must come out about as small as the edits that made it.
+ */
+public class LineDiffTest {
+    private static final String[] WORDS = { "alpha", "beta", "gamma", "delta", "", "}", "{" };
+
+    public static void main(String[] args) throws Exception {
+        Check.equal(0, diff(lines("a", "b", "c"), lines("a", "b", "c")).getHunkCount(), "equal texts");
+        LineDiff one = diff(lines("a", "b", "c", "d"), lines("a", "x", "c", "d"));
+        Check.equal(1, one.getHunkCount(), "one changed line");
+        Check.equal(1, one.getOldStart(0), "changed line start");
+        Check.equal(2, one.getOldEnd(0), "changed line end");
+        for (int seed = 0; seed < 300; seed++) {
+            small(seed);
+        }
+        for (int seed = 0; seed < 3; seed++) {
+            // Few distinct lines, so the search hits its cost limit and splits early
+            edited(seed, 100000, 4, 1000);
+            // Mostly unique lines with a scattering of edits, as a real revision
+            edited(seed, 100000, 1000000, 200);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void small(long seed) {
+        Random random = new Random(seed);
+        String[] a = randomLines(random, random.nextInt(60), 2 + random.nextInt(5));
+        String[] b = random.nextBoolean() ? randomLines(random, random.nextInt(60), 2 + random.nextInt(5))
+                : edit(random, a, 1 + random.nextInt(10), 7);
+        check(a, b, "seed " + seed);
+    }
+
+    private static void edited(long seed, int count, int distinct, int edits) {
+        Random random = new Random(seed);
+        String[] a = randomLines(random, count, distinct);
+        String[] b = edit(random, a, edits, distinct);
+        LineDiff diff = check(a, b, "seed " + seed + ", " + distinct + " distinct lines");
+        if (distinct > count) {
+            // Each edit changes at most one line on each side
+            int changed = changed(diff, true) + changed(diff, false);
+            Check.check(changed <= 2 * edits, "seed " + seed + ": " + changed + " lines changed by " + edits
+                    + " edits");
+        }
+    }
+
+    private static LineDiff check(String[] a, String[] b, String where) {
+        LineDiff diff = diff(a, b);
+        int lines = a.length + 1;
+        Check.equal(lines, diff.getOldLineCount(), where + ": old line count");
+        int i = 0;
+        int j = 0;
+        for (int h = 0; h < diff.getHunkCount(); h++) {
+            int oldStart = diff.getOldStart(h);
+            int newStart = diff.getNewStart(h);
+            Check.check(oldStart - i == newStart - j && oldStart >= i, where + ": hunk " + h + " out of step");
+            for (; i < oldStart; i++, j++) {
+                Check.equal(line(a, i), line(b, j), where + ": unchanged line " + i);
+            }
+            Check.check(diff.getOldEnd(h) >= oldStart && diff.getNewEnd(h) >= newStart
+                    && diff.getOldEnd(h) - oldStart + diff.getNewEnd(h) - newStart > 0, where + ": empty hunk " + h);
+            i = diff.getOldEnd(h);
+            j = diff.getNewEnd(h);
+        }
+        Check.equal(diff.getOldLineCount() - i, diff.getNewLineCount() - j, where + ": lines after the last hunk");
+        for (; i < diff.getOldLineCount(); i++, j++) {
+            Check.equal(line(a, i), line(b, j), where + ": unchanged line " + i);
+        }
+        return diff;
+    }
+
+    private static int changed(LineDiff diff, boolean old) {
+        int changed = 0;
+        for (int h = 0; h < diff.getHunkCount(); h++) {
+            changed += old ? diff.getOldEnd(h) - diff.getOldStart(h) : diff.getNewEnd(h) - diff.getNewStart(h);
+        }
+        return changed;
+    }
+
+    // The documents end with a newline, so both have an empty last line
+    private static String line(String[] lines, int i) {
+        return i < lines.length ? lines[i] : "";
+    }
+
+    private static LineDiff diff(String[] a, String[] b) {
+        return LineDiff.compare(new NotesDocument(join(a)), new NotesDocument(join(b)));
+    }
+
+    private static String join(String[] lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String[] lines(String... lines) {
+        return lines;
+    }
+
+    private static String[] randomLines(Random random, int count, int distinct) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = word(random, distinct);
+        }
+        return lines;
+    }
+
+    private static String word(Random random, int distinct) {
+        int id = random.nextInt(distinct);
+        return id < WORDS.length ? WORDS[id] : "line " + id;
+    }
+
+    // The lines with some lines inserted, removed and replaced
+    private static String[] edit(Random random, String[] lines, int edits, int distinct) {
+        List<String> edited = new ArrayList<String>(Arrays.asList(lines));
+        for (int e = 0; e < edits; e++) {
+            int at = random.nextInt(edited.size() + 1);
+            int kind = random.nextInt(3);
+            if (kind == 0 || at == edited.size()) {
+                edited.add(at, word(random, distinct));
+            } else if (kind == 1) {
+                edited.remove(at);
+            } else {
+                edited.set(at, word(random, distinct));
+            }
+        }
+        return edited.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,115 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The text area over a LineView: going to a line lands on its start in a
+ * file of many lines, and positions on a line long enough to be measured
+ * from checkpoints are where measuring the whole line puts them, before
+ * and after edits to it.
+ */
+public class LineViewTest {
+    public static void main(String[] args) throws Exception {
+        goToLine();
+        longLine();
+        System.out.println("  ok");
+    }
+
+    // More than one scan chunk of lines, so the line index is built in parallel
+    private static void goToLine() throws BadLocationException {
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        List<Integer> starts = new ArrayList<Integer>();
+        while (text.length() < 10 * 1024 * 1024) {
+            starts.add(text.length());
+            text.append(words(random, random.nextInt(120))).append('\n');
+        }
+        starts.add(text.length());
+        NotesTextArea area = new NotesTextArea(new NotesDocument(text.toString()));
+        Check.equal(starts.size(), area.getLineCount(), "line count");
+        for (int k = 0; k < 10000; k++) {
+            int line = random.nextInt(starts.size());
+            Check.equal((int) starts.get(line), area.getLineStartOffset(line), "start of line " + line);
+            Check.equal(line, area.getLineOfOffset(starts.get(line)), "line of offset " + starts.get(line));
+        }
+    }
+
+    private static void longLine() throws BadLocationException {
+        Random random = new Random(7);
+        NotesDocument document = new NotesDocument("first\n" + words(random, 100000) + "\nlast\n");
+        NotesTextArea area = new NotesTextArea(document);
+        area.setSize(800, 600);
+        // Warm the checkpoints of the whole line, then check them against a plain measure
+        area.modelToView2D(document.getLength() - 6);
+        positions(area, document, random, "plain");
+
+        document.insertString(50000, words(random, 3000), null);
+        document.remove(20000, 500);
+        positions(area, document, random, "after edits");
+
+        document.insertString(0, "one\ntwo\n", null);
+        document.applyStyle(60000, 5000, StyleRuns.BOLD, true);
+        NotesTextArea fresh = new NotesTextArea(document);
+        fresh.setSize(800, 600);
+        for (int k = 0; k < 500; k++) {
+            int pos = 14 + random.nextInt(100000);
+            Check.equal(fresh.modelToView2D(pos).getBounds(), area.modelToView2D(pos).getBounds(),
+                    "styled position " + pos);
+        }
+
+        // Painting far along the line draws only the clipped columns
+        BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Rectangle end = area.modelToView2D(document.getLength() - 6).getBounds();
+        area.setSize(end.x + 800, 600);
+        g.translate(-end.x, 0);
+        g.setClip(end.x, 0, 800, 600);
+        area.paint(g);
+        g.dispose();
+    }
+
+    // Positions on the long line, the second, against measuring from its start
+    private static void positions(NotesTextArea area, NotesDocument document, Random random, String where)
+            throws BadLocationException {
+        int start = area.getLineStartOffset(1);
+        int end = area.getLineEndOffset(1) - 1;
+        final Rectangle alloc = area.modelToView2D(0).getBounds();
+        final int tabSize = 8 * area.getFontMetrics(area.getFont()).charWidth('m');
+        TabExpander tabs = new TabExpander() {
+            @Override
+            public float nextTabStop(float x, int tabOffset) {
+                return alloc.x + (((int) x - alloc.x) / tabSize + 1) * tabSize;
+            }
+        };
+        FontMetrics metrics = area.getFontMetrics(area.getFont());
+        Segment text = new Segment();
+        for (int k = 0; k < 100; k++) {
+            int pos = k == 0 ? end : start + random.nextInt(end - start);
+            document.getText(start, pos - start, text);
+            int x = alloc.x + (int) Utilities.getTabbedTextWidth(text, metrics, (float) alloc.x, tabs, start);
+            Rectangle view = area.modelToView2D(pos).getBounds();
+            Check.equal(x, view.x, where + ": x of " + pos);
+            // Offsets are found with fractional widths, so a char either side of the rounded x is as good
+            int offset = area.viewToModel2D(new Point(view.x, view.y + 1));
+            Check.check(Math.abs(offset - pos) <= 1, where + ": offset " + offset + " at the x of " + pos);
+        }
+    }
+
+    private static String words(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            int kind = random.nextInt(12);
+            text.append(kind == 0 ? "\t" : kind == 1 ? " " : String.valueOf((char) ('a' + random.nextInt(26))));
+        }
+        return text.toString();
+    }
+}
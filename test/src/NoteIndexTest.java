@@ -0,0 +1,227 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * The notes index: queries over a freshly built index score every note
+ * holding all the words as often as it holds them; notes changed, added or
+ * deleted while it watches, or while it was closed, are found as they are
+ * now; and merging segments drops the postings of deleted notes.
+ */
+public class NoteIndexTest {
+    private static final String[] WORDS = { "alpha", "beta", "gamma", "delta", "Epsilon", "zeta", "eta", "theta" };
+    private static final String[] QUERIES = { "alpha", "EPSILON", "beta gamma", "alpha, theta!", "unique", "missing",
+        "alph" };
+
+    public static void main(String[] args) throws Exception {
+        Path home = Files.createTempDirectory("note-index");
+        System.setProperty("user.home", home.toString());
+        try {
+            segments(home);
+            index(home.resolve("notes"));
+        } finally {
+            delete(home);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void segments(Path dir) throws Exception {
+        Map<String, IndexSegment.Postings> first = new HashMap<String, IndexSegment.Postings>();
+        first.put("kept", postings(0, 2, 1, 1, 2, 5));
+        first.put("gone", postings(1, 3));
+        Map<String, IndexSegment.Postings> second = new HashMap<String, IndexSegment.Postings>();
+        second.put("kept", postings(3, 1, 5, 4));
+        second.put("late", postings(4, 7));
+        IndexSegment.write(dir.resolve("first.idx"), first);
+        IndexSegment.write(dir.resolve("second.idx"), second);
+        List<IndexSegment> segments = new ArrayList<IndexSegment>();
+        segments.add(IndexSegment.open(dir.resolve("first.idx")));
+        segments.add(IndexSegment.open(dir.resolve("second.idx")));
+        BitSet deleted = new BitSet();
+        deleted.set(1);
+        deleted.set(5);
+        IndexSegment.merge(dir.resolve("merged.idx"), segments, deleted);
+        IndexSegment merged = IndexSegment.open(dir.resolve("merged.idx"));
+        try {
+            Check.equal(2, merged.getTermCount(), "terms left after dropping deleted notes");
+            Check.equal("[0:2, 2:5, 3:1]", toString(merged.getPostings("kept")), "postings concatenated in id order");
+            Check.equal("[4:7]", toString(merged.getPostings("late")), "a term of one segment");
+            Check.check(merged.getPostings("gone") == null, "a term only deleted notes held");
+        } finally {
+            merged.close();
+            for (IndexSegment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private static void index(Path folder) throws Exception {
+        Random random = new Random(9);
+        Map<String, String> notes = new HashMap<String, String>();
+        Files.createDirectories(folder.resolve("sub"));
+        for (int i = 0; i < 300; i++) {
+            String name = (i % 3 == 0 ? "sub/" : "") + "note" + i + ".txt";
+            notes.put(name, text(random));
+            write(folder, name, notes.get(name));
+        }
+        Files.write(folder.resolve("skipped.md"), "alpha alpha alpha".getBytes(StandardCharsets.UTF_8));
+
+        NoteIndex index = open(folder);
+        try {
+            queries(index, folder, notes, "built");
+
+            // While it watches
+            notes.put("note1.txt", "unique words\n");
+            write(folder, "note1.txt", notes.get("note1.txt"));
+            notes.put("sub/added.txt", "Unique, unique!\n");
+            write(folder, "sub/added.txt", notes.get("sub/added.txt"));
+            notes.remove("note2.txt");
+            Files.delete(folder.resolve("note2.txt"));
+            settle(index, folder, notes);
+            queries(index, folder, notes, "watched");
+        } finally {
+            index.close();
+        }
+        Check.equal(folder.toAbsolutePath(), NoteIndex.lastFolder(), "the folder indexed last");
+
+        // While it was closed
+        notes.put("note4.txt", "changed while closed, unique\n");
+        write(folder, "note4.txt", notes.get("note4.txt"));
+        notes.remove("sub/note3.txt");
+        Files.delete(folder.resolve("sub/note3.txt"));
+        index = open(folder);
+        try {
+            queries(index, folder, notes, "reopened");
+        } finally {
+            index.close();
+        }
+    }
+
+    private static NoteIndex open(Path folder) throws Exception {
+        final NoteIndex index = NoteIndex.open(folder);
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return index.isReady();
+            }
+        }, "the index");
+        return index;
+    }
+
+    // Waits until every query finds what the notes now hold; the watcher lets edits settle first
+    private static void settle(final NoteIndex index, final Path folder, final Map<String, String> notes)
+            throws Exception {
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                for (String query : QUERIES) {
+                    if (!expected(folder, notes, query).equals(found(index, query))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }, "the index to catch up with the edits");
+    }
+
+    private static void queries(NoteIndex index, Path folder, Map<String, String> notes, String where)
+            throws Exception {
+        for (String query : QUERIES) {
+            Check.equal(expected(folder, notes, query), found(index, query), where + ": " + query);
+            List<NoteIndex.Hit> hits = index.search(query, 10);
+            Check.check(hits.size() <= 10, where + ": limited");
+            for (int i = 1; i < hits.size(); i++) {
+                Check.check(hits.get(i - 1).score >= hits.get(i).score, where + ": most occurrences first");
+            }
+        }
+    }
+
+    private static Map<File, Integer> found(NoteIndex index, String query) throws Exception {
+        Map<File, Integer> found = new HashMap<File, Integer>();
+        for (NoteIndex.Hit hit : index.search(query, Integer.MAX_VALUE)) {
+            found.put(hit.file, hit.score);
+        }
+        return found;
+    }
+
+    // Notes holding every word of the query, scored by how often they hold them
+    private static Map<File, Integer> expected(Path folder, Map<String, String> notes, String query) {
+        String[] terms = query.toLowerCase().split("[^a-z]+");
+        Map<File, Integer> expected = new HashMap<File, Integer>();
+        for (Map.Entry<String, String> note : notes.entrySet()) {
+            String[] words = note.getValue().toLowerCase().split("[^a-z0-9]+");
+            int score = 0;
+            for (String term : terms) {
+                int count = 0;
+                for (String word : words) {
+                    if (word.equals(term)) {
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    score = -1;
+                    break;
+                }
+                score += count;
+            }
+            if (score > 0) {
+                expected.put(folder.toAbsolutePath().resolve(note.getKey()).toFile(), score);
+            }
+        }
+        return expected;
+    }
+
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = random.nextInt(40);
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(6) == 0 ? ".\n" : " ");
+        }
+        return text.toString();
+    }
+
+    private static IndexSegment.Postings postings(int... docsAndCounts) {
+        IndexSegment.Postings postings = new IndexSegment.Postings(docsAndCounts.length / 2);
+        for (int i = 0; i < docsAndCounts.length; i += 2) {
+            postings.add(docsAndCounts[i], docsAndCounts[i + 1]);
+        }
+        return postings;
+    }
+
+    private static String toString(IndexSegment.Postings postings) {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < postings.size(); i++) {
+            s.append(i > 0 ? ", " : "").append(postings.getDoc(i)).append(':').append(postings.getCount(i));
+        }
+        return s.append(']').toString();
+    }
+
+    private static void await(Callable<Boolean> condition, String where) throws Exception {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.call()) {
+            Check.check(System.nanoTime() < deadline, "timed out waiting for " + where);
+            Thread.sleep(20);
+        }
+    }
+
+    private static void write(Path folder, String name, String text) throws Exception {
+        Files.write(folder.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path path) throws Exception {
+        if (Files.isDirectory(path)) {
+            for (Path child : Files.newDirectoryStream(path)) {
+                delete(child);
+            }
+        }
+        Files.delete(path);
+    }
+}
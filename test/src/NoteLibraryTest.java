@@ -0,0 +1,153 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The home screen's library: notes sort by each key and filter on title,
+ * path and preview ignoring case; a scan finds every note with a title and
+ * preview from its first lines; and reopening lists the cached entries,
+ * reading only the notes whose size or time changed.
+ */
+public class NoteLibraryTest {
+    public static void main(String[] args) throws Exception {
+        Path home = Files.createTempDirectory("note-library");
+        System.setProperty("user.home", home.toString());
+        try {
+            sortAndFilter(home);
+            scan(home.resolve("notes"));
+        } finally {
+            delete(home);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void sortAndFilter(Path folder) {
+        NoteLibrary.Note[] notes = {
+            new NoteLibrary.Note(folder, "b/two.txt", 300, 2000, "banana bread", "flour, Sugar"),
+            new NoteLibrary.Note(folder, "a/one.txt", 100, 3000, "Apple pie", "butter"),
+            new NoteLibrary.Note(folder, "c/three.txt", 200, 1000, "cherry jam", "sugar and cherries"),
+        };
+        Check.equal("[Apple pie, banana bread, cherry jam]", titles(NoteLibrary.sort(notes, NoteLibrary.BY_TITLE)),
+                "by title, ignoring case");
+        Check.equal("[banana bread, cherry jam, Apple pie]", titles(NoteLibrary.sort(notes, NoteLibrary.BY_SIZE)),
+                "largest first");
+        Check.equal("[Apple pie, banana bread, cherry jam]", titles(NoteLibrary.sort(notes, NoteLibrary.BY_PATH)),
+                "by path");
+        Check.equal("[Apple pie, banana bread, cherry jam]",
+                titles(NoteLibrary.sort(notes, NoteLibrary.BY_MODIFIED)), "newest first");
+        Check.equal("[banana bread, Apple pie, cherry jam]", titles(notes), "sorting leaves the notes as they were");
+
+        Check.equal("[banana bread, cherry jam]", titles(NoteLibrary.filter(notes, "  SUGAR ")),
+                "preview, ignoring case and spaces around the text, in the order given");
+        Check.equal("[Apple pie]", titles(NoteLibrary.filter(notes, "a/one")), "path");
+        Check.equal("[cherry jam]", titles(NoteLibrary.filter(notes, "Cherry")), "title");
+        Check.equal("[]", titles(NoteLibrary.filter(notes, "pie a/")), "no match across fields");
+        Check.check(NoteLibrary.filter(notes, " ") == notes, "an empty filter keeps every note");
+    }
+
+    private static void scan(Path folder) throws Exception {
+        Files.createDirectories(folder.resolve("sub"));
+        write(folder.resolve("heading.txt"), "\n# Shopping list\n\n  eggs \n\tmilk   and bread\n");
+        write(folder.resolve("sub/plain.txt"), "Plain title\nsecond line\n");
+        write(folder.resolve("sub/empty.txt"), "");
+        write(folder.resolve("skipped.md"), "# Not a note\n");
+        StringBuilder longLine = new StringBuilder("Long\n");
+        for (int i = 0; i < 100; i++) {
+            longLine.append("word").append(i).append(' ');
+        }
+        write(folder.resolve("long.txt"), longLine.toString());
+        DocumentSaver.write(new NotesDocument("Compressed note\nbody\n").getPieceTable().snapshot(),
+                folder.resolve("packed" + ChunkedText.EXTENSION), null, null);
+
+        NoteLibrary library = scanned(NoteLibrary.open(folder), 5);
+        try {
+            NoteLibrary.Note[] notes = NoteLibrary.sort(library.getNotes(), NoteLibrary.BY_PATH);
+            Check.equal("[Shopping list, Long, Compressed note, empty.txt, Plain title]", titles(notes), "titles");
+            Check.equal("eggs milk and bread", notes[0].preview, "preview, spaces collapsed");
+            Check.check(notes[1].preview.length() == 160 && notes[1].preview.endsWith("..."), "long preview clipped");
+            Check.equal("body", notes[2].preview, "compressed note read through its container");
+            Check.equal(folder.resolve("sub/plain.txt").toFile(), notes[4].getFile(), "file of a note");
+        } finally {
+            library.close();
+        }
+
+        // Changed without a new size or time, so the cached entry stands; the other changes are read
+        Path plain = folder.resolve("sub/plain.txt");
+        FileTime time = Files.getLastModifiedTime(plain);
+        write(plain, "Other title\nsecond line\n");
+        Files.setLastModifiedTime(plain, time);
+        write(folder.resolve("heading.txt"), "Renamed list\n");
+        Files.delete(folder.resolve("long.txt"));
+        write(folder.resolve("added.txt"), "Added later\n");
+
+        // No folder given: the one the cache was written for
+        library = scanned(NoteLibrary.open(null), 5);
+        try {
+            Check.equal(folder.toAbsolutePath(), library.getFolder(), "folder from the cache");
+            final NoteLibrary reopened = library;
+            await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return titles(NoteLibrary.sort(reopened.getNotes(), NoteLibrary.BY_PATH))
+                            .equals("[Added later, Renamed list, Compressed note, empty.txt, Plain title]");
+                }
+            }, "changed notes read again, unchanged ones from the cache: "
+                    + titles(NoteLibrary.sort(library.getNotes(), NoteLibrary.BY_PATH)));
+
+            // Asked again after a change
+            write(folder.resolve("sub/empty.txt"), "No longer empty\n");
+            library.refresh();
+            await(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return titles(NoteLibrary.sort(reopened.getNotes(), NoteLibrary.BY_PATH)).contains("No longer");
+                }
+            }, "a refresh");
+        } finally {
+            library.close();
+        }
+    }
+
+    private static NoteLibrary scanned(final NoteLibrary library, final int count) throws Exception {
+        await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return !library.isScanning() && library.getNotes().length == count;
+            }
+        }, count + " notes");
+        return library;
+    }
+
+    private static String titles(NoteLibrary.Note[] notes) {
+        List<String> titles = new ArrayList<String>();
+        for (NoteLibrary.Note note : notes) {
+            titles.add(note.title);
+        }
+        return titles.toString();
+    }
+
+    private static void await(Callable<Boolean> condition, String where) throws Exception {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.call()) {
+            Check.check(System.nanoTime() < deadline, "timed out waiting for " + where);
+            Thread.sleep(20);
+        }
+    }
+
+    private static void write(Path path, String text) throws Exception {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path path) throws Exception {
+        if (Files.isDirectory(path)) {
+            for (Path child : Files.newDirectoryStream(path)) {
+                delete(child);
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evicting tabs: a tab without unsaved edits just drops its document, one
+ * with edits keeps them in a journal that replays over the file when the
+ * tab is read again, a tab busy loading, saving or following, or with
+ * formatting the journal cannot hold, stays in memory, and the budget
+ * evicts the least recently used tabs other than the one in view.
+ */
+public class NoteTabTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("note-tab");
+        try {
+            evict(dir);
+            kept(dir);
+            budget(dir);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void evict(Path dir) throws Exception {
+        NoteTab clean = open(dir, "clean.txt", "unchanged\n");
+        Check.check(clean.evict(), "a saved tab is evicted");
+        Check.check(!clean.isLoaded() && !clean.isModified(), "nothing left to keep");
+        Check.check(clean.takePendingJournal() == null, "no journal for a saved tab");
+
+        NoteTab edited = open(dir, "edited.txt", "first line\nsecond line\n");
+        NotesDocument document = edited.getDocument();
+        document.insertString(11, "inserted\n", null);
+        document.remove(0, 6);
+        String text = document.getText(0, document.getLength());
+        Check.check(edited.evict(), "an edited tab is evicted");
+        Check.check(!edited.isLoaded(), "document dropped");
+        Check.check(edited.isModified(), "still shown as modified");
+
+        // Reloading: the journal set aside from the one the tab starts anew, the file read, the edits replayed
+        Path journal = edited.takePendingJournal();
+        Check.check(EditJournal.readHeader(journal).matchesBase(), "the file is still the journal's base");
+        journal = Files.move(journal, dir.resolve("pending.journal"));
+        NotesDocument reloaded = TextFileLoader.read(edited.getFile(), null);
+        edited.attach(reloaded);
+        EditJournal.replay(journal, reloaded);
+        Files.delete(journal);
+        Check.equal(text, reloaded.getText(0, reloaded.getLength()), "edits back after reloading");
+        edited.close();
+    }
+
+    private static void kept(Path dir) throws Exception {
+        NoteTab saving = open(dir, "saving.txt", "text\n");
+        saving.setSaving(true);
+        Check.check(!saving.evict() && saving.isLoaded(), "a tab being saved stays");
+        saving.setSaving(false);
+        saving.close();
+
+        NoteTab loading = new NoteTab(dir.resolve("loading.txt").toFile());
+        loading.setLoadingDocument(new NotesDocument("partly read"));
+        Check.check(!loading.evict() && loading.isLoaded(), "a tab being loaded stays");
+
+        NoteTab following = open(dir, "following.txt", "log\n");
+        following.startTailing();
+        Check.check(!following.evict() && following.isLoaded(), "a followed tab stays");
+        following.stopTailing();
+        following.close();
+
+        NoteTab formatted = open(dir, "formatted.txt", "plain text\n");
+        formatted.getDocument().applyStyle(0, 5, StyleRuns.BOLD, true);
+        Check.check(!formatted.evict() && formatted.isLoaded(), "a tab with unsaved formatting stays");
+        formatted.markSaved(formatted.getEditCount());
+        Check.check(formatted.evict(), "once saved it can go");
+    }
+
+    private static void budget(Path dir) throws Exception {
+        NoteTab oldest = open(dir, "oldest.txt", text(10000));
+        NoteTab older = open(dir, "older.txt", text(20000));
+        NoteTab old = open(dir, "old.txt", text(30000));
+        NoteTab newest = open(dir, "newest.txt", text(40000));
+        List<NoteTab> tabs = new ArrayList<NoteTab>(Arrays.asList(newest, old, oldest, older));
+        long total = 0;
+        for (NoteTab tab : tabs) {
+            total += tab.getMemoryUsage();
+        }
+
+        NoteTab.evictToBudget(tabs, oldest, total);
+        Check.check(loaded(tabs, 4), "everything fits");
+
+        // The tab in view is kept even though it was used longest ago; a tab being saved is passed over
+        older.setSaving(true);
+        NoteTab.evictToBudget(tabs, oldest, total - 1);
+        Check.check(oldest.isLoaded() && older.isLoaded() && !old.isLoaded() && newest.isLoaded(),
+                "the least recently used tab that can go");
+        older.setSaving(false);
+
+        NoteTab.evictToBudget(tabs, oldest, 0);
+        Check.check(oldest.isLoaded() && loaded(tabs, 1), "all but the tab in view");
+        oldest.close();
+    }
+
+    private static boolean loaded(List<NoteTab> tabs, int count) {
+        int loaded = 0;
+        for (NoteTab tab : tabs) {
+            if (tab.isLoaded()) {
+                loaded++;
+            }
+        }
+        return loaded == count;
+    }
+
+    // A tab holding its file's text, used a little after the tabs opened before it
+    private static NoteTab open(Path dir, String name, String text) throws Exception {
+        File file = dir.resolve(name).toFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(2);
+        NoteTab tab = new NoteTab(file);
+        tab.attach(TextFileLoader.read(file, null));
+        return tab;
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("line ").append(text.length()).append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch mode: every .txt note under a directory is converted, results go
+ * to the same relative path under --out or next to the notes, a note given
+ * by name lands at the top of --out, a note that cannot be read fails the
+ * run without stopping the others, and bad arguments are refused.
+ */
+public class NotesCliTest {
+    private static final String NOTE = "caf\u00e9 note\nsecond line\n";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("notes-cli");
+        try {
+            Path notes = dir.resolve("notes");
+            Files.createDirectories(notes.resolve("sub"));
+            write(notes.resolve("a.txt"));
+            write(notes.resolve("sub/b.txt"));
+            Files.write(notes.resolve("skipped.md"), "# not a note\n".getBytes(StandardCharsets.UTF_8));
+
+            Check.check(cli("--pdf", notes.toString(), "--out", dir.resolve("pdf").toString()).run(), "pdf run");
+            Check.equal(Arrays.asList("a.pdf", "sub/b.pdf"), files(dir.resolve("pdf")), "PDFs under --out");
+            Check.check(new String(Files.readAllBytes(dir.resolve("pdf/sub/b.pdf")), StandardCharsets.ISO_8859_1)
+                    .startsWith("%PDF-"), "a PDF");
+
+            Check.check(cli("--save", notes.toString(), "--out", dir.resolve("saved").toString(),
+                    "--save-charset", "UTF-16LE").run(), "save run");
+            Check.equal(Arrays.asList("a.txt", "sub/b.txt"), files(dir.resolve("saved")), "notes under --out");
+            Check.equal(NOTE, new String(Files.readAllBytes(dir.resolve("saved/sub/b.txt")),
+                    StandardCharsets.UTF_16LE), "saved in the charset asked for");
+
+            // Without --out the result goes next to the note
+            Check.check(cli("--compress", notes.resolve("sub").toString()).run(), "compress run");
+            File compressed = notes.resolve("sub/b" + ChunkedText.EXTENSION).toFile();
+            NotesDocument document = TextFileLoader.read(compressed, null);
+            Check.equal(NOTE, document.getText(0, document.getLength()), "compressed note reads back");
+
+            // A single note is placed by its own name, not the path it was given by
+            Check.check(cli("--pdf", notes.resolve("sub/b.txt").toString(), "--out", dir.resolve("one").toString())
+                    .run(), "single note");
+            Check.equal(Arrays.asList("b.pdf"), files(dir.resolve("one")), "single note at the top of --out");
+
+            Check.check(!cli("--save", notes.resolve("missing.txt").toString(), notes.resolve("a.txt").toString(),
+                    "--out", dir.resolve("partial").toString()).run(), "a missing note fails the run");
+            Check.equal(Arrays.asList("a.txt"), files(dir.resolve("partial")), "the other notes are still done");
+
+            refused("--pdf");
+            refused("--pdf", "x.txt", "--jobs", "0");
+            refused("--pdf", "x.txt", "--charset", "no-such-charset");
+            refused("--pdf", "x.txt", "--out");
+            refused("--pdf", "x.txt", "--colour");
+        } finally {
+            delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static NotesCli cli(String... args) {
+        NotesCli cli = new NotesCli();
+        cli.parse(args);
+        return cli;
+    }
+
+    private static void refused(String... args) {
+        try {
+            cli(args);
+            Check.check(false, "refused: " + Arrays.toString(args));
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    // Regular files under a directory, as sorted relative paths
+    private static List<String> files(Path dir) throws Exception {
+        List<String> files = new ArrayList<String>();
+        collect(dir, dir, files);
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void collect(Path base, Path dir, List<String> files) throws Exception {
+        for (Path path : Files.newDirectoryStream(dir)) {
+            if (Files.isDirectory(path)) {
+                collect(base, path, files);
+            } else {
+                files.add(base.relativize(path).toString().replace(File.separatorChar, '/'));
+            }
+        }
+    }
+
+    private static void write(Path path) throws Exception {
+        Files.write(path, NOTE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path path) throws Exception {
+        if (Files.isDirectory(path)) {
+            for (Path child : Files.newDirectoryStream(path)) {
+                delete(child);
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,45 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.undo.UndoManager;
+
+/**
+ * Undo of a NotesDocument's own edits through an UndoManager: text put back
+ * gets its formatting back, and style changes undo and redo.
+ */
+public class NotesDocumentTest {
+    public static void main(String[] args) throws Exception {
+        undoRemoval();
+        undoStyle();
+        System.out.println("  ok");
+    }
+
+    private static void undoRemoval() throws BadLocationException {
+        NotesDocument document = new NotesDocument("plain bold italic plain");
+        document.applyStyle(6, 4, StyleRuns.BOLD, true);
+        document.applyStyle(11, 6, StyleRuns.ITALIC, true);
+        String before = EditHistoryTest.state(document);
+        UndoManager undo = new UndoManager();
+        document.addUndoableEditListener(undo);
+        document.remove(3, 16);
+        String after = EditHistoryTest.state(document);
+        undo.undo();
+        Check.equal(before, EditHistoryTest.state(document), "undo of a styled removal");
+        undo.redo();
+        Check.equal(after, EditHistoryTest.state(document), "redo of a styled removal");
+        undo.undo();
+        Check.equal(before, EditHistoryTest.state(document), "undo after redo");
+    }
+
+    private static void undoStyle() throws BadLocationException {
+        NotesDocument document = new NotesDocument("some bold text");
+        document.applyStyle(5, 4, StyleRuns.BOLD, true);
+        String before = EditHistoryTest.state(document);
+        UndoManager undo = new UndoManager();
+        document.addUndoableEditListener(undo);
+        document.applyStyle(0, 14, StyleRuns.BOLD | StyleRuns.UNDERLINE, true);
+        String after = EditHistoryTest.state(document);
+        undo.undo();
+        Check.equal(before, EditHistoryTest.state(document), "undo of applyStyle");
+        undo.redo();
+        Check.equal(after, EditHistoryTest.state(document), "redo of applyStyle");
+    }
+}
@@ -0,0 +1,188 @@
+import java.awt.Font;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Exported PDFs, read back as text: formatted runs are set in the matching
+ * bold and italic faces and underlined runs get a rule under them, a text of
+ * several chunks comes back whole, wrapped at spaces and paged in order, and
+ * the cross-reference table points at every object.
+ */
+public class PdfExporterTest {
+    private static final Font SANS = new Font("SansSerif", Font.PLAIN, 12);
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("pdf-exporter");
+        try {
+            styles(dir);
+            wrapping(dir);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void styles(Path dir) throws Exception {
+        NotesDocument document = new NotesDocument("plain bold plain under\n");
+        document.getStyleRuns().apply(6, 10, StyleRuns.BOLD, true);
+        document.getStyleRuns().apply(17, 22, StyleRuns.UNDERLINE, true);
+        String pdf = export(dir, document, SANS, true);
+        Check.check(pdf.contains("/BaseFont /Helvetica "), "plain face");
+        Check.check(pdf.contains("/BaseFont /Helvetica-Bold "), "bold face");
+        Check.check(!pdf.contains("Oblique"), "italic faces are left out when unused");
+        String page = contents(pdf).get(0);
+        Check.check(page.contains("(plain ) Tj\n/F2 12 Tf\n(bold) Tj\n/F1 12 Tf\n( plain ) Tj\n(under) Tj T*\n"),
+                "runs set in their faces: " + page);
+        Check.check(page.contains(" re\nf"), "underline drawn: " + page);
+
+        // Without the runs, the same text is one plain string
+        String plain = contents(export(dir, document, SANS, false)).get(0);
+        Check.check(plain.contains("(plain bold plain under) Tj T*\n") && !plain.contains("/F2"),
+                "plain export: " + plain);
+
+        NotesDocument italic = new NotesDocument("code\n");
+        italic.getStyleRuns().apply(0, 4, StyleRuns.BOLD | StyleRuns.ITALIC, true);
+        String mono = export(dir, italic, new Font("Monospaced", Font.PLAIN, 10), true);
+        Check.check(mono.contains("/BaseFont /Courier-BoldOblique "), "bold italic monospaced face");
+        Check.check(contents(mono).get(0).contains("/F4 10 Tf\n(code) Tj T*"), "bold italic set as /F4");
+    }
+
+    // Courier is 600 units wide, so 10 point lines hold exactly 75 chars of the 451 point text width
+    private static void wrapping(Path dir) throws Exception {
+        Random random = new Random(6);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 700 * 1024) {
+            int length = random.nextInt(10) == 0 ? 2000 + random.nextInt(20000) : random.nextInt(90);
+            int end = text.length() + length;
+            while (text.length() < end) {
+                int kind = random.nextInt(8);
+                char c = (char) ('a' + random.nextInt(26));
+                text.append(kind == 0 ? ' ' : kind == 1 ? "()\\".charAt(random.nextInt(3)) : c);
+            }
+            text.append('\n');
+        }
+        // A word longer than a line is cut where the line is full
+        String word = words(random.nextInt(26), 200);
+        text.append(word).append("\n\tindented\n");
+        String pdf = export(dir, new NotesDocument(text.toString()), new Font("Monospaced", Font.PLAIN, 10), false);
+        xref(pdf);
+
+        List<String> pages = contents(pdf);
+        List<String> lines = new ArrayList<String>();
+        // 58 lines, 12 points apart, fill the 698 points between the margins
+        for (int p = 0; p < pages.size(); p++) {
+            List<String> page = lines(pages.get(p));
+            Check.check(page.size() == 58 || p == pages.size() - 1 && page.size() <= 58,
+                    page.size() + " lines on page " + p);
+            lines.addAll(page);
+        }
+        int next = 0;
+        String[] source = text.toString().split("\n", -1);
+        for (int s = 0; s < source.length - 1; s++) {
+            String line = source[s].replace("\t", "        ");
+            StringBuilder joined = new StringBuilder(lines.get(next++));
+            while (joined.length() < line.length()) {
+                String piece = lines.get(next - 1);
+                Check.check(piece.length() <= 75 && (piece.endsWith(" ") || piece.indexOf(' ') < 0),
+                        "line " + s + " wrapped at a space: [" + piece + "]");
+                joined.append(lines.get(next++));
+            }
+            Check.equal(line, joined.toString(), "line " + s);
+            Check.check(lines.get(next - 1).length() <= 75, "line " + s + " fits");
+        }
+        Check.equal(next, lines.size(), "no lines beyond the text");
+        Check.equal(word.substring(0, 75), lines.get(next - 4), "long word, first line");
+        Check.equal(word.substring(150), lines.get(next - 2), "long word, last line");
+    }
+
+    // Every object is where the cross-reference table says, and every page is in the page tree
+    private static void xref(String pdf) {
+        int startxref = pdf.lastIndexOf("startxref\n");
+        int xref = Integer.parseInt(pdf.substring(startxref + 10, pdf.indexOf('\n', startxref + 10)));
+        Check.check(pdf.startsWith("xref\n0 ", xref), "startxref points at the table");
+        int at = pdf.indexOf('\n', xref + 5);
+        int size = Integer.parseInt(pdf.substring(xref + 7, at));
+        Check.check(pdf.contains("/Size " + size + " "), "trailer size");
+        for (int i = 1; i < size; i++) {
+            int entry = at + 1 + 20 * i;
+            long offset = Long.parseLong(pdf.substring(entry, entry + 10));
+            Check.check(pdf.startsWith(i + " 0 obj\n", (int) offset), "object " + i + " at " + offset);
+        }
+        int pages = 0;
+        for (int page = pdf.indexOf("/Type /Page "); page >= 0; page = pdf.indexOf("/Type /Page ", page + 1)) {
+            pages++;
+        }
+        Check.check(pdf.contains("/Type /Pages /Count " + pages + " "), pages + " pages in the tree");
+        Check.check(pdf.endsWith("%%EOF\n"), "end of file marker");
+    }
+
+    // The strings of an unformatted page, one per line, unescaped
+    private static List<String> lines(String page) {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+        for (int i = page.indexOf('('); i >= 0; i = page.indexOf('(', i)) {
+            for (i++; page.charAt(i) != ')'; i++) {
+                if (page.charAt(i) == '\\') {
+                    i++;
+                }
+                line.append(page.charAt(i));
+            }
+            if (page.startsWith(") Tj T*", i)) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+        }
+        return lines;
+    }
+
+    private static String words(int letter, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + (letter + i) % 26));
+        }
+        return word.toString();
+    }
+
+    private static String export(Path dir, NotesDocument document, Font font, boolean styled) throws Exception {
+        Path target = dir.resolve("export.pdf");
+        PdfExporter.write(document.getPieceTable().snapshot(), styled ? document.getStyleRuns().copy() : null,
+                target, font, null);
+        return new String(Files.readAllBytes(target), StandardCharsets.ISO_8859_1);
+    }
+
+    // The inflated content stream of every page, in file order
+    static List<String> contents(String pdf) throws DataFormatException {
+        List<String> contents = new ArrayList<String>();
+        for (int at = pdf.indexOf("stream\n"); at >= 0; at = pdf.indexOf("stream\n", at + 1)) {
+            if (at > 0 && pdf.charAt(at - 1) == 'd') {
+                continue; // "endstream\n"
+            }
+            int end = pdf.indexOf("\nendstream", at);
+            byte[] deflated = pdf.substring(at + 7, end).getBytes(StandardCharsets.ISO_8859_1);
+            Inflater inflater = new Inflater();
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("truncated stream");
+                }
+                out.write(buffer, 0, n);
+            }
+            inflater.end();
+            contents.add(new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,112 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * NotesDocument's piece table and line index against a PlainDocument given
+ * the same random edits: text, lines, positions and snapshots must agree.
+ */
+public class PieceTableContentTest {
+    public static void main(String[] args) throws Exception {
+        for (int seed = 0; seed < 40; seed++) {
+            fuzz(seed, 1500);
+        }
+        System.out.println("  ok");
+    }
+
+    private static void fuzz(long seed, int steps) throws BadLocationException {
+        Random random = new Random(seed);
+        // Starting from an original buffer, as when a file is opened
+        String original = text(random, random.nextInt(3000));
+        NotesDocument document = new NotesDocument(original);
+        PlainDocument expected = new PlainDocument();
+        expected.insertString(0, original, null);
+        List<Position> positions = new ArrayList<Position>();
+        List<Position> expectedPositions = new ArrayList<Position>();
+        for (int step = 0; step < steps; step++) {
+            String where = "seed " + seed + ", step " + step;
+            int length = expected.getLength();
+            int action = random.nextInt(100);
+            if (action < 45) {
+                int offset = random.nextInt(length + 1);
+                String s = text(random, 1 + random.nextInt(random.nextInt(10) == 0 ? 500 : 8));
+                document.insertString(offset, s, null);
+                expected.insertString(offset, s, null);
+            } else if (action < 85 && length > 0) {
+                int offset = random.nextInt(length);
+                int count = Math.min(length - offset, 1 + random.nextInt(random.nextInt(10) == 0 ? 500 : 8));
+                document.remove(offset, count);
+                expected.remove(offset, count);
+            } else if (action < 88 && length > 0) {
+                int count = random.nextInt(Math.min(length, 200) + 1);
+                document.removeLeading(count);
+                expected.remove(0, count);
+            } else if (action < 90) {
+                document.getPieceTable().compact();
+            } else if (action < 95) {
+                int offset = random.nextInt(length + 1);
+                positions.add(document.createPosition(offset));
+                expectedPositions.add(expected.createPosition(offset));
+            } else {
+                checkSnapshot(document, expected, random, where);
+            }
+            Check.equal(EditHistoryTest.text(expected), EditHistoryTest.text(document), where + ": text");
+            checkLines(document, expected, where);
+            for (int i = 0; i < positions.size(); i++) {
+                Check.equal(expectedPositions.get(i).getOffset(), positions.get(i).getOffset(),
+                        where + ": position " + i);
+            }
+        }
+    }
+
+    private static void checkLines(NotesDocument document, PlainDocument expected, String where) {
+        Element root = document.getDefaultRootElement();
+        Element expectedRoot = expected.getDefaultRootElement();
+        Check.equal(expectedRoot.getElementCount(), root.getElementCount(), where + ": line count");
+        for (int line = 0; line < root.getElementCount(); line++) {
+            Element element = root.getElement(line);
+            Element expectedElement = expectedRoot.getElement(line);
+            Check.equal(expectedElement.getStartOffset(), element.getStartOffset(), where + ": start of line " + line);
+            Check.equal(expectedElement.getEndOffset(), element.getEndOffset(), where + ": end of line " + line);
+        }
+        int offset = expected.getLength() / 2;
+        Check.equal(expectedRoot.getElementIndex(offset), root.getElementIndex(offset), where + ": line of " + offset);
+    }
+
+    // A snapshot, and partial segments of the content, read the same text as the document
+    private static void checkSnapshot(NotesDocument document, PlainDocument expected, Random random, String where)
+            throws BadLocationException {
+        String text = EditHistoryTest.text(expected);
+        PieceTableContent.Snapshot snapshot = document.getPieceTable().snapshot();
+        Check.equal(text, snapshot.toString(), where + ": snapshot");
+        int start = random.nextInt(text.length() + 1);
+        int end = start + random.nextInt(text.length() - start + 1);
+        char[] chars = new char[end - start];
+        snapshot.getChars(start, end, chars, 0);
+        Check.equal(text.substring(start, end), new String(chars), where + ": snapshot chars");
+        Check.equal(text.substring(start, end), snapshot.subSequence(start, end).toString(), where + ": subSequence");
+
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        StringBuilder read = new StringBuilder();
+        for (int pos = start; pos < end; pos += segment.count) {
+            document.getText(pos, end - pos, segment);
+            read.append(segment.array, segment.offset, segment.count);
+        }
+        Check.equal(text.substring(start, end), read.toString(), where + ": partial segments");
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(12);
+            text.append(kind == 0 ? '\n' : kind == 1 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,45 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Startup timing: each launch appends one line with the total and every
+ * phase in the order marked, timed from the previous mark. Marks after the
+ * log is finished, and finishing twice, add nothing.
+ */
+public class StartupLogTest {
+    private static final Pattern LINE = Pattern.compile("\\S+ total=(\\d+)ms jvm=(\\d+)ms home=(\\d+)ms");
+
+    public static void main(String[] args) throws Exception {
+        Path home = Files.createTempDirectory("startup-log");
+        System.setProperty("user.home", home.toString());
+        Path log = home.resolve(".notesapp/logs/startup.log");
+        try {
+            StartupLog.mark("jvm");
+            Thread.sleep(50);
+            StartupLog.mark("home");
+            StartupLog.finish();
+            StartupLog.mark("late");
+            StartupLog.finish();
+
+            List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+            Check.equal(1, lines.size(), "one line per launch");
+            Matcher m = LINE.matcher(lines.get(0));
+            Check.check(m.matches(), "phases in order, none after finishing: " + lines.get(0));
+            long total = Long.parseLong(m.group(1));
+            long jvm = Long.parseLong(m.group(2));
+            long phase = Long.parseLong(m.group(3));
+            Check.check(phase >= 50, "a phase is timed from the mark before it: " + phase);
+            Check.check(total >= jvm + phase, "the total covers every phase: " + lines.get(0));
+        } finally {
+            Files.deleteIfExists(log);
+            Files.deleteIfExists(log.getParent());
+            Files.deleteIfExists(log.getParent().getParent());
+            Files.delete(home);
+        }
+        System.out.println("  ok");
+    }
+}
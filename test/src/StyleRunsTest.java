@@ -0,0 +1,125 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * StyleRuns against one style byte per character, under random inserts,
+ * removals, style changes and range copies, and saved to and loaded from
+ * its sidecar file.
+ */
+public class StyleRunsTest {
+    public static void main(String[] args) throws Exception {
+        for (int seed = 0; seed < 200; seed++) {
+            fuzz(seed, 500);
+        }
+        sidecar();
+        System.out.println("  ok");
+    }
+
+    private static void fuzz(long seed, int steps) {
+        Random random = new Random(seed);
+        int initial = random.nextInt(100);
+        StyleRuns runs = new StyleRuns(initial);
+        byte[] model = new byte[initial];
+        for (int step = 0; step < steps; step++) {
+            String where = "seed " + seed + ", step " + step;
+            int length = model.length;
+            int action = random.nextInt(100);
+            if (action < 30) {
+                int offset = random.nextInt(length + 1);
+                int count = 1 + random.nextInt(20);
+                int style = random.nextInt(8);
+                runs.insert(offset, count, style);
+                byte[] next = new byte[length + count];
+                System.arraycopy(model, 0, next, 0, offset);
+                Arrays.fill(next, offset, offset + count, (byte) style);
+                System.arraycopy(model, offset, next, offset + count, length - offset);
+                model = next;
+            } else if (action < 55 && length > 0) {
+                int offset = random.nextInt(length);
+                int count = 1 + random.nextInt(Math.min(20, length - offset));
+                runs.remove(offset, count);
+                byte[] next = new byte[length - count];
+                System.arraycopy(model, 0, next, 0, offset);
+                System.arraycopy(model, offset + count, next, offset, length - offset - count);
+                model = next;
+            } else if (action < 80 && length > 0) {
+                int from = random.nextInt(length);
+                int to = from + 1 + random.nextInt(length - from);
+                int mask = 1 << random.nextInt(3);
+                boolean on = random.nextBoolean();
+                runs.apply(from, to, mask, on);
+                for (int i = from; i < to; i++) {
+                    model[i] = (byte) (on ? model[i] | mask : model[i] & ~mask);
+                }
+            } else if (length > 0) {
+                // A range copied out and set again elsewhere, as undo does
+                int from = random.nextInt(length);
+                int to = from + 1 + random.nextInt(length - from);
+                StyleRuns copy = runs.copy(from, to);
+                check(copy, Arrays.copyOfRange(model, from, to), where + ": copy");
+                int at = random.nextInt(length - (to - from) + 1);
+                runs.set(at, copy);
+                byte[] styles = Arrays.copyOfRange(model, from, to);
+                System.arraycopy(styles, 0, model, at, styles.length);
+            }
+            check(runs, model, where);
+            if (model.length > 0) {
+                int from = random.nextInt(model.length);
+                int to = from + random.nextInt(model.length - from + 1);
+                boolean uniform = true;
+                for (int i = from; i < to; i++) {
+                    uniform &= model[i] == model[from];
+                }
+                Check.equal(uniform, runs.isUniform(from, to, model[from]), where + ": isUniform");
+            }
+        }
+    }
+
+    // The runs give every character the model's style, and are as few as they can be
+    private static void check(StyleRuns runs, byte[] model, String where) {
+        Check.equal(model.length, runs.getLength(), where + ": length");
+        for (int i = 0; i < model.length; i++) {
+            Check.equal(model[i], runs.getStyle(i), where + ": style at " + i);
+        }
+        Check.equal(0, runs.getRunStart(0), where + ": first run start");
+        for (int run = 1; run < runs.getRunCount(); run++) {
+            Check.check(runs.getRunStart(run) > runs.getRunStart(run - 1), where + ": empty run " + (run - 1));
+            Check.check(runs.getRunStyle(run) != runs.getRunStyle(run - 1), where + ": runs " + run + " not merged");
+        }
+        boolean plain = true;
+        for (byte style : model) {
+            plain &= style == StyleRuns.PLAIN;
+        }
+        if (model.length > 0) {
+            Check.equal(plain, runs.isPlain(), where + ": isPlain");
+        }
+    }
+
+    // Runs saved next to a note load back for the same file, and not once the file changed
+    private static void sidecar() throws Exception {
+        Path dir = Files.createTempDirectory("style-runs");
+        File note = dir.resolve("note.txt").toFile();
+        try {
+            Files.write(note.toPath(), "some bold and some italic text\n".getBytes(StandardCharsets.UTF_8));
+            StyleRuns runs = new StyleRuns(31);
+            runs.apply(5, 9, StyleRuns.BOLD, true);
+            runs.apply(19, 25, StyleRuns.ITALIC | StyleRuns.UNDERLINE, true);
+            runs.save(note);
+            StyleRuns loaded = StyleRuns.load(note);
+            Check.check(loaded != null, "sidecar loads");
+            for (int i = 0; i < 31; i++) {
+                Check.equal(runs.getStyle(i), loaded.getStyle(i), "loaded style at " + i);
+            }
+            Files.write(note.toPath(), "changed by another program\n".getBytes(StandardCharsets.UTF_8));
+            Check.check(StyleRuns.load(note) == null, "sidecar of a changed file is ignored");
+        } finally {
+            Files.deleteIfExists(StyleRuns.sidecar(note));
+            Files.deleteIfExists(note.toPath());
+            Files.delete(dir);
+        }
+    }
+}
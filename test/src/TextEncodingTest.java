@@ -0,0 +1,88 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * TextEncoding's split points and scanning: a text cut at any boundary
+ * decodes to the same characters as the whole, and scanning tells ASCII,
+ * UTF-8 and invalid bytes apart, also where a character straddles two scan
+ * slices.
+ */
+public class TextEncodingTest {
+    private static final String SAMPLE = "plain caf\u00e9 \u65e5\u672c\u8a9e \ud83d\ude00 r\u00e9sum\u00e9\n";
+
+    public static void main(String[] args) throws Exception {
+        boundaries(StandardCharsets.UTF_8);
+        boundaries(StandardCharsets.UTF_16LE);
+        boundaries(StandardCharsets.UTF_16BE);
+        scan();
+        scanAcrossSlices();
+        sniff();
+        System.out.println("  ok");
+    }
+
+    private static void boundaries(Charset charset) {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5000) {
+            int start = random.nextInt(SAMPLE.length());
+            // Never start inside the surrogate pair
+            if (Character.isLowSurrogate(SAMPLE.charAt(start))) {
+                start--;
+            }
+            text.append(SAMPLE, start, SAMPLE.length());
+        }
+        byte[] bytes = text.toString().getBytes(charset);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int pos = 0; pos < bytes.length; pos++) {
+            int cut = TextEncoding.boundary(buffer, pos, charset);
+            String where = charset + " at " + pos;
+            Check.check(cut <= pos && cut >= pos - 4, where + ": cut at " + cut);
+            String joined = new String(bytes, 0, cut, charset) + new String(bytes, cut, bytes.length - cut, charset);
+            Check.equal(text.toString(), joined, where + ": text cut at " + cut);
+        }
+    }
+
+    private static void scan() {
+        check(TextEncoding.ASCII, "plain text\n".getBytes(StandardCharsets.US_ASCII), "ASCII");
+        check(TextEncoding.UTF8, SAMPLE.getBytes(StandardCharsets.UTF_8), "UTF-8");
+        check(TextEncoding.INVALID, "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1), "Latin-1");
+        check(TextEncoding.INVALID, new byte[] { 'a', (byte) 0xC3 }, "truncated sequence");
+        check(TextEncoding.INVALID, new byte[] { (byte) 0xC0, (byte) 0xAF }, "overlong slash");
+        check(TextEncoding.INVALID, new byte[] { (byte) 0xED, (byte) 0xA0, (byte) 0x80 }, "encoded surrogate");
+        check(TextEncoding.INVALID, new byte[] { (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+                "past U+10FFFF");
+        check(TextEncoding.INVALID, new byte[] { (byte) 0x80 }, "lone continuation byte");
+    }
+
+    // Slices are 16 MB; a character across the first split must not look invalid
+    private static void scanAcrossSlices() {
+        int slice = 16 * 1024 * 1024;
+        byte[] emoji = "\ud83d\ude00".getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[slice + 1024];
+        for (int k = 1; k < emoji.length; k++) {
+            Arrays.fill(bytes, (byte) 'a');
+            System.arraycopy(emoji, 0, bytes, slice - k, emoji.length);
+            check(TextEncoding.UTF8, bytes, "character " + k + " bytes before the slice split");
+        }
+        bytes[bytes.length - 1] = (byte) 0xE6;
+        check(TextEncoding.INVALID, bytes, "truncated at the end of a sliced scan");
+    }
+
+    private static void sniff() {
+        Check.equal("UTF-8 with BOM", String.valueOf(TextEncoding.sniff(ByteBuffer.wrap(
+                new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'a' }))), "UTF-8 BOM");
+        Check.equal("UTF-16LE with BOM", String.valueOf(TextEncoding.sniff(ByteBuffer.wrap(
+                new byte[] { (byte) 0xFF, (byte) 0xFE, 'a', 0 }))), "UTF-16LE BOM");
+        Check.equal("UTF-16BE", String.valueOf(TextEncoding.sniff(ByteBuffer.wrap(
+                "a longer line of text".getBytes(StandardCharsets.UTF_16BE)))), "UTF-16BE without BOM");
+        Check.check(TextEncoding.sniff(ByteBuffer.wrap(SAMPLE.getBytes(StandardCharsets.UTF_8))) == null,
+                "UTF-8 without BOM needs a scan");
+    }
+
+    private static void check(int expected, byte[] bytes, String what) {
+        Check.equal(expected, TextEncoding.scan(ByteBuffer.wrap(bytes), 0, bytes.length), what);
+    }
+}
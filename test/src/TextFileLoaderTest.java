@@ -0,0 +1,148 @@
+import javax.swing.SwingUtilities;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening files: every kind of encoding reads back as the text that was
+ * written, the loader streams a file into its document, and both the probe
+ * scan and a running loader stop when cancelled.
+ */
+public class TextFileLoaderTest {
+    private static final String SAMPLE = "caf\u00e9 na\u00efve r\u00e9sum\u00e9\nsecond line\n";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("text-file-loader");
+        try {
+            read(dir, "plain ASCII\nlines\n".getBytes(StandardCharsets.US_ASCII), "plain ASCII\nlines\n",
+                    StandardCharsets.UTF_8);
+            read(dir, SAMPLE.getBytes(StandardCharsets.UTF_8), SAMPLE, StandardCharsets.UTF_8);
+            read(dir, concat(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF },
+                    SAMPLE.getBytes(StandardCharsets.UTF_8)), SAMPLE, StandardCharsets.UTF_8);
+            read(dir, concat(new byte[] { (byte) 0xFF, (byte) 0xFE }, SAMPLE.getBytes(StandardCharsets.UTF_16LE)),
+                    SAMPLE, StandardCharsets.UTF_16LE);
+            // Not valid UTF-8, so it is read in a single-byte charset
+            read(dir, SAMPLE.getBytes(StandardCharsets.ISO_8859_1), SAMPLE, null);
+            load(dir);
+            cancel(dir);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("  ok");
+    }
+
+    // A null charset accepts any single-byte charset
+    private static void read(Path dir, byte[] bytes, String expected, Charset charset) throws Exception {
+        File file = dir.resolve("read.txt").toFile();
+        Files.write(file.toPath(), bytes);
+        NotesDocument document = TextFileLoader.read(file, null);
+        String where = bytes.length + " bytes read as " + charset;
+        Check.equal(expected, document.getText(0, document.getLength()), where + ": text");
+        TextEncoding encoding = (TextEncoding) document.getProperty(TextEncoding.PROPERTY);
+        if (charset != null) {
+            Check.equal(charset, encoding.getCharset(), where + ": charset");
+        } else {
+            Check.check(encoding.getCharset().newEncoder().maxBytesPerChar() == 1.0f, where + ": single-byte charset");
+        }
+        Check.equal((long) bytes.length, document.getProperty(TextFileLoader.LOADED_BYTES), where + ": loaded bytes");
+    }
+
+    // Text that is not ASCII is appended to the given document in chunks on the event thread
+    private static void load(Path dir) throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 10 * 1024 * 1024) {
+            text.append(SAMPLE);
+        }
+        File file = dir.resolve("load.txt").toFile();
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        NotesDocument document = new NotesDocument();
+        TextFileLoader loader = new TextFileLoader(file, document);
+        loader.execute();
+        Check.check(loader.get(60, TimeUnit.SECONDS) == document, "loaded into the given document");
+        // Published chunks reach the event thread on a timer, possibly after the loader is done
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (document.getLength() < text.length() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        flushEvents();
+        Check.equal(text.length(), document.getLength(), "loaded length");
+        Check.equal(text.toString(), document.getText(0, document.getLength()), "loaded text");
+    }
+
+    private static void cancel(Path dir) throws Exception {
+        // Two scan windows of ASCII, with one accented letter at the very end
+        byte[] bytes = new byte[70 * 1024 * 1024];
+        Arrays.fill(bytes, (byte) 'a');
+        for (int i = 79; i < bytes.length; i += 80) {
+            bytes[i] = '\n';
+        }
+        byte[] accent = "\u00e9".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(accent, 0, bytes, bytes.length - accent.length, accent.length);
+        File file = dir.resolve("cancel.txt").toFile();
+        Files.write(file.toPath(), bytes);
+
+        final int[] calls = new int[1];
+        final int[] done = new int[1];
+        ByteCharSequence mapped = ByteCharSequence.map(file);
+        TextFileLoader.Probe probe = TextFileLoader.probe(mapped, null, new TextFileLoader.ScanHandler() {
+            @Override
+            public boolean scanned(int bytesDone) {
+                calls[0]++;
+                done[0] = bytesDone;
+                return false;
+            }
+        });
+        Check.check(probe == null, "a stopped probe gives no answer");
+        Check.equal(1, calls[0], "probe stops at the first window");
+        Check.check(done[0] < bytes.length, "probe stops before the end");
+        probe = TextFileLoader.probe(mapped, null, null);
+        Check.check(!probe.ascii, "the last byte makes the file UTF-8");
+
+        // Cancelled from its first progress report, the loader never fills the document
+        NotesDocument document = new NotesDocument();
+        final TextFileLoader loader = new TextFileLoader(file, document);
+        loader.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if ("progress".equals(evt.getPropertyName())) {
+                    loader.cancel(true);
+                }
+            }
+        });
+        loader.execute();
+        try {
+            loader.get(60, TimeUnit.SECONDS);
+            Check.check(false, "a cancelled loader returns no document");
+        } catch (CancellationException e) {
+            // Expected
+        }
+        Thread.sleep(500);
+        flushEvents();
+        Check.check(document.getLength() < bytes.length, "cancelled load stopped at " + document.getLength());
+    }
+
+    // Waits for events already queued on the event thread
+    private static void flushEvents() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+}
@@ -0,0 +1,139 @@
+import javax.swing.text.BadLocationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searching a text range by range, as the find bar does, must report the
+ * same matches as one search over the whole text: plain queries whose
+ * characters share a low byte, and regular expressions whose matches run
+ * past the end of a range. Replace All undoes as a single edit.
+ */
+public class TextSearchTest {
+    // 'a' and '\u0161' share a low byte, as do 'b' and '\u0162'
+    private static final char[] LETTERS = { 'a', '\u0161', 'b', '\u0162', 'A', '\u0160', '\n' };
+    private static final String[] PATTERNS = {
+        "\\w+", "(?s)a.*b", "(?s)a.*?b", "^.*$", "x*", "\\b", "a[^b]{0,3}b", "(?>a+)b", "(?m)^b", "\\ba"
+    };
+
+    public static void main(String[] args) throws Exception {
+        for (int seed = 0; seed < 200; seed++) {
+            plain(seed);
+        }
+        for (int seed = 0; seed < 50; seed++) {
+            regex(seed);
+        }
+        replaceAll();
+        System.out.println("  ok");
+    }
+
+    private static void plain(long seed) {
+        Random random = new Random(seed);
+        String text = text(random, random.nextInt(400));
+        String query = text(random, 1 + random.nextInt(5));
+        for (int c = 0; c < 2; c++) {
+            boolean matchCase = c == 0;
+            TextSearch search = new TextSearch(query, false, matchCase);
+            String where = "seed " + seed + ", " + (matchCase ? "match case" : "any case");
+            List<Integer> expected = naive(text, query, matchCase);
+            Check.equal(expected, starts(search, text, text.length(), 0), where + ": whole text");
+            Check.equal(expected, starts(search, text, 1 + random.nextInt(20), search.getOverlap()),
+                    where + ": in ranges");
+        }
+    }
+
+    private static void regex(long seed) {
+        Random random = new Random(seed);
+        String text = text(random, random.nextInt(400)).replace('\u0161', 'x');
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex, Pattern.MULTILINE);
+            List<Integer> expected = new ArrayList<Integer>();
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                expected.add(matcher.start());
+                expected.add(matcher.end());
+            }
+            TextSearch search = new TextSearch(regex, true, true);
+            // A lookahead shorter than some matches, so they have to be carried on past it
+            Check.equal(expected, matches(search, text, 1 + random.nextInt(30), 8),
+                    "seed " + seed + ", " + regex + ": in ranges");
+        }
+    }
+
+    private static void replaceAll() throws BadLocationException {
+        String text = "one two one three one\n";
+        NotesDocument document = new NotesDocument(text);
+        EditHistory history = EditHistory.install(document);
+        final TextSearch search = new TextSearch("(o)ne", true, true);
+        final SearchMatches found = new SearchMatches();
+        final List<String> replacements = new ArrayList<String>();
+        search.find(text, 0, text.length(), text.length(), new TextSearch.MatchHandler() {
+            @Override
+            public void match(int start, int end, MatchResult groups) {
+                found.add(start, end);
+                replacements.add(search.expand("$1-$1", groups));
+            }
+        });
+        FindBar.replace(document, found, replacements, null);
+        String replaced = "o-o two o-o three o-o\n";
+        Check.equal(replaced, document.getText(0, document.getLength()), "replaced");
+        history.undo();
+        Check.equal(text, document.getText(0, document.getLength()), "one undo restores every match");
+        history.redo();
+        Check.equal(replaced, document.getText(0, document.getLength()), "one redo replaces them again");
+    }
+
+    // Match starts found range by range, each allowed to read overlap chars past its end
+    private static List<Integer> starts(TextSearch search, String text, int range, int overlap) {
+        List<Integer> pairs = matches(search, text, range, overlap);
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < pairs.size(); i += 2) {
+            starts.add(pairs.get(i));
+        }
+        return starts;
+    }
+
+    // Start and end of every match, searched the way the find bar slices the text
+    private static List<Integer> matches(TextSearch search, String text, int range, int overlap) {
+        final List<Integer> found = new ArrayList<Integer>();
+        TextSearch.MatchHandler handler = new TextSearch.MatchHandler() {
+            @Override
+            public void match(int start, int end, MatchResult groups) {
+                found.add(start);
+                found.add(end);
+            }
+        };
+        int next = 0;
+        do {
+            int to = Math.min(text.length(), next + range);
+            int end = search.find(text, next, to, Math.min(text.length(), to + overlap), handler);
+            next = Math.max(to, end);
+        } while (next < text.length());
+        return found;
+    }
+
+    private static List<Integer> naive(String text, String query, boolean matchCase) {
+        List<Integer> starts = new ArrayList<Integer>();
+        int i = 0;
+        while (i + query.length() <= text.length()) {
+            if (matchCase ? text.startsWith(query, i) : text.regionMatches(true, i, query, 0, query.length())) {
+                starts.add(i);
+                i += query.length();
+            } else {
+                i++;
+            }
+        }
+        return starts;
+    }
+
+    private static String text(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = LETTERS[random.nextInt(LETTERS.length)];
+        }
+        return new String(text);
+    }
+}